@@ -0,0 +1,92 @@
+package org.sagebionetworks.bridge.android.manager.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.database.Cursor;
+
+import androidx.room.testing.MigrationTestHelper;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.framework.FrameworkSQLiteOpenHelperFactory;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+
+@RunWith(AndroidJUnit4.class)
+public class UploadDatabaseMigrationTest {
+    private static final String TEST_DB = "upload-migration-test";
+
+    @Rule
+    public MigrationTestHelper helper = new MigrationTestHelper(
+            InstrumentationRegistry.getInstrumentation(), UploadDatabase.class.getCanonicalName(),
+            new FrameworkSQLiteOpenHelperFactory());
+
+    @Test
+    public void migrateAll() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 1);
+        db.execSQL("INSERT INTO UploadEntity (filename, contentType, fileLength, md5Hash, "
+                + "createdOn, state, attemptCount, lastAttemptOn, updatedOn, uploadSessionJson) "
+                + "VALUES ('archive', 'application/zip', 100, 'md5', 1000, 'UPLOADED', 2, 900, "
+                + "1100, '{}')");
+        db.close();
+
+        db = helper.runMigrationsAndValidate(TEST_DB, 7, true, UploadDatabase.MIGRATIONS);
+
+        Cursor cursor = db.query("SELECT fileLength, state, attemptCount, nextStatusCheckOn, "
+                + "statusCheckCount, priority, failedValidationCount FROM UploadEntity "
+                + "WHERE filename = 'archive'");
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(100, cursor.getLong(0));
+            assertEquals("UPLOADED", cursor.getString(1));
+            assertEquals(2, cursor.getInt(2));
+            assertEquals(0, cursor.getLong(3));
+            assertEquals(0, cursor.getInt(4));
+            assertEquals(1, cursor.getInt(5));
+            assertEquals(0, cursor.getInt(6));
+        } finally {
+            cursor.close();
+        }
+        db.close();
+    }
+
+    @Test
+    public void migrateEachVersion() throws IOException {
+        helper.createDatabase(TEST_DB, 1).close();
+
+        for (int version = 2; version <= 7; version++) {
+            helper.runMigrationsAndValidate(TEST_DB, version, true,
+                    UploadDatabase.MIGRATIONS[version - 2]).close();
+        }
+    }
+
+    @Test
+    public void migrate5To6_replacesIndices() throws IOException {
+        helper.createDatabase(TEST_DB, 5).close();
+
+        SupportSQLiteDatabase db = helper.runMigrationsAndValidate(TEST_DB, 6, true,
+                UploadDatabase.MIGRATIONS);
+
+        assertFalse(hasIndex(db, "index_UploadEntity_state_createdOn"));
+        assertTrue(hasIndex(db, "index_UploadEntity_state_fileLength"));
+        assertTrue(hasIndex(db, "index_UploadEntity_createdOn"));
+        assertTrue(hasIndex(db, "index_UploadEntity_nextStatusCheckOn"));
+        db.close();
+    }
+
+    private static boolean hasIndex(SupportSQLiteDatabase db, String name) {
+        Cursor cursor = db.query("SELECT name FROM sqlite_master WHERE type = 'index' AND name = ?",
+                new Object[]{name});
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -12,14 +12,20 @@ import org.sagebionetworks.bridge.android.di.DaggerBridgeApplicationComponent;
 import org.sagebionetworks.bridge.android.di.DaggerBridgeStudyComponent;
 import org.sagebionetworks.bridge.android.manager.BridgeManagerProvider;
 import org.sagebionetworks.bridge.android.manager.DaggerBridgeManagerProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import dagger.android.AndroidInjector;
 import dagger.android.support.DaggerApplication;
+import rx.Completable;
+import rx.schedulers.Schedulers;
 
 /**
  * Base class for a Bridge Application.
  */
 public class BridgeApplication extends DaggerApplication {
+    private static final Logger LOG = LoggerFactory.getLogger(BridgeApplication.class);
+
     private static BridgeManagerProvider bridgeManagerProvider;
 
     @Override
@@ -33,7 +39,15 @@ public class BridgeApplication extends DaggerApplication {
     public void onCreate() {
         JodaTimeAndroid.init(this);
         super.onCreate();
-        getOrInitBridgeManagerProvider();
+        BridgeManagerProvider managerProvider = getOrInitBridgeManagerProvider();
+
+        if (managerProvider.getBridgeConfig().isSessionKeeperEnabled()) {
+            // the session keeper and the managers it depends on read stored credentials
+            Completable.fromAction(() -> managerProvider.getSessionKeeper().start())
+                    .subscribeOn(Schedulers.io())
+                    .subscribe(() -> {
+                    }, t -> LOG.warn("Failed to start session keeper", t));
+        }
 
         if (this.getResources().getBoolean(R.bool.osb_stetho_debug_bridge)) {
             initStetho();
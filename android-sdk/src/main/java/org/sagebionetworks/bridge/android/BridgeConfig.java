@@ -38,6 +38,7 @@ import java.security.cert.X509Certificate;
 import java.text.MessageFormat;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 
@@ -199,6 +200,359 @@ public class BridgeConfig {
         return applicationContext.getResources().getString(R.string.osb_study_name);
     }
 
+    /**
+     * @return maximum number of queued uploads processed at the same time, at least 1
+     */
+    public int getUploadMaxConcurrency() {
+        return Math.max(1,
+                applicationContext.getResources().getInteger(R.integer.osb_upload_max_concurrency));
+    }
+
+    /**
+     * @return maximum combined size in bytes of archives being uploaded to S3 at the same time,
+     * 0 if there is no limit
+     */
+    public long getUploadMaxInFlightBytes() {
+        return Math.max(0L, applicationContext.getResources()
+                .getInteger(R.integer.osb_upload_max_in_flight_kilobytes) * 1024L);
+    }
+
+    /**
+     * @return number of times an S3 upload that failed due to a dropped connection or server
+     * error is retried before giving up until the next call to process uploads
+     */
+    public int getUploadS3MaxRetries() {
+        return Math.max(0,
+                applicationContext.getResources().getInteger(R.integer.osb_upload_s3_max_retries));
+    }
+
+    /**
+     * @return minimum archive size in bytes for failed S3 uploads to be retried, smaller archives
+     * are uploaded with a single attempt
+     */
+    public long getUploadS3RetryMinBytes() {
+        return Math.max(0L, applicationContext.getResources()
+                .getInteger(R.integer.osb_upload_s3_retry_min_kilobytes) * 1024L);
+    }
+
+    /**
+     * @return time in milliseconds an idle S3 connection is kept for reuse
+     */
+    public long getUploadS3KeepAliveMillis() {
+        return TimeUnit.SECONDS.toMillis(Math.max(1, applicationContext.getResources()
+                .getInteger(R.integer.osb_upload_s3_keep_alive_seconds)));
+    }
+
+    /**
+     * @return true if a connection to S3 is opened while an upload session is being requested
+     */
+    public boolean isUploadS3PreconnectEnabled() {
+        return applicationContext.getResources().getBoolean(R.bool.osb_upload_s3_preconnect);
+    }
+
+    /**
+     * @return true if archives are zipped and encrypted on separate threads when queueing uploads
+     */
+    public boolean isUploadPipelinedPersistEnabled() {
+        return applicationContext.getResources().getBoolean(R.bool.osb_upload_pipelined_persist);
+    }
+
+    /**
+     * @return maximum number of upload status calls made each time uploads are processed, at
+     * least 1
+     */
+    public int getUploadStatusMaxChecksPerRun() {
+        return Math.max(1, applicationContext.getResources()
+                .getInteger(R.integer.osb_upload_status_max_checks_per_run));
+    }
+
+    /**
+     * @return number of times an upload is seen to have failed validation before it is removed
+     * from the queue, at least 1
+     */
+    public int getUploadStatusFailedMaxChecks() {
+        return Math.max(1, applicationContext.getResources()
+                .getInteger(R.integer.osb_upload_status_failed_max_checks));
+    }
+
+    /**
+     * Off by default, uploads are removed when they fail validation, see
+     * {@link #getUploadStatusFailedMaxChecks()}. An upload still waiting for validation is kept.
+     *
+     * @return age in milliseconds after which an upload that Bridge has not finished processing
+     * is removed from the queue, 0 to never remove
+     */
+    public long getUploadStatusMaxAgeMillis() {
+        return TimeUnit.DAYS.toMillis(Math.max(0, applicationContext.getResources()
+                .getInteger(R.integer.osb_upload_status_max_age_days)));
+    }
+
+    /**
+     * Off by default, apps set a budget that suits the data they collect. New archives are
+     * rejected if they don't fit after evicting archives Bridge already has, see
+     * {@link org.sagebionetworks.bridge.android.manager.upload.UploadStorageQuota}.
+     *
+     * @return maximum combined size in bytes of queued archives on disk, 0 if there is no limit
+     */
+    public long getUploadMaxStorageBytes() {
+        return Math.max(0L, applicationContext.getResources()
+                .getInteger(R.integer.osb_upload_max_storage_kilobytes) * 1024L);
+    }
+
+    /**
+     * @return true if an archive with the same data as a recently queued archive is skipped
+     * instead of being uploaded again
+     */
+    public boolean isUploadDedupEnabled() {
+        return applicationContext.getResources().getBoolean(R.bool.osb_upload_dedup_enabled);
+    }
+
+    /**
+     * @return number of recently queued archives remembered to detect duplicates
+     */
+    public int getUploadDedupHistorySize() {
+        return Math.max(1, applicationContext.getResources()
+                .getInteger(R.integer.osb_upload_dedup_history_size));
+    }
+
+    /**
+     * @return maximum uncompressed size in bytes of the data files in one archive, above which a
+     * task result is split across archives, 0 if results are never split
+     */
+    public long getUploadArchiveSplitBytes() {
+        return Math.max(0L, applicationContext.getResources()
+                .getInteger(R.integer.osb_upload_archive_split_kilobytes) * 1024L);
+    }
+
+    /**
+     * @return time in milliseconds each step down in upload priority delays an upload, 0 if
+     * uploads are sent oldest first
+     */
+    public long getUploadPriorityAgingMillis() {
+        return TimeUnit.MINUTES.toMillis(Math.max(0, applicationContext.getResources()
+                .getInteger(R.integer.osb_upload_priority_aging_minutes)));
+    }
+
+    /**
+     * @return maximum size in bytes of an archive queued with high priority by default
+     */
+    public long getUploadPriorityHighMaxBytes() {
+        return Math.max(0L, applicationContext.getResources()
+                .getInteger(R.integer.osb_upload_priority_high_max_kilobytes) * 1024L);
+    }
+
+    /**
+     * @return minimum size in bytes of an archive queued with bulk priority by default, 0 if
+     * archives are never bulk by default
+     */
+    public long getUploadPriorityBulkMinBytes() {
+        return Math.max(0L, applicationContext.getResources()
+                .getInteger(R.integer.osb_upload_priority_bulk_min_kilobytes) * 1024L);
+    }
+
+    /**
+     * @return true if queued uploads are sent by a background job
+     */
+    public boolean isUploadBackgroundEnabled() {
+        return applicationContext.getResources().getBoolean(R.bool.osb_upload_background_enabled);
+    }
+
+    /**
+     * @return time in milliseconds the background job waits after an upload is queued
+     */
+    public long getUploadBackgroundDelayMillis() {
+        return TimeUnit.SECONDS.toMillis(Math.max(0, applicationContext.getResources()
+                .getInteger(R.integer.osb_upload_background_delay_seconds)));
+    }
+
+    /**
+     * @return maximum size in bytes of an archive the background job sends on a metered network
+     */
+    public long getUploadMeteredMaxBytes() {
+        return Math.max(0L, applicationContext.getResources()
+                .getInteger(R.integer.osb_upload_metered_max_kilobytes) * 1024L);
+    }
+
+    /**
+     * @return true if archives too large for a metered network are only sent while charging
+     */
+    public boolean isUploadLargeRequiresCharging() {
+        return applicationContext.getResources()
+                .getBoolean(R.bool.osb_upload_large_requires_charging);
+    }
+
+    /**
+     * @return time in milliseconds between periodic background jobs checking the upload queue
+     */
+    public long getUploadBackgroundIntervalMillis() {
+        return TimeUnit.HOURS.toMillis(Math.max(1, applicationContext.getResources()
+                .getInteger(R.integer.osb_upload_background_interval_hours)));
+    }
+
+    /**
+     * @return true if archive entries are compressed by type, see ContentTypeCompressionPolicy.
+     * Applies to uploads queued with their ArchiveContents, and is combined with
+     * {@link #isUploadPipelinedPersistEnabled()} if both are set
+     */
+    public boolean isUploadCompressionPolicyEnabled() {
+        return applicationContext.getResources()
+                .getBoolean(R.bool.osb_upload_compression_policy_enabled);
+    }
+
+    /**
+     * @return deflate level, 0 to 9, of JSON and other text entries
+     */
+    public int getUploadJsonCompressionLevel() {
+        return Math.min(9, Math.max(0, applicationContext.getResources()
+                .getInteger(R.integer.osb_upload_json_compression_level)));
+    }
+
+    /**
+     * @return number of leading bytes checked to detect already compressed entries, 0 to disable
+     */
+    public int getUploadCompressionProbeBytes() {
+        return Math.max(0, applicationContext.getResources()
+                .getInteger(R.integer.osb_upload_compression_probe_bytes));
+    }
+
+    /**
+     * @return number of queued files whose upload sessions are requested ahead of their turn
+     */
+    public int getUploadSessionPrefetchCount() {
+        return Math.max(0, applicationContext.getResources()
+                .getInteger(R.integer.osb_upload_session_prefetch_count));
+    }
+
+    /**
+     * @return bytes of a file buffered before they are handed to the socket during an S3 upload
+     */
+    public int getUploadBodyBufferBytes() {
+        return Math.max(1, applicationContext.getResources()
+                .getInteger(R.integer.osb_upload_body_buffer_kilobytes)) * 1024;
+    }
+
+    /**
+     * @return bytes sent between upload progress events
+     */
+    public long getUploadProgressMinBytes() {
+        return Math.max(0L, applicationContext.getResources()
+                .getInteger(R.integer.osb_upload_progress_min_kilobytes) * 1024L);
+    }
+
+    /**
+     * @return time in milliseconds after which upload progress is reported even if fewer bytes
+     * were sent
+     */
+    public long getUploadProgressMinIntervalMillis() {
+        return Math.max(0L, applicationContext.getResources()
+                .getInteger(R.integer.osb_upload_progress_min_interval_millis));
+    }
+
+    /**
+     * @return whether small results can be held and uploaded together in one bundle archive, see
+     * {@link org.sagebionetworks.bridge.android.manager.upload.UploadBundler}
+     */
+    public boolean isUploadBundleEnabled() {
+        return applicationContext.getResources().getBoolean(R.bool.osb_upload_bundle_enabled);
+    }
+
+    /**
+     * @return time in milliseconds a bundled result waits for other results before the bundle is
+     * uploaded
+     */
+    public long getUploadBundleWindowMillis() {
+        return Math.max(0L, applicationContext.getResources()
+                .getInteger(R.integer.osb_upload_bundle_window_seconds) * 1000L);
+    }
+
+    /**
+     * @return size in bytes of held results at which the bundle is uploaded without waiting
+     */
+    public long getUploadBundleMaxBytes() {
+        return Math.max(0L, applicationContext.getResources()
+                .getInteger(R.integer.osb_upload_bundle_max_kilobytes) * 1024L);
+    }
+
+    /**
+     * @return size in bytes, before compression, of the largest result that is bundled
+     */
+    public long getUploadBundleResultMaxBytes() {
+        return Math.max(0L, applicationContext.getResources()
+                .getInteger(R.integer.osb_upload_bundle_result_max_kilobytes) * 1024L);
+    }
+
+    /**
+     * @return schema id of bundle archives
+     */
+    @NonNull
+    public String getUploadBundleSchemaId() {
+        return applicationContext.getResources().getString(R.string.osb_upload_bundle_schema_id);
+    }
+
+    /**
+     * @return schema revision of bundle archives
+     */
+    public int getUploadBundleSchemaRevision() {
+        return applicationContext.getResources()
+                .getInteger(R.integer.osb_upload_bundle_schema_revision);
+    }
+
+    /**
+     * @return true if DAO values are kept in a memory-mapped log instead of the platform prefs
+     * files, see {@link org.sagebionetworks.bridge.android.manager.dao.MappedPreferences}
+     */
+    public boolean isDaoMappedStoreEnabled() {
+        return applicationContext.getResources().getBoolean(R.bool.osb_dao_mapped_store_enabled);
+    }
+
+    /**
+     * @return size in bytes of a DAO log from which it is compacted
+     */
+    public int getDaoMappedStoreCompactBytes() {
+        return Math.max(1, applicationContext.getResources()
+                .getInteger(R.integer.osb_dao_mapped_store_compact_kilobytes) * 1024);
+    }
+
+    /**
+     * @return true if the session is refreshed in the background before it expires, see
+     * {@link org.sagebionetworks.bridge.android.manager.SessionKeeper}
+     */
+    public boolean isSessionKeeperEnabled() {
+        return applicationContext.getResources().getBoolean(R.bool.osb_session_keeper_enabled);
+    }
+
+    /**
+     * @return milliseconds a Bridge session lasts
+     */
+    public long getSessionLifetimeMillis() {
+        return TimeUnit.MINUTES.toMillis(Math.max(0, applicationContext.getResources()
+                .getInteger(R.integer.osb_session_lifetime_minutes)));
+    }
+
+    /**
+     * @return milliseconds before the session expires that it is refreshed
+     */
+    public long getSessionRefreshAheadMillis() {
+        return TimeUnit.MINUTES.toMillis(Math.max(0, applicationContext.getResources()
+                .getInteger(R.integer.osb_session_refresh_ahead_minutes)));
+    }
+
+    /**
+     * @return most milliseconds added to the refresh ahead time of a session
+     */
+    public long getSessionRefreshJitterMillis() {
+        return TimeUnit.MINUTES.toMillis(Math.max(0, applicationContext.getResources()
+                .getInteger(R.integer.osb_session_refresh_jitter_minutes)));
+    }
+
+    /**
+     * @return milliseconds between background checks for a session to refresh
+     */
+    public long getSessionCheckIntervalMillis() {
+        return TimeUnit.MINUTES.toMillis(Math.max(0, applicationContext.getResources()
+                .getInteger(R.integer.osb_session_check_interval_minutes)));
+    }
+
     @NonNull
     public int getAppVersion() {
         try {
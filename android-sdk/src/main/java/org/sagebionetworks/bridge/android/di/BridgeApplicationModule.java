@@ -6,7 +6,7 @@ import android.content.Context;
 import dagger.Module;
 import dagger.Provides;
 
-@Module(includes = {BridgeServiceModule.class, S3Module.class})
+@Module(includes = {BridgeServiceModule.class, S3Module.class, UploadModule.class})
 public class BridgeApplicationModule {
     @Provides
     static Context getApplicationContext(Application application) {
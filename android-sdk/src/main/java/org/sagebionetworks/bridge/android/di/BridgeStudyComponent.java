@@ -8,6 +8,8 @@ import org.sagebionetworks.bridge.android.manager.AppConfigManager;
 import org.sagebionetworks.bridge.android.manager.dao.AccountDAO;
 import org.sagebionetworks.bridge.android.manager.dao.ConsentDAO;
 import org.sagebionetworks.bridge.android.manager.dao.UploadDAO;
+import org.sagebionetworks.bridge.android.manager.upload.S3Transport;
+import org.sagebionetworks.bridge.android.manager.upload.UploadScheduler;
 import org.sagebionetworks.bridge.data.AndroidStudyUploadEncryptor;
 import org.sagebionetworks.bridge.rest.ApiClientProvider;
 
@@ -17,7 +19,7 @@ import dagger.BindsInstance;
 import dagger.Component;
 import okhttp3.OkHttpClient;
 
-@Component(modules = {BridgeServiceModule.class, S3Module.class})
+@Component(modules = {BridgeServiceModule.class, S3Module.class, UploadModule.class})
 @BridgeStudyScope
 public interface BridgeStudyComponent {
     @Component.Builder
@@ -51,4 +53,10 @@ public interface BridgeStudyComponent {
 
     @Named("s3OkHttp3Client")
     OkHttpClient getS3OkHttp3Client();
+
+    @NonNull
+    S3Transport getS3Transport();
+
+    @NonNull
+    UploadScheduler getUploadScheduler();
 }
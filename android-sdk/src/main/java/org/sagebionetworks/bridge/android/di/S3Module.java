@@ -17,6 +17,8 @@
 
 package org.sagebionetworks.bridge.android.di;
 
+import org.sagebionetworks.bridge.android.BridgeConfig;
+
 import java.util.concurrent.TimeUnit;
 
 import javax.inject.Named;
@@ -24,6 +26,7 @@ import javax.net.SocketFactory;
 
 import dagger.Module;
 import dagger.Provides;
+import okhttp3.ConnectionPool;
 import okhttp3.OkHttpClient;
 
 /**
@@ -34,9 +37,13 @@ public class S3Module {
     @Provides
     @Named("s3OkHttp3Client")
     @BridgeStudyScope
-    OkHttpClient getS3OkHttp3Client(SocketFactory socketFactory) {
+    OkHttpClient getS3OkHttp3Client(SocketFactory socketFactory, BridgeConfig bridgeConfig) {
+        // one idle connection per concurrent upload, plus one opened by preconnect
+        int maxIdleConnections = Math.max(1, bridgeConfig.getUploadMaxConcurrency()) + 1;
         return new OkHttpClient.Builder()
                 .socketFactory(socketFactory)
+                .connectionPool(new ConnectionPool(maxIdleConnections,
+                        bridgeConfig.getUploadS3KeepAliveMillis(), TimeUnit.MILLISECONDS))
                 .connectTimeout(30, TimeUnit.SECONDS)
                 .readTimeout(30, TimeUnit.SECONDS)
                 .writeTimeout(30, TimeUnit.SECONDS)
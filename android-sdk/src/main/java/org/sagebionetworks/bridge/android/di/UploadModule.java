@@ -0,0 +1,22 @@
+package org.sagebionetworks.bridge.android.di;
+
+import android.content.Context;
+
+import androidx.room.Room;
+
+import org.sagebionetworks.bridge.android.manager.dao.UploadDatabase;
+
+import dagger.Module;
+import dagger.Provides;
+
+@Module
+public class UploadModule {
+    @Provides
+    @BridgeStudyScope
+    static UploadDatabase provideUploadDatabase(Context applicationContext) {
+        // UploadDAO is @WorkerThread, UploadManager queries it on Schedulers.io()
+        return Room.databaseBuilder(applicationContext, UploadDatabase.class, UploadDatabase.DATABASE_FILENAME)
+                .addMigrations(UploadDatabase.MIGRATIONS)
+                .build();
+    }
+}
@@ -105,6 +105,16 @@ public class ActivityManager {
         return activityListDAO.getActivity(guid);
     }
 
+    /**
+     * @param guid of the activity
+     * @return observable emitting the locally cached activity, or completing without one if it is
+     * not cached, the activity is read off the calling thread
+     */
+    @NonNull
+    public Observable<ScheduledActivity> getLocalActivityAsync(String guid) {
+        return activityListDAO.getActivityAsync(guid);
+    }
+
     public void clearDAO() {
         activityListDAO.clear();
     }
@@ -7,6 +7,7 @@ import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
@@ -32,6 +33,7 @@ import org.sagebionetworks.bridge.rest.model.Identifier;
 import org.sagebionetworks.bridge.rest.model.Phone;
 import org.sagebionetworks.bridge.rest.model.PhoneSignIn;
 import org.sagebionetworks.bridge.rest.model.PhoneSignInRequest;
+import org.sagebionetworks.bridge.rest.model.ReauthenticationRequest;
 import org.sagebionetworks.bridge.rest.model.SharingScope;
 import org.sagebionetworks.bridge.rest.model.SignIn;
 import org.sagebionetworks.bridge.rest.model.SignUp;
@@ -41,6 +43,7 @@ import org.sagebionetworks.bridge.rest.model.Withdrawal;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -48,6 +51,7 @@ import java.util.concurrent.atomic.AtomicReference;
 
 import javax.inject.Inject;
 
+import retrofit2.Response;
 import rx.Completable;
 import rx.Observable;
 import rx.Single;
@@ -83,6 +87,10 @@ public class AuthenticationManager implements UserSessionInfoProvider.UserSessio
     @NonNull
     private final AtomicReference<AuthStateHolder> authStateHolderAtomicReference;
 
+    // held while a session is stored and its auth state published, or cleared on sign out, so a
+    // refreshed session is never stored after sign out
+    private final Object authStateLock = new Object();
+
     /**
      * Immutable wrapper used with AtomicReference.
      */
@@ -146,16 +154,9 @@ public class AuthenticationManager implements UserSessionInfoProvider.UserSessio
     ApiClientProvider.AuthenticatedClientProvider
     createAuthenticatedClientProviderFromStoredCredentials() {
         String email = accountDAO.getEmail();
-
-        String phoneRegion = accountDAO.getPhoneRegion();
-        String phoneNumber = accountDAO.getPhoneNumber();
+        Phone phone = getStoredPhone();
         String externalId = accountDAO.getExternalId();
 
-        Phone phone = null;
-        if (!Strings.isNullOrEmpty(phoneNumber)) {
-            phone = new Phone().number(phoneNumber).regionCode(phoneRegion);
-        }
-
         // need either email, phone, or externalId to identify user
         if (Strings.isNullOrEmpty(email) && phone == null && Strings.isNullOrEmpty(externalId)) {
             return null;
@@ -182,6 +183,103 @@ public class AuthenticationManager implements UserSessionInfoProvider.UserSessio
         return builder.build();
     }
 
+    @Nullable
+    private Phone getStoredPhone() {
+        String phoneNumber = accountDAO.getPhoneNumber();
+        if (Strings.isNullOrEmpty(phoneNumber)) {
+            return null;
+        }
+        return new Phone().number(phoneNumber).regionCode(accountDAO.getPhoneRegion());
+    }
+
+    /**
+     * Gets a new session with the stored credentials, before the current one expires, and
+     * publishes an auth state holding it. If the participant signed in or out meanwhile, their
+     * auth state is kept and the new session is dropped. Called by {@link SessionKeeper}, off the
+     * main thread.
+     *
+     * @return the new session, null if not signed in or if the auth state changed meanwhile
+     * @throws IOException if Bridge could not be reached or did not return a session
+     */
+    @WorkerThread
+    @Nullable
+    UserSessionInfo refreshSession() throws IOException {
+        AuthStateHolder authStateHolder = authStateHolderAtomicReference.get();
+
+        UserSessionInfo session = requestSession();
+        if (session == null) {
+            return null;
+        }
+
+        synchronized (authStateLock) {
+            if (authStateHolderAtomicReference.get() != authStateHolder) {
+                logger.info("Auth state changed during session refresh, dropping refreshed session");
+                return null;
+            }
+            accountDAO.setUserSessionInfo(session);
+            // foreground calls switch to the new client in one step, calls in flight finish on the
+            // old one
+            authStateHolderAtomicReference.set(createAuthStateFromStoredCredentials());
+        }
+        return session;
+    }
+
+    /**
+     * Reauthenticates with the stored reauth token, or signs in with the stored password if there
+     * is no token or Bridge did not accept it. The rest client would return its current session
+     * instead, which is still valid until it expires.
+     *
+     * @return the new session, null if there are no stored credentials
+     */
+    @WorkerThread
+    @Nullable
+    private UserSessionInfo requestSession() throws IOException {
+        String email = accountDAO.getEmail();
+        Phone phone = getStoredPhone();
+        String externalId = accountDAO.getExternalId();
+        if (Strings.isNullOrEmpty(email) && phone == null && Strings.isNullOrEmpty(externalId)) {
+            return null;
+        }
+
+        UserSessionInfo storedSession = accountDAO.getUserSessionInfo();
+        String reauthToken = storedSession != null ? storedSession.getReauthToken() : null;
+        if (!Strings.isNullOrEmpty(reauthToken)) {
+            ReauthenticationRequest reauthenticationRequest = new ReauthenticationRequest()
+                    .study(config.getStudyId())
+                    .email(email)
+                    .phone(phone)
+                    .externalId(externalId)
+                    .reauthToken(reauthToken);
+            Response<UserSessionInfo> response =
+                    authenticationApi.reauthenticate(reauthenticationRequest).execute();
+            if (response.isSuccessful()) {
+                return response.body();
+            }
+            logger.info("Reauthentication failed with status {}, signing in", response.code());
+        }
+
+        String password = accountDAO.getPassword();
+        if (Strings.isNullOrEmpty(password)) {
+            if (storedSession == null) {
+                return null;
+            }
+            throw new IOException("Could not reauthenticate, and there is no password to sign in");
+        }
+        SignIn signIn = new SignIn()
+                .study(config.getStudyId())
+                .email(email)
+                .phone(phone)
+                .externalId(externalId)
+                .password(password);
+        // as signInWithExternalId does, when the external ID is the only identifier
+        Response<UserSessionInfo> response = (Strings.isNullOrEmpty(email) && phone == null
+                ? authenticationApi.signInV4(signIn) : authenticationApi.signIn(signIn)).execute();
+        if (!response.isSuccessful()) {
+            throw new IOException("Sign in failed with status " + response.code());
+        }
+        return response.body();
+    }
+
     @Override
     public void onChange(UserSessionInfo userSessionInfo) {
         accountDAO.setUserSessionInfo(userSessionInfo);
@@ -239,27 +337,32 @@ public class AuthenticationManager implements UserSessionInfoProvider.UserSessio
                             .email(signUp.getEmail())
                             .password(signUp.getPassword());
 
-                    accountDAO.setEmail(signUp.getEmail());
-                    accountDAO.setPassword(signUp.getPassword());
-                    accountDAO.setExternalId(signUp.getExternalId());
+                    AccountDAO.Editor accountEditor = accountDAO.edit()
+                            .setEmail(signUp.getEmail())
+                            .setPassword(signUp.getPassword())
+                            .setExternalId(signUp.getExternalId());
 
                     Phone phone = signUp.getPhone();
                     if (phone != null) {
-                        accountDAO.setPhoneRegion(phone.getRegionCode());
-                        accountDAO.setPhoneNumber(phone.getNumber());
+                        accountEditor.setPhoneRegion(phone.getRegionCode())
+                                .setPhoneNumber(phone.getNumber());
                     }
 
-                    authStateHolderAtomicReference.set(
-                            createAuthStateFromStoredCredentials()
-                    );
-
                     StudyParticipant participant = new StudyParticipant();
                     participant.email(signUp.getEmail())
                             .firstName(signUp.getFirstName())
                             .lastName(signUp.getLastName())
                             .externalId(signUp.getExternalId());
 
-                    accountDAO.setStudyParticipant(participant);
+                    synchronized (authStateLock) {
+                        // one write of the account prefs file
+                        accountEditor.setStudyParticipant(participant)
+                                .apply();
+
+                        authStateHolderAtomicReference.set(
+                                createAuthStateFromStoredCredentials()
+                        );
+                    }
                 })
                 .flatMap(message -> {
                     // if this is a password-less sign-up and we have an email, request email sign-in link
@@ -374,8 +477,10 @@ public class AuthenticationManager implements UserSessionInfoProvider.UserSessio
                                 .study(config.getStudyId())))
                 .doOnSuccess(m -> {
                     logger.debug("Phone sign in request success: " + m.getMessage());
-                    accountDAO.setPhoneRegion(regionCode);
-                    accountDAO.setPhoneNumber(phoneNumber);
+                    accountDAO.edit()
+                            .setPhoneRegion(regionCode)
+                            .setPhoneNumber(phoneNumber)
+                            .apply();
                 })
                 .doOnError(t -> logger.debug("Phone sign in request failure", t))
                 .toCompletable();
@@ -507,27 +612,30 @@ public class AuthenticationManager implements UserSessionInfoProvider.UserSessio
                     return Single.error(t);
                 })
                 .doOnSuccess(session -> {
-                    accountDAO.setEmail(email);
-                    accountDAO.setPassword(signIn.getPassword());
-                    accountDAO.setExternalId(signIn.getExternalId());
+                    AccountDAO.Editor accountEditor = accountDAO.edit()
+                            .setEmail(email)
+                            .setPassword(signIn.getPassword())
+                            .setExternalId(signIn.getExternalId());
 
                     Phone phone = signIn.getPhone();
                     if (phone != null) {
-                        accountDAO.setPhoneRegion(phone.getRegionCode());
-                        accountDAO.setPhoneNumber(phone.getNumber());
+                        accountEditor.setPhoneRegion(phone.getRegionCode())
+                                .setPhoneNumber(phone.getNumber());
                     }
 
-                    // we must set here, since we're not receiving session change callbacks until we create an
-                    // authenticated retrofit/okhttp client
-                    accountDAO.setUserSessionInfo(session);
-
-                    authStateHolderAtomicReference.set(
-                            createAuthStateFromStoredCredentials()
-                    );
-
-                    accountDAO.setStudyParticipant(
-                            new StudyParticipant()
-                                    .email(signIn.getEmail()));
+                    synchronized (authStateLock) {
+                        // we must set here, since we're not receiving session change callbacks until we create an
+                        // authenticated retrofit/okhttp client
+                        accountEditor.setUserSessionInfo(session)
+                                .setStudyParticipant(
+                                        new StudyParticipant()
+                                                .email(signIn.getEmail()))
+                                .apply();
+
+                        authStateHolderAtomicReference.set(
+                                createAuthStateFromStoredCredentials()
+                        );
+                    }
                 })
                 .flatMap(session -> {
                     if (!session.isConsented()) {
@@ -609,14 +717,16 @@ public class AuthenticationManager implements UserSessionInfoProvider.UserSessio
 
         Completable completable = RxUtils.toBodySingle(authenticationApi.signOut()).toCompletable();
 
-        // Clear relevant account information whether call was successful or not
-        accountDAO.clear();
-        consentDAO.clear();
+        synchronized (authStateLock) {
+            // Clear relevant account information whether call was successful or not
+            accountDAO.clear();
+            consentDAO.clear();
 
-        // once signOut method is called, prevent usage of API, regardless of success of bridge call
-        authStateHolderAtomicReference.set(
-                createAuthStateFromStoredCredentials()
-        );
+            // once signOut method is called, prevent usage of API, regardless of success of bridge call
+            authStateHolderAtomicReference.set(
+                    createAuthStateFromStoredCredentials()
+            );
+        }
 
         return completable;
     }
@@ -686,6 +796,15 @@ public class AuthenticationManager implements UserSessionInfoProvider.UserSessio
         return accountDAO.getUserSessionInfo();
     }
 
+    /**
+     * @return observable emitting the stored session, or completing without one if there is none,
+     * the session is read off the calling thread
+     */
+    @NonNull
+    public Observable<UserSessionInfo> getUserSessionInfoAsync() {
+        return accountDAO.getUserSessionInfoAsync();
+    }
+
     /**
      * Call Bridge to getConsent session. Cached session is updated as a side-effect.
      *
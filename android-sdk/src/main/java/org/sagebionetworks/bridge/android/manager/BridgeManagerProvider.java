@@ -26,6 +26,9 @@ import org.sagebionetworks.bridge.android.di.BridgeStudyComponent;
 import org.sagebionetworks.bridge.android.di.BridgeStudyParticipantScope;
 import org.sagebionetworks.bridge.android.manager.dao.AccountDAO;
 import org.sagebionetworks.bridge.android.manager.dao.ConsentDAO;
+import org.sagebionetworks.bridge.android.manager.upload.UploadBundler;
+import org.sagebionetworks.bridge.android.manager.upload.UploadMetrics;
+import org.sagebionetworks.bridge.android.manager.upload.UploadScheduler;
 import org.sagebionetworks.bridge.data.AndroidStudyUploadEncryptor;
 import org.sagebionetworks.bridge.rest.ApiClientProvider;
 
@@ -83,9 +86,21 @@ public interface BridgeManagerProvider {
     @NonNull
     AndroidStudyUploadEncryptor getStudyUploadEncryptor();
 
+    @NonNull
+    SessionKeeper getSessionKeeper();
+
     @NonNull
     SurveyManager getSurveyManager();
 
+    @NonNull
+    UploadBundler getUploadBundler();
+
     @NonNull
     UploadManager getUploadManager();
+
+    @NonNull
+    UploadMetrics getUploadMetrics();
+
+    @NonNull
+    UploadScheduler getUploadScheduler();
 }
@@ -29,6 +29,7 @@ import javax.annotation.Nonnull;
 import javax.inject.Inject;
 
 import rx.Completable;
+import rx.Observable;
 import rx.Single;
 
 /**
@@ -64,6 +65,15 @@ public class ParticipantRecordManager {
         return accountDAO.getStudyParticipant();
     }
 
+    /**
+     * @return observable emitting cached information about participant, or completing without
+     * one if there is none, the participant is read off the calling thread
+     */
+    @NonNull
+    public Observable<StudyParticipant> getCachedParticipantRecordAsync() {
+        return accountDAO.getStudyParticipantAsync();
+    }
+
     /**
      * Calls Bridge for participant information. Updates local cache of participant.
      *
@@ -0,0 +1,199 @@
+package org.sagebionetworks.bridge.android.manager;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.work.Constraints;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+
+import org.sagebionetworks.bridge.android.BridgeConfig;
+import org.sagebionetworks.bridge.android.di.BridgeStudyParticipantScope;
+import org.sagebionetworks.bridge.android.manager.dao.AccountDAO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.inject.Inject;
+
+import rx.Completable;
+import rx.Scheduler;
+import rx.functions.Func0;
+import rx.schedulers.Schedulers;
+
+/**
+ * Refreshes the participant's session in the background before it expires, if
+ * {@link BridgeConfig#isSessionKeeperEnabled()}, so foreground calls rarely fail with a 401 and
+ * wait for the rest client to sign in again.
+ * <p>
+ * Bridge sessions do not say when they expire, so the refresh is planned from when the session
+ * was saved, {@link BridgeConfig#getSessionLifetimeMillis()} later less the refresh ahead time.
+ * A jitter, fixed for each session, moves the refresh earlier so devices that signed in together
+ * do not refresh together. Refreshes only run on a connected network. They are checked when the
+ * app starts and by a periodic {@link SessionRefreshWorker} run.
+ */
+@AnyThread
+@BridgeStudyParticipantScope
+public class SessionKeeper {
+    private static final Logger LOG = LoggerFactory.getLogger(SessionKeeper.class);
+
+    static final String WORK_NAME = "org.sagebionetworks.bridge.session";
+
+    private final Context applicationContext;
+    private final AuthenticationManager authenticationManager;
+    private final AccountDAO accountDAO;
+    private final boolean enabled;
+    private final long lifetimeMillis;
+    private final long refreshAheadMillis;
+    private final long jitterMillis;
+    private final long checkIntervalMillis;
+    private final Scheduler scheduler;
+    private final Func0<Boolean> networkConnected;
+
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    @Inject
+    public SessionKeeper(Context applicationContext, BridgeConfig bridgeConfig,
+                         AuthenticationManager authenticationManager, AccountDAO accountDAO) {
+        this(applicationContext, authenticationManager, accountDAO,
+                bridgeConfig.isSessionKeeperEnabled(), bridgeConfig.getSessionLifetimeMillis(),
+                bridgeConfig.getSessionRefreshAheadMillis(),
+                bridgeConfig.getSessionRefreshJitterMillis(),
+                bridgeConfig.getSessionCheckIntervalMillis(), Schedulers.io(),
+                () -> isNetworkConnected(applicationContext));
+    }
+
+    @VisibleForTesting
+    SessionKeeper(@NonNull Context applicationContext,
+                  @NonNull AuthenticationManager authenticationManager,
+                  @NonNull AccountDAO accountDAO, boolean enabled, long lifetimeMillis,
+                  long refreshAheadMillis, long jitterMillis, long checkIntervalMillis,
+                  @NonNull Scheduler scheduler, @NonNull Func0<Boolean> networkConnected) {
+        this.applicationContext = checkNotNull(applicationContext);
+        this.authenticationManager = checkNotNull(authenticationManager);
+        this.accountDAO = checkNotNull(accountDAO);
+        this.enabled = enabled;
+        this.lifetimeMillis = Math.max(0L, lifetimeMillis);
+        this.refreshAheadMillis = Math.max(0L, refreshAheadMillis);
+        this.jitterMillis = Math.max(0L, jitterMillis);
+        this.checkIntervalMillis = Math.max(PeriodicWorkRequest.MIN_PERIODIC_INTERVAL_MILLIS,
+                checkIntervalMillis);
+        this.scheduler = checkNotNull(scheduler);
+        this.networkConnected = checkNotNull(networkConnected);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Schedules the periodic check and refreshes the session now if it is due, e.g. when the app
+     * starts. Does nothing if the session keeper is disabled. Reads stored credentials, call off
+     * the main thread.
+     */
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(SessionRefreshWorker.class,
+                checkIntervalMillis, TimeUnit.MILLISECONDS)
+                .setConstraints(new Constraints.Builder()
+                        .setRequiredNetworkType(NetworkType.CONNECTED)
+                        .build())
+                .build();
+        WorkManager.getInstance(applicationContext).enqueueUniquePeriodicWork(WORK_NAME,
+                ExistingPeriodicWorkPolicy.KEEP, request);
+
+        refreshIfDue().subscribe(() -> {
+        }, t -> LOG.warn("Failed to refresh session", t));
+    }
+
+    /**
+     * @return time in milliseconds the stored session should be refreshed, null if there is no
+     * session
+     */
+    @Nullable
+    public Long getRefreshDueOn() {
+        Long sessionUpdatedOn = accountDAO.getSessionUpdatedOn();
+        if (sessionUpdatedOn == null) {
+            return null;
+        }
+        return sessionUpdatedOn + lifetimeMillis - refreshAheadMillis
+                - getJitterMillis(sessionUpdatedOn);
+    }
+
+    /**
+     * Refreshes the session if it is due, there are credentials to refresh it with and the
+     * network is connected. Completes without a refresh otherwise, or if a refresh is already
+     * running.
+     *
+     * @return completes when the session is refreshed or no refresh is needed
+     */
+    @NonNull
+    public Completable refreshIfDue() {
+        return Completable.defer(() -> {
+            if (!enabled || !authenticationManager.hasAuthenticationCredentials()) {
+                return Completable.complete();
+            }
+            Long refreshDueOn = getRefreshDueOn();
+            if (refreshDueOn == null || scheduler.now() < refreshDueOn) {
+                return Completable.complete();
+            }
+            if (!networkConnected.call()) {
+                LOG.debug("Session refresh due, waiting for network");
+                return Completable.complete();
+            }
+            return refresh();
+        }).subscribeOn(scheduler);
+    }
+
+    /**
+     * Refreshes the session now, unless a refresh is already running.
+     *
+     * @return completes when the session is refreshed
+     */
+    @NonNull
+    public Completable refresh() {
+        return Completable.defer(() -> {
+            if (!refreshing.compareAndSet(false, true)) {
+                return Completable.complete();
+            }
+            return Completable.fromCallable(() -> {
+                LOG.debug("Refreshing session");
+                authenticationManager.refreshSession();
+                return null;
+            }).doAfterTerminate(() -> refreshing.set(false));
+        }).subscribeOn(scheduler);
+    }
+
+    // same for a session, so each check agrees on when it is due
+    private long getJitterMillis(long sessionUpdatedOn) {
+        if (jitterMillis == 0) {
+            return 0;
+        }
+        return (long) (new Random(sessionUpdatedOn).nextDouble() * jitterMillis);
+    }
+
+    private static boolean isNetworkConnected(Context context) {
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) {
+            return true;
+        }
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected();
+    }
+}
@@ -0,0 +1,39 @@
+package org.sagebionetworks.bridge.android.manager;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Refreshes the session if it is due, scheduled periodically by {@link SessionKeeper}. Retries,
+ * with WorkManager's backoff, if the refresh fails.
+ */
+public class SessionRefreshWorker extends Worker {
+    private static final Logger LOG = LoggerFactory.getLogger(SessionRefreshWorker.class);
+
+    public SessionRefreshWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        BridgeManagerProvider bridgeManagerProvider = BridgeManagerProvider.getInstance();
+        if (bridgeManagerProvider == null) {
+            LOG.warn("BridgeManagerProvider not initialized, retrying session refresh later");
+            return Result.retry();
+        }
+
+        Throwable error = bridgeManagerProvider.getSessionKeeper().refreshIfDue().get();
+        if (error != null) {
+            LOG.warn("Background session refresh failed", error);
+            return Result.retry();
+        }
+        return Result.success();
+    }
+}
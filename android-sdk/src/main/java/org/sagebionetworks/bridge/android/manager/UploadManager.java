@@ -8,45 +8,72 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
+import com.google.common.collect.Lists;
 import com.google.common.io.BaseEncoding;
-import com.google.common.io.ByteSink;
-import com.google.common.io.FileWriteMode;
-import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.joda.time.DateTime;
+import org.sagebionetworks.bridge.android.BridgeConfig;
 import org.sagebionetworks.bridge.android.di.BridgeStudyParticipantScope;
 import org.sagebionetworks.bridge.android.manager.dao.UploadDAO;
+import org.sagebionetworks.bridge.android.manager.dao.UploadEntity;
+import org.sagebionetworks.bridge.android.manager.dao.UploadEntity.UploadState;
+import org.sagebionetworks.bridge.android.manager.dao.UploadJournalEntity;
+import org.sagebionetworks.bridge.android.manager.upload.ArchiveContents;
+import org.sagebionetworks.bridge.android.manager.upload.ArchiveFingerprinter;
+import org.sagebionetworks.bridge.android.manager.upload.CompressionPolicyArchiveWriter;
+import org.sagebionetworks.bridge.android.manager.upload.ContentTypeCompressionPolicy;
 import org.sagebionetworks.bridge.android.manager.upload.FileUploadRequestBody;
+import org.sagebionetworks.bridge.android.manager.upload.PipelinedArchiveWriter;
 import org.sagebionetworks.bridge.android.manager.upload.S3Service;
+import org.sagebionetworks.bridge.android.manager.upload.S3Transport;
+import org.sagebionetworks.bridge.android.manager.upload.S3UploadRetry;
+import org.sagebionetworks.bridge.android.manager.upload.UploadByteBudget;
+import org.sagebionetworks.bridge.android.manager.upload.UploadMetrics;
+import org.sagebionetworks.bridge.android.manager.upload.UploadMetrics.UploadPhase;
+import org.sagebionetworks.bridge.android.manager.upload.UploadPriority;
+import org.sagebionetworks.bridge.android.manager.upload.UploadProgress;
+import org.sagebionetworks.bridge.android.manager.upload.UploadScheduler;
+import org.sagebionetworks.bridge.android.manager.upload.UploadSessionPrefetcher;
+import org.sagebionetworks.bridge.android.manager.upload.UploadStatusReconciler;
+import org.sagebionetworks.bridge.android.manager.upload.UploadStorageQuota;
+import org.sagebionetworks.bridge.android.manager.upload.UploadStorageQuotaException;
 import org.sagebionetworks.bridge.android.util.retrofit.RxUtils;
 import org.sagebionetworks.bridge.data.AndroidStudyUploadEncryptor;
 import org.sagebionetworks.bridge.data.Archive;
 import org.sagebionetworks.bridge.rest.model.UploadRequest;
 import org.sagebionetworks.bridge.rest.model.UploadSession;
+import org.sagebionetworks.bridge.rest.model.UploadStatus;
 import org.sagebionetworks.bridge.rest.model.UploadValidationStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.cms.CMSException;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.net.URI;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.inject.Inject;
-import javax.inject.Named;
 
-import okhttp3.OkHttpClient;
-import retrofit2.Retrofit;
 import rx.Completable;
 import rx.Observable;
 import rx.Single;
+import rx.exceptions.Exceptions;
 import rx.schedulers.Schedulers;
+import rx.subjects.PublishSubject;
+import rx.subjects.SerializedSubject;
+import rx.subjects.Subject;
 
 /**
  * Manages upload of Archive files to Bridge for processing.
@@ -73,35 +100,221 @@ public class UploadManager implements AuthenticationManager.AuthenticationEventL
     // minimum number of minutes from now an expiration should be
     private static final int UPLOAD_EXPIRY_WINDOW_MINUTES = 30;
 
+    // delay before the first retry of a failed S3 upload, doubles with each retry
+    private static final long S3_RETRY_INITIAL_DELAY_MILLIS = 2000;
+
+    // suffix of the file an archive is written to before it is renamed
+    static final String STAGED_FILE_SUFFIX = ".staged";
+
     private final AtomicReference<AuthenticationManager.AuthStateHolder>
             authenticatedSafeAtomicReference;
     private final AndroidStudyUploadEncryptor encryptor;
     private final UploadDAO uploadDAO;
-    private final OkHttpClient s3OkHttpClient;
+    private final S3Transport s3Transport;
+    private final int maxConcurrency;
+    private final UploadByteBudget uploadByteBudget;
+    private final int s3MaxRetries;
+    private final long s3RetryMinBytes;
+    @Nullable
+    private final PipelinedArchiveWriter pipelinedArchiveWriter;
+    @Nullable
+    private final CompressionPolicyArchiveWriter compressionPolicyArchiveWriter;
+    private final int maxStatusChecksPerRun;
+    private final UploadStatusReconciler statusReconciler;
+    private final UploadMetrics uploadMetrics;
+    private final UploadStorageQuota uploadStorageQuota;
+    @Nullable
+    private final ArchiveFingerprinter archiveFingerprinter;
+    private final int dedupHistorySize;
+    private final long priorityAgingMillis;
+    private final long highPriorityMaxBytes;
+    private final long bulkPriorityMinBytes;
+    private final UploadScheduler uploadScheduler;
+    private final UploadSessionPrefetcher sessionPrefetcher;
+    private final int uploadBodyBufferBytes;
+    private final long progressMinBytes;
+    private final long progressMinIntervalMillis;
+    private final Subject<UploadProgress, UploadProgress> uploadProgressSubject =
+            new SerializedSubject<>(PublishSubject.create());
+    private volatile boolean recoveredPersists;
 
     @Inject
     public UploadManager(AuthenticationManager authenticationManager, AndroidStudyUploadEncryptor
-            encryptor, UploadDAO uploadDAO, @Named("s3OkHttp3Client") OkHttpClient s3Okhttp3Client) {
+            encryptor, UploadDAO uploadDAO, S3Transport s3Transport, BridgeConfig bridgeConfig,
+                         UploadMetrics uploadMetrics, UploadScheduler uploadScheduler) {
         this.authenticatedSafeAtomicReference = authenticationManager.getAuthStateReference();
         authenticationManager.addEventListener(this);
         this.encryptor = encryptor;
         this.uploadDAO = uploadDAO;
-        this.s3OkHttpClient = s3Okhttp3Client;
+        this.s3Transport = s3Transport;
+        this.maxConcurrency = Math.max(1, bridgeConfig.getUploadMaxConcurrency());
+        this.uploadByteBudget = new UploadByteBudget(
+                Math.max(0L, bridgeConfig.getUploadMaxInFlightBytes()));
+        this.s3MaxRetries = bridgeConfig.getUploadS3MaxRetries();
+        this.s3RetryMinBytes = bridgeConfig.getUploadS3RetryMinBytes();
+        boolean pipelinedPersist = bridgeConfig.isUploadPipelinedPersistEnabled();
+        boolean dedup = bridgeConfig.isUploadDedupEnabled();
+        boolean compressionPolicy = bridgeConfig.isUploadCompressionPolicyEnabled();
+        // idle zip threads are released after a minute
+        ExecutorService zipExecutor = pipelinedPersist || dedup
+                ? Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat("archive-zip-%d").setDaemon(true).build())
+                : null;
+        this.pipelinedArchiveWriter =
+                pipelinedPersist ? new PipelinedArchiveWriter(zipExecutor) : null;
+        this.compressionPolicyArchiveWriter = compressionPolicy
+                ? new CompressionPolicyArchiveWriter(new ContentTypeCompressionPolicy(
+                bridgeConfig.getUploadJsonCompressionLevel(),
+                Math.max(0, bridgeConfig.getUploadCompressionProbeBytes())))
+                : null;
+        this.archiveFingerprinter = dedup ? new ArchiveFingerprinter(zipExecutor) : null;
+        this.dedupHistorySize = Math.max(1, bridgeConfig.getUploadDedupHistorySize());
+        this.priorityAgingMillis = Math.max(0L, bridgeConfig.getUploadPriorityAgingMillis());
+        this.highPriorityMaxBytes = Math.max(0L, bridgeConfig.getUploadPriorityHighMaxBytes());
+        this.bulkPriorityMinBytes = Math.max(0L, bridgeConfig.getUploadPriorityBulkMinBytes());
+        this.maxStatusChecksPerRun = Math.max(1, bridgeConfig.getUploadStatusMaxChecksPerRun());
+        this.statusReconciler = new UploadStatusReconciler(
+                Math.max(1, bridgeConfig.getUploadStatusFailedMaxChecks()),
+                Math.max(0L, bridgeConfig.getUploadStatusMaxAgeMillis()),
+                new Random());
+        this.uploadMetrics = uploadMetrics;
+        this.uploadStorageQuota = new UploadStorageQuota(
+                Math.max(0L, bridgeConfig.getUploadMaxStorageBytes()));
+        this.uploadScheduler = uploadScheduler;
+        this.sessionPrefetcher = new UploadSessionPrefetcher(
+                Math.max(0, bridgeConfig.getUploadSessionPrefetchCount()));
+        int bodyBufferBytes = bridgeConfig.getUploadBodyBufferBytes();
+        this.uploadBodyBufferBytes = bodyBufferBytes > 0
+                ? bodyBufferBytes : FileUploadRequestBody.DEFAULT_BUFFER_SIZE;
+        this.progressMinBytes = Math.max(0L, bridgeConfig.getUploadProgressMinBytes());
+        this.progressMinIntervalMillis =
+                Math.max(0L, bridgeConfig.getUploadProgressMinIntervalMillis());
     }
 
     /**
      * Persists the archive on disk and add it to the queue of pending uploads, runs in an IO
      * thread.
+     * <p>
+     * If queued archives would exceed {@link BridgeConfig#getUploadMaxStorageBytes()}, archives
+     * Bridge already has are evicted to make room, see {@link UploadStorageQuota}. If there is
+     * still not enough room, the archive is not queued and the single fails with
+     * {@link UploadStorageQuotaException}.
+     * <p>
+     * If {@link BridgeConfig#isUploadDedupEnabled()}, an archive with the same data as a recently
+     * queued archive is not persisted, and the earlier archive's UploadFile is returned instead.
+     * See {@link ArchiveFingerprinter}.
+     *
+     * The upload's priority is chosen from the size of the persisted archive, see
+     * {@link #queueUpload(String, Archive, UploadPriority)}.
+     *
+     * If {@link BridgeConfig#isUploadBackgroundEnabled()}, a background upload is scheduled for
+     * the queued archive, see {@link UploadScheduler}.
      *
      * @param filename filename for the archive
      * @param archive  archive to be queued
-     * @return information about file produced from the archive
+     * @return information about file produced from the archive, or about the earlier archive if
+     * this one is a duplicate
      */
     @NonNull
     public Single<UploadFile> queueUpload(String filename, Archive archive) {
-        LOG.debug("Queueing archive: " + archive);
-        return Single.fromCallable(() -> persist(filename, archive))
-                .subscribeOn(Schedulers.io());
+        return queueUpload(filename, archive, null);
+    }
+
+    /**
+     * Persists the archive on disk and add it to the queue of pending uploads with the given
+     * priority, runs in an IO thread. See {@link #queueUpload(String, Archive)}.
+     *
+     * @param filename filename for the archive
+     * @param archive  archive to be queued
+     * @param priority priority of the upload, or null to choose it from the archive size: up to
+     *                 {@link BridgeConfig#getUploadPriorityHighMaxBytes()} is HIGH, at least
+     *                 {@link BridgeConfig#getUploadPriorityBulkMinBytes()} is BULK, otherwise
+     *                 NORMAL
+     * @return information about file produced from the archive, or about the earlier archive if
+     * this one is a duplicate
+     */
+    @NonNull
+    public Single<UploadFile> queueUpload(String filename, Archive archive,
+                                          @Nullable UploadPriority priority) {
+        return queueUpload(filename, archive, null, priority);
+    }
+
+    /**
+     * Persists the archive of the contents on disk and add it to the queue of pending uploads,
+     * runs in an IO thread. See {@link #queueUpload(String, Archive)}.
+     * <p>
+     * If {@link BridgeConfig#isUploadCompressionPolicyEnabled()}, each data file is compressed at
+     * its own level while it is written, see {@link CompressionPolicyArchiveWriter}. An Archive
+     * that is already built is always compressed at the default level.
+     *
+     * @param filename filename for the archive
+     * @param contents data files of the archive to be queued
+     * @return information about file produced from the archive, or about the earlier archive if
+     * this one is a duplicate
+     */
+    @NonNull
+    public Single<UploadFile> queueUpload(String filename, ArchiveContents contents) {
+        return queueUpload(filename, contents, null);
+    }
+
+    /**
+     * Persists the archive of the contents on disk and add it to the queue of pending uploads
+     * with the given priority, runs in an IO thread. See
+     * {@link #queueUpload(String, ArchiveContents)} and
+     * {@link #queueUpload(String, Archive, UploadPriority)}.
+     *
+     * @param filename filename for the archive
+     * @param contents data files of the archive to be queued
+     * @param priority priority of the upload, or null to choose it from the archive size
+     * @return information about file produced from the archive, or about the earlier archive if
+     * this one is a duplicate
+     */
+    @NonNull
+    public Single<UploadFile> queueUpload(String filename, ArchiveContents contents,
+                                          @Nullable UploadPriority priority) {
+        return Single.defer(() -> queueUpload(filename, contents.toArchive(), contents, priority));
+    }
+
+    @NonNull
+    private Single<UploadFile> queueUpload(String filename, Archive archive,
+                                           @Nullable ArchiveContents contents,
+                                           @Nullable UploadPriority priority) {
+        LOG.debug("Queueing archive with filename: {}", filename);
+        return Single.fromCallable(() -> {
+            recoverUnfinishedPersists();
+
+            String fingerprint = null;
+            if (archiveFingerprinter != null) {
+                fingerprint = archiveFingerprinter.fingerprint(archive);
+                UploadFile duplicate = uploadDAO.getUploadFileForFingerprint(fingerprint);
+                if (duplicate != null) {
+                    LOG.info("Skipping archive with filename: {}, same data as: {}", filename,
+                            duplicate.filename);
+                    // an earlier upload under this filename is not replaced by this archive
+                    uploadMetrics.forgetUpload(filename);
+                    return duplicate;
+                }
+            }
+
+            long start = System.currentTimeMillis();
+            UploadFile uploadFile = null;
+            try {
+                uploadFile = persist(filename, archive, contents, priority);
+                if (uploadFile != null && fingerprint != null) {
+                    uploadDAO.putFingerprint(fingerprint, uploadFile, dedupHistorySize);
+                }
+                if (uploadFile != null) {
+                    uploadScheduler.onUploadQueued(uploadFile);
+                }
+                return uploadFile;
+            } finally {
+                uploadMetrics.recordPhase(filename, UploadPhase.PERSIST,
+                        System.currentTimeMillis() - start,
+                        uploadFile != null ? uploadFile.fileLength : 0,
+                        uploadFile != null);
+                recordQueueMetrics();
+            }
+        }).subscribeOn(Schedulers.io());
     }
 
     /**
@@ -110,11 +323,14 @@ public class UploadManager implements AuthenticationManager.AuthenticationEventL
     Completable clearUploads() {
         return Completable.merge(
                 getUploadFilenames()
-                        .map(this::dequeueUpload));
+                        .map(this::dequeueUpload))
+                .andThen(Completable.fromAction(uploadDAO::clearFingerprints))
+                .subscribeOn(Schedulers.io());
     }
 
     @Override
     public void onSignedOut(String email) {
+        uploadScheduler.cancel();
         // noinspection RxLeakedSubscription,RxSubscribeOnError
         clearUploads().subscribe();
     }
@@ -131,34 +347,172 @@ public class UploadManager implements AuthenticationManager.AuthenticationEventL
      * Retrieves cached UploadSession (if one exists) for each UploadFile and perform the next step
      * in the upload flow by calling
      * this{@link #processUploadForCachedSession(UploadFile, UploadSession)}.
+     * <p>
+     * Up to {@link BridgeConfig#getUploadMaxConcurrency()} files are processed at the same time,
+     * in {@link UploadPriority} order. A failure to process one file does not affect the others.
+     * <p>
+     * Files whose status was recently checked and left them queued, e.g. validation in progress,
+     * are skipped until their next check is due. At most
+     * {@link BridgeConfig#getUploadStatusMaxChecksPerRun()} files are processed per call.
+     * <p>
+     * As each file starts, upload sessions for the next
+     * {@link BridgeConfig#getUploadSessionPrefetchCount()} files are requested, see
+     * {@link UploadSessionPrefetcher}.
      *
      * @return Observable with information on if the upload was successful or not
      */
     @NonNull
     public Completable processUploadFiles() {
-        return Completable.concat(
-                getUploadFilenames()
-                        .map(uploadDAO::getUploadFile)
-                        .map(uploadFile ->
-                                processUploadForCachedSession(
-                                        uploadFile,
-                                        uploadDAO.getUploadSession(uploadFile.filename)
-                                ).doOnError(t -> LOG.warn("Failed to process upload file: {}", uploadFile, t)))
-                        .onErrorReturn(t -> Completable.complete()));
+        return processUploadFiles(Long.MAX_VALUE);
+    }
+
+    /**
+     * Like {@link #processUploadFiles()}, but archives larger than maxUploadLength are not sent
+     * to S3, e.g. on a metered network. Status checks of archives already sent are still made.
+     *
+     * @param maxUploadLength maximum size in bytes of an archive to send to S3
+     * @return Observable with information on if the upload was successful or not
+     */
+    @NonNull
+    public Completable processUploadFiles(long maxUploadLength) {
+        return Completable.defer(() -> {
+            recoverUnfinishedPersists();
+            recordQueueMetrics();
+            return Completable.merge(
+                    getUploadFilenamesDueForStatusCheck(maxUploadLength)
+                            .toList()
+                            .concatMap(filenames -> Observable.range(0, filenames.size())
+                                    .map(i -> Completable.fromAction(() ->
+                                            prefetchUploadSessions(filenames.subList(i + 1,
+                                                    Math.min(filenames.size(),
+                                                            i + 1 + sessionPrefetcher.getMaxInFlight()))))
+                                            .andThen(processQueuedUploadFile(filenames.get(i)))
+                                            .subscribeOn(Schedulers.io())
+                                            .doOnError(t -> LOG.warn("Failed to process upload file: {}",
+                                                    filenames.get(i), t))
+                                            .onErrorComplete())),
+                    maxConcurrency);
+        }).doOnTerminate(this::recordQueueMetrics)
+                .subscribeOn(Schedulers.io());
+    }
+
+    /**
+     * Progress of S3 uploads, throttled by {@link BridgeConfig#getUploadProgressMinBytes()} and
+     * {@link BridgeConfig#getUploadProgressMinIntervalMillis()}. Events are sent on the uploading
+     * thread; observers should observe on their own scheduler. A retried upload starts again at
+     * 0 bytes.
+     *
+     * @return hot observable of upload progress, for all files
+     */
+    @NonNull
+    public Observable<UploadProgress> getUploadProgress() {
+        return uploadProgressSubject.asObservable().onBackpressureLatest();
+    }
+
+    /**
+     * Records the depth of the upload queue and the age of its oldest upload.
+     */
+    @WorkerThread
+    void recordQueueMetrics() {
+        uploadMetrics.recordQueue(uploadDAO.getUploadCount(), uploadDAO.getOldestUploadCreatedOn());
+    }
+
+    /**
+     * Reads the queued UploadFile and its cached UploadSession when subscribed, as the file may
+     * have been dequeued while waiting for its turn. If the file's session is being prefetched,
+     * waits for the prefetch first.
+     *
+     * @param filename queued filename
+     * @return completion of next upload step, or an empty completion if no longer queued
+     */
+    @NonNull
+    Completable processQueuedUploadFile(@NonNull String filename) {
+        Completable process = Completable.defer(() -> {
+            UploadFile uploadFile = uploadDAO.getUploadFile(filename);
+            if (uploadFile == null) {
+                return Completable.complete();
+            }
+            return processUploadForCachedSession(uploadFile,
+                    uploadDAO.getUploadSession(filename));
+        });
+        return Completable.defer(() -> {
+            Single<UploadSession> prefetch = sessionPrefetcher.getInFlight(filename);
+            if (prefetch == null) {
+                return process;
+            }
+            // a prefetched session is cached by the time the request completes
+            return prefetch.toCompletable()
+                    .onErrorComplete()
+                    .andThen(process);
+        });
+    }
+
+    /**
+     * Requests upload sessions for queued files that have none, or whose session expires within
+     * the expiry window and was never used for a PUT.
+     *
+     * @param filenames files whose turn comes next
+     */
+    @WorkerThread
+    void prefetchUploadSessions(@NonNull List<String> filenames) {
+        if (sessionPrefetcher.getMaxInFlight() == 0) {
+            return;
+        }
+        DateTime minimumExpiration = DateTime.now().plusMinutes(UPLOAD_EXPIRY_WINDOW_MINUTES);
+        for (String filename : filenames) {
+            UploadEntity uploadEntity = uploadDAO.getUploadEntity(filename);
+            if (uploadEntity == null) {
+                continue;
+            }
+            boolean prefetch = uploadEntity.state == UploadState.QUEUED;
+            if (uploadEntity.state == UploadState.SESSION_ACQUIRED
+                    && uploadEntity.attemptCount == 0) {
+                UploadSession session = uploadDAO.getUploadSession(filename);
+                prefetch = session == null
+                        || UploadSessionPrefetcher.isExpiring(session, minimumExpiration);
+            }
+            if (prefetch) {
+                sessionPrefetcher.prefetch(filename,
+                        getUploadSession(UploadDAO.toUploadFile(uploadEntity))
+                                .subscribeOn(Schedulers.io()));
+            }
+        }
+    }
+
+    /**
+     * @param maxUploadLength archives not yet sent to S3 and larger than this are left out
+     * @return observable of queued filenames whose status check is due, in priority order
+     */
+    Observable<String> getUploadFilenamesDueForStatusCheck(long maxUploadLength) {
+        return Observable.defer(() -> Observable.from(uploadDAO.listUploadFilenamesDueForStatusCheck(
+                System.currentTimeMillis(), maxStatusChecksPerRun, priorityAgingMillis,
+                maxUploadLength)));
+    }
+
+    /**
+     * @param maxUploadLength archives larger than this are not counted
+     * @return number of queued archives not yet sent to S3, no larger than maxUploadLength
+     */
+    @WorkerThread
+    public int getPendingUploadCount(long maxUploadLength) {
+        return uploadDAO.getPendingUploadCount(maxUploadLength);
     }
 
     /**
      * @return observable of queued filenames
      */
     Observable<String> getUploadFilenames() {
-        Set<String> filenames = uploadDAO.listUploadFilenames();
+        return Observable.defer(() -> {
+            Set<String> filenames = uploadDAO.listUploadFilenames();
 
-        return Observable.from(filenames.toArray(new String[filenames.size()]));
+            return Observable.from(filenames.toArray(new String[filenames.size()]));
+        });
     }
 
     /**
      * Retrieves cached UploadSession (if one exists) for an UploadFile and calls the next step
-     * of the upload flow: {@link #processUploadForCachedSession(UploadFile, UploadSession)}.
+     * of the upload flow: {@link #processUploadForCachedSession(UploadFile, UploadSession)}. Runs
+     * in an IO thread.
      *
      * @param uploadFile file to upload
      * @return completable
@@ -167,14 +521,22 @@ public class UploadManager implements AuthenticationManager.AuthenticationEventL
     public Completable processUploadFile(@NonNull UploadFile uploadFile) {
         checkNotNull(uploadFile);
 
-        Single<UploadSession> cachedSessionSingle =
-                Single.just(uploadDAO.getUploadSession(uploadFile.filename));
+        return Completable.defer(() -> {
+            if (uploadDAO.getUploadFile(uploadFile.filename) == null) {
+                // already uploaded, e.g. queueUpload returned an earlier archive with the same data
+                LOG.debug("Upload no longer queued, filename: {}", uploadFile.filename);
+                return Completable.complete();
+            }
 
-        return Single.zip(
-                Single.just(uploadFile),
-                cachedSessionSingle,
-                this::processUploadForCachedSession
-        ).flatMapCompletable(i -> i);
+            Single<UploadSession> cachedSessionSingle =
+                    Single.just(uploadDAO.getUploadSession(uploadFile.filename));
+
+            return Single.zip(
+                    Single.just(uploadFile),
+                    cachedSessionSingle,
+                    this::processUploadForCachedSession
+            ).flatMapCompletable(i -> i);
+        }).subscribeOn(Schedulers.io());
     }
 
     /**
@@ -234,25 +596,96 @@ public class UploadManager implements AuthenticationManager.AuthenticationEventL
 
         switch (uploadValidationStatus.getStatus()) {
             case REQUESTED:
+                if (!getFile(uploadFile.filename).exists()) {
+                    return processUploadWithoutFile(uploadFile, uploadSession);
+                }
                 return uploadToS3(uploadFile, uploadSession);
             case SUCCEEDED:
             case DUPLICATE:
+                uploadMetrics.recordValidationFinished(uploadFile.filename, true);
                 return dequeueUpload(uploadFile.filename);
             case VALIDATION_IN_PROGRESS:
                 LOG.debug("Validation in progress for filename: " + uploadFile.filename +
                         ", uploadId" + uploadSession.getId());
+                uploadDAO.updateUploadState(uploadFile.filename, UploadState.VALIDATING);
                 break;
             case VALIDATION_FAILED:
                 LOG.debug("Validation failed for filename: " + uploadFile.filename +
                         ", uploadId" + uploadSession.getId());
+                uploadDAO.updateUploadState(uploadFile.filename, UploadState.FAILED);
+                uploadMetrics.recordValidationFinished(uploadFile.filename, false);
                 break;
             case UNKNOWN:
             default:
                 LOG.warn("Unknown status for uploadId: " + uploadValidationStatus.getId());
         }
-        // return a successful completion when there's nothing to do
-        // leaves the files queued, in case there's future recovery options (e.g. next
-        // release), will add removal for permanent failures
+        // leaves the file queued, and defers its next status check, unless Bridge will not
+        // process it
+        return reconcileQueuedUpload(uploadFile.filename, uploadValidationStatus.getStatus());
+    }
+
+    /**
+     * Handles an upload Bridge has not received whose archive file is gone. If the archive was
+     * uploaded to S3 and then compacted, Bridge was never told the upload completed, so the upload
+     * session is completed again and the next status check deferred. Otherwise the archive cannot
+     * be uploaded and the upload is removed from the queue.
+     *
+     * @param uploadFile    queued file whose archive is missing
+     * @param uploadSession upload session the archive was or would have been uploaded with
+     * @return completion of the upload step
+     */
+    @NonNull
+    Completable processUploadWithoutFile(@NonNull UploadFile uploadFile,
+                                         @NonNull UploadSession uploadSession) {
+        UploadEntity uploadEntity = uploadDAO.getUploadEntity(uploadFile.filename);
+        if (uploadEntity == null || (uploadEntity.state != UploadState.UPLOADED
+                && uploadEntity.state != UploadState.VALIDATING)) {
+            LOG.warn("Archive file missing before upload, removing upload from queue, filename: "
+                    + uploadFile.filename);
+            return dequeueUpload(uploadFile.filename);
+        }
+
+        LOG.warn("Archive file compacted before Bridge completed the upload, completing upload "
+                + "session: " + uploadSession.getId() + ", filename: " + uploadFile.filename);
+        return recordPhase(RxUtils.toBodySingle(authenticatedSafeAtomicReference.get()
+                        .forConsentedUsersApi.completeUploadSession(uploadSession.getId(), false,
+                                false)),
+                uploadFile.filename, UploadPhase.COMPLETE_UPLOAD_SESSION, 0)
+                .toCompletable()
+                .doOnError(t -> LOG.warn("Call to upload complete failed for file: "
+                        + uploadFile.filename, t))
+                .onErrorComplete()
+                .andThen(Completable.defer(() -> reconcileQueuedUpload(uploadFile.filename,
+                        UploadStatus.REQUESTED)));
+    }
+
+    /**
+     * Defers the next status check of an upload that is staying queued, or removes it from the
+     * queue if {@link UploadStatusReconciler} considers it permanently failed.
+     *
+     * @param filename queued filename
+     * @param status   status just received from Bridge
+     * @return completion of the dequeue, if the upload is retired
+     */
+    @NonNull
+    Completable reconcileQueuedUpload(@NonNull String filename, @Nullable UploadStatus status) {
+        UploadEntity uploadEntity = uploadDAO.getUploadEntity(filename);
+        if (uploadEntity == null) {
+            return Completable.complete();
+        }
+
+        long now = System.currentTimeMillis();
+        if (status != null && statusReconciler.shouldRetire(uploadEntity, status, now)) {
+            LOG.warn("Removing upload from queue, status: " + status + ", failedValidationCount: "
+                    + uploadEntity.failedValidationCount + ", filename: " + filename);
+            return dequeueUpload(filename);
+        }
+
+        if (status == UploadStatus.VALIDATION_FAILED) {
+            uploadDAO.recordFailedValidation(filename);
+        }
+        uploadDAO.scheduleStatusCheck(filename,
+                statusReconciler.getNextStatusCheckOn(uploadEntity, now));
         return Completable.complete();
     }
 
@@ -273,8 +706,10 @@ public class UploadManager implements AuthenticationManager.AuthenticationEventL
             } else {
                 LOG.warn("Failed to delete upload file: " + filename);
             }
-        }).doOnCompleted(() -> uploadDAO.removeUploadAndSession(filename))
-                .subscribeOn(Schedulers.io());
+        }).doOnCompleted(() -> {
+            uploadDAO.removeUploadAndSession(filename);
+            uploadMetrics.forgetUpload(filename);
+        }).subscribeOn(Schedulers.io());
     }
 
     /**
@@ -293,6 +728,10 @@ public class UploadManager implements AuthenticationManager.AuthenticationEventL
     /**
      * Uses the pre-signed URL in UploadSession to upload the file to S3. If the provided pre-signed
      * URL has expired or is nearing expiry, request a new UploadSession before uploading the file.
+     * <p>
+     * Waits until the file fits within {@link BridgeConfig#getUploadMaxInFlightBytes()} before
+     * starting the upload. Files of at least {@link BridgeConfig#getUploadS3RetryMinBytes()} are
+     * retried with backoff if the connection drops, using the same session.
      *
      * @param uploadFile file being uploaded
      * @param session    pre-signed upload session
@@ -319,21 +758,35 @@ public class UploadManager implements AuthenticationManager.AuthenticationEventL
         LOG.info("Attempting S3 upload for file: {}, sessionId: {}", uploadFile.filename, session.getId());
 
         FileUploadRequestBody requestBody = new FileUploadRequestBody(file, uploadFile.contentType,
-                l -> LOG.trace("File {}: Uploaded {} of {} bytes", uploadFile.filename, l, uploadFile.fileLength));
-        return sessionSingle.flatMap(freshSession -> RxUtils.toBodySingle(
+                l -> {
+                    LOG.trace("File {}: Uploaded {} of {} bytes", uploadFile.filename, l, uploadFile.fileLength);
+                    uploadProgressSubject.onNext(
+                            new UploadProgress(uploadFile.filename, l, uploadFile.fileLength));
+                },
+                uploadBodyBufferBytes, progressMinBytes, progressMinIntervalMillis);
+        int maxRetries = uploadFile.fileLength >= s3RetryMinBytes ? s3MaxRetries : 0;
+
+        Completable upload = sessionSingle.flatMap(freshSession -> recordPhase(RxUtils.toBodySingle(
                 getS3Service(freshSession)
                         .uploadToS3(
                                 freshSession.getUrl(),
                                 requestBody,
                                 uploadFile.md5Hash,
-                                uploadFile.contentType)))
+                                uploadFile.contentType))
+                .doOnSubscribe(() -> uploadDAO.recordUploadAttempt(uploadFile.filename))
+                .retryWhen(new S3UploadRetry(maxRetries, S3_RETRY_INITIAL_DELAY_MILLIS,
+                        Schedulers.computation(), uploadMetrics::recordRetry)),
+                uploadFile.filename, UploadPhase.S3_PUT, uploadFile.fileLength))
                 .doOnSuccess(aVoid -> {
                     LOG.info("S3 upload succeeded for file: {}, sessionId: {}", uploadFile.filename, session.getId());
+                    uploadDAO.updateUploadState(uploadFile.filename, UploadState.UPLOADED);
+                    uploadMetrics.markUploaded(uploadFile.filename);
 
                     // call upload complete on a computation thread
                     // noinspection RxLeakedSubscription,RxSubscribeOnError
-                    RxUtils.toBodySingle(authenticatedSafeAtomicReference.get().forConsentedUsersApi
-                            .completeUploadSession(session.getId(), false, false))
+                    recordPhase(RxUtils.toBodySingle(authenticatedSafeAtomicReference.get().forConsentedUsersApi
+                            .completeUploadSession(session.getId(), false, false)),
+                            uploadFile.filename, UploadPhase.COMPLETE_UPLOAD_SESSION, 0)
                             .doOnSuccess(val -> {
                                 LOG.info("Call to upload complete succeeded");
                             })
@@ -347,18 +800,33 @@ public class UploadManager implements AuthenticationManager.AuthenticationEventL
                         LOG.warn("S3 upload failed for file: {}, sessionId: {}",
                                 uploadFile.filename, session.getId(), t)
                 ).toCompletable();
+
+        return Completable.using(
+                () -> {
+                    try {
+                        return uploadByteBudget.acquire(uploadFile.fileLength);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw Exceptions.propagate(e);
+                    }
+                },
+                reserved -> upload,
+                uploadByteBudget::release);
     }
 
     @NonNull
     Single<UploadSession> getUploadSession(UploadFile uploadFile) {
-        return RxUtils.toBodySingle(
+        // warm up the S3 connection while Bridge creates the session
+        return recordPhase(RxUtils.toBodySingle(
                 authenticatedSafeAtomicReference.get().forConsentedUsersApi
                         .requestUploadSession(
                                 new UploadRequest()
                                         .name(uploadFile.filename)
                                         .contentType(uploadFile.contentType)
                                         .contentLength(uploadFile.fileLength)
-                                        .contentMd5(uploadFile.md5Hash)))
+                                        .contentMd5(uploadFile.md5Hash))),
+                uploadFile.filename, UploadPhase.SESSION_REQUEST, 0)
+                .doOnSubscribe(s3Transport::preconnect)
                 .doOnSuccess((uploadSession) -> {
                     LOG.info("Received processUploadFiles session with id: " + uploadSession
                             .getId());
@@ -367,13 +835,39 @@ public class UploadManager implements AuthenticationManager.AuthenticationEventL
                 .doOnError(t -> LOG.warn("Failed to get upload session for file: " + uploadFile.filename, t));
     }
 
+    /**
+     * Records the duration of each subscription to the single with {@link UploadMetrics}.
+     *
+     * @param single   work done in the phase
+     * @param filename file being uploaded
+     * @param phase    phase of the upload flow
+     * @param bytes    bytes transferred by the phase, 0 if not applicable
+     * @return single that records its duration
+     */
+    @NonNull
+    <T> Single<T> recordPhase(@NonNull Single<T> single, @NonNull String filename,
+                              @NonNull UploadPhase phase, long bytes) {
+        return Single.defer(() -> {
+            long start = System.currentTimeMillis();
+            return single
+                    .doOnSuccess(t -> uploadMetrics.recordPhase(filename, phase,
+                            System.currentTimeMillis() - start, bytes, true))
+                    .doOnError(t -> uploadMetrics.recordPhase(filename, phase,
+                            System.currentTimeMillis() - start, bytes, false));
+        });
+    }
+
     @WorkerThread
     @Nullable
-    UploadFile persist(String filename, Archive archive) throws IOException,
-            CMSException, NoSuchAlgorithmException {
-        File file = getFile(filename);
+    UploadFile persist(String filename, Archive archive, @Nullable ArchiveContents contents,
+                       @Nullable UploadPriority priority)
+            throws IOException, CMSException, NoSuchAlgorithmException {
+        // fail fast, without writing the archive, if there is no room at all
+        ensureStorageFor(filename, 1);
 
-        ByteSink sink = Files.asByteSink(file, FileWriteMode.APPEND);
+        File file = getFile(filename);
+        String stagedFilename = filename + STAGED_FILE_SUFFIX;
+        File stagedFile = getFile(stagedFilename);
 
         MessageDigest md5;
         try {
@@ -383,29 +877,205 @@ public class UploadManager implements AuthenticationManager.AuthenticationEventL
             throw e;
         }
 
-        LOG.debug("Writing archive with filename: " + filename + ", with contents: " + archive);
+        // archive contents are participant data, they are not logged
+        LOG.debug("Writing archive with filename: {}", filename);
 
-        try (OutputStream os = sink.openBufferedStream();
+        uploadDAO.beginPersist(filename, stagedFilename);
+        UploadFile uploadFile;
+        try {
+            uploadFile = writeStagedFile(stagedFile, archive, contents, md5);
+        } catch (IOException | CMSException | RuntimeException e) {
+            abortPersist(filename, stagedFile);
+            if (e instanceof CMSException) {
+                LOG.warn("Failed to write archive with filename: {}", filename, e);
+                return null;
+            }
+            throw e;
+        }
+        uploadFile.filename = filename;
+        uploadFile.priority = priority != null ? priority : getPriorityForLength(uploadFile.fileLength);
+
+        try {
+            ensureStorageFor(filename, uploadFile.fileLength);
+        } catch (UploadStorageQuotaException e) {
+            LOG.warn("Rejecting upload, not enough storage", e);
+            abortPersist(filename, stagedFile);
+            throw e;
+        }
+
+        // once the journal says the staged file is complete, the persist can be resumed
+        uploadDAO.markPersistWritten(stagedFilename, uploadFile);
+        if (!stagedFile.renameTo(file)) {
+            abortPersist(filename, stagedFile);
+            throw new IOException("Failed to rename staged file: " + stagedFilename);
+        }
+        uploadDAO.commitPersist(uploadFile);
+
+        return uploadFile;
+    }
+
+    /**
+     * Writes the encrypted archive to a new staged file and syncs it to disk. The archive is
+     * zipped with the compression policy if its contents are known, and on its own thread if
+     * persists are pipelined.
+     *
+     * @return archive's length, MD5 and content type, filename and priority are not set
+     */
+    @WorkerThread
+    @NonNull
+    private UploadFile writeStagedFile(@NonNull File stagedFile, @NonNull Archive archive,
+                                       @Nullable ArchiveContents contents,
+                                       @NonNull MessageDigest md5)
+            throws IOException, CMSException {
+        PipelinedArchiveWriter.ZipSource zipSource = contents != null
+                && compressionPolicyArchiveWriter != null
+                ? outputStream -> compressionPolicyArchiveWriter.write(contents, outputStream)
+                : archive::writeTo;
+
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(stagedFile));
              DigestOutputStream md5OutStream = new DigestOutputStream(os, md5);
              OutputStream encryptedOutputStream = encryptor.encrypt(md5OutStream)) {
-            archive.writeTo(encryptedOutputStream);
-        } catch (CMSException e) {
-            LOG.warn("Failed to write archive with filename: {}", filename, e);
-            return null;
+            if (pipelinedArchiveWriter != null) {
+                PipelinedArchiveWriter.Stats stats =
+                        pipelinedArchiveWriter.write(zipSource, encryptedOutputStream);
+                LOG.debug("Pipelined write of archive with filename: {}, {}", stagedFile.getName(),
+                        stats);
+            } else {
+                zipSource.writeTo(encryptedOutputStream);
+            }
+        }
+        // the encryptor writes its trailer on close, so sync once every stream is closed
+        try (FileOutputStream syncOutputStream = new FileOutputStream(stagedFile, true)) {
+            syncOutputStream.getFD().sync();
         }
-
-        String md5Hash = BaseEncoding.base64().encode(md5.digest());
 
         UploadFile uploadFile = new UploadFile();
-        uploadFile.filename = filename;
         uploadFile.contentType = CONTENT_TYPE_DATA_ARCHIVE;
-        uploadFile.fileLength = file.length();
-        uploadFile.md5Hash = md5Hash;
+        uploadFile.fileLength = stagedFile.length();
+        uploadFile.md5Hash = BaseEncoding.base64().encode(md5.digest());
         uploadFile.createdOn = DateTime.now();
+        return uploadFile;
+    }
 
-        uploadDAO.putUploadFile(filename, uploadFile);
+    private void abortPersist(@NonNull String filename, @NonNull File stagedFile) {
+        if (stagedFile.exists() && !stagedFile.delete()) {
+            LOG.warn("Failed to delete staged file for: " + filename);
+        }
+        uploadDAO.abortPersist(filename);
+    }
 
-        return uploadFile;
+    /**
+     * Finishes or cleans up persists interrupted by the process dying, once per process. Only
+     * files named in the journal are looked at. A staged file that was completely written and
+     * synced is renamed and queued, anything else is deleted, as the archive is gone with the
+     * process.
+     */
+    @WorkerThread
+    void recoverUnfinishedPersists() {
+        if (recoveredPersists) {
+            return;
+        }
+        synchronized (this) {
+            if (recoveredPersists) {
+                return;
+            }
+            for (UploadJournalEntity entity : uploadDAO.listUnfinishedPersists()) {
+                recoverUnfinishedPersist(entity);
+            }
+            recoveredPersists = true;
+        }
+    }
+
+    @WorkerThread
+    private void recoverUnfinishedPersist(@NonNull UploadJournalEntity entity) {
+        File stagedFile = getFile(entity.stagedFilename);
+        File file = getFile(entity.filename);
+
+        if (entity.isWritten()) {
+            if (stagedFile.exists() && !stagedFile.renameTo(file)) {
+                LOG.warn("Failed to rename staged file: " + entity.stagedFilename);
+            }
+            if (file.length() == entity.fileLength) {
+                LOG.info("Resuming interrupted persist of upload file: " + entity.filename);
+                uploadDAO.commitPersist(UploadDAO.toUploadFile(entity));
+                return;
+            }
+        }
+
+        LOG.warn("Deleting partial upload file from interrupted persist: " + entity.filename);
+        if (uploadDAO.getUploadFile(entity.filename) == null && file.exists() && !file.delete()) {
+            LOG.warn("Failed to delete partial upload file: " + entity.filename);
+        }
+        abortPersist(entity.filename, stagedFile);
+    }
+
+    /**
+     * @param fileLength size of a persisted archive
+     * @return priority for an archive of the size
+     */
+    @NonNull
+    UploadPriority getPriorityForLength(long fileLength) {
+        if (fileLength <= highPriorityMaxBytes) {
+            return UploadPriority.HIGH;
+        }
+        if (bulkPriorityMinBytes > 0 && fileLength >= bulkPriorityMinBytes) {
+            return UploadPriority.BULK;
+        }
+        return UploadPriority.NORMAL;
+    }
+
+    /**
+     * Makes room for an archive within the storage budget, evicting queued archives if needed.
+     *
+     * @param filename      file to make room for, excluded from the current usage
+     * @param requiredBytes size of the file
+     * @throws UploadStorageQuotaException if there is not enough room, in which case nothing is
+     *                                     evicted
+     */
+    @WorkerThread
+    synchronized void ensureStorageFor(@NonNull String filename, long requiredBytes)
+            throws UploadStorageQuotaException {
+        if (uploadStorageQuota.getMaxBytes() == 0) {
+            return;
+        }
+
+        List<UploadStorageQuota.StoredUpload> storedUploads = Lists.newArrayList();
+        for (UploadEntity uploadEntity : uploadDAO.listUploads()) {
+            if (!uploadEntity.filename.equals(filename)) {
+                storedUploads.add(new UploadStorageQuota.StoredUpload(uploadEntity,
+                        getFile(uploadEntity.filename).length()));
+            }
+        }
+
+        // staged files of other persists take space until they are queued or aborted
+        long stagedBytes = 0;
+        for (UploadJournalEntity entity : uploadDAO.listUnfinishedPersists()) {
+            if (!entity.filename.equals(filename)) {
+                stagedBytes += getFile(entity.stagedFilename).length();
+            }
+        }
+
+        UploadStorageQuota.Plan plan = uploadStorageQuota.plan(storedUploads, stagedBytes,
+                requiredBytes);
+        if (!plan.fits()) {
+            throw new UploadStorageQuotaException(filename, requiredBytes, plan.getAvailableBytes());
+        }
+
+        for (UploadStorageQuota.Eviction eviction : plan.getEvictions()) {
+            LOG.warn("Evicting upload file: " + eviction.getFilename() + ", type: "
+                    + eviction.getType() + ", bytes: " + eviction.getBytes());
+
+            if (!getFile(eviction.getFilename()).delete()) {
+                LOG.warn("Failed to delete evicted upload file: " + eviction.getFilename());
+                continue;
+            }
+            if (eviction.getType() == UploadStorageQuota.EvictionType.DROP) {
+                uploadDAO.removeUploadAndSession(eviction.getFilename());
+                uploadMetrics.forgetUpload(eviction.getFilename());
+            }
+            uploadMetrics.recordEviction(eviction.getFilename(), eviction.getBytes(),
+                    eviction.getType());
+        }
     }
 
     File getFile(String filename) {
@@ -415,14 +1085,7 @@ public class UploadManager implements AuthenticationManager.AuthenticationEventL
     }
 
     S3Service getS3Service(UploadSession uploadSession) {
-        URI uri = URI.create(uploadSession.getUrl());
-        String baseUrl = uri.getScheme() + "://" + uri.getHost() + "/";
-
-        Retrofit retrofit = new Retrofit.Builder()
-                .baseUrl(baseUrl)
-                .client(s3OkHttpClient).build();
-
-        return retrofit.create(S3Service.class);
+        return s3Transport.getS3Service(uploadSession.getUrl());
     }
 
     public static class UploadFile {
@@ -431,5 +1094,10 @@ public class UploadManager implements AuthenticationManager.AuthenticationEventL
         public long fileLength;
         public String md5Hash;
         public DateTime createdOn;
+        /**
+         * null for uploads queued before priorities, which are NORMAL
+         */
+        @Nullable
+        public UploadPriority priority;
     }
 }
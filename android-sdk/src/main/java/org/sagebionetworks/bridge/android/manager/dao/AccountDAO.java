@@ -20,6 +20,8 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.inject.Inject;
 
+import rx.Observable;
+
 /**
  * Created by jyliu on 2/8/2017.
  */
@@ -32,6 +34,7 @@ public class AccountDAO extends SharedPreferencesJsonDAO {
     private static final String PREFERENCES_FILE = "accounts";
     private static final String KEY_DATA_GROUPS = "dataGroups";
     private static final String KEY_SESSION_INFO = "session";
+    private static final String KEY_SESSION_UPDATED_ON = "sessionUpdatedOn";
     private static final String KEY_STUDY_PARTICIPANT = "participant";
     private static final String KEY_EMAIL = "email";
     private static final String KEY_PHONE_REGION = "phoneRegion";
@@ -50,7 +53,7 @@ public class AccountDAO extends SharedPreferencesJsonDAO {
      * Removes all saved data
      */
     public void clear() {
-        sharedPreferences.edit().clear().commit();
+        clearValues();
     }
 
     /**
@@ -99,6 +102,15 @@ public class AccountDAO extends SharedPreferencesJsonDAO {
         }
     }
 
+    /**
+     * @return observable emitting the stored session, or completing without one if there is none,
+     * the session is read on the disk thread
+     */
+    @NonNull
+    public Observable<UserSessionInfo> getUserSessionInfoAsync() {
+        return readAsync(this::getUserSessionInfo);
+    }
+
     public void setUserSessionInfo(@Nullable UserSessionInfo userSessionInfo) {
         Lock writeLock = sessionReadWriteLock.writeLock();
         writeLock.lock();
@@ -108,12 +120,46 @@ public class AccountDAO extends SharedPreferencesJsonDAO {
             // does not, copy over the token from the previous session
             userSessionInfo = UserSessionInfoProvider.mergeReauthToken(getUserSessionInfo(), userSessionInfo);
 
-            setValue(KEY_SESSION_INFO, userSessionInfo, UserSessionInfo.class);
+            batch().setValue(KEY_SESSION_INFO, userSessionInfo, UserSessionInfo.class)
+                    .setValue(KEY_SESSION_UPDATED_ON, sessionUpdatedOn(userSessionInfo), Long.class)
+                    .apply();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @return time in milliseconds the stored session was last saved, e.g. after sign in or
+     * reauthentication, null if there is no session. A session saved before this time was
+     * stored counts as saved on the first call.
+     */
+    @Nullable
+    public Long getSessionUpdatedOn() {
+        Long sessionUpdatedOn = getValue(KEY_SESSION_UPDATED_ON, Long.class);
+        if (sessionUpdatedOn != null) {
+            return sessionUpdatedOn;
+        }
+
+        Lock writeLock = sessionReadWriteLock.writeLock();
+        writeLock.lock();
+        try {
+            sessionUpdatedOn = getValue(KEY_SESSION_UPDATED_ON, Long.class);
+            if (sessionUpdatedOn == null && getUserSessionInfo() != null) {
+                // otherwise the session would only be refreshed once a call fails with a 401
+                sessionUpdatedOn = System.currentTimeMillis();
+                setValue(KEY_SESSION_UPDATED_ON, sessionUpdatedOn, Long.class);
+            }
+            return sessionUpdatedOn;
         } finally {
             writeLock.unlock();
         }
     }
 
+    @Nullable
+    private static Long sessionUpdatedOn(@Nullable UserSessionInfo userSessionInfo) {
+        return userSessionInfo != null ? System.currentTimeMillis() : null;
+    }
+
     @Nullable
     public String getExternalId() {
         return getValue(KEY_EXTERNAL_ID, String.class);
@@ -167,7 +213,106 @@ public class AccountDAO extends SharedPreferencesJsonDAO {
         return getValue(KEY_STUDY_PARTICIPANT, StudyParticipant.class);
     }
 
+    /**
+     * @return observable emitting the stored participant, or completing without one if there is
+     * none, the participant is read on the disk thread
+     */
+    @NonNull
+    public Observable<StudyParticipant> getStudyParticipantAsync() {
+        return readAsync(this::getStudyParticipant);
+    }
+
     public void setStudyParticipant(@Nullable StudyParticipant studyParticipant) {
         setValue(KEY_STUDY_PARTICIPANT, studyParticipant, StudyParticipant.class);
     }
+
+    /**
+     * @return editor to set several account values with a single write to storage
+     */
+    @NonNull
+    public Editor edit() {
+        return new Editor();
+    }
+
+    /**
+     * Collects account values, saved together by {@link #apply()}.
+     */
+    public class Editor {
+        private final Batch batch = batch();
+        private boolean hasUserSessionInfo;
+        @Nullable
+        private UserSessionInfo userSessionInfo;
+
+        private Editor() {
+        }
+
+        @NonNull
+        public Editor setEmail(@Nullable String email) {
+            batch.setValue(KEY_EMAIL, email, String.class);
+            return this;
+        }
+
+        @NonNull
+        public Editor setPassword(@Nullable String password) {
+            batch.setValue(KEY_PASSWORD, password, String.class);
+            return this;
+        }
+
+        @NonNull
+        public Editor setExternalId(@Nullable String externalId) {
+            batch.setValue(KEY_EXTERNAL_ID, externalId, String.class);
+            return this;
+        }
+
+        @NonNull
+        public Editor setPhoneRegion(@Nullable String phoneRegion) {
+            batch.setValue(KEY_PHONE_REGION, phoneRegion, String.class);
+            return this;
+        }
+
+        @NonNull
+        public Editor setPhoneNumber(@Nullable String phoneNumber) {
+            batch.setValue(KEY_PHONE_NUMBER, phoneNumber, String.class);
+            return this;
+        }
+
+        /**
+         * The reauth token is copied from the stored session when {@link #apply()} is called, see
+         * {@link AccountDAO#setUserSessionInfo(UserSessionInfo)}.
+         */
+        @NonNull
+        public Editor setUserSessionInfo(@Nullable UserSessionInfo userSessionInfo) {
+            this.hasUserSessionInfo = true;
+            this.userSessionInfo = userSessionInfo;
+            return this;
+        }
+
+        @NonNull
+        public Editor setStudyParticipant(@Nullable StudyParticipant studyParticipant) {
+            batch.setValue(KEY_STUDY_PARTICIPANT, studyParticipant, StudyParticipant.class);
+            return this;
+        }
+
+        /**
+         * Saves the values, the prefs file is written once in the background.
+         */
+        public void apply() {
+            if (!hasUserSessionInfo) {
+                batch.apply();
+                return;
+            }
+
+            Lock writeLock = sessionReadWriteLock.writeLock();
+            writeLock.lock();
+            try {
+                batch.setValue(KEY_SESSION_INFO, UserSessionInfoProvider.mergeReauthToken(
+                        getUserSessionInfo(), userSessionInfo), UserSessionInfo.class)
+                        .setValue(KEY_SESSION_UPDATED_ON, sessionUpdatedOn(userSessionInfo),
+                                Long.class);
+                batch.apply();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
 }
@@ -18,38 +18,50 @@
 package org.sagebionetworks.bridge.android.manager.dao;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import com.google.gson.reflect.TypeToken;
-
 import org.sagebionetworks.bridge.android.di.BridgeStudyScope;
+import org.sagebionetworks.bridge.rest.RestUtils;
 import org.sagebionetworks.bridge.rest.model.ScheduledActivity;
 import org.sagebionetworks.bridge.rest.model.ScheduledActivityListV4;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import rx.Observable;
+
 /**
  * Created by TheMDP on 12/29/17.
+ * <p>
+ * Each activity is stored under its own key, {@value #ACTIVITY_KEY_PREFIX} followed by its guid,
+ * so an activity is looked up or updated without reading or writing the others. Activities saved
+ * as one list by earlier versions are moved to their own keys on first use.
  */
 @BridgeStudyScope // TODO: @liujoshua consider scoping/namespacing to participant 2018/10/09
 public class ActivityListDAO extends SharedPreferencesJsonDAO {
+    private static final Logger LOG = LoggerFactory.getLogger(ActivityListDAO.class);
 
-    private static final String LOG_TAG = ActivityListDAO.class.getCanonicalName();
+    // list of all activities, written by earlier versions
+    private static final String ACTIVITIES_KEY = "ACTIVITIES";
 
-    private static final TypeToken<List<ScheduledActivity>> ACTIVITY_LIST_TYPE =
-            new TypeToken<List<ScheduledActivity>>(){};
+    static final String ACTIVITY_KEY_PREFIX = "ACTIVITY_";
 
-    private static final String ACTIVITIES_KEY = "ACTIVITIES";
+    // set once activities have been cached, even if none are left
+    private static final String ACTIVITIES_CACHED_KEY = "ACTIVITIES_CACHED";
+
+    private volatile boolean migrated;
 
     public ActivityListDAO(@NonNull Context applicationContext, @NonNull String prefsKey) {
         super(applicationContext, prefsKey);
     }
 
     public void clear() {
-        sharedPreferences.edit().clear().commit();
+        clearValues();
     }
 
     /**
@@ -57,21 +69,12 @@ public class ActivityListDAO extends SharedPreferencesJsonDAO {
      * @param activity to remove
      */
     public void removeActivity(@Nullable ScheduledActivity activity) {
-        if (activity == null) {
+        if (activity == null || activity.getGuid() == null) {
             return; // nothing to remove
         }
+        migrateActivityList();
 
-        List<ScheduledActivity> activityList = getActivityList();
-        // Find the corresponding activity
-        ScheduledActivity activityToUpdate = findActivity(activityList, activity.getGuid());
-        // If the activity already exists, remove it
-        if (activityToUpdate != null) {
-            activityList.remove(activityToUpdate);
-        }
-        // Cache the new activity list
-        if (activityList != null) {
-            cacheActivityList(activityList);
-        }
+        removeValue(activityKey(activity.getGuid()));
     }
 
     /**
@@ -97,64 +100,107 @@ public class ActivityListDAO extends SharedPreferencesJsonDAO {
     }
 
     /**
-     * Call to update a list of activities in the DAO
+     * Call to update a list of activities in the DAO, only the given activities are written
      * @param activitiesToUpdate in the DAO
      */
     public void updateActivityList(@Nullable List<ScheduledActivity> activitiesToUpdate) {
         if (activitiesToUpdate == null || activitiesToUpdate.isEmpty()) {
             return; // no activities to update
         }
+        migrateActivityList();
 
-        List<ScheduledActivity> activityList = getActivityList();
-        if (activityList == null) {
-            activityList = new ArrayList<>();
-        }
-
-        for (ScheduledActivity activity : activitiesToUpdate) {
-            // Find the corresponding activity
-            ScheduledActivity activityToUpdate = findActivity(activityList, activity.getGuid());
-            // If the activity already exists, replace it
-            if (activityToUpdate != null) {
-                activityList.remove(activityToUpdate);
-            }
-            activityList.add(activity);
-        }
-
-        // Cache the new activity list
-        cacheActivityList(activityList);
+        SharedPreferences.Editor editor = sharedPreferences.edit();
+        putActivities(editor, activitiesToUpdate);
+        editor.apply();
     }
 
     /**
+     * Replaces all cached activities.
+     *
      * @param onceActivityList the map of activities, they must all be activities scheduled once
      *                         with a null expiredOn date
      */
     protected void cacheActivityList(@NonNull List<ScheduledActivity> onceActivityList) {
-        setValue(ACTIVITIES_KEY, onceActivityList, ACTIVITY_LIST_TYPE);
+        migrateActivityList();
+
+        SharedPreferences.Editor editor = sharedPreferences.edit();
+        for (String key : sharedPreferences.getAll().keySet()) {
+            if (key.startsWith(ACTIVITY_KEY_PREFIX)) {
+                editor.remove(key);
+            }
+        }
+        putActivities(editor, onceActivityList);
+        editor.apply();
     }
 
     /**
-     * @return the list of activities scheduled once
+     * @return the list of activities scheduled once, ordered by guid
      */
     public @Nullable List<ScheduledActivity> getActivityList() {
-        // TODO: mdephillips 1/13/18
-        // this may fill up with many activities and parsing the json may take awhile
-        // should this be asynchronous?
-        return getValue(ACTIVITIES_KEY, ACTIVITY_LIST_TYPE);
+        migrateActivityList();
+        checkRead(ACTIVITY_KEY_PREFIX + "*");
+        if (!hasActivityList()) {
+            return null;
+        }
+
+        List<String> keys = new ArrayList<>();
+        for (String key : sharedPreferences.getAll().keySet()) {
+            if (key.startsWith(ACTIVITY_KEY_PREFIX)) {
+                keys.add(key);
+            }
+        }
+        Collections.sort(keys);
+
+        List<ScheduledActivity> activityList = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            ScheduledActivity activity = getValue(key, ScheduledActivity.class);
+            if (activity != null) {
+                activityList.add(activity);
+            }
+        }
+        return activityList;
     }
 
     /**
      * @param guid of the activity to get
-     * @return the activity in the DAO with this guid
+     * @return the activity in the DAO with this guid, a new instance the caller may modify
      */
     public @Nullable ScheduledActivity getActivity(String guid) {
-        return findActivity(getActivityList(), guid);
+        if (guid == null) {
+            return null;
+        }
+        migrateActivityList();
+
+        return getValue(activityKey(guid), ScheduledActivity.class);
+    }
+
+    /**
+     * Reads the list of activities on the disk thread, parsing many activities may take a while.
+     *
+     * @return observable emitting the list of activities scheduled once, or completing without
+     * one if none are cached
+     */
+    @NonNull
+    public Observable<List<ScheduledActivity>> getActivityListAsync() {
+        return readAsync(this::getActivityList);
+    }
+
+    /**
+     * @param guid of the activity to get
+     * @return observable emitting the activity with this guid, or completing without one if there
+     * is none, the activity is read on the disk thread
+     */
+    @NonNull
+    public Observable<ScheduledActivity> getActivityAsync(String guid) {
+        return readAsync(() -> getActivity(guid));
     }
 
     /**
      * @return true if the scheduled once activities are already cached, false otherwise
      */
     public boolean hasActivityList() {
-        return sharedPreferences.contains(ACTIVITIES_KEY);
+        return sharedPreferences.contains(ACTIVITIES_CACHED_KEY)
+                || sharedPreferences.contains(ACTIVITIES_KEY);
     }
 
     /**
@@ -175,4 +221,66 @@ public class ActivityListDAO extends SharedPreferencesJsonDAO {
         }
         return null;
     }
+
+    private void putActivities(@NonNull SharedPreferences.Editor editor,
+                               @NonNull List<ScheduledActivity> activities) {
+        for (ScheduledActivity activity : activities) {
+            if (activity.getGuid() == null) {
+                LOG.warn("Not caching activity without a guid: {}", activity);
+                continue;
+            }
+            editor.putString(activityKey(activity.getGuid()),
+                    RestUtils.GSON.toJson(activity, ScheduledActivity.class));
+        }
+        editor.putBoolean(ACTIVITIES_CACHED_KEY, true);
+    }
+
+    /**
+     * Moves activities saved as one list by earlier versions to their own keys.
+     */
+    private void migrateActivityList() {
+        if (migrated) {
+            return;
+        }
+        synchronized (this) {
+            if (migrated) {
+                return;
+            }
+            if (sharedPreferences.contains(ACTIVITIES_KEY)) {
+                SharedPreferences.Editor editor = sharedPreferences.edit();
+                int count = 0;
+                // activities are decoded and encoded one at a time, the list can be large
+                JsonStreams.ArrayIterator<ScheduledActivity> activities =
+                        iterateArray(ACTIVITIES_KEY, ScheduledActivity.class);
+                try {
+                    while (activities.hasNext()) {
+                        putActivities(editor, Collections.singletonList(activities.next()));
+                        count++;
+                    }
+                } catch (RuntimeException e) {
+                    LOG.warn("Could not read all cached activities, dropping the rest", e);
+                } finally {
+                    activities.close();
+                }
+                editor.remove(ACTIVITIES_KEY);
+                // the list was cached even if it held no activities, e.g. [] or null
+                editor.putBoolean(ACTIVITIES_CACHED_KEY, true);
+                // one commit, the list is only removed together with the activities it held
+                editor.commit();
+                LOG.info("Migrated {} cached activities to per-activity keys", count);
+            }
+            migrated = true;
+        }
+    }
+
+    @Override
+    protected String getMetricsKey(String key) {
+        // one entry for all activities, rather than one per guid
+        return key.startsWith(ACTIVITY_KEY_PREFIX) ? ACTIVITY_KEY_PREFIX + "*" : key;
+    }
+
+    @NonNull
+    private static String activityKey(@NonNull String guid) {
+        return ACTIVITY_KEY_PREFIX + guid;
+    }
 }
@@ -14,10 +14,14 @@ import org.sagebionetworks.bridge.rest.model.ConsentSignature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.Set;
 
 import javax.inject.Inject;
 
+import rx.Observable;
+
 /**
  * Created by jyliu on 2/8/2017.
  */
@@ -40,7 +44,7 @@ public class ConsentDAO extends SharedPreferencesJsonDAO {
      * Removes all saved data
      */
     public void clear() {
-        sharedPreferences.edit().clear().commit();
+        clearValues();
     }
 
     /**
@@ -74,29 +78,80 @@ public class ConsentDAO extends SharedPreferencesJsonDAO {
                 consentKey(subpopulationGuid),
                 ConsentSignature.class);
 
-        logger.debug("getConsent called for subpopulation " + subpopulationGuid
-                + ", found: " + consentSignature);
+        logger.debug("getConsent called for subpopulation {}, found: {}", subpopulationGuid,
+                consentSignature != null);
 
         return consentSignature;
     }
 
+    /**
+     * @param subpopulationGuid subpopulation of the consent
+     * @return observable emitting the consent stored locally, or completing without one if there
+     * is none, the consent is read on the disk thread
+     */
+    @NonNull
+    public Observable<ConsentSignature> getConsentAsync(@NonNull String subpopulationGuid) {
+        checkNotNull(subpopulationGuid);
+
+        return readAsync(() -> getConsent(subpopulationGuid));
+    }
+
     public void putConsent(@NonNull String subpopulationGuid,
                            @NonNull ConsentSignature consentSignature) {
         checkNotNull(subpopulationGuid);
         checkNotNull(consentSignature);
 
-        logger.debug("putConsent called for subpopulations " + subpopulationGuid
-                + ", with: " + consentSignature);
+        // the signature holds personal data, it is not logged
+        logger.debug("putConsent called for subpopulation {}", subpopulationGuid);
 
         setValue(consentKey(subpopulationGuid), consentSignature, ConsentSignature.class);
     }
 
+    /**
+     * Stores several consent signatures with a single write to storage.
+     *
+     * @param consentSignatures consent signatures, by subpopulationGuid
+     */
+    public void putConsents(@NonNull Map<String, ConsentSignature> consentSignatures) {
+        checkNotNull(consentSignatures);
+
+        logger.debug("putConsents called for subpopulations " + consentSignatures.keySet());
+
+        Batch batch = batch();
+        for (Map.Entry<String, ConsentSignature> entry : consentSignatures.entrySet()) {
+            batch.setValue(consentKey(checkNotNull(entry.getKey())),
+                    checkNotNull(entry.getValue()), ConsentSignature.class);
+        }
+        batch.apply();
+    }
+
     public void removeConsent(@NonNull String subpopulationGuid) {
         checkNotNull(subpopulationGuid);
 
         removeValue(consentKey(subpopulationGuid));
     }
 
+    /**
+     * Removes several consent signatures with a single write to storage.
+     *
+     * @param subpopulationGuids subpopulations of the consents to remove
+     */
+    public void removeConsents(@NonNull Collection<String> subpopulationGuids) {
+        checkNotNull(subpopulationGuids);
+
+        Batch batch = batch();
+        for (String subpopulationGuid : subpopulationGuids) {
+            batch.removeValue(consentKey(checkNotNull(subpopulationGuid)));
+        }
+        batch.apply();
+    }
+
+    @Override
+    protected String getMetricsKey(String key) {
+        // one entry for all subpopulations
+        return key.startsWith(CONSENT_KEY_PREFIX) ? CONSENT_KEY_PREFIX + "*" : key;
+    }
+
     private String consentKey(String subpopulationGuid) {
         return CONSENT_KEY_PREFIX + subpopulationGuid;
     }
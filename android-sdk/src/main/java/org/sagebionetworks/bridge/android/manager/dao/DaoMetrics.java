@@ -0,0 +1,360 @@
+/*
+ *    Copyright 2018 Sage Bionetworks
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package org.sagebionetworks.bridge.android.manager.dao;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Counts reads, writes and removes of each DAO key, with the size of the stored values, time
+ * taken and how many reads were served from the decoded value cache. Keys holding one value per
+ * item, e.g. {@code ACTIVITY_<guid>}, are counted together under their prefix, e.g.
+ * {@code ACTIVITY_*}, see {@link SharedPreferencesJsonDAO#getMetricsKey(String)}.
+ * <p>
+ * Counting allocates nothing once a key has been seen. Apps can read cumulative totals with
+ * {@link #getSnapshot()}, or add a {@link DaoMetricsSink} to export each operation to their own
+ * telemetry. Values are never passed to sinks, only their sizes.
+ */
+@AnyThread
+public final class DaoMetrics {
+    /**
+     * Kinds of DAO operations.
+     */
+    public enum Operation {
+        /**
+         * Reading a value, decoded or from the cache.
+         */
+        READ,
+        /**
+         * Writing a value.
+         */
+        WRITE,
+        /**
+         * Removing a value.
+         */
+        REMOVE
+    }
+
+    /**
+     * Receives operations as they are recorded. Called on the thread using the DAO, often the
+     * main thread, so implementations should return quickly.
+     */
+    public interface DaoMetricsSink {
+        void onOperationRecorded(@NonNull OperationRecord operationRecord);
+    }
+
+    private static final Set<DaoMetricsSink> sinks = new CopyOnWriteArraySet<>();
+    // stats by key by DAO name, nested so recording does not build a combined key
+    private static final ConcurrentMap<String, ConcurrentMap<String, KeyStats>> keyStats =
+            new ConcurrentHashMap<>();
+
+    private DaoMetrics() {
+    }
+
+    public static void addSink(@NonNull DaoMetricsSink sink) {
+        sinks.add(checkNotNull(sink));
+    }
+
+    public static void removeSink(@NonNull DaoMetricsSink sink) {
+        sinks.remove(sink);
+    }
+
+    /**
+     * @param daoName   DAO doing the operation
+     * @param key       key of the value
+     * @param operation kind of operation
+     * @param length    length of the stored string, 0 for a missing value or a remove
+     * @param nanos     time the operation took
+     * @param cacheHit  whether a read was served from the decoded value cache
+     */
+    static void record(@NonNull String daoName, @NonNull String key,
+                       @NonNull Operation operation, long length, long nanos, boolean cacheHit) {
+        getKeyStats(daoName, key).add(operation, length, nanos, cacheHit);
+
+        if (!sinks.isEmpty()) {
+            OperationRecord operationRecord =
+                    new OperationRecord(daoName, key, operation, length, nanos, cacheHit);
+            for (DaoMetricsSink sink : sinks) {
+                sink.onOperationRecorded(operationRecord);
+            }
+        }
+    }
+
+    /**
+     * @return cumulative metrics recorded since the process started or {@link #reset()}
+     */
+    @NonNull
+    public static Snapshot getSnapshot() {
+        ImmutableMap.Builder<String, Map<String, KeyStats>> daoStats = ImmutableMap.builder();
+        for (Map.Entry<String, ConcurrentMap<String, KeyStats>> daoEntry : keyStats.entrySet()) {
+            ImmutableMap.Builder<String, KeyStats> stats = ImmutableMap.builder();
+            for (Map.Entry<String, KeyStats> entry : daoEntry.getValue().entrySet()) {
+                stats.put(entry.getKey(), entry.getValue().copy());
+            }
+            daoStats.put(daoEntry.getKey(), stats.build());
+        }
+        return new Snapshot(daoStats.build());
+    }
+
+    @VisibleForTesting
+    public static void reset() {
+        keyStats.clear();
+    }
+
+    private static KeyStats getKeyStats(String daoName, String key) {
+        ConcurrentMap<String, KeyStats> daoStats = keyStats.get(daoName);
+        if (daoStats == null) {
+            ConcurrentMap<String, KeyStats> newDaoStats = new ConcurrentHashMap<>();
+            daoStats = keyStats.putIfAbsent(daoName, newDaoStats);
+            if (daoStats == null) {
+                daoStats = newDaoStats;
+            }
+        }
+        KeyStats stats = daoStats.get(key);
+        if (stats == null) {
+            KeyStats newStats = new KeyStats();
+            stats = daoStats.putIfAbsent(key, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Measurement of one DAO operation.
+     */
+    public static class OperationRecord {
+        private final String daoName;
+        private final String key;
+        private final Operation operation;
+        private final long length;
+        private final long nanos;
+        private final boolean cacheHit;
+
+        OperationRecord(String daoName, String key, Operation operation, long length, long nanos,
+                        boolean cacheHit) {
+            this.daoName = daoName;
+            this.key = key;
+            this.operation = operation;
+            this.length = length;
+            this.nanos = nanos;
+            this.cacheHit = cacheHit;
+        }
+
+        @NonNull
+        public String getDaoName() {
+            return daoName;
+        }
+
+        @NonNull
+        public String getKey() {
+            return key;
+        }
+
+        @NonNull
+        public Operation getOperation() {
+            return operation;
+        }
+
+        /**
+         * @return length of the stored string, the size in bytes of ASCII JSON
+         */
+        public long getLength() {
+            return length;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public boolean isCacheHit() {
+            return cacheHit;
+        }
+
+        @Override
+        public String toString() {
+            return "OperationRecord{" +
+                    "daoName='" + daoName + '\'' +
+                    ", key='" + key + '\'' +
+                    ", operation=" + operation +
+                    ", length=" + length +
+                    ", nanos=" + nanos +
+                    ", cacheHit=" + cacheHit +
+                    '}';
+        }
+    }
+
+    /**
+     * Cumulative measurements of one key, or of all keys of a DAO.
+     */
+    public static class KeyStats {
+        int readCount;
+        int cacheHitCount;
+        int writeCount;
+        int removeCount;
+        long readLength;
+        long writeLength;
+        long readNanos;
+        long writeNanos;
+
+        synchronized void add(Operation operation, long length, long nanos, boolean cacheHit) {
+            switch (operation) {
+                case READ:
+                    readCount++;
+                    if (cacheHit) {
+                        cacheHitCount++;
+                    }
+                    readLength += length;
+                    readNanos += nanos;
+                    break;
+                case WRITE:
+                    writeCount++;
+                    writeLength += length;
+                    writeNanos += nanos;
+                    break;
+                case REMOVE:
+                    removeCount++;
+                    writeNanos += nanos;
+                    break;
+            }
+        }
+
+        public int getReadCount() {
+            return readCount;
+        }
+
+        public int getCacheHitCount() {
+            return cacheHitCount;
+        }
+
+        /**
+         * @return share of reads served from the decoded value cache, 0 if there were no reads
+         */
+        public double getCacheHitRate() {
+            return readCount == 0 ? 0 : (double) cacheHitCount / readCount;
+        }
+
+        public int getWriteCount() {
+            return writeCount;
+        }
+
+        public int getRemoveCount() {
+            return removeCount;
+        }
+
+        /**
+         * @return total length of the stored strings read
+         */
+        public long getReadLength() {
+            return readLength;
+        }
+
+        /**
+         * @return total length of the stored strings written
+         */
+        public long getWriteLength() {
+            return writeLength;
+        }
+
+        public long getReadNanos() {
+            return readNanos;
+        }
+
+        /**
+         * @return total time of writes and removes
+         */
+        public long getWriteNanos() {
+            return writeNanos;
+        }
+
+        synchronized KeyStats copy() {
+            KeyStats copy = new KeyStats();
+            copy.addAll(this);
+            return copy;
+        }
+
+        private void addAll(KeyStats stats) {
+            readCount += stats.readCount;
+            cacheHitCount += stats.cacheHitCount;
+            writeCount += stats.writeCount;
+            removeCount += stats.removeCount;
+            readLength += stats.readLength;
+            writeLength += stats.writeLength;
+            readNanos += stats.readNanos;
+            writeNanos += stats.writeNanos;
+        }
+    }
+
+    /**
+     * Point in time copy of the cumulative metrics.
+     */
+    public static class Snapshot {
+        private final Map<String, Map<String, KeyStats>> daoStats;
+
+        Snapshot(Map<String, Map<String, KeyStats>> daoStats) {
+            this.daoStats = daoStats;
+        }
+
+        /**
+         * @return names of the DAOs with recorded operations
+         */
+        @NonNull
+        public Set<String> getDaoNames() {
+            return daoStats.keySet();
+        }
+
+        /**
+         * @return stats by key of a DAO, empty if it has none
+         */
+        @NonNull
+        public Map<String, KeyStats> getKeyStats(@NonNull String daoName) {
+            Map<String, KeyStats> stats = daoStats.get(daoName);
+            return stats != null ? stats : ImmutableMap.of();
+        }
+
+        @Nullable
+        public KeyStats getKeyStats(@NonNull String daoName, @NonNull String key) {
+            return getKeyStats(daoName).get(key);
+        }
+
+        /**
+         * @return stats of all keys of a DAO added together
+         */
+        @NonNull
+        public KeyStats getDaoStats(@NonNull String daoName) {
+            KeyStats total = new KeyStats();
+            for (KeyStats stats : getKeyStats(daoName).values()) {
+                total.addAll(stats);
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ *    Copyright 2018 Sage Bionetworks
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package org.sagebionetworks.bridge.android.manager.dao;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.Executors;
+
+import rx.Scheduler;
+import rx.schedulers.Schedulers;
+
+/**
+ * Scheduler for asynchronous DAO reads. A single thread does all DAO disk reads, so they run in
+ * order and never compete with each other for the disk.
+ */
+public final class DaoSchedulers {
+    private static final Scheduler DISK = Schedulers.from(Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("bridge-dao-disk-%d").setDaemon(true)
+                    .build()));
+
+    private static volatile Scheduler diskScheduler = DISK;
+
+    private DaoSchedulers() {
+    }
+
+    /**
+     * @return scheduler DAO reads are subscribed on
+     */
+    @NonNull
+    public static Scheduler disk() {
+        return diskScheduler;
+    }
+
+    /**
+     * Replaces the disk scheduler, e.g. with {@link Schedulers#immediate()} in tests.
+     */
+    @VisibleForTesting
+    public static void setDiskScheduler(@NonNull Scheduler scheduler) {
+        diskScheduler = checkNotNull(scheduler);
+    }
+
+    @VisibleForTesting
+    public static void resetDiskScheduler() {
+        diskScheduler = DISK;
+    }
+}
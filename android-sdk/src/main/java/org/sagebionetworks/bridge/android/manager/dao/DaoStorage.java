@@ -0,0 +1,71 @@
+/*
+ *    Copyright 2018 Sage Bionetworks
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package org.sagebionetworks.bridge.android.manager.dao;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import org.sagebionetworks.bridge.android.BridgeConfig;
+
+/**
+ * Opens the preferences {@link SharedPreferencesJsonDAO} stores values in. Values are kept in
+ * {@link MappedPreferences} when {@link BridgeConfig#isDaoMappedStoreEnabled()}, in the platform
+ * prefs otherwise, see {@link PlatformPreferencesBackend}.
+ */
+public final class DaoStorage {
+    // guarded by DaoStorage.class, chosen on first use
+    private static PreferencesBackend backend;
+
+    private DaoStorage() {
+    }
+
+    /**
+     * @param applicationContext application context
+     * @param name               name of the preferences
+     * @return preferences of the configured backend
+     */
+    @NonNull
+    public static synchronized SharedPreferences open(@NonNull Context applicationContext,
+                                                      @NonNull String name) {
+        if (backend == null) {
+            BridgeConfig bridgeConfig = new BridgeConfig(applicationContext);
+            backend = bridgeConfig.isDaoMappedStoreEnabled()
+                    ? new MappedPreferencesBackend(bridgeConfig.getDaoMappedStoreCompactBytes())
+                    : new PlatformPreferencesBackend();
+        }
+        return backend.open(applicationContext, name);
+    }
+
+    /**
+     * Replaces the configured backend, for DAOs created afterwards.
+     */
+    @VisibleForTesting
+    public static synchronized void setBackend(@NonNull PreferencesBackend preferencesBackend) {
+        backend = checkNotNull(preferencesBackend);
+    }
+
+    @VisibleForTesting
+    public static synchronized void resetBackend() {
+        backend = null;
+    }
+}
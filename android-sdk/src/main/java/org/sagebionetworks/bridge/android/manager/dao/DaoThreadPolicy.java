@@ -0,0 +1,71 @@
+/*
+ *    Copyright 2018 Sage Bionetworks
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package org.sagebionetworks.bridge.android.manager.dao;
+
+import android.os.Looper;
+import android.os.StrictMode;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks DAO reads made on the main thread. A read may wait for the prefs file to load and parses
+ * JSON, so it can block the UI, use the asynchronous DAO methods instead.
+ * <p>
+ * By default a main thread read is logged and reported to {@link StrictMode} as a slow call, which
+ * apps see if their thread policy detects custom slow calls. Tests can set a listener that throws,
+ * so any main thread read fails the test.
+ */
+public final class DaoThreadPolicy {
+    private static final Logger LOG = LoggerFactory.getLogger(DaoThreadPolicy.class);
+
+    /**
+     * Called for each DAO read on the main thread, on the main thread.
+     */
+    public interface MainThreadReadListener {
+        void onMainThreadRead(@NonNull String daoName, @NonNull String key);
+    }
+
+    private static final MainThreadReadListener DEFAULT_LISTENER = (daoName, key) -> {
+        LOG.debug("DAO read on main thread, dao: {}, key: {}", daoName, key);
+        StrictMode.noteSlowCall(daoName + " read on main thread, key: " + key);
+    };
+
+    private static volatile MainThreadReadListener mainThreadReadListener = DEFAULT_LISTENER;
+
+    private DaoThreadPolicy() {
+    }
+
+    /**
+     * @param listener called for each DAO read on the main thread, null for the default, which
+     *                 logs and notes a StrictMode slow call
+     */
+    public static void setMainThreadReadListener(@Nullable MainThreadReadListener listener) {
+        mainThreadReadListener = listener != null ? listener : DEFAULT_LISTENER;
+    }
+
+    static void onRead(@NonNull String daoName, @NonNull String key) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            mainThreadReadListener.onMainThreadRead(daoName, key);
+        }
+    }
+}
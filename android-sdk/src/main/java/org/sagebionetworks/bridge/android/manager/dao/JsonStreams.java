@@ -0,0 +1,168 @@
+/*
+ *    Copyright 2018 Sage Bionetworks
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package org.sagebionetworks.bridge.android.manager.dao;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import androidx.annotation.NonNull;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.util.Iterator;
+
+/**
+ * Reads and writes JSON arrays one element at a time, so a large list does not have to be held
+ * in memory as a whole object graph.
+ */
+public final class JsonStreams {
+    private JsonStreams() {
+    }
+
+    /**
+     * Decodes the elements of a JSON array lazily, each element is parsed when the iterator
+     * reaches it. Stopping early, e.g. after finding an element, skips parsing the rest. A null
+     * or empty document has no elements.
+     *
+     * @param gson        decodes each element
+     * @param reader      JSON array, closed once the last element is read or the iterator is
+     *                    closed
+     * @param elementType type of the elements
+     * @return iterator of the elements, {@link JsonSyntaxException} or {@link JsonIOException} is
+     * thrown from the iterator if the JSON is invalid
+     */
+    @NonNull
+    public static <T> ArrayIterator<T> iterateArray(@NonNull Gson gson, @NonNull Reader reader,
+                                                    @NonNull Type elementType) {
+        checkNotNull(gson);
+        checkNotNull(reader);
+        checkNotNull(elementType);
+
+        return new ArrayIterator<>(gson, new JsonReader(reader), elementType);
+    }
+
+    /**
+     * Encodes elements as a JSON array, one element at a time.
+     *
+     * @param gson        encodes each element
+     * @param writer      written to, not closed
+     * @param elements    elements to write
+     * @param elementType type of the elements
+     * @throws IOException if writing fails
+     */
+    public static <T> void writeArray(@NonNull Gson gson, @NonNull Writer writer,
+                                      @NonNull Iterator<? extends T> elements,
+                                      @NonNull Type elementType) throws IOException {
+        checkNotNull(gson);
+        checkNotNull(writer);
+        checkNotNull(elements);
+        checkNotNull(elementType);
+
+        JsonWriter jsonWriter = new JsonWriter(writer);
+        jsonWriter.beginArray();
+        while (elements.hasNext()) {
+            gson.toJson(elements.next(), elementType, jsonWriter);
+        }
+        jsonWriter.endArray();
+        jsonWriter.flush();
+    }
+
+    /**
+     * Lazily decoded elements of a JSON array.
+     */
+    public static class ArrayIterator<T> extends AbstractIterator<T> implements Closeable {
+        private final Gson gson;
+        private final JsonReader jsonReader;
+        private final Type elementType;
+        private boolean started;
+        private boolean closed;
+
+        ArrayIterator(Gson gson, JsonReader jsonReader, Type elementType) {
+            this.gson = gson;
+            this.jsonReader = jsonReader;
+            // same as Gson.fromJson
+            this.jsonReader.setLenient(true);
+            this.elementType = elementType;
+        }
+
+        @Override
+        protected T computeNext() {
+            if (closed) {
+                return endOfData();
+            }
+            try {
+                if (!started) {
+                    started = true;
+                    JsonToken token;
+                    try {
+                        token = jsonReader.peek();
+                    } catch (EOFException e) {
+                        // empty document
+                        token = JsonToken.END_DOCUMENT;
+                    }
+                    if (token == JsonToken.END_DOCUMENT || token == JsonToken.NULL) {
+                        close();
+                        return endOfData();
+                    }
+                    jsonReader.beginArray();
+                }
+                if (!jsonReader.hasNext()) {
+                    jsonReader.endArray();
+                    close();
+                    return endOfData();
+                }
+                return gson.fromJson(jsonReader, elementType);
+            } catch (IllegalStateException | NumberFormatException | MalformedJsonException e) {
+                throw new JsonSyntaxException(e);
+            } catch (IOException e) {
+                throw new JsonIOException(e);
+            }
+        }
+
+        /**
+         * Closes the underlying reader, the iterator has no more elements afterwards.
+         *
+         * @throws JsonIOException if closing the reader fails
+         */
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                jsonReader.close();
+            } catch (IOException e) {
+                throw new JsonIOException(e);
+            }
+        }
+    }
+}
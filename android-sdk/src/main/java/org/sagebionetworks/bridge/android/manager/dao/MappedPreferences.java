@@ -0,0 +1,724 @@
+/*
+ *    Copyright 2018 Sage Bionetworks
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package org.sagebionetworks.bridge.android.manager.dao;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import android.content.SharedPreferences;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/**
+ * {@link SharedPreferences} kept in a memory-mapped append log. Saving an edit appends one record
+ * with the changed keys, instead of rewriting every value as the platform XML file does, and
+ * opening reads the records without parsing XML.
+ * <p>
+ * A record holds all changes of one commit or apply, with a CRC32 of its contents. A record cut
+ * off by a crash fails its CRC and is dropped whole the next time the log is read. Once the log
+ * is larger than the compaction size and more than half of it is replaced values, it is
+ * rewritten as a single record of the current values.
+ * <p>
+ * apply() changes the values in memory and appends its record on a background thread, as growing
+ * or compacting the log can take a while. commit() appends its record and those of earlier
+ * applies on the calling thread and forces them to the disk. Listeners are called on the thread
+ * that saved the edit, not on the main thread.
+ */
+@AnyThread
+public class MappedPreferences implements SharedPreferences {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedPreferences.class);
+
+    // "BKV1"
+    private static final int MAGIC = 0x424b5631;
+    private static final int HEADER_BYTES = 4;
+    // payload length and CRC
+    private static final int RECORD_HEADER_BYTES = 8;
+    // a zero length marks the end of the log
+    private static final int END_MARKER_BYTES = 4;
+    private static final int MIN_CAPACITY = 4096;
+
+    private static final byte TYPE_REMOVED = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_FLOAT = 4;
+    private static final byte TYPE_BOOLEAN = 5;
+    private static final byte TYPE_STRING_SET = 6;
+
+    // marks a removed key in an editor
+    private static final Object REMOVED = new Object();
+
+    // one thread for all logs, so applied records are written in order
+    private static final Executor APPLY_EXECUTOR = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("bridge-prefs-apply-%d").setDaemon(true)
+                    .build());
+
+    private final File file;
+    private final int compactBytes;
+    private final Executor applyExecutor;
+
+    private final Object lock = new Object();
+    // guarded by lock, null until loaded
+    private Map<String, Object> values;
+    // guarded by lock, records saved in memory but not yet appended, in the order of the saves
+    private final List<byte[]> pendingRecords = new ArrayList<>();
+    private boolean writeScheduled;
+
+    // guarded by writeLock once loaded, taken before lock when both are held
+    private final Object writeLock = new Object();
+    private RandomAccessFile randomAccessFile;
+    private MappedByteBuffer buffer;
+    private int writePosition;
+    private int nextCompactPosition;
+
+    // guarded by itself, the platform also only keeps weak references to listeners
+    private final Map<OnSharedPreferenceChangeListener, Object> listeners = new WeakHashMap<>();
+
+    /**
+     * @param file         log file, created if it does not exist
+     * @param compactBytes log size from which the log is compacted
+     */
+    public MappedPreferences(@NonNull File file, int compactBytes) {
+        this(file, compactBytes, APPLY_EXECUTOR);
+    }
+
+    /**
+     * @param file          log file, created if it does not exist
+     * @param compactBytes  log size from which the log is compacted
+     * @param applyExecutor runs the writes of apply()
+     */
+    @VisibleForTesting
+    MappedPreferences(@NonNull File file, int compactBytes, @NonNull Executor applyExecutor) {
+        checkNotNull(file);
+        checkArgument(compactBytes > 0);
+        checkNotNull(applyExecutor);
+
+        this.file = file;
+        this.compactBytes = compactBytes;
+        this.applyExecutor = applyExecutor;
+    }
+
+    /**
+     * Writes a log holding the given values, replacing any existing file. Used to move values
+     * from another store.
+     *
+     * @param file   log file
+     * @param values values of the supported SharedPreferences types
+     * @throws IOException if the file cannot be written
+     */
+    static void writeFile(@NonNull File file, @NonNull Map<String, ?> values) throws IOException {
+        writeSnapshot(file, encode(true, values));
+    }
+
+    /**
+     * Reads the values of a log without opening it for writes. Used to move values to another
+     * store.
+     *
+     * @param file log file
+     * @return values of the log, empty if it is not a log
+     * @throws IOException if the file cannot be read
+     */
+    @NonNull
+    static Map<String, Object> readFile(@NonNull File file) throws IOException {
+        Map<String, Object> values = new HashMap<>();
+        ByteBuffer byteBuffer = ByteBuffer.wrap(Files.toByteArray(file));
+        if (byteBuffer.capacity() >= HEADER_BYTES && byteBuffer.getInt(0) == MAGIC) {
+            readRecords(file, byteBuffer, values);
+        }
+        return values;
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        synchronized (lock) {
+            return new HashMap<>(loadedValues());
+        }
+    }
+
+    @Nullable
+    @Override
+    public String getString(String key, @Nullable String defValue) {
+        synchronized (lock) {
+            String value = (String) loadedValues().get(key);
+            return value != null ? value : defValue;
+        }
+    }
+
+    @Nullable
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<String> getStringSet(String key, @Nullable Set<String> defValues) {
+        synchronized (lock) {
+            Set<String> value = (Set<String>) loadedValues().get(key);
+            return value != null ? new HashSet<>(value) : defValues;
+        }
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        synchronized (lock) {
+            Integer value = (Integer) loadedValues().get(key);
+            return value != null ? value : defValue;
+        }
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        synchronized (lock) {
+            Long value = (Long) loadedValues().get(key);
+            return value != null ? value : defValue;
+        }
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        synchronized (lock) {
+            Float value = (Float) loadedValues().get(key);
+            return value != null ? value : defValue;
+        }
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        synchronized (lock) {
+            Boolean value = (Boolean) loadedValues().get(key);
+            return value != null ? value : defValue;
+        }
+    }
+
+    @Override
+    public boolean contains(String key) {
+        synchronized (lock) {
+            return loadedValues().containsKey(key);
+        }
+    }
+
+    @Override
+    public Editor edit() {
+        return new MappedEditor();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(
+            OnSharedPreferenceChangeListener listener) {
+        synchronized (listeners) {
+            listeners.put(listener, REMOVED);
+        }
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(
+            OnSharedPreferenceChangeListener listener) {
+        synchronized (listeners) {
+            listeners.remove(listener);
+        }
+    }
+
+    /**
+     * @return bytes of the log in use, for tests
+     */
+    @VisibleForTesting
+    int getLogBytes() {
+        synchronized (lock) {
+            loadedValues();
+        }
+        synchronized (writeLock) {
+            writePending(false);
+            return writePosition;
+        }
+    }
+
+    private boolean save(boolean clear, Map<String, Object> modified, boolean force) {
+        List<String> changedKeys = new ArrayList<>();
+        boolean cleared;
+        boolean scheduleWrite = false;
+        synchronized (lock) {
+            Map<String, Object> loaded = loadedValues();
+
+            cleared = clear && !loaded.isEmpty();
+            if (clear) {
+                loaded.clear();
+            }
+            for (Map.Entry<String, Object> entry : modified.entrySet()) {
+                Object previous = entry.getValue() == REMOVED ? loaded.remove(entry.getKey())
+                        : loaded.put(entry.getKey(), entry.getValue());
+                Object value = entry.getValue() == REMOVED ? null : entry.getValue();
+                if (!Objects.equal(previous, value)) {
+                    changedKeys.add(entry.getKey());
+                }
+            }
+
+            if (cleared || !changedKeys.isEmpty()) {
+                pendingRecords.add(encode(clear, modified));
+                if (!force && !writeScheduled) {
+                    writeScheduled = true;
+                    scheduleWrite = true;
+                }
+            }
+        }
+
+        if (cleared || !changedKeys.isEmpty()) {
+            notifyListeners(cleared, changedKeys);
+        }
+        if (force) {
+            synchronized (writeLock) {
+                return writePending(true);
+            }
+        }
+        if (scheduleWrite) {
+            applyExecutor.execute(() -> {
+                synchronized (writeLock) {
+                    writePending(false);
+                }
+            });
+        }
+        return true;
+    }
+
+    // call while holding writeLock, appends the pending records of all saves so far
+    private boolean writePending(boolean force) {
+        List<byte[]> records;
+        synchronized (lock) {
+            records = new ArrayList<>(pendingRecords);
+            pendingRecords.clear();
+            writeScheduled = false;
+        }
+        try {
+            for (byte[] record : records) {
+                append(record);
+            }
+            // also when none are left, a scheduled write may have appended this commit's record
+            if (force) {
+                buffer.force();
+            }
+            if (writePosition >= nextCompactPosition) {
+                compact();
+            }
+            return true;
+        } catch (IOException e) {
+            // the values stay changed in memory, as with the platform prefs
+            LOG.error("Could not write " + file, e);
+            return false;
+        }
+    }
+
+    private void notifyListeners(boolean cleared, List<String> changedKeys) {
+        List<OnSharedPreferenceChangeListener> listenersCopy;
+        synchronized (listeners) {
+            listenersCopy = new ArrayList<>(listeners.keySet());
+        }
+        for (OnSharedPreferenceChangeListener listener : listenersCopy) {
+            if (cleared) {
+                listener.onSharedPreferenceChanged(this, null);
+            }
+            for (String key : changedKeys) {
+                listener.onSharedPreferenceChanged(this, key);
+            }
+        }
+    }
+
+    // call while holding lock
+    private Map<String, Object> loadedValues() {
+        if (values == null) {
+            try {
+                load();
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not open " + file, e);
+            }
+        }
+        return values;
+    }
+
+    private void load() throws IOException {
+        long start = System.nanoTime();
+        Map<String, Object> loaded = new HashMap<>();
+
+        File directory = file.getParentFile();
+        if (directory != null && !directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        long length = randomAccessFile.length();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Log too large: " + length);
+        }
+        map((int) Math.max(length, MIN_CAPACITY));
+
+        int position = HEADER_BYTES;
+        if (length < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            if (length > 0) {
+                LOG.warn("Not a log, starting empty: " + file);
+            }
+            buffer.putInt(0, MAGIC);
+        } else {
+            position = readRecords(file, buffer, loaded);
+            LOG.debug("Read {} bytes of {} in {} ms", position, file,
+                    (System.nanoTime() - start) / 1000000);
+        }
+
+        // later records, if any, were not saved completely and are overwritten
+        writePosition = position;
+        if (writePosition + END_MARKER_BYTES > buffer.capacity()) {
+            map(2 * buffer.capacity());
+        }
+        putEndMarker();
+        nextCompactPosition = Math.max(compactBytes, 2 * writePosition);
+        values = loaded;
+    }
+
+    // reads the records after the header, returns the position after the last complete record
+    private static int readRecords(File file, ByteBuffer byteBuffer, Map<String, Object> values) {
+        int position = HEADER_BYTES;
+        while (position + RECORD_HEADER_BYTES <= byteBuffer.capacity()) {
+            int payloadLength = byteBuffer.getInt(position);
+            if (payloadLength <= 0) {
+                break;
+            }
+            if (payloadLength > byteBuffer.capacity() - position - RECORD_HEADER_BYTES) {
+                LOG.warn("Dropping cut off record at " + position + " of " + file);
+                break;
+            }
+            byte[] payload = new byte[payloadLength];
+            byteBuffer.position(position + RECORD_HEADER_BYTES);
+            byteBuffer.get(payload);
+            if (crc(payload) != byteBuffer.getInt(position + 4)) {
+                LOG.warn("Dropping record with bad CRC at " + position + " of " + file);
+                break;
+            }
+            try {
+                decode(payload, values);
+            } catch (IOException e) {
+                LOG.warn("Dropping unreadable record at " + position + " of " + file, e);
+                break;
+            }
+            position += RECORD_HEADER_BYTES + payloadLength;
+        }
+        return position;
+    }
+
+    // call while holding writeLock
+    private void append(byte[] payload) throws IOException {
+        int recordBytes = RECORD_HEADER_BYTES + payload.length;
+        long required = (long) writePosition + recordBytes + END_MARKER_BYTES;
+        if (required > buffer.capacity()) {
+            if (required > Integer.MAX_VALUE) {
+                throw new IOException("Log too large: " + required);
+            }
+            long capacity = buffer.capacity();
+            while (capacity < required) {
+                capacity *= 2;
+            }
+            map((int) Math.min(capacity, Integer.MAX_VALUE));
+        }
+
+        buffer.position(writePosition + RECORD_HEADER_BYTES);
+        buffer.put(payload);
+        buffer.putInt(writePosition + 4, crc(payload));
+        // the length goes last, until then the end marker ends the log before this record
+        buffer.putInt(writePosition, payload.length);
+        writePosition += recordBytes;
+        putEndMarker();
+    }
+
+    // call while holding writeLock
+    private void compact() throws IOException {
+        byte[] snapshot;
+        synchronized (lock) {
+            // may hold values of saves whose records are still pending, appending them after the
+            // snapshot sets the same values again
+            snapshot = encode(true, values);
+        }
+        int snapshotBytes = HEADER_BYTES + RECORD_HEADER_BYTES + snapshot.length;
+        if (snapshotBytes <= writePosition / 2) {
+            LOG.debug("Compacting {} from {} to {} bytes", file, writePosition, snapshotBytes);
+
+            writeSnapshot(file, snapshot);
+            randomAccessFile.close();
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            map(Math.max(MIN_CAPACITY, 2 * snapshotBytes));
+            writePosition = snapshotBytes;
+            putEndMarker();
+        }
+        // mostly current values, wait for the log to double before checking again
+        nextCompactPosition = Math.max(compactBytes, 2 * writePosition);
+    }
+
+    private void map(int capacity) throws IOException {
+        if (randomAccessFile.length() < capacity) {
+            randomAccessFile.setLength(capacity);
+        }
+        buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    private void putEndMarker() {
+        buffer.putInt(writePosition, 0);
+    }
+
+    // writes a new file and renames it over the log, so the log is always complete
+    private static void writeSnapshot(File file, byte[] snapshot) throws IOException {
+        File directory = file.getParentFile();
+        if (directory != null && !directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (FileOutputStream outputStream = new FileOutputStream(tempFile)) {
+            DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+            dataOutputStream.writeInt(MAGIC);
+            dataOutputStream.writeInt(snapshot.length);
+            dataOutputStream.writeInt(crc(snapshot));
+            dataOutputStream.write(snapshot);
+            dataOutputStream.writeInt(0);
+            dataOutputStream.flush();
+            outputStream.getFD().sync();
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Could not rename " + tempFile + " to " + file);
+        }
+    }
+
+    private static int crc(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private static byte[] encode(boolean clear, Map<String, ?> changes) {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(byteArrayOutputStream);
+        try {
+            out.writeBoolean(clear);
+            out.writeInt(changes.size());
+            for (Map.Entry<String, ?> entry : changes.entrySet()) {
+                Object value = entry.getValue();
+                if (value == REMOVED || value == null) {
+                    out.writeByte(TYPE_REMOVED);
+                    writeString(out, entry.getKey());
+                } else if (value instanceof String) {
+                    out.writeByte(TYPE_STRING);
+                    writeString(out, entry.getKey());
+                    writeString(out, (String) value);
+                } else if (value instanceof Integer) {
+                    out.writeByte(TYPE_INT);
+                    writeString(out, entry.getKey());
+                    out.writeInt((Integer) value);
+                } else if (value instanceof Long) {
+                    out.writeByte(TYPE_LONG);
+                    writeString(out, entry.getKey());
+                    out.writeLong((Long) value);
+                } else if (value instanceof Float) {
+                    out.writeByte(TYPE_FLOAT);
+                    writeString(out, entry.getKey());
+                    out.writeFloat((Float) value);
+                } else if (value instanceof Boolean) {
+                    out.writeByte(TYPE_BOOLEAN);
+                    writeString(out, entry.getKey());
+                    out.writeBoolean((Boolean) value);
+                } else if (value instanceof Set) {
+                    out.writeByte(TYPE_STRING_SET);
+                    writeString(out, entry.getKey());
+                    Set<?> set = (Set<?>) value;
+                    out.writeInt(set.size());
+                    for (Object element : set) {
+                        writeString(out, (String) element);
+                    }
+                } else {
+                    throw new IllegalArgumentException(
+                            "Unsupported type for key " + entry.getKey() + ": "
+                                    + value.getClass());
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            // ByteArrayOutputStream does not throw
+            throw new IllegalStateException(e);
+        }
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    private static void decode(byte[] payload, Map<String, Object> values) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        if (in.readBoolean()) {
+            values.clear();
+        }
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            byte type = in.readByte();
+            String key = readString(in);
+            switch (type) {
+                case TYPE_REMOVED:
+                    values.remove(key);
+                    break;
+                case TYPE_STRING:
+                    values.put(key, readString(in));
+                    break;
+                case TYPE_INT:
+                    values.put(key, in.readInt());
+                    break;
+                case TYPE_LONG:
+                    values.put(key, in.readLong());
+                    break;
+                case TYPE_FLOAT:
+                    values.put(key, in.readFloat());
+                    break;
+                case TYPE_BOOLEAN:
+                    values.put(key, in.readBoolean());
+                    break;
+                case TYPE_STRING_SET:
+                    int size = in.readInt();
+                    Set<String> set = new HashSet<>();
+                    for (int j = 0; j < size; j++) {
+                        set.add(readString(in));
+                    }
+                    values.put(key, set);
+                    break;
+                default:
+                    throw new IOException("Unknown type " + type + " for key " + key);
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(Charsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    private class MappedEditor implements Editor {
+        // guarded by this
+        private final Map<String, Object> modified = new HashMap<>();
+        private boolean clear;
+
+        @Override
+        public synchronized Editor putString(String key, @Nullable String value) {
+            modified.put(key, value != null ? value : REMOVED);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor putStringSet(String key, @Nullable Set<String> values) {
+            modified.put(key, values != null ? new HashSet<>(values) : REMOVED);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor putInt(String key, int value) {
+            modified.put(key, value);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor putLong(String key, long value) {
+            modified.put(key, value);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor putFloat(String key, float value) {
+            modified.put(key, value);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor putBoolean(String key, boolean value) {
+            modified.put(key, value);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor remove(String key) {
+            modified.put(key, REMOVED);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor clear() {
+            clear = true;
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            return saveEdit(true);
+        }
+
+        @Override
+        public void apply() {
+            saveEdit(false);
+        }
+
+        private boolean saveEdit(boolean force) {
+            Map<String, Object> changes;
+            boolean clearValues;
+            synchronized (this) {
+                changes = new HashMap<>(modified);
+                clearValues = clear;
+                modified.clear();
+                clear = false;
+            }
+            // as with the platform prefs, clear applies before this editor's changes
+            return save(clearValues, changes, force);
+        }
+    }
+}
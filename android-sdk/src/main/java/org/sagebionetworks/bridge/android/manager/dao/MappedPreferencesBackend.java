@@ -0,0 +1,102 @@
+/*
+ *    Copyright 2018 Sage Bionetworks
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package org.sagebionetworks.bridge.android.manager.dao;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.NonNull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps DAO values in {@link MappedPreferences}, one log per name in the app's files directory.
+ * <p>
+ * The first time a name is opened, the values in the platform prefs file of that name are moved
+ * to a new log and removed from the platform prefs. Later opens only use the log.
+ * {@link PlatformPreferencesBackend} moves them back if the log is turned off.
+ */
+public class MappedPreferencesBackend implements PreferencesBackend {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedPreferencesBackend.class);
+
+    static final String DIRECTORY = "bridge-prefs";
+    static final String FILE_EXTENSION = ".kv";
+
+    private final int compactBytes;
+    // guarded by this
+    private final Map<String, MappedPreferences> openPreferences = new HashMap<>();
+
+    /**
+     * @param compactBytes log size from which logs are compacted
+     */
+    public MappedPreferencesBackend(int compactBytes) {
+        checkArgument(compactBytes > 0);
+
+        this.compactBytes = compactBytes;
+    }
+
+    @NonNull
+    @Override
+    public synchronized SharedPreferences open(@NonNull Context applicationContext,
+                                               @NonNull String name) {
+        MappedPreferences preferences = openPreferences.get(name);
+        if (preferences == null) {
+            File file = logFile(applicationContext, name);
+            if (!file.exists()) {
+                migrate(applicationContext, name, file);
+            }
+            preferences = new MappedPreferences(file, compactBytes);
+            openPreferences.put(name, preferences);
+        }
+        return preferences;
+    }
+
+    /**
+     * @param applicationContext application context
+     * @param name               name of the preferences
+     * @return log file of the name, which may not exist
+     */
+    @NonNull
+    static File logFile(@NonNull Context applicationContext, @NonNull String name) {
+        return new File(new File(applicationContext.getFilesDir(), DIRECTORY),
+                name + FILE_EXTENSION);
+    }
+
+    private static void migrate(Context applicationContext, String name, File file) {
+        SharedPreferences platformPreferences = PLATFORM.open(applicationContext, name);
+        Map<String, ?> values = platformPreferences.getAll();
+        try {
+            MappedPreferences.writeFile(file, values);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not move " + name + " to " + file, e);
+        }
+        // only removed once the log holds the values
+        if (!values.isEmpty()) {
+            platformPreferences.edit().clear().commit();
+        }
+        LOG.info("Moved {} values of {} to {}", values.size(), name, file);
+    }
+}
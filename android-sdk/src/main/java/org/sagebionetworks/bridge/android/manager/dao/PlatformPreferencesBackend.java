@@ -0,0 +1,99 @@
+/*
+ *    Copyright 2018 Sage Bionetworks
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package org.sagebionetworks.bridge.android.manager.dao;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.NonNull;
+
+import org.sagebionetworks.bridge.android.BridgeConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps DAO values in the platform prefs, when {@link BridgeConfig#isDaoMappedStoreEnabled()} is
+ * off.
+ * <p>
+ * If an earlier launch kept a name in a {@link MappedPreferencesBackend} log, the first time the
+ * name is opened the values in the log are moved back to the platform prefs file of that name and
+ * the log is deleted, so turning the mapped store off keeps the values.
+ */
+public class PlatformPreferencesBackend implements PreferencesBackend {
+    private static final Logger LOG = LoggerFactory.getLogger(PlatformPreferencesBackend.class);
+
+    // guarded by this
+    private final Set<String> checkedNames = new HashSet<>();
+
+    @NonNull
+    @Override
+    public synchronized SharedPreferences open(@NonNull Context applicationContext,
+                                               @NonNull String name) {
+        SharedPreferences preferences = PLATFORM.open(applicationContext, name);
+        if (checkedNames.add(name)) {
+            File file = MappedPreferencesBackend.logFile(applicationContext, name);
+            if (file.exists()) {
+                restore(name, file, preferences);
+            }
+        }
+        return preferences;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void restore(String name, File file, SharedPreferences preferences) {
+        Map<String, Object> values;
+        try {
+            values = MappedPreferences.readFile(file);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not move " + file + " to " + name, e);
+        }
+
+        // the log holds the latest values, any left in the platform prefs are older
+        SharedPreferences.Editor editor = preferences.edit().clear();
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof String) {
+                editor.putString(entry.getKey(), (String) value);
+            } else if (value instanceof Integer) {
+                editor.putInt(entry.getKey(), (Integer) value);
+            } else if (value instanceof Long) {
+                editor.putLong(entry.getKey(), (Long) value);
+            } else if (value instanceof Float) {
+                editor.putFloat(entry.getKey(), (Float) value);
+            } else if (value instanceof Boolean) {
+                editor.putBoolean(entry.getKey(), (Boolean) value);
+            } else if (value instanceof Set) {
+                editor.putStringSet(entry.getKey(), (Set<String>) value);
+            }
+        }
+        if (!editor.commit()) {
+            throw new IllegalStateException("Could not move " + file + " to " + name);
+        }
+        // only deleted once the platform prefs hold the values
+        if (!file.delete()) {
+            LOG.warn("Could not delete {}, its values are moved again on the next launch", file);
+        }
+        LOG.info("Moved {} values of {} back to {}", values.size(), file, name);
+    }
+}
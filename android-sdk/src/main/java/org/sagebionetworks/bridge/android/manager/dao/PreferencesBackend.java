@@ -0,0 +1,43 @@
+/*
+ *    Copyright 2018 Sage Bionetworks
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package org.sagebionetworks.bridge.android.manager.dao;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Storage DAOs keep their values in. Each backend returns the same instance for a name, so all
+ * DAOs using a name see each other's writes.
+ */
+public interface PreferencesBackend {
+    /**
+     * The platform's SharedPreferences, one XML file per name.
+     */
+    PreferencesBackend PLATFORM = (applicationContext, name) ->
+            applicationContext.getSharedPreferences(name, Context.MODE_PRIVATE);
+
+    /**
+     * @param applicationContext application context
+     * @param name               name of the preferences, e.g. the platform prefs file name
+     * @return preferences for the name
+     */
+    @NonNull
+    SharedPreferences open(@NonNull Context applicationContext, @NonNull String name);
+}
@@ -0,0 +1,119 @@
+/*
+ *    Copyright 2018 Sage Bionetworks
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package org.sagebionetworks.bridge.android.manager.dao;
+
+import androidx.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+
+import org.sagebionetworks.bridge.rest.RestUtils;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A DAO value for debug logs, rendered only when the log message is built. Values of fields whose
+ * names look like credentials or personal data are replaced, and long values are cut off.
+ * <p>
+ * Pass it as a logger argument behind a debug check, so nothing is allocated when debug logging
+ * is off.
+ */
+final class RedactedJson {
+    static final String REDACTED = "[redacted]";
+    static final int MAX_LENGTH = 512;
+
+    // matched against lower case field and key names
+    private static final List<String> SENSITIVE_NAMES = ImmutableList.of("password", "token",
+            "secret", "email", "phone", "externalid", "name", "birth", "imagedata", "signature",
+            "session", "participant");
+
+    private final String key;
+    @Nullable
+    private final String json;
+
+    private RedactedJson(String key, @Nullable String json) {
+        this.key = key;
+        this.json = json;
+    }
+
+    /**
+     * @param key  key the value is stored under, the whole value is redacted if it is sensitive
+     * @param json JSON of the value, before any transform
+     * @return object whose toString is the redacted value
+     */
+    static RedactedJson of(String key, @Nullable String json) {
+        return new RedactedJson(key, json);
+    }
+
+    @Override
+    public String toString() {
+        if (json == null) {
+            return "null";
+        }
+        if (isSensitive(key)) {
+            return REDACTED + " (" + json.length() + " chars)";
+        }
+
+        String rendered;
+        try {
+            JsonElement element = RestUtils.GSON.fromJson(json, JsonElement.class);
+            rendered = element != null ? redact(element).toString() : "null";
+        } catch (JsonParseException e) {
+            return "[unparseable] (" + json.length() + " chars)";
+        }
+        if (rendered.length() > MAX_LENGTH) {
+            return rendered.substring(0, MAX_LENGTH) + "... (" + json.length() + " chars)";
+        }
+        return rendered;
+    }
+
+    private static JsonElement redact(JsonElement element) {
+        if (element.isJsonObject()) {
+            JsonObject redacted = new JsonObject();
+            for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+                redacted.add(entry.getKey(), isSensitive(entry.getKey())
+                        ? new JsonPrimitive(REDACTED) : redact(entry.getValue()));
+            }
+            return redacted;
+        }
+        if (element.isJsonArray()) {
+            JsonArray redacted = new JsonArray();
+            for (JsonElement child : element.getAsJsonArray()) {
+                redacted.add(redact(child));
+            }
+            return redacted;
+        }
+        return element;
+    }
+
+    private static boolean isSensitive(String name) {
+        String lowerCaseName = name.toLowerCase(Locale.US);
+        for (String sensitiveName : SENSITIVE_NAMES) {
+            if (lowerCaseName.contains(sensitiveName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
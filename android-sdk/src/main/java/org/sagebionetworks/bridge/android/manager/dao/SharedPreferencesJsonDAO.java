@@ -3,19 +3,45 @@ package org.sagebionetworks.bridge.android.manager.dao;
 import android.content.Context;
 import android.content.SharedPreferences;
 import androidx.annotation.AnyThread;
+import androidx.annotation.Nullable;
 
 import com.google.common.base.Function;
+import com.google.gson.JsonElement;
 import com.google.gson.reflect.TypeToken;
 
 import org.sagebionetworks.bridge.rest.RestUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.StringReader;
+import java.lang.reflect.Type;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+import rx.Observable;
+
 /**
  * Persists objects in SharedPreferences via JSON serialization/deserialization. Transforms can be
  * applied to the JSON string, with the transform being applied to the JSON before saving to shared
  * prefs, or applied to the string after retrieving from saved prefs. Encryption/decryption are an
  * example of useful transforms to apply.
+ * <p>
+ * Decoded JSON trees are cached, so repeated reads of an unchanged value skip the transform and
+ * JSON parsing. A cached tree is only used while the stored string it was decoded from is still
+ * the one in shared prefs, so writes through other DAO instances or directly to the prefs file are
+ * seen. Each read binds a new object from the tree, so callers may modify what they get.
+ * <p>
+ * The prefs come from {@link DaoStorage}, either the platform prefs file or a memory-mapped log
+ * with the same API.
+ * <p>
+ * Reads on the main thread are reported to {@link DaoThreadPolicy}, subclasses offer asynchronous
+ * variants of their getters for callers on the main thread.
+ * <p>
+ * Each read, write and remove is counted by {@link DaoMetrics}. Values are only logged at debug
+ * level, redacted by {@link RedactedJson}.
  */
 @AnyThread
 public class SharedPreferencesJsonDAO {
@@ -23,90 +49,308 @@ public class SharedPreferencesJsonDAO {
 
     protected final SharedPreferences sharedPreferences;
 
+    private final String daoName;
+
+    private final Map<String, CachedValue> valueCache = new ConcurrentHashMap<>();
+
+    // shared prefs only keeps a weak reference to its listeners
+    private final SharedPreferences.OnSharedPreferenceChangeListener cacheInvalidator =
+            (prefs, key) -> {
+                if (key == null) {
+                    // prefs were cleared
+                    valueCache.clear();
+                } else {
+                    valueCache.remove(key);
+                }
+            };
+
     protected SharedPreferencesJsonDAO(Context applicationContext, String preferencesFile) {
-        sharedPreferences = applicationContext
-                .getSharedPreferences(preferencesFile, Context.MODE_PRIVATE);
+        daoName = getClass().getSimpleName();
+        sharedPreferences = DaoStorage.open(applicationContext, preferencesFile);
+        sharedPreferences.registerOnSharedPreferenceChangeListener(cacheInvalidator);
+    }
+
+    /**
+     * Removes all saved values.
+     */
+    protected void clearValues() {
+        logger.debug("clearing all keys");
+
+        valueCache.clear();
+        sharedPreferences.edit().clear().commit();
     }
 
     protected void removeValue(String key) {
-        logger.debug("removing key: " + key);
+        logger.debug("removing key: {}", key);
 
+        long start = System.nanoTime();
+        valueCache.remove(key);
         sharedPreferences.edit().remove(key).apply();
+        recordMetrics(key, DaoMetrics.Operation.REMOVE, 0, System.nanoTime() - start, false);
     }
 
     protected <T> void setValue(String key, T value, Class<? super T> klass) {
-        String json = RestUtils.GSON.toJson(value, klass);
-
-        logger.debug("setting key: " + key + ", value: " + json);
-
-        sharedPreferences.edit().putString(key, json).apply();
+        writeValue(key, value, klass, null);
     }
 
     protected <T> T getValue(String key, Class<? extends T> klass) {
-        String json = sharedPreferences.getString(key, null);
-
-        logger.debug("getting key: " + key + ", value: " + json);
-
-        return RestUtils.GSON.fromJson(json, klass);
+        return readValue(key, klass, null);
     }
 
     protected <T> void setValue(String key, T value, TypeToken<? super T> type) {
-        String json = RestUtils.GSON.toJson(value, type.getType());
-
-        logger.debug("setting key: " + key + ", value: " + json);
-
-        sharedPreferences.edit().putString(key, json).apply();
+        writeValue(key, value, type.getType(), null);
     }
 
     protected <T> T getValue(String key, TypeToken<? extends T> type) {
-        String json = sharedPreferences.getString(key, null);
+        return readValue(key, type.getType(), null);
+    }
 
-        logger.debug("getting key: " + key + ", value: " + json);
+    protected <T> void setValue(String key, T value, TypeToken<? super T> type,
+                                Function<String, String> transform) {
+        writeValue(key, value, type.getType(), transform);
+    }
 
-        return RestUtils.GSON.fromJson(json, type.getType());
+    protected <T> T getValue(String key, TypeToken<? extends T> type,
+                             Function<String, String> transform) {
+        return readValue(key, type.getType(), transform);
     }
 
-    protected <T> void setValue(String key, T value, TypeToken<? super T> type,
+    protected <T> void setValue(String key, T value, Class<? super T> klass,
                                 Function<String, String> transform) {
-        String json = RestUtils.GSON.toJson(value, type.getType());
+        writeValue(key, value, klass, transform);
+    }
 
-        logger.debug("setting key: " + key + ", value: " + json);
+    protected <T> T getValue(String key, Class<? extends T> klass,
+                             Function<String, String> transform) {
+        return readValue(key, klass, transform);
+    }
 
-        json = transform.apply(json);
+    /**
+     * @return a batch collecting writes, which are saved together with one editor
+     */
+    protected Batch batch() {
+        return new Batch();
+    }
+
+    private void writeValue(String key, Object value, Type type,
+                            @Nullable Function<String, String> transform) {
+        long start = System.nanoTime();
+        String json = encodeValue(key, value, type, transform);
 
+        // the caller still holds the value and may modify it, so the next read decodes it again
+        valueCache.remove(key);
         sharedPreferences.edit().putString(key, json).apply();
+        recordMetrics(key, DaoMetrics.Operation.WRITE, json.length(),
+                System.nanoTime() - start, false);
     }
 
-    protected <T> T getValue(String key, TypeToken<? extends T> type,
-                             Function<String, String> transform) {
-        String json = sharedPreferences.getString(key, null);
-
-        json = transform.apply(json);
+    private String encodeValue(String key, Object value, Type type,
+                               @Nullable Function<String, String> transform) {
+        String json = RestUtils.GSON.toJson(value, type);
 
-        logger.debug("getting key: " + key + ", value: " + json);
+        if (logger.isDebugEnabled()) {
+            logger.debug("setting key: {}, value: {}", key, RedactedJson.of(key, json));
+        }
 
-        return RestUtils.GSON.fromJson(json, type.getType());
+        if (transform != null) {
+            json = transform.apply(json);
+        }
+        return json;
     }
 
-    protected <T> void setValue(String key, T value, Class<? super T> klass,
-                                Function<String, String> transform) {
-        String json = RestUtils.GSON.toJson(value, klass);
+    /**
+     * Decodes a stored JSON array one element at a time, so callers looking for one element, or
+     * going through a large list, do not build the whole list. Elements are not cached.
+     *
+     * @param key         key of the array
+     * @param elementType type of the elements
+     * @return iterator of the elements, empty if there is no stored value
+     */
+    protected <T> JsonStreams.ArrayIterator<T> iterateArray(String key, Type elementType) {
+        checkRead(key);
+
+        long start = System.nanoTime();
+        String storedValue = sharedPreferences.getString(key, null);
+
+        logger.debug("streaming key: {}", key);
+        // elements are decoded later, by the caller
+        recordMetrics(key, DaoMetrics.Operation.READ,
+                storedValue != null ? storedValue.length() : 0, System.nanoTime() - start, false);
+
+        return JsonStreams.iterateArray(RestUtils.GSON,
+                new StringReader(storedValue != null ? storedValue : ""), elementType);
+    }
 
-        logger.debug("setting key: " + key + ", value: " + json);
+    /**
+     * Runs a read on {@link DaoSchedulers#disk()}, for callers that should not block, e.g. on the
+     * main thread.
+     *
+     * @param read reads a value, may return null
+     * @return observable emitting the value, or completing without one if it is null
+     */
+    protected <T> Observable<T> readAsync(Callable<T> read) {
+        return Observable.fromCallable(read)
+                .filter(value -> value != null)
+                .subscribeOn(DaoSchedulers.disk());
+    }
 
-        json = transform.apply(json);
+    /**
+     * Reports a read made on the main thread, see {@link DaoThreadPolicy}. Called by each getValue,
+     * subclasses reading shared prefs directly should call it too.
+     */
+    protected void checkRead(String key) {
+        DaoThreadPolicy.onRead(daoName, key);
+    }
 
-        sharedPreferences.edit().putString(key, json).apply();
+    /**
+     * Key {@link DaoMetrics} counts an operation on a key under. Subclasses storing one key per
+     * item, e.g. per activity, should return the same key for all of them, so the metrics do not
+     * grow with the number of items.
+     *
+     * @param key key of the value
+     * @return key to count the operation under, the key itself by default
+     */
+    protected String getMetricsKey(String key) {
+        return key;
     }
 
-    protected <T> T getValue(String key, Class<? extends T> klass,
-                             Function<String, String> transform) {
-        String json = sharedPreferences.getString(key, null);
+    private void recordMetrics(String key, DaoMetrics.Operation operation, long length, long nanos,
+                               boolean cacheHit) {
+        DaoMetrics.record(daoName, getMetricsKey(key), operation, length, nanos, cacheHit);
+    }
 
-        json = transform.apply(json);
+    private <T> T readValue(String key, Type type, @Nullable Function<String, String> transform) {
+        checkRead(key);
+
+        long start = System.nanoTime();
+        String storedValue = sharedPreferences.getString(key, null);
+        int length = storedValue != null ? storedValue.length() : 0;
+
+        CachedValue cachedValue = valueCache.get(key);
+        if (cachedValue != null && cachedValue.matches(storedValue, transform)) {
+            logger.debug("getting cached key: {}", key);
+            // a new object for each read, the tree itself is never handed out
+            T value = RestUtils.GSON.fromJson(cachedValue.tree, type);
+            recordMetrics(key, DaoMetrics.Operation.READ, length,
+                    System.nanoTime() - start, true);
+            return value;
+        }
+
+        String json = transform != null ? transform.apply(storedValue) : storedValue;
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("getting key: {}, value: {}", key, RedactedJson.of(key, json));
+        }
+
+        if (json == null) {
+            recordMetrics(key, DaoMetrics.Operation.READ, length,
+                    System.nanoTime() - start, false);
+            return null;
+        }
+        JsonElement tree = RestUtils.GSON.fromJson(json, JsonElement.class);
+        T value = RestUtils.GSON.fromJson(tree, type);
+        if (storedValue != null) {
+            valueCache.put(key, new CachedValue(storedValue, transform, tree));
+        }
+        recordMetrics(key, DaoMetrics.Operation.READ, length,
+                System.nanoTime() - start, false);
+        return value;
+    }
 
-        logger.debug("getting key: " + key + ", value: " + json);
+    /**
+     * Collects writes into one editor, so several values are saved with a single write of the
+     * prefs file. Nothing is saved until {@link #apply()} or {@link #commit()} is called.
+     */
+    protected class Batch {
+        private final SharedPreferences.Editor editor = sharedPreferences.edit();
+        private final Set<String> keys = new HashSet<>();
+
+        public <T> Batch setValue(String key, T value, Class<? super T> klass) {
+            return putValue(key, value, klass, null);
+        }
+
+        public <T> Batch setValue(String key, T value, TypeToken<? super T> type) {
+            return putValue(key, value, type.getType(), null);
+        }
+
+        public <T> Batch setValue(String key, T value, TypeToken<? super T> type,
+                                  Function<String, String> transform) {
+            return putValue(key, value, type.getType(), transform);
+        }
+
+        public <T> Batch setValue(String key, T value, Class<? super T> klass,
+                                  Function<String, String> transform) {
+            return putValue(key, value, klass, transform);
+        }
+
+        public Batch removeValue(String key) {
+            logger.debug("removing key: {}", key);
+
+            keys.add(key);
+            editor.remove(key);
+            recordMetrics(key, DaoMetrics.Operation.REMOVE, 0, 0, false);
+            return this;
+        }
+
+        /**
+         * Saves the writes in memory and writes the prefs file in the background.
+         */
+        public void apply() {
+            invalidate();
+            editor.apply();
+        }
+
+        /**
+         * Saves the writes and waits for the prefs file to be written.
+         *
+         * @return true if the writes were saved to disk
+         */
+        public boolean commit() {
+            invalidate();
+            return editor.commit();
+        }
+
+        private Batch putValue(String key, Object value, Type type,
+                               @Nullable Function<String, String> transform) {
+            // time to encode, the batch is saved in one write later
+            long start = System.nanoTime();
+            String json = encodeValue(key, value, type, transform);
+            keys.add(key);
+            editor.putString(key, json);
+            recordMetrics(key, DaoMetrics.Operation.WRITE, json.length(),
+                    System.nanoTime() - start, false);
+            return this;
+        }
+
+        private void invalidate() {
+            for (String key : keys) {
+                valueCache.remove(key);
+            }
+        }
+    }
 
-        return RestUtils.GSON.fromJson(json, klass);
+    /**
+     * A decoded JSON tree, with the stored string and the transform used to decode it. The tree is
+     * only read, to bind new objects of any type.
+     */
+    private static class CachedValue {
+        final String storedValue;
+        @Nullable
+        final Function<String, String> transform;
+        final JsonElement tree;
+
+        CachedValue(String storedValue, @Nullable Function<String, String> transform,
+                    JsonElement tree) {
+            this.storedValue = storedValue;
+            this.transform = transform;
+            this.tree = tree;
+        }
+
+        boolean matches(@Nullable String storedValue,
+                        @Nullable Function<String, String> transform) {
+            // shared prefs usually returns the same instance that was stored
+            return (this.storedValue == storedValue || this.storedValue.equals(storedValue))
+                    && this.transform == transform;
+        }
     }
 }
@@ -1,24 +1,41 @@
 package org.sagebionetworks.bridge.android.manager.dao;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
 import android.content.Context;
-import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
+import org.joda.time.DateTime;
 import org.sagebionetworks.bridge.android.di.BridgeStudyScope;
 import org.sagebionetworks.bridge.android.manager.UploadManager;
+import org.sagebionetworks.bridge.android.manager.dao.UploadEntity.UploadState;
+import org.sagebionetworks.bridge.android.manager.upload.UploadPriority;
+import org.sagebionetworks.bridge.rest.RestUtils;
 import org.sagebionetworks.bridge.rest.model.UploadSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.inject.Inject;
 
 /**
+ * Queue of pending uploads, backed by {@link UploadDatabase}. Uploads queued by earlier versions
+ * of the SDK are stored in SharedPreferences, and are moved to the database the first time the
+ * queue is used.
+ * <p>
  * Created by jyliu on 3/10/2017.
  */
-@AnyThread
+@WorkerThread
 @BridgeStudyScope // TODO: @liujoshua consider scoping/namespacing to participant 2018/10/09
 public class UploadDAO extends SharedPreferencesJsonDAO {
     private static final Logger logger = LoggerFactory.getLogger(UploadDAO.class);
@@ -26,45 +43,400 @@ public class UploadDAO extends SharedPreferencesJsonDAO {
     private static final String PREFERENCES_FILE  = "uploads";
     private static final String UPLOAD_FILE_PREFIX = "uploadFile-";
     private static final String UPLOAD_SESSION_PREFIX = "uploadSession-";
+    // states in which the archive has not been sent to S3 yet
+    private static final List<UploadState> PENDING_UPLOAD_STATES =
+            Lists.newArrayList(UploadState.QUEUED, UploadState.SESSION_ACQUIRED);
+
+    private final UploadDatabase uploadDatabase;
+    private final UploadEntityDao uploadEntityDao;
+    private final UploadFingerprintDao uploadFingerprintDao;
+    private final UploadJournalDao uploadJournalDao;
+    private volatile boolean migrated;
 
     @Inject
-    public UploadDAO(Context applicationContext) {
+    public UploadDAO(Context applicationContext, UploadDatabase uploadDatabase) {
         super(applicationContext, PREFERENCES_FILE);
+        this.uploadDatabase = uploadDatabase;
+        this.uploadEntityDao = uploadDatabase.uploadDao();
+        this.uploadFingerprintDao = uploadDatabase.uploadFingerprintDao();
+        this.uploadJournalDao = uploadDatabase.uploadJournalDao();
     }
 
-    public Set<String> listUploadFilenames() {
-        Set<String> filenames = Sets.newHashSet();
-
-        for (String key : sharedPreferences.getAll().keySet()) {
-            if (key.startsWith(UPLOAD_FILE_PREFIX)) {
-                String filename = key.substring(UPLOAD_FILE_PREFIX.length());
-                filenames.add(filename);
+    /**
+     * Uploads queued in SharedPreferences are migrated the first time the queue is read or
+     * written, rather than in the constructor, which may run on the main thread.
+     *
+     * @return DAO of queued uploads
+     */
+    @NonNull
+    private UploadEntityDao entities() {
+        if (!migrated) {
+            synchronized (this) {
+                if (!migrated) {
+                    migrateSharedPreferences();
+                    migrated = true;
+                }
             }
         }
+        return uploadEntityDao;
+    }
+
+    /**
+     * @return filenames of queued uploads, oldest first
+     */
+    public Set<String> listUploadFilenames() {
+        Set<String> filenames = Sets.newLinkedHashSet(entities().listFilenames());
 
         logger.debug("listUploadFilenames called, found: " + filenames);
 
         return filenames;
     }
 
+    /**
+     * @return all queued uploads, oldest first
+     */
+    @NonNull
+    public List<UploadEntity> listUploads() {
+        return entities().listAll();
+    }
+
+    /**
+     * @param states      states an upload must be in to be eligible
+     * @param limit       maximum number of uploads to return
+     * @param agingMillis time each priority rank delays an upload, 0 for oldest first
+     * @return queued uploads in any of the given states, in priority order
+     */
+    @NonNull
+    public List<UploadEntity> listNextEligibleUploads(@NonNull Collection<UploadState> states, int limit,
+            long agingMillis) {
+        checkNotNull(states);
+
+        return entities().listNextEligible(Lists.newArrayList(states), limit, agingMillis);
+    }
+
+    /**
+     * @param now         time in milliseconds
+     * @param limit       maximum number of filenames to return
+     * @param agingMillis time each priority rank delays an upload, 0 for oldest first
+     * @return filenames of queued uploads whose status can be checked at the given time, in
+     * priority order
+     */
+    @NonNull
+    public Set<String> listUploadFilenamesDueForStatusCheck(long now, int limit, long agingMillis) {
+        return listUploadFilenamesDueForStatusCheck(now, limit, agingMillis, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param now             time in milliseconds
+     * @param limit           maximum number of filenames to return
+     * @param agingMillis     time each priority rank delays an upload, 0 for oldest first
+     * @param maxUploadLength uploads not yet sent to S3 and larger than this are left out, uploads
+     *                        already sent are included whatever their size
+     * @return filenames of queued uploads whose status can be checked at the given time, in
+     * priority order
+     */
+    @NonNull
+    public Set<String> listUploadFilenamesDueForStatusCheck(long now, int limit, long agingMillis,
+            long maxUploadLength) {
+        return Sets.newLinkedHashSet(entities().listFilenamesDueForStatusCheck(now, limit,
+                agingMillis, PENDING_UPLOAD_STATES, maxUploadLength));
+    }
+
+    /**
+     * @param maxUploadLength uploads larger than this are not counted
+     * @return number of queued uploads not yet sent to S3, no larger than maxUploadLength
+     */
+    public int getPendingUploadCount(long maxUploadLength) {
+        return entities().countPending(PENDING_UPLOAD_STATES, maxUploadLength);
+    }
+
+    /**
+     * @return number of queued uploads
+     */
+    public int getUploadCount() {
+        return entities().count();
+    }
+
+    /**
+     * @return time in milliseconds the oldest queued upload was created, null if the queue is
+     * empty
+     */
+    @Nullable
+    public Long getOldestUploadCreatedOn() {
+        return entities().getOldestCreatedOn();
+    }
+
     public void putUploadFile(String filename, UploadManager.UploadFile uploadFile) {
-        setValue(UPLOAD_FILE_PREFIX + filename, uploadFile, UploadManager.UploadFile.class);
+        entities().upsert(toUploadEntity(filename, uploadFile, System.currentTimeMillis()));
     }
 
+    @Nullable
     public UploadManager.UploadFile getUploadFile(String filename) {
-        return getValue(UPLOAD_FILE_PREFIX + filename, UploadManager.UploadFile.class);
+        UploadEntity uploadEntity = entities().getUpload(filename);
+        if (uploadEntity == null) {
+            return null;
+        }
+        return toUploadFile(uploadEntity);
+    }
+
+    @Nullable
+    public UploadEntity getUploadEntity(String filename) {
+        return entities().getUpload(filename);
     }
 
     public void putUploadSession(String filename, UploadSession uploadSession) {
-        setValue(UPLOAD_SESSION_PREFIX + filename, uploadSession, UploadSession.class);
+        entities().updateSession(filename,
+                RestUtils.GSON.toJson(uploadSession, UploadSession.class),
+                UploadState.SESSION_ACQUIRED,
+                System.currentTimeMillis());
     }
 
+    @Nullable
     public UploadSession getUploadSession(String filename) {
-        return getValue(UPLOAD_SESSION_PREFIX + filename, UploadSession.class);
+        UploadEntity uploadEntity = entities().getUpload(filename);
+        if (uploadEntity == null) {
+            return null;
+        }
+        return RestUtils.GSON.fromJson(uploadEntity.uploadSessionJson, UploadSession.class);
+    }
+
+    public void updateUploadState(String filename, UploadState state) {
+        logger.debug("updateUploadState called for filename: " + filename + ", state: " + state);
+
+        entities().updateState(filename, state, System.currentTimeMillis());
+    }
+
+    /**
+     * Increments the attempt count of an upload and records the time of the attempt.
+     */
+    public void recordUploadAttempt(String filename) {
+        entities().recordAttempt(filename, System.currentTimeMillis());
+    }
+
+    /**
+     * Increments the status check count of an upload and defers its next status check.
+     *
+     * @param filename          queued filename
+     * @param nextStatusCheckOn time in milliseconds before which the status should not be checked
+     */
+    public void scheduleStatusCheck(String filename, long nextStatusCheckOn) {
+        logger.debug("scheduleStatusCheck called for filename: " + filename
+                + ", nextStatusCheckOn: " + nextStatusCheckOn);
+
+        entities().scheduleStatusCheck(filename, nextStatusCheckOn, System.currentTimeMillis());
+    }
+
+    /**
+     * Increments the failed validation count of an upload.
+     *
+     * @param filename queued filename
+     */
+    public void recordFailedValidation(String filename) {
+        logger.debug("recordFailedValidation called for filename: " + filename);
+
+        entities().recordFailedValidation(filename, System.currentTimeMillis());
     }
 
     public void removeUploadAndSession(String filename) {
-        removeValue(UPLOAD_FILE_PREFIX + filename);
-        removeValue(UPLOAD_SESSION_PREFIX + filename);
+        entities().delete(filename);
+    }
+
+    /**
+     * Journals the start of writing an archive to a staged file.
+     *
+     * @param filename       final filename of the archive
+     * @param stagedFilename filename the archive is written to first
+     */
+    public void beginPersist(@NonNull String filename, @NonNull String stagedFilename) {
+        UploadJournalEntity entity = new UploadJournalEntity();
+        entity.filename = filename;
+        entity.stagedFilename = stagedFilename;
+        entity.startedOn = System.currentTimeMillis();
+
+        uploadJournalDao.upsert(entity);
+    }
+
+    /**
+     * Journals that the staged file was completely written and synced, so the persist can be
+     * resumed after the process dies.
+     *
+     * @param stagedFilename filename the archive was written to
+     * @param uploadFile     archive to queue once the staged file is renamed
+     */
+    public void markPersistWritten(@NonNull String stagedFilename,
+                                   @NonNull UploadManager.UploadFile uploadFile) {
+        UploadJournalEntity entity = new UploadJournalEntity();
+        entity.filename = uploadFile.filename;
+        entity.stagedFilename = stagedFilename;
+        entity.startedOn = System.currentTimeMillis();
+        entity.md5Hash = uploadFile.md5Hash;
+        entity.contentType = uploadFile.contentType;
+        entity.fileLength = uploadFile.fileLength;
+        entity.createdOn = uploadFile.createdOn != null
+                ? uploadFile.createdOn.getMillis() : entity.startedOn;
+        entity.priority = uploadFile.priority != null ? uploadFile.priority : UploadPriority.NORMAL;
+
+        uploadJournalDao.upsert(entity);
+    }
+
+    /**
+     * Queues a persisted archive and removes its journal row, in one transaction.
+     */
+    public void commitPersist(@NonNull UploadManager.UploadFile uploadFile) {
+        uploadDatabase.runInTransaction(() -> {
+            putUploadFile(uploadFile.filename, uploadFile);
+            uploadJournalDao.delete(uploadFile.filename);
+        });
+    }
+
+    /**
+     * Removes the journal row of a persist that was abandoned.
+     */
+    public void abortPersist(@NonNull String filename) {
+        uploadJournalDao.delete(filename);
+    }
+
+    /**
+     * @return journal rows of persists that did not finish, oldest first
+     */
+    @NonNull
+    public List<UploadJournalEntity> listUnfinishedPersists() {
+        return uploadJournalDao.listAll();
+    }
+
+    /**
+     * @param entity journal row of a written archive
+     * @return archive to queue when resuming the persist
+     */
+    @NonNull
+    public static UploadManager.UploadFile toUploadFile(@NonNull UploadJournalEntity entity) {
+        UploadManager.UploadFile uploadFile = new UploadManager.UploadFile();
+        uploadFile.filename = entity.filename;
+        uploadFile.contentType = entity.contentType;
+        uploadFile.fileLength = entity.fileLength;
+        uploadFile.md5Hash = entity.md5Hash;
+        uploadFile.createdOn = new DateTime(entity.createdOn);
+        uploadFile.priority = entity.priority;
+        return uploadFile;
+    }
+
+    /**
+     * @param fingerprint fingerprint of an archive's contents
+     * @return the first archive queued with the fingerprint, null if none is in the history
+     */
+    @Nullable
+    public UploadManager.UploadFile getUploadFileForFingerprint(@NonNull String fingerprint) {
+        UploadFingerprintEntity entity = uploadFingerprintDao.getFingerprint(fingerprint);
+        if (entity == null) {
+            return null;
+        }
+
+        UploadManager.UploadFile uploadFile = new UploadManager.UploadFile();
+        uploadFile.filename = entity.filename;
+        uploadFile.contentType = entity.contentType;
+        uploadFile.fileLength = entity.fileLength;
+        uploadFile.md5Hash = entity.md5Hash;
+        uploadFile.createdOn = new DateTime(entity.createdOn);
+        return uploadFile;
+    }
+
+    /**
+     * Adds a fingerprint to the history, keeping only the newest fingerprints.
+     *
+     * @param fingerprint fingerprint of an archive's contents
+     * @param uploadFile  archive queued with the fingerprint
+     * @param maxHistory  number of fingerprints to keep
+     */
+    public void putFingerprint(@NonNull String fingerprint,
+                               @NonNull UploadManager.UploadFile uploadFile, int maxHistory) {
+        UploadFingerprintEntity entity = new UploadFingerprintEntity();
+        entity.fingerprint = fingerprint;
+        entity.filename = uploadFile.filename;
+        entity.contentType = uploadFile.contentType;
+        entity.fileLength = uploadFile.fileLength;
+        entity.md5Hash = uploadFile.md5Hash;
+        entity.createdOn = uploadFile.createdOn != null
+                ? uploadFile.createdOn.getMillis() : System.currentTimeMillis();
+
+        uploadFingerprintDao.upsert(entity);
+        uploadFingerprintDao.trim(maxHistory);
+    }
+
+    public int getFingerprintCount() {
+        return uploadFingerprintDao.count();
+    }
+
+    public void clearFingerprints() {
+        uploadFingerprintDao.clear();
+    }
+
+    /**
+     * Moves uploads queued in SharedPreferences by earlier versions of the SDK into the database.
+     * The rows are inserted before the preferences are cleared, so an interrupted migration is
+     * retried on the next launch.
+     */
+    @VisibleForTesting
+    void migrateSharedPreferences() {
+        Map<String, ?> legacyEntries = sharedPreferences.getAll();
+        if (legacyEntries.isEmpty()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        List<UploadEntity> uploadEntities = Lists.newArrayList();
+        for (String key : legacyEntries.keySet()) {
+            if (!key.startsWith(UPLOAD_FILE_PREFIX)) {
+                continue;
+            }
+            String filename = key.substring(UPLOAD_FILE_PREFIX.length());
+
+            UploadManager.UploadFile uploadFile = getValue(key, UploadManager.UploadFile.class);
+            if (uploadFile == null) {
+                continue;
+            }
+            UploadEntity uploadEntity = toUploadEntity(filename, uploadFile, now);
+
+            String uploadSessionJson = sharedPreferences.getString(UPLOAD_SESSION_PREFIX + filename, null);
+            if (uploadSessionJson != null) {
+                uploadEntity.uploadSessionJson = uploadSessionJson;
+                uploadEntity.state = UploadState.SESSION_ACQUIRED;
+                // earlier versions did not record upload attempts, the session may have been used
+                // for a PUT, so it is not replaced by a prefetch
+                uploadEntity.attemptCount = 1;
+            }
+            uploadEntities.add(uploadEntity);
+        }
+
+        uploadEntityDao.upsertAll(uploadEntities);
+        clearValues();
+
+        logger.info("Migrated " + uploadEntities.size() + " queued uploads from SharedPreferences");
+    }
+
+    @NonNull
+    static UploadEntity toUploadEntity(@NonNull String filename, @NonNull UploadManager.UploadFile uploadFile,
+            long now) {
+        UploadEntity uploadEntity = new UploadEntity();
+        uploadEntity.filename = filename;
+        uploadEntity.contentType = uploadFile.contentType;
+        uploadEntity.fileLength = uploadFile.fileLength;
+        uploadEntity.md5Hash = uploadFile.md5Hash;
+        uploadEntity.createdOn = uploadFile.createdOn != null ? uploadFile.createdOn.getMillis() : now;
+        uploadEntity.state = UploadState.QUEUED;
+        uploadEntity.updatedOn = now;
+        uploadEntity.priority = uploadFile.priority != null ? uploadFile.priority : UploadPriority.NORMAL;
+        return uploadEntity;
+    }
+
+    @NonNull
+    public static UploadManager.UploadFile toUploadFile(@NonNull UploadEntity uploadEntity) {
+        UploadManager.UploadFile uploadFile = new UploadManager.UploadFile();
+        uploadFile.filename = uploadEntity.filename;
+        uploadFile.contentType = uploadEntity.contentType;
+        uploadFile.fileLength = uploadEntity.fileLength;
+        uploadFile.md5Hash = uploadEntity.md5Hash;
+        uploadFile.createdOn = new DateTime(uploadEntity.createdOn);
+        uploadFile.priority = uploadEntity.priority;
+        return uploadFile;
     }
 }
@@ -0,0 +1,94 @@
+package org.sagebionetworks.bridge.android.manager.dao;
+
+import androidx.annotation.NonNull;
+import androidx.room.Database;
+import androidx.room.RoomDatabase;
+import androidx.room.TypeConverters;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+/**
+ * Database backing the upload queue in {@link UploadDAO}.
+ * <p>
+ * version 1 - UploadEntity table created and added
+ * version 2 - nextStatusCheckOn and statusCheckCount columns added to UploadEntity
+ * version 3 - UploadFingerprintEntity table created and added
+ * version 4 - priority column added to UploadEntity
+ * version 5 - UploadJournalEntity table created and added
+ * version 6 - UploadEntity (state, createdOn) index replaced with indices matching its queries
+ * version 7 - failedValidationCount column added to UploadEntity
+ */
+@Database(entities = {UploadEntity.class, UploadFingerprintEntity.class,
+        UploadJournalEntity.class}, version = 7)
+@TypeConverters(UploadEntityTypeConverters.class)
+public abstract class UploadDatabase extends RoomDatabase {
+    public static final String DATABASE_FILENAME = "org.sagebionetworks.bridge.android.UploadDatabase";
+
+    public static final Migration[] MIGRATIONS = {
+            new Migration(1, 2) {
+                @Override
+                public void migrate(@NonNull SupportSQLiteDatabase database) {
+                    database.execSQL("ALTER TABLE `UploadEntity` ADD COLUMN `nextStatusCheckOn` "
+                            + "INTEGER NOT NULL DEFAULT 0");
+                    database.execSQL("ALTER TABLE `UploadEntity` ADD COLUMN `statusCheckCount` "
+                            + "INTEGER NOT NULL DEFAULT 0");
+                }
+            },
+            new Migration(2, 3) {
+                @Override
+                public void migrate(@NonNull SupportSQLiteDatabase database) {
+                    database.execSQL("CREATE TABLE IF NOT EXISTS `UploadFingerprintEntity` "
+                            + "(`fingerprint` TEXT NOT NULL, `filename` TEXT NOT NULL, "
+                            + "`contentType` TEXT, `fileLength` INTEGER NOT NULL, `md5Hash` TEXT, "
+                            + "`createdOn` INTEGER NOT NULL, PRIMARY KEY(`fingerprint`))");
+                    database.execSQL("CREATE INDEX IF NOT EXISTS "
+                            + "`index_UploadFingerprintEntity_createdOn` "
+                            + "ON `UploadFingerprintEntity` (`createdOn`)");
+                }
+            },
+            new Migration(3, 4) {
+                @Override
+                public void migrate(@NonNull SupportSQLiteDatabase database) {
+                    database.execSQL("ALTER TABLE UploadEntity ADD COLUMN priority "
+                            + "INTEGER NOT NULL DEFAULT 1");
+                }
+            },
+            new Migration(4, 5) {
+                @Override
+                public void migrate(@NonNull SupportSQLiteDatabase database) {
+                    database.execSQL("CREATE TABLE IF NOT EXISTS `UploadJournalEntity` "
+                            + "(`filename` TEXT NOT NULL, `stagedFilename` TEXT NOT NULL, "
+                            + "`startedOn` INTEGER NOT NULL, `md5Hash` TEXT, `contentType` TEXT, "
+                            + "`fileLength` INTEGER NOT NULL, `createdOn` INTEGER NOT NULL, "
+                            + "`priority` INTEGER NOT NULL DEFAULT 1, PRIMARY KEY(`filename`))");
+                }
+            },
+            new Migration(5, 6) {
+                @Override
+                public void migrate(@NonNull SupportSQLiteDatabase database) {
+                    database.execSQL("DROP INDEX IF EXISTS `index_UploadEntity_state_createdOn`");
+                    database.execSQL("CREATE INDEX IF NOT EXISTS "
+                            + "`index_UploadEntity_state_fileLength` "
+                            + "ON `UploadEntity` (`state`, `fileLength`)");
+                    database.execSQL("CREATE INDEX IF NOT EXISTS `index_UploadEntity_createdOn` "
+                            + "ON `UploadEntity` (`createdOn`)");
+                    database.execSQL("CREATE INDEX IF NOT EXISTS "
+                            + "`index_UploadEntity_nextStatusCheckOn` "
+                            + "ON `UploadEntity` (`nextStatusCheckOn`)");
+                }
+            },
+            new Migration(6, 7) {
+                @Override
+                public void migrate(@NonNull SupportSQLiteDatabase database) {
+                    database.execSQL("ALTER TABLE `UploadEntity` ADD COLUMN `failedValidationCount` "
+                            + "INTEGER NOT NULL DEFAULT 0");
+                }
+            }
+    };
+
+    public abstract UploadEntityDao uploadDao();
+
+    public abstract UploadFingerprintDao uploadFingerprintDao();
+
+    public abstract UploadJournalDao uploadJournalDao();
+}
@@ -0,0 +1,124 @@
+package org.sagebionetworks.bridge.android.manager.dao;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+import org.sagebionetworks.bridge.android.manager.upload.UploadPriority;
+
+/**
+ * A row in the upload queue. Each row tracks an encrypted archive on disk, its cached
+ * UploadSession and where it is in the upload flow.
+ * <p>
+ * The priority ordering in UploadEntityDao depends on the aging interval, so it cannot use an
+ * index. The indices narrow the rows it sorts instead: (state, fileLength) for the eligible and
+ * pending queries, nextStatusCheckOn for the status check query and createdOn for the queries
+ * ordered by age.
+ */
+@Entity(indices = {@Index({"state", "fileLength"}), @Index("createdOn"),
+        @Index("nextStatusCheckOn")})
+public class UploadEntity {
+
+    /**
+     * Position of an upload in the upload flow.
+     */
+    public enum UploadState {
+        /**
+         * Archive is persisted and waiting for an upload session.
+         */
+        QUEUED,
+        /**
+         * An upload session was received from Bridge, archive has not been uploaded to S3.
+         */
+        SESSION_ACQUIRED,
+        /**
+         * Archive was uploaded to S3.
+         */
+        UPLOADED,
+        /**
+         * Bridge is validating the archive.
+         */
+        VALIDATING,
+        /**
+         * Bridge finished processing the archive.
+         */
+        DONE,
+        /**
+         * Bridge failed to validate the archive.
+         */
+        FAILED
+    }
+
+    @PrimaryKey
+    @NonNull
+    public String filename = "";
+
+    @Nullable
+    public String contentType;
+
+    public long fileLength;
+
+    @Nullable
+    public String md5Hash;
+
+    /**
+     * time in milliseconds the archive was persisted
+     */
+    public long createdOn;
+
+    @NonNull
+    public UploadState state = UploadState.QUEUED;
+
+    /**
+     * number of times an upload to S3 was attempted, at least 1 for a session migrated from
+     * SharedPreferences, as it may have been used
+     */
+    public int attemptCount;
+
+    /**
+     * time in milliseconds of the last upload attempt, null if upload has not been attempted
+     */
+    @Nullable
+    public Long lastAttemptOn;
+
+    /**
+     * time in milliseconds this row was last modified
+     */
+    public long updatedOn;
+
+    /**
+     * JSON of the UploadSession from Bridge, null if a session has not been requested
+     */
+    @Nullable
+    public String uploadSessionJson;
+
+    /**
+     * time in milliseconds before which the upload's status should not be checked, 0 if it can be
+     * checked now
+     */
+    @ColumnInfo(defaultValue = "0")
+    public long nextStatusCheckOn;
+
+    /**
+     * number of status checks that left the upload queued, e.g. validation still in progress, used
+     * to back off further checks
+     */
+    @ColumnInfo(defaultValue = "0")
+    public int statusCheckCount;
+
+    /**
+     * number of status checks that found the upload failed validation
+     */
+    @ColumnInfo(defaultValue = "0")
+    public int failedValidationCount;
+
+    /**
+     * priority of the upload, stored as its rank
+     */
+    @ColumnInfo(defaultValue = "1")
+    @NonNull
+    public UploadPriority priority = UploadPriority.NORMAL;
+}
@@ -0,0 +1,109 @@
+package org.sagebionetworks.bridge.android.manager.dao;
+
+import androidx.annotation.Nullable;
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import java.util.List;
+
+@Dao
+public interface UploadEntityDao {
+
+    /**
+     * @return filenames of all queued uploads, oldest first
+     */
+    @Query("SELECT filename FROM UploadEntity ORDER BY createdOn ASC")
+    List<String> listFilenames();
+
+    /**
+     * @return all queued uploads, oldest first
+     */
+    @Query("SELECT * FROM UploadEntity ORDER BY createdOn ASC")
+    List<UploadEntity> listAll();
+
+    @Nullable
+    @Query("SELECT * FROM UploadEntity WHERE filename = :filename")
+    UploadEntity getUpload(String filename);
+
+    /**
+     * @param states      states an upload must be in to be eligible
+     * @param limit       maximum number of uploads to return
+     * @param agingMillis time each priority rank delays an upload, see UploadPriority
+     * @return uploads in any of the given states, in priority order
+     */
+    @Query("SELECT * FROM UploadEntity WHERE state IN (:states) "
+            + "ORDER BY createdOn + priority * :agingMillis ASC, createdOn ASC LIMIT :limit")
+    List<UploadEntity> listNextEligible(List<UploadEntity.UploadState> states, int limit,
+            long agingMillis);
+
+    /**
+     * @param now             time in milliseconds
+     * @param limit           maximum number of filenames to return
+     * @param agingMillis     time each priority rank delays an upload, see UploadPriority
+     * @param uploadStates    states in which the archive still has to be sent to S3
+     * @param maxUploadLength uploads in uploadStates larger than this are left out
+     * @return filenames of uploads whose status can be checked at the given time, in priority
+     * order
+     */
+    @Query("SELECT filename FROM UploadEntity WHERE nextStatusCheckOn <= :now "
+            + "AND (fileLength <= :maxUploadLength OR state NOT IN (:uploadStates)) "
+            + "ORDER BY createdOn + priority * :agingMillis ASC, createdOn ASC LIMIT :limit")
+    List<String> listFilenamesDueForStatusCheck(long now, int limit, long agingMillis,
+            List<UploadEntity.UploadState> uploadStates, long maxUploadLength);
+
+    @Query("SELECT COUNT(*) FROM UploadEntity")
+    int count();
+
+    /**
+     * @param uploadStates    states in which the archive still has to be sent to S3
+     * @param maxUploadLength uploads larger than this are not counted
+     * @return number of uploads in uploadStates no larger than maxUploadLength
+     */
+    @Query("SELECT COUNT(*) FROM UploadEntity WHERE state IN (:uploadStates) "
+            + "AND fileLength <= :maxUploadLength")
+    int countPending(List<UploadEntity.UploadState> uploadStates, long maxUploadLength);
+
+    /**
+     * @return createdOn of the oldest queued upload, null if the queue is empty
+     */
+    @Nullable
+    @Query("SELECT MIN(createdOn) FROM UploadEntity")
+    Long getOldestCreatedOn();
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void upsert(UploadEntity uploadEntity);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void upsertAll(List<UploadEntity> uploadEntities);
+
+    @Query("UPDATE UploadEntity SET uploadSessionJson = :uploadSessionJson, state = :state, "
+            + "updatedOn = :updatedOn WHERE filename = :filename")
+    void updateSession(String filename, String uploadSessionJson, UploadEntity.UploadState state,
+            long updatedOn);
+
+    @Query("UPDATE UploadEntity SET state = :state, updatedOn = :updatedOn WHERE filename = :filename")
+    void updateState(String filename, UploadEntity.UploadState state, long updatedOn);
+
+    @Query("UPDATE UploadEntity SET attemptCount = attemptCount + 1, lastAttemptOn = :attemptedOn, "
+            + "updatedOn = :attemptedOn WHERE filename = :filename")
+    void recordAttempt(String filename, long attemptedOn);
+
+    @Query("UPDATE UploadEntity SET statusCheckCount = statusCheckCount + 1, "
+            + "nextStatusCheckOn = :nextStatusCheckOn, updatedOn = :updatedOn WHERE filename = :filename")
+    void scheduleStatusCheck(String filename, long nextStatusCheckOn, long updatedOn);
+
+    @Query("UPDATE UploadEntity SET failedValidationCount = failedValidationCount + 1, "
+            + "updatedOn = :updatedOn WHERE filename = :filename")
+    void recordFailedValidation(String filename, long updatedOn);
+
+    @Query("DELETE FROM UploadEntity WHERE filename = :filename")
+    void delete(String filename);
+
+    /**
+     * Deletes all rows in the table.
+     */
+    @Query("DELETE FROM UploadEntity")
+    void clear();
+}
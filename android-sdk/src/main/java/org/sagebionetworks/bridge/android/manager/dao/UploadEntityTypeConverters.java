@@ -0,0 +1,36 @@
+package org.sagebionetworks.bridge.android.manager.dao;
+
+import androidx.annotation.Nullable;
+import androidx.room.TypeConverter;
+
+import org.sagebionetworks.bridge.android.manager.upload.UploadPriority;
+
+/**
+ * Room type converters for the upload queue.
+ */
+public class UploadEntityTypeConverters {
+
+    @TypeConverter
+    @Nullable
+    public static String fromUploadState(@Nullable UploadEntity.UploadState state) {
+        return state == null ? null : state.name();
+    }
+
+    @TypeConverter
+    @Nullable
+    public static UploadEntity.UploadState toUploadState(@Nullable String state) {
+        return state == null ? null : UploadEntity.UploadState.valueOf(state);
+    }
+
+    @TypeConverter
+    @Nullable
+    public static Integer fromUploadPriority(@Nullable UploadPriority priority) {
+        return priority == null ? null : priority.getRank();
+    }
+
+    @TypeConverter
+    @Nullable
+    public static UploadPriority toUploadPriority(@Nullable Integer rank) {
+        return rank == null ? null : UploadPriority.fromRank(rank);
+    }
+}
@@ -0,0 +1,36 @@
+package org.sagebionetworks.bridge.android.manager.dao;
+
+import androidx.annotation.Nullable;
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+@Dao
+public interface UploadFingerprintDao {
+
+    @Nullable
+    @Query("SELECT * FROM UploadFingerprintEntity WHERE fingerprint = :fingerprint")
+    UploadFingerprintEntity getFingerprint(String fingerprint);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void upsert(UploadFingerprintEntity uploadFingerprintEntity);
+
+    /**
+     * Deletes all but the newest fingerprints.
+     *
+     * @param keep number of fingerprints to keep
+     */
+    @Query("DELETE FROM UploadFingerprintEntity WHERE fingerprint NOT IN "
+            + "(SELECT fingerprint FROM UploadFingerprintEntity ORDER BY createdOn DESC LIMIT :keep)")
+    void trim(int keep);
+
+    @Query("SELECT COUNT(*) FROM UploadFingerprintEntity")
+    int count();
+
+    /**
+     * Deletes all rows in the table.
+     */
+    @Query("DELETE FROM UploadFingerprintEntity")
+    void clear();
+}
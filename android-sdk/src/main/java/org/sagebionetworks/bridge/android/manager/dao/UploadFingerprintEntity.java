@@ -0,0 +1,41 @@
+package org.sagebionetworks.bridge.android.manager.dao;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * Fingerprint of the plaintext contents of a queued archive, used to detect an archive being
+ * queued again. Kept after the upload is dequeued, for a bounded number of uploads.
+ */
+@Entity(indices = {@Index("createdOn")})
+public class UploadFingerprintEntity {
+
+    /**
+     * hex encoded SHA-256 of the archive's data files
+     */
+    @PrimaryKey
+    @NonNull
+    public String fingerprint = "";
+
+    /**
+     * filename of the first archive queued with this fingerprint
+     */
+    @NonNull
+    public String filename = "";
+
+    @Nullable
+    public String contentType;
+
+    public long fileLength;
+
+    @Nullable
+    public String md5Hash;
+
+    /**
+     * time in milliseconds the archive was persisted
+     */
+    public long createdOn;
+}
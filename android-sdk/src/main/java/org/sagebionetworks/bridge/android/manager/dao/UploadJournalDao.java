@@ -0,0 +1,21 @@
+package org.sagebionetworks.bridge.android.manager.dao;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import java.util.List;
+
+@Dao
+public interface UploadJournalDao {
+
+    @Query("SELECT * FROM UploadJournalEntity ORDER BY startedOn ASC")
+    List<UploadJournalEntity> listAll();
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void upsert(UploadJournalEntity uploadJournalEntity);
+
+    @Query("DELETE FROM UploadJournalEntity WHERE filename = :filename")
+    void delete(String filename);
+}
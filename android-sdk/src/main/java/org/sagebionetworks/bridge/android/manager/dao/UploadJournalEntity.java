@@ -0,0 +1,61 @@
+package org.sagebionetworks.bridge.android.manager.dao;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+import org.sagebionetworks.bridge.android.manager.upload.UploadPriority;
+
+/**
+ * Write-ahead record of an archive being persisted. The archive is written to a staged file,
+ * synced, then renamed to its final filename and queued. A row left behind by a process that died
+ * part way tells which staged file to resume or delete, without scanning the files directory.
+ */
+@Entity
+public class UploadJournalEntity {
+
+    /**
+     * final filename of the archive
+     */
+    @PrimaryKey
+    @NonNull
+    public String filename = "";
+
+    /**
+     * filename the archive is written to before it is renamed
+     */
+    @NonNull
+    public String stagedFilename = "";
+
+    /**
+     * time in milliseconds the write started
+     */
+    public long startedOn;
+
+    /**
+     * MD5 of the staged file, null until it is completely written and synced
+     */
+    @Nullable
+    public String md5Hash;
+
+    @Nullable
+    public String contentType;
+
+    public long fileLength;
+
+    public long createdOn;
+
+    @ColumnInfo(defaultValue = "1")
+    @NonNull
+    public UploadPriority priority = UploadPriority.NORMAL;
+
+    /**
+     * @return true if the staged file was completely written and synced, so the persist can be
+     * resumed
+     */
+    public boolean isWritten() {
+        return md5Hash != null;
+    }
+}
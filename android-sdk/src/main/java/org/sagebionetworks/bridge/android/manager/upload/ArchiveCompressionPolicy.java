@@ -0,0 +1,50 @@
+/*
+ *    Copyright 2018 Sage Bionetworks
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import androidx.annotation.NonNull;
+
+import java.util.zip.Deflater;
+
+/**
+ * Chooses the deflate level of each entry in an archive, see
+ * {@link CompressionPolicyArchiveWriter}.
+ */
+public interface ArchiveCompressionPolicy {
+    /**
+     * Level for entries that are not worth compressing. Entries are written as stored deflate
+     * blocks, which costs about as much CPU as copying them.
+     */
+    int NO_COMPRESSION = Deflater.NO_COMPRESSION;
+
+    /**
+     * @return number of leading bytes of each entry passed to
+     * {@link #getCompressionLevel(String, byte[], int)}, 0 if the policy only looks at filenames
+     */
+    int getProbeLength();
+
+    /**
+     * @param filename   name of the entry in the archive
+     * @param head       leading bytes of the entry
+     * @param headLength number of valid bytes in head, less than {@link #getProbeLength()} only
+     *                   if the entry is shorter
+     * @return deflate level from {@link Deflater#NO_COMPRESSION} to
+     * {@link Deflater#BEST_COMPRESSION}, or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    int getCompressionLevel(@NonNull String filename, @NonNull byte[] head, int headLength);
+}
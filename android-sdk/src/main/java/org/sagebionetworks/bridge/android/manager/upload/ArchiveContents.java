@@ -0,0 +1,72 @@
+/*
+ *    Copyright 2018 Sage Bionetworks
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import androidx.annotation.NonNull;
+
+import com.google.common.collect.ImmutableList;
+
+import org.sagebionetworks.bridge.data.Archive;
+import org.sagebionetworks.bridge.data.ArchiveFile;
+
+import java.util.List;
+
+/**
+ * The data files of an archive, with the factory of the builder holding its schema and app info.
+ * <p>
+ * Queueing the contents rather than a built Archive lets the upload manager write each file with
+ * its own compression level, see {@link CompressionPolicyArchiveWriter}.
+ */
+public class ArchiveContents {
+    private final ArchiveSplitter.ArchiveBuilderFactory builderFactory;
+    private final ImmutableList<ArchiveFile> dataFiles;
+
+    /**
+     * @param builderFactory creates the builder, with the schema and app info, for the archive
+     * @param dataFiles      data files of the archive, in order
+     */
+    public ArchiveContents(@NonNull ArchiveSplitter.ArchiveBuilderFactory builderFactory,
+                           @NonNull List<? extends ArchiveFile> dataFiles) {
+        this.builderFactory = checkNotNull(builderFactory);
+        this.dataFiles = ImmutableList.copyOf(dataFiles);
+    }
+
+    @NonNull
+    public ArchiveSplitter.ArchiveBuilderFactory getBuilderFactory() {
+        return builderFactory;
+    }
+
+    @NonNull
+    public List<ArchiveFile> getDataFiles() {
+        return dataFiles;
+    }
+
+    /**
+     * @return a new Archive with the data files
+     */
+    @NonNull
+    public Archive toArchive() {
+        Archive.Builder builder = builderFactory.newBuilder();
+        for (ArchiveFile dataFile : dataFiles) {
+            builder.addDataFile(dataFile);
+        }
+        return builder.build();
+    }
+}
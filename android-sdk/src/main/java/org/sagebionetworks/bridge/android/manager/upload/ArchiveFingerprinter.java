@@ -0,0 +1,208 @@
+/*
+ *    Copyright 2018 Sage Bionetworks
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+
+import org.sagebionetworks.bridge.data.Archive;
+import org.sagebionetworks.bridge.rest.RestUtils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Computes a fingerprint of the data in an Archive, so an archive queued again with the same
+ * results can be recognized before it is encrypted and uploaded.
+ * <p>
+ * The fingerprint is a SHA-256 over the name and SHA-256 of each plaintext entry, in name order.
+ * Fields that change each time an archive is created for the same results, such as the
+ * taskRunUUID in metadata.json and the timestamps in info.json, are removed from those entries
+ * before they are hashed. The rest of metadata.json, e.g. scheduledActivityGuid and startDate,
+ * is hashed, so the same answers given in two sessions are not the same data. The archive is
+ * zipped on the provided executor and read back on the calling thread through a pipe, so nothing
+ * is written to disk.
+ */
+public class ArchiveFingerprinter {
+    /**
+     * JSON fields, by entry name, whose values change each time an archive is created for the same
+     * results. Removed at any depth of the entry.
+     */
+    public static final Map<String, Set<String>> VOLATILE_FIELDS = ImmutableMap.of(
+            "info.json", ImmutableSet.of("createdOn", "timestamp"),
+            "metadata.json", ImmutableSet.of("taskRunUUID"));
+
+    private static final int PIPE_SIZE = 64 * 1024;
+
+    private final ExecutorService zipExecutor;
+
+    /**
+     * @param zipExecutor executor zipping the archive
+     */
+    public ArchiveFingerprinter(@NonNull ExecutorService zipExecutor) {
+        this.zipExecutor = checkNotNull(zipExecutor);
+    }
+
+    /**
+     * @param archive archive to fingerprint
+     * @return hex encoded fingerprint of the archive's data entries
+     * @throws IOException if the archive could not be zipped or read
+     */
+    @WorkerThread
+    @NonNull
+    public String fingerprint(@NonNull Archive archive) throws IOException {
+        checkNotNull(archive);
+
+        PipedInputStream pipedInputStream = new PipedInputStream(PIPE_SIZE);
+        PipedOutputStream pipedOutputStream = new PipedOutputStream(pipedInputStream);
+
+        Future<Void> zipFuture = zipExecutor.submit(() -> {
+            try (PipedOutputStream out = pipedOutputStream) {
+                archive.writeTo(out);
+            }
+            return null;
+        });
+
+        SortedMap<String, String> entryHashes = Maps.newTreeMap();
+        try (ZipInputStream zipInputStream = new ZipInputStream(pipedInputStream)) {
+            ZipEntry entry;
+            while ((entry = zipInputStream.getNextEntry()) != null) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                MessageDigest sha256 = newSha256();
+                Set<String> volatileFields = VOLATILE_FIELDS.get(entry.getName());
+                if (volatileFields != null) {
+                    sha256.update(withoutFields(ByteStreams.toByteArray(zipInputStream),
+                            volatileFields));
+                } else {
+                    byte[] buffer = new byte[8 * 1024];
+                    int read;
+                    while ((read = zipInputStream.read(buffer)) != -1) {
+                        sha256.update(buffer, 0, read);
+                    }
+                }
+                entryHashes.put(entry.getName(), BaseEncoding.base16().lowerCase()
+                        .encode(sha256.digest()));
+            }
+            // the zip stage blocks until the central directory is read too
+            ByteStreams.exhaust(pipedInputStream);
+            zipFuture.get();
+        } catch (InterruptedException e) {
+            zipFuture.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fingerprinting archive");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to zip archive", cause);
+        } catch (IOException | RuntimeException e) {
+            // closing the pipe fails the zip stage if it is blocked writing
+            zipFuture.cancel(true);
+            throw e;
+        }
+
+        MessageDigest sha256 = newSha256();
+        for (Map.Entry<String, String> entryHash : entryHashes.entrySet()) {
+            sha256.update((entryHash.getKey() + '\0' + entryHash.getValue() + '\n')
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        return BaseEncoding.base16().lowerCase().encode(sha256.digest());
+    }
+
+    /**
+     * @param json   JSON entry
+     * @param fields names of fields to remove
+     * @return the entry without the fields, with object keys sorted, or the entry unchanged if it
+     * is not JSON
+     */
+    @NonNull
+    static byte[] withoutFields(@NonNull byte[] json, @NonNull Set<String> fields) {
+        JsonElement element;
+        try {
+            element = RestUtils.GSON.fromJson(new String(json, StandardCharsets.UTF_8),
+                    JsonElement.class);
+        } catch (JsonParseException e) {
+            return json;
+        }
+        if (element == null) {
+            return json;
+        }
+        return RestUtils.GSON.toJson(canonicalize(element, fields))
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static JsonElement canonicalize(JsonElement element, Set<String> fields) {
+        if (element.isJsonObject()) {
+            SortedMap<String, JsonElement> members = Maps.newTreeMap();
+            for (Map.Entry<String, JsonElement> member : element.getAsJsonObject().entrySet()) {
+                if (!fields.contains(member.getKey())) {
+                    members.put(member.getKey(), canonicalize(member.getValue(), fields));
+                }
+            }
+            JsonObject object = new JsonObject();
+            for (Map.Entry<String, JsonElement> member : members.entrySet()) {
+                object.add(member.getKey(), member.getValue());
+            }
+            return object;
+        }
+        if (element.isJsonArray()) {
+            JsonArray array = new JsonArray();
+            for (JsonElement item : element.getAsJsonArray()) {
+                array.add(canonicalize(item, fields));
+            }
+            return array;
+        }
+        return element;
+    }
+
+    private static MessageDigest newSha256() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 digest not found", e);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ *    Copyright 2018 Sage Bionetworks
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.joda.time.DateTime;
+import org.sagebionetworks.bridge.data.Archive;
+import org.sagebionetworks.bridge.data.ArchiveFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Splits the data files of one result across several archives, so each can be queued and uploaded
+ * on its own.
+ * <p>
+ * Files are packed largest first into parts of at most {@code maxPartBytes} uncompressed bytes.
+ * A file larger than the limit gets a part of its own. Every part carries the same shared file
+ * (e.g. metadata.json) and an {@value #PART_INFO_FILENAME} with the group id, part index and part
+ * count, so the parts can be joined back together. A result that fits in one part is archived
+ * unchanged, without part info.
+ */
+public class ArchiveSplitter {
+    private static final Logger LOG = LoggerFactory.getLogger(ArchiveSplitter.class);
+
+    public static final String PART_INFO_FILENAME = "archivePart.json";
+
+    /**
+     * Creates a new builder, with the schema and app info, for each part.
+     */
+    public interface ArchiveBuilderFactory {
+        @NonNull
+        Archive.Builder newBuilder();
+    }
+
+    private final long maxPartBytes;
+
+    /**
+     * @param maxPartBytes maximum uncompressed size of the data files in a part
+     */
+    public ArchiveSplitter(long maxPartBytes) {
+        checkArgument(maxPartBytes > 0, "maxPartBytes must be positive");
+        this.maxPartBytes = maxPartBytes;
+    }
+
+    /**
+     * @param filename       filename for the archive, parts get a part suffix
+     * @param builderFactory creates the builder for each part
+     * @param dataFiles      data files of the result
+     * @param sharedFile     file added to every part, e.g. metadata.json, may be null
+     * @return contents of the archives to queue, with their filenames
+     * @throws IOException if the size of a data file could not be read
+     */
+    @WorkerThread
+    @NonNull
+    public List<Part> split(@NonNull String filename,
+                            @NonNull ArchiveBuilderFactory builderFactory,
+                            @NonNull List<? extends ArchiveFile> dataFiles,
+                            @Nullable ArchiveFile sharedFile) throws IOException {
+        checkNotNull(filename);
+        checkNotNull(builderFactory);
+        checkNotNull(dataFiles);
+
+        List<List<ArchiveFile>> partitions = partition(dataFiles);
+        int partCount = partitions.size();
+        if (partCount > 1) {
+            LOG.info("Splitting archive with filename: {} into {} parts", filename, partCount);
+        }
+
+        ImmutableList.Builder<Part> parts = ImmutableList.builder();
+        for (int i = 0; i < partCount; i++) {
+            List<ArchiveFile> partFiles = Lists.newArrayList();
+            DateTime endDate = null;
+            for (ArchiveFile dataFile : partitions.get(i)) {
+                partFiles.add(dataFile);
+                if (endDate == null || dataFile.getEndDate().isAfter(endDate)) {
+                    endDate = dataFile.getEndDate();
+                }
+            }
+            if (sharedFile != null) {
+                partFiles.add(sharedFile);
+            }
+            if (partCount > 1) {
+                partFiles.add(ArchiveUtil.createArchivePartFile(filename, i, partCount,
+                        endDate != null ? endDate : DateTime.now()));
+            }
+            String partFilename = partCount > 1 ? getPartFilename(filename, i, partCount) : filename;
+            parts.add(new Part(partFilename, new ArchiveContents(builderFactory, partFiles)));
+        }
+        return parts.build();
+    }
+
+    /**
+     * @param dataFiles data files of the result
+     * @return data files grouped into parts, at least one part
+     * @throws IOException if the size of a data file could not be read
+     */
+    @NonNull
+    List<List<ArchiveFile>> partition(@NonNull List<? extends ArchiveFile> dataFiles)
+            throws IOException {
+        List<SizedFile> sizedFiles = Lists.newArrayList();
+        for (ArchiveFile dataFile : dataFiles) {
+            sizedFiles.add(new SizedFile(dataFile, getSize(dataFile)));
+        }
+        // largest first, by name for a stable order
+        Collections.sort(sizedFiles, (a, b) -> {
+            int bySize = Long.compare(b.size, a.size);
+            return bySize != 0 ? bySize
+                    : a.archiveFile.getFilename().compareTo(b.archiveFile.getFilename());
+        });
+
+        List<List<ArchiveFile>> partitions = Lists.newArrayList();
+        List<Long> partitionSizes = Lists.newArrayList();
+        for (SizedFile sizedFile : sizedFiles) {
+            int target = -1;
+            for (int i = 0; i < partitions.size(); i++) {
+                if (partitionSizes.get(i) + sizedFile.size <= maxPartBytes) {
+                    target = i;
+                    break;
+                }
+            }
+            if (target == -1) {
+                partitions.add(Lists.newArrayList());
+                partitionSizes.add(0L);
+                target = partitions.size() - 1;
+            }
+            partitions.get(target).add(sizedFile.archiveFile);
+            partitionSizes.set(target, partitionSizes.get(target) + sizedFile.size);
+        }
+
+        if (partitions.isEmpty()) {
+            partitions.add(Lists.newArrayList());
+        }
+        return partitions;
+    }
+
+    private static long getSize(@NonNull ArchiveFile archiveFile) throws IOException {
+        Optional<Long> size = archiveFile.getByteSource().sizeIfKnown();
+        return size.isPresent() ? size.get() : archiveFile.getByteSource().size();
+    }
+
+    /**
+     * @return filename with the 1-based part number before the extension, e.g.
+     * result.part1of3.zip
+     */
+    @NonNull
+    static String getPartFilename(@NonNull String filename, int partIndex, int partCount) {
+        String suffix = ".part" + (partIndex + 1) + "of" + partCount;
+        int extensionIndex = filename.lastIndexOf('.');
+        if (extensionIndex <= 0) {
+            return filename + suffix;
+        }
+        return filename.substring(0, extensionIndex) + suffix + filename.substring(extensionIndex);
+    }
+
+    private static class SizedFile {
+        final ArchiveFile archiveFile;
+        final long size;
+
+        SizedFile(ArchiveFile archiveFile, long size) {
+            this.archiveFile = archiveFile;
+            this.size = size;
+        }
+    }
+
+    /**
+     * An archive for one part of a result.
+     */
+    public static class Part {
+        private final String filename;
+        private final ArchiveContents contents;
+
+        Part(String filename, ArchiveContents contents) {
+            this.filename = filename;
+            this.contents = contents;
+        }
+
+        @NonNull
+        public String getFilename() {
+            return filename;
+        }
+
+        /**
+         * @return data files of the part, to be queued with
+         * {@link org.sagebionetworks.bridge.android.manager.UploadManager#queueUpload(String,
+         * ArchiveContents)}
+         */
+        @NonNull
+        public ArchiveContents getContents() {
+            return contents;
+        }
+
+        /**
+         * @return a new Archive of the part
+         */
+        @NonNull
+        public Archive getArchive() {
+            return contents.toArchive();
+        }
+    }
+}
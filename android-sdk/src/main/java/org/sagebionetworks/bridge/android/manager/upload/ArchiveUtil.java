@@ -52,6 +52,31 @@ public class ArchiveUtil {
         return new JsonArchiveFile("metadata.json", endDate, metaDataJson);
     }
 
+    /**
+     * Creates a file identifying one part of a result split across archives, see
+     * {@link ArchiveSplitter}.
+     *
+     * @param archiveGroupId   identifies the result, same for all parts
+     * @param archivePartIndex index of this part, starting at 0
+     * @param archivePartCount number of parts
+     * @param endDate          end date of the part's data
+     * @return part info file to add to the part's archive
+     */
+    @NonNull
+    public static JsonArchiveFile createArchivePartFile(@NonNull String archiveGroupId,
+            int archivePartIndex, int archivePartCount, @NonNull DateTime endDate) {
+        checkNotNull(archiveGroupId);
+        checkNotNull(endDate);
+
+        Map<String, Object> partInfoMap = new HashMap<>();
+        partInfoMap.put("archiveGroupId", archiveGroupId);
+        partInfoMap.put("archivePartIndex", archivePartIndex);
+        partInfoMap.put("archivePartCount", archivePartCount);
+
+        return new JsonArchiveFile(ArchiveSplitter.PART_INFO_FILENAME, endDate,
+                RestUtils.GSON.toJson(partInfoMap));
+    }
+
     /**
      * Creates a metadata info map for archive file containing information about the schedule and user
      * @param scheduledActivity used for metadata info map
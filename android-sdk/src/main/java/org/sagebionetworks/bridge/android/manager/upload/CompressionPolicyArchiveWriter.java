@@ -0,0 +1,149 @@
+/*
+ *    Copyright 2018 Sage Bionetworks
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+
+import org.sagebionetworks.bridge.data.Archive;
+import org.sagebionetworks.bridge.data.ArchiveFile;
+import org.sagebionetworks.bridge.data.ByteSourceArchiveFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes an archive with each entry deflated at the level chosen by an
+ * {@link ArchiveCompressionPolicy}.
+ * <p>
+ * Archive zips every entry at the default level and has no hook for the level. So the data files
+ * are read and deflated once, straight from the ArchiveFiles of the {@link ArchiveContents}. Only
+ * the entries Archive adds itself, e.g. info.json, are taken from the zip of an Archive with the
+ * same files left empty, which costs next to nothing. Entries keep Archive's names, order and
+ * times.
+ */
+public class CompressionPolicyArchiveWriter {
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final ArchiveCompressionPolicy compressionPolicy;
+
+    /**
+     * @param compressionPolicy chooses the level of each entry
+     */
+    public CompressionPolicyArchiveWriter(@NonNull ArchiveCompressionPolicy compressionPolicy) {
+        this.compressionPolicy = checkNotNull(compressionPolicy);
+    }
+
+    /**
+     * Writes the archive to the output stream. The output stream is not closed.
+     *
+     * @param contents     data files and builder of the archive
+     * @param outputStream stream receiving the zipped bytes
+     * @throws IOException if a data file could not be read or the archive could not be written
+     */
+    @WorkerThread
+    public void write(@NonNull ArchiveContents contents, @NonNull OutputStream outputStream)
+            throws IOException {
+        checkNotNull(contents);
+        checkNotNull(outputStream);
+
+        Map<String, ArchiveFile> dataFiles = Maps.newHashMap();
+        Archive.Builder emptyBuilder = contents.getBuilderFactory().newBuilder();
+        for (ArchiveFile dataFile : contents.getDataFiles()) {
+            dataFiles.put(dataFile.getFilename(), dataFile);
+            emptyBuilder.addDataFile(new ByteSourceArchiveFile(dataFile.getFilename(),
+                    dataFile.getEndDate(), ByteSource.empty()));
+        }
+        ByteArrayOutputStream emptyArchive = new ByteArrayOutputStream();
+        emptyBuilder.build().writeTo(emptyArchive);
+
+        byte[] buffer = new byte[Math.max(BUFFER_SIZE, compressionPolicy.getProbeLength())];
+        try (ZipInputStream zipInputStream = new ZipInputStream(
+                new ByteArrayInputStream(emptyArchive.toByteArray()));
+             ZipOutputStream zipOutputStream = new ZipOutputStream(
+                     new NonClosingOutputStream(outputStream))) {
+            ZipEntry entry;
+            while ((entry = zipInputStream.getNextEntry()) != null) {
+                ZipEntry outEntry = new ZipEntry(entry.getName());
+                if (entry.getTime() != -1) {
+                    outEntry.setTime(entry.getTime());
+                }
+
+                ArchiveFile dataFile = dataFiles.get(entry.getName());
+                if (dataFile != null) {
+                    try (InputStream inputStream = dataFile.getByteSource().openStream()) {
+                        writeEntry(zipOutputStream, outEntry, inputStream, buffer);
+                    }
+                } else {
+                    writeEntry(zipOutputStream, outEntry, zipInputStream, buffer);
+                }
+            }
+            zipOutputStream.finish();
+        }
+    }
+
+    private void writeEntry(@NonNull ZipOutputStream zipOutputStream, @NonNull ZipEntry entry,
+                            @NonNull InputStream inputStream, @NonNull byte[] buffer)
+            throws IOException {
+        int headLength = ByteStreams.read(inputStream, buffer, 0,
+                compressionPolicy.getProbeLength());
+        zipOutputStream.setLevel(compressionPolicy.getCompressionLevel(entry.getName(), buffer,
+                headLength));
+
+        zipOutputStream.putNextEntry(entry);
+        zipOutputStream.write(buffer, 0, headLength);
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            zipOutputStream.write(buffer, 0, read);
+        }
+        zipOutputStream.closeEntry();
+    }
+
+    /**
+     * Keeps the caller's stream open when the zip stream is closed to release its deflater.
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
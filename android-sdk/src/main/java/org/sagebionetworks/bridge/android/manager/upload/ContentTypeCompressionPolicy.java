@@ -0,0 +1,129 @@
+/*
+ *    Copyright 2018 Sage Bionetworks
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+/**
+ * Compression policy based on the type of each entry:
+ * <ul>
+ * <li>media and other already compressed types, e.g. mp4, jpg or gz, are not compressed</li>
+ * <li>JSON and other text uses the configured JSON level, small answer files compress well
+ * and cost little to compress harder</li>
+ * <li>anything else uses the default level, unless the entropy of its leading bytes shows it is
+ * already compressed</li>
+ * </ul>
+ */
+public class ContentTypeCompressionPolicy implements ArchiveCompressionPolicy {
+    // extensions of formats that are compressed already
+    private static final ImmutableSet<String> INCOMPRESSIBLE_EXTENSIONS = ImmutableSet.of(
+            "mp4", "m4a", "3gp", "webm", "mkv", "mov", "mp3", "aac", "ogg", "opus", "flac", "jpg",
+            "jpeg", "png", "gif", "webp", "heic", "zip", "gz", "bz2", "xz", "7z", "cms", "p7m");
+    private static final ImmutableSet<String> TEXT_EXTENSIONS = ImmutableSet.of(
+            "json", "csv", "txt", "xml");
+
+    // bits per byte above which leading bytes are taken to be compressed or encrypted
+    @VisibleForTesting
+    static final double INCOMPRESSIBLE_ENTROPY_BITS = 7.5;
+
+    private final int jsonLevel;
+    private final int probeLength;
+
+    /**
+     * @param jsonLevel   deflate level of JSON and other text entries
+     * @param probeLength number of leading bytes of other entries whose entropy is measured, 0
+     *                    to always use the default level for them
+     */
+    public ContentTypeCompressionPolicy(int jsonLevel, int probeLength) {
+        checkArgument(jsonLevel == Deflater.DEFAULT_COMPRESSION
+                        || (jsonLevel >= Deflater.NO_COMPRESSION
+                        && jsonLevel <= Deflater.BEST_COMPRESSION),
+                "invalid deflate level: %s", jsonLevel);
+        checkArgument(probeLength >= 0, "probeLength cannot be negative");
+
+        this.jsonLevel = jsonLevel;
+        this.probeLength = probeLength;
+    }
+
+    @Override
+    public int getProbeLength() {
+        return probeLength;
+    }
+
+    @Override
+    public int getCompressionLevel(@NonNull String filename, @NonNull byte[] head,
+                                   int headLength) {
+        checkNotNull(filename);
+        checkNotNull(head);
+
+        String extension = getExtension(filename);
+        if (extension != null) {
+            if (INCOMPRESSIBLE_EXTENSIONS.contains(extension)) {
+                return NO_COMPRESSION;
+            }
+            if (TEXT_EXTENSIONS.contains(extension)) {
+                return jsonLevel;
+            }
+        }
+        if (headLength > 0 && getEntropyBits(head, headLength) > INCOMPRESSIBLE_ENTROPY_BITS) {
+            return NO_COMPRESSION;
+        }
+        return Deflater.DEFAULT_COMPRESSION;
+    }
+
+    /**
+     * @return Shannon entropy of the bytes, in bits per byte from 0 to 8
+     */
+    @VisibleForTesting
+    static double getEntropyBits(@NonNull byte[] bytes, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        int[] counts = new int[256];
+        for (int i = 0; i < length; i++) {
+            counts[bytes[i] & 0xff]++;
+        }
+        double entropy = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                double p = (double) count / length;
+                entropy -= p * Math.log(p);
+            }
+        }
+        return entropy / Math.log(2);
+    }
+
+    @Nullable
+    private static String getExtension(@NonNull String filename) {
+        int index = filename.lastIndexOf('.');
+        if (index < 0 || index == filename.length() - 1) {
+            return null;
+        }
+        return filename.substring(index + 1).toLowerCase(Locale.US);
+    }
+}
@@ -17,12 +17,15 @@
 
 package org.sagebionetworks.bridge.android.manager.upload;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 import java.io.File;
 import java.io.IOException;
 
 import okhttp3.MediaType;
 import okhttp3.RequestBody;
 import okhttp3.internal.Util;
+import okio.Buffer;
 import okio.BufferedSink;
 import okio.Okio;
 import okio.Source;
@@ -31,19 +34,56 @@ import okio.Source;
  * Created by liujoshua on 2/22/2018.
  *
  * See https://gist.github.com/eduardb/dd2dc530afd37108e1ac#file-countingfilerequestbody-java
+ * <p>
+ * The file is read into the sink's buffer and complete segments are handed to the socket once
+ * bufferSize bytes are buffered, without forcing a flush. Progress is reported when at least
+ * progressMinBytes were sent or progressMinIntervalMillis passed since the last report, and
+ * always once the whole file was written.
  */
 public class FileUploadRequestBody extends RequestBody {
     
     private static final int SEGMENT_SIZE = 8192; // okio.Segment.SIZE
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    public static final long DEFAULT_PROGRESS_MIN_BYTES = 256 * 1024;
+    public static final long DEFAULT_PROGRESS_MIN_INTERVAL_MILLIS = 250;
     
     private final File file;
     private final ProgressListener listener;
     private final String contentType;
+    private final int bufferSize;
+    private final long progressMinBytes;
+    private final long progressMinIntervalMillis;
     
     public FileUploadRequestBody(File file, String contentType, ProgressListener listener) {
+        this(file, contentType, listener, DEFAULT_BUFFER_SIZE, DEFAULT_PROGRESS_MIN_BYTES,
+                DEFAULT_PROGRESS_MIN_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param file                      file to upload
+     * @param contentType               content type of the file
+     * @param listener                  receives the number of bytes written
+     * @param bufferSize                bytes buffered before they are handed to the socket
+     * @param progressMinBytes          bytes written between progress reports, 0 to report
+     *                                  every segment
+     * @param progressMinIntervalMillis time after which progress is reported even if fewer than
+     *                                  progressMinBytes were written, 0 to only report by bytes
+     */
+    public FileUploadRequestBody(File file, String contentType, ProgressListener listener,
+                                 int bufferSize, long progressMinBytes,
+                                 long progressMinIntervalMillis) {
+        checkArgument(bufferSize > 0, "bufferSize must be positive");
+        checkArgument(progressMinBytes >= 0, "progressMinBytes cannot be negative");
+        checkArgument(progressMinIntervalMillis >= 0,
+                "progressMinIntervalMillis cannot be negative");
+
         this.file = file;
         this.contentType = contentType;
         this.listener = listener;
+        this.bufferSize = bufferSize;
+        this.progressMinBytes = progressMinBytes;
+        this.progressMinIntervalMillis = progressMinIntervalMillis;
     }
     
     @Override
@@ -55,26 +95,43 @@ public class FileUploadRequestBody extends RequestBody {
     public MediaType contentType() {
         return MediaType.parse(contentType);
     }
-    
+
     @Override
     public void writeTo(BufferedSink sink) throws IOException {
         Source source = null;
         try {
             source = Okio.source(file);
+            Buffer buffer = sink.buffer();
             long total = 0;
+            long reported = 0;
+            long reportedAt = System.currentTimeMillis();
             long read;
-            
-            while ((read = source.read(sink.buffer(), SEGMENT_SIZE)) != -1) {
+
+            // a file source reads at most one segment at a time
+            while ((read = source.read(buffer, SEGMENT_SIZE)) != -1) {
                 total += read;
-                sink.flush();
-                this.listener.transferred(total);
+                if (buffer.size() >= bufferSize) {
+                    sink.emitCompleteSegments();
+                }
+
+                long now = System.currentTimeMillis();
+                if (total - reported >= progressMinBytes || (progressMinIntervalMillis > 0
+                        && now - reportedAt >= progressMinIntervalMillis)) {
+                    reported = total;
+                    reportedAt = now;
+                    listener.transferred(total);
+                }
+            }
+            sink.emit();
+            if (reported != total) {
+                listener.transferred(total);
             }
         } finally {
             Util.closeQuietly(source);
         }
     }
-    
+
     public interface ProgressListener {
         void transferred(long num);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,326 @@
+/*
+ *    Copyright 2018 Sage Bionetworks
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import org.sagebionetworks.bridge.data.Archive;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Writes an Archive with zip compression and the downstream stream (e.g. encryption and digest)
+ * running on separate threads, so persisting a large archive can use two cores.
+ * <p>
+ * The zip stage runs on the provided executor and hands fixed-size chunks to the calling thread
+ * through a bounded queue. Buffers are recycled, so memory use is bounded by the queue capacity.
+ * The downstream stream receives the same bytes in the same order as
+ * {@code archive.writeTo(outputStream)}.
+ */
+public class PipelinedArchiveWriter {
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    public static final int DEFAULT_QUEUE_CAPACITY = 4;
+
+    private final ExecutorService zipExecutor;
+    private final int chunkSize;
+    private final int queueCapacity;
+
+    public PipelinedArchiveWriter(@NonNull ExecutorService zipExecutor) {
+        this(zipExecutor, DEFAULT_CHUNK_SIZE, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param zipExecutor   executor running the zip stage
+     * @param chunkSize     size in bytes of chunks passed between stages
+     * @param queueCapacity maximum number of chunks waiting for the downstream stage
+     */
+    public PipelinedArchiveWriter(@NonNull ExecutorService zipExecutor, int chunkSize,
+                                  int queueCapacity) {
+        checkNotNull(zipExecutor);
+        checkArgument(chunkSize > 0, "chunkSize must be positive");
+        checkArgument(queueCapacity > 0, "queueCapacity must be positive");
+
+        this.zipExecutor = zipExecutor;
+        this.chunkSize = chunkSize;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Writes the archive to the output stream. The output stream is written to from the calling
+     * thread only, and is not closed.
+     *
+     * @param archive      archive to zip
+     * @param outputStream stream receiving the zipped bytes
+     * @return time spent and bytes written by each stage
+     * @throws IOException if either stage fails
+     */
+    @WorkerThread
+    @NonNull
+    public Stats write(@NonNull Archive archive, @NonNull OutputStream outputStream)
+            throws IOException {
+        checkNotNull(archive);
+        return write(archive::writeTo, outputStream);
+    }
+
+    /**
+     * Writes the zipped bytes of the source to the output stream, see
+     * {@link #write(Archive, OutputStream)}.
+     *
+     * @param zipSource    writes the zipped archive, on the zip stage's thread
+     * @param outputStream stream receiving the zipped bytes
+     * @return time spent and bytes written by each stage
+     * @throws IOException if either stage fails
+     */
+    @WorkerThread
+    @NonNull
+    public Stats write(@NonNull ZipSource zipSource, @NonNull OutputStream outputStream)
+            throws IOException {
+        checkNotNull(zipSource);
+        checkNotNull(outputStream);
+
+        BlockingQueue<Chunk> filled = new ArrayBlockingQueue<>(queueCapacity + 1);
+        // one buffer being filled, one being drained and the rest queued
+        BlockingQueue<Chunk> free = new ArrayBlockingQueue<>(queueCapacity + 2);
+        for (int i = 0; i < queueCapacity + 2; i++) {
+            free.add(new Chunk(chunkSize));
+        }
+
+        Stats stats = new Stats();
+        long start = System.nanoTime();
+
+        Future<Void> zipFuture = zipExecutor.submit(() -> {
+            long zipStart = System.nanoTime();
+            ChunkOutputStream chunkOutputStream = new ChunkOutputStream(filled, free, stats);
+            try {
+                zipSource.writeTo(chunkOutputStream);
+                chunkOutputStream.flush();
+            } finally {
+                stats.zipNanos = System.nanoTime() - zipStart;
+                // always signal the end, the downstream stage checks this future for errors
+                try {
+                    filled.put(Chunk.END);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return null;
+        });
+
+        try {
+            while (true) {
+                long waitStart = System.nanoTime();
+                Chunk chunk = filled.take();
+                stats.downstreamWaitNanos += System.nanoTime() - waitStart;
+
+                if (chunk == Chunk.END) {
+                    break;
+                }
+                outputStream.write(chunk.data, 0, chunk.length);
+                stats.bytes += chunk.length;
+
+                chunk.length = 0;
+                free.put(chunk);
+            }
+            zipFuture.get();
+        } catch (InterruptedException e) {
+            zipFuture.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing archive");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to zip archive", cause);
+        } catch (IOException | RuntimeException e) {
+            // unblock the zip stage if it is waiting for a free buffer
+            zipFuture.cancel(true);
+            throw e;
+        }
+
+        stats.totalNanos = System.nanoTime() - start;
+        return stats;
+    }
+
+    /**
+     * Writes a zipped archive, e.g. {@code archive::writeTo}.
+     */
+    public interface ZipSource {
+        void writeTo(@NonNull OutputStream outputStream) throws IOException;
+    }
+
+    /**
+     * Time spent and bytes written by each stage of a pipelined write.
+     */
+    public static class Stats {
+        volatile long bytes;
+        volatile long zipNanos;
+        volatile long zipWaitNanos;
+        volatile long downstreamWaitNanos;
+        volatile long totalNanos;
+
+        /**
+         * @return number of zipped bytes written downstream
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return time spent compressing, excluding time waiting for the downstream stage
+         */
+        public long getZipNanos() {
+            return Math.max(0, zipNanos - zipWaitNanos);
+        }
+
+        /**
+         * @return time spent in the downstream stage, excluding time waiting for zipped bytes
+         */
+        public long getDownstreamNanos() {
+            return Math.max(0, totalNanos - downstreamWaitNanos);
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public double getZipBytesPerSecond() {
+            return bytesPerSecond(getZipNanos());
+        }
+
+        public double getDownstreamBytesPerSecond() {
+            return bytesPerSecond(getDownstreamNanos());
+        }
+
+        public double getTotalBytesPerSecond() {
+            return bytesPerSecond(totalNanos);
+        }
+
+        private double bytesPerSecond(long nanos) {
+            return nanos == 0 ? 0 : bytes * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "bytes=" + bytes +
+                    ", zipBytesPerSecond=" + (long) getZipBytesPerSecond() +
+                    ", downstreamBytesPerSecond=" + (long) getDownstreamBytesPerSecond() +
+                    ", totalBytesPerSecond=" + (long) getTotalBytesPerSecond() +
+                    '}';
+        }
+    }
+
+    private static class Chunk {
+        static final Chunk END = new Chunk(0);
+
+        final byte[] data;
+        int length;
+
+        Chunk(int size) {
+            data = new byte[size];
+        }
+    }
+
+    /**
+     * Fills recycled chunks and queues them for the downstream stage.
+     */
+    private static class ChunkOutputStream extends OutputStream {
+        private final BlockingQueue<Chunk> filled;
+        private final BlockingQueue<Chunk> free;
+        private final Stats stats;
+        private Chunk current;
+
+        ChunkOutputStream(BlockingQueue<Chunk> filled, BlockingQueue<Chunk> free, Stats stats) {
+            this.filled = filled;
+            this.free = free;
+            this.stats = stats;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureChunk();
+            current.data[current.length++] = (byte) b;
+            if (current.length == current.data.length) {
+                flush();
+            }
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                ensureChunk();
+                int count = Math.min(len, current.data.length - current.length);
+                System.arraycopy(b, off, current.data, current.length, count);
+                current.length += count;
+                off += count;
+                len -= count;
+                if (current.length == current.data.length) {
+                    flush();
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (current == null || current.length == 0) {
+                return;
+            }
+            long waitStart = System.nanoTime();
+            try {
+                filled.put(current);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while queueing zipped bytes");
+            }
+            stats.zipWaitNanos += System.nanoTime() - waitStart;
+            current = null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // the end of the stream is signalled by the writer, after the archive is written
+            flush();
+        }
+
+        private void ensureChunk() throws IOException {
+            if (current != null) {
+                return;
+            }
+            long waitStart = System.nanoTime();
+            try {
+                current = free.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a buffer");
+            }
+            stats.zipWaitNanos += System.nanoTime() - waitStart;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ *    Copyright 2018 Sage Bionetworks
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import org.sagebionetworks.bridge.android.BridgeConfig;
+import org.sagebionetworks.bridge.android.di.BridgeStudyScope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import retrofit2.Retrofit;
+
+/**
+ * Shared access to S3 for uploads. Caches an S3Service per host, so uploads to the same bucket
+ * reuse the same Retrofit instance and the connections pooled by the S3 OkHttpClient.
+ * <p>
+ * If {@link BridgeConfig#isUploadS3PreconnectEnabled()}, {@link #preconnect()} opens a connection
+ * to the host of the most recent pre-signed URL, so DNS lookup and TLS handshake can happen while
+ * an upload session is being requested. The host is learned from the first upload in a process.
+ */
+@AnyThread
+@BridgeStudyScope
+public class S3Transport {
+    private static final Logger LOG = LoggerFactory.getLogger(S3Transport.class);
+
+    private final OkHttpClient s3OkHttpClient;
+    private final boolean preconnectEnabled;
+    // a connection used more recently than this is assumed to still be pooled
+    private final long preconnectIntervalMillis;
+
+    private final Map<String, S3Service> s3ServiceByBaseUrl = new ConcurrentHashMap<>();
+    // time in milliseconds a connection to each base URL was last opened or used
+    private final Map<String, Long> lastConnectedOnByBaseUrl = new ConcurrentHashMap<>();
+    @Nullable
+    private volatile String lastBaseUrl;
+
+    @Inject
+    public S3Transport(@Named("s3OkHttp3Client") OkHttpClient s3OkHttpClient,
+                       BridgeConfig bridgeConfig) {
+        this(s3OkHttpClient, bridgeConfig.isUploadS3PreconnectEnabled(),
+                Math.max(1L, bridgeConfig.getUploadS3KeepAliveMillis()) / 2);
+    }
+
+    @VisibleForTesting
+    S3Transport(@NonNull OkHttpClient s3OkHttpClient, boolean preconnectEnabled,
+                long preconnectIntervalMillis) {
+        this.s3OkHttpClient = checkNotNull(s3OkHttpClient);
+        this.preconnectEnabled = preconnectEnabled;
+        this.preconnectIntervalMillis = preconnectIntervalMillis;
+    }
+
+    /**
+     * @param url pre-signed URL from an UploadSession
+     * @return S3Service for the URL's host
+     */
+    @NonNull
+    public S3Service getS3Service(@NonNull String url) {
+        String baseUrl = getBaseUrl(url);
+        lastBaseUrl = baseUrl;
+        lastConnectedOnByBaseUrl.put(baseUrl, System.currentTimeMillis());
+
+        S3Service s3Service = s3ServiceByBaseUrl.get(baseUrl);
+        if (s3Service == null) {
+            s3Service = new Retrofit.Builder()
+                    .baseUrl(baseUrl)
+                    .client(s3OkHttpClient).build()
+                    .create(S3Service.class);
+            s3ServiceByBaseUrl.put(baseUrl, s3Service);
+        }
+        return s3Service;
+    }
+
+    /**
+     * Asynchronously opens a connection to the host of the most recent pre-signed URL, unless
+     * preconnect is disabled, no host is known yet, or a connection was used recently. Failures
+     * are ignored, the upload will connect as usual.
+     */
+    public void preconnect() {
+        String baseUrl = lastBaseUrl;
+        if (!preconnectEnabled || baseUrl == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Long lastConnectedOn = lastConnectedOnByBaseUrl.get(baseUrl);
+        if (lastConnectedOn != null && now - lastConnectedOn < preconnectIntervalMillis) {
+            return;
+        }
+        lastConnectedOnByBaseUrl.put(baseUrl, now);
+
+        LOG.debug("Preconnecting to: {}", baseUrl);
+        // the response is an error without a signature, only the pooled connection matters
+        s3OkHttpClient.newCall(new Request.Builder().url(baseUrl).head().build())
+                .enqueue(new Callback() {
+                    @Override
+                    public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                        LOG.debug("Preconnect failed for: {}", baseUrl, e);
+                    }
+
+                    @Override
+                    public void onResponse(@NonNull Call call, @NonNull Response response) {
+                        response.close();
+                    }
+                });
+    }
+
+    @NonNull
+    static String getBaseUrl(@NonNull String url) {
+        URI uri = URI.create(url);
+        String port = uri.getPort() == -1 ? "" : ":" + uri.getPort();
+        return uri.getScheme() + "://" + uri.getHost() + port + "/";
+    }
+}
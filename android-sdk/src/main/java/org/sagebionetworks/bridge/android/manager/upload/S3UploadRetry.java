@@ -0,0 +1,107 @@
+/*
+ *    Copyright 2018 Sage Bionetworks
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import retrofit2.adapter.rxjava.HttpException;
+import rx.Observable;
+import rx.Scheduler;
+import rx.functions.Action0;
+import rx.functions.Func1;
+
+/**
+ * Retries a PUT to a pre-signed S3 URL with exponential backoff, for use with
+ * {@link rx.Single#retryWhen(Func1)}.
+ * <p>
+ * Only dropped connections and S3 server errors (5xx) are retried. A pre-signed PUT cannot be
+ * resumed part way, so each retry sends the whole file again.
+ */
+public class S3UploadRetry implements Func1<Observable<? extends Throwable>, Observable<?>> {
+    private static final Logger LOG = LoggerFactory.getLogger(S3UploadRetry.class);
+
+    private final int maxRetries;
+    private final long initialDelayMillis;
+    private final Scheduler scheduler;
+    @Nullable
+    private final Action0 onRetry;
+
+    /**
+     * @param maxRetries         maximum number of retries after the first attempt
+     * @param initialDelayMillis delay before the first retry, doubled for each following retry
+     * @param scheduler          scheduler to wait on between attempts
+     */
+    public S3UploadRetry(int maxRetries, long initialDelayMillis, @NonNull Scheduler scheduler) {
+        this(maxRetries, initialDelayMillis, scheduler, null);
+    }
+
+    /**
+     * @param maxRetries         maximum number of retries after the first attempt
+     * @param initialDelayMillis delay before the first retry, doubled for each following retry
+     * @param scheduler          scheduler to wait on between attempts
+     * @param onRetry            called when a retry is scheduled
+     */
+    public S3UploadRetry(int maxRetries, long initialDelayMillis, @NonNull Scheduler scheduler,
+                         @Nullable Action0 onRetry) {
+        checkArgument(maxRetries >= 0, "maxRetries cannot be negative");
+        checkArgument(initialDelayMillis >= 0, "initialDelayMillis cannot be negative");
+        checkNotNull(scheduler);
+
+        this.maxRetries = maxRetries;
+        this.initialDelayMillis = initialDelayMillis;
+        this.scheduler = scheduler;
+        this.onRetry = onRetry;
+    }
+
+    @Override
+    public Observable<?> call(Observable<? extends Throwable> errors) {
+        // called once per subscription, so the count is not shared between uploads
+        AtomicInteger retries = new AtomicInteger();
+
+        return errors.flatMap(t -> {
+            int retry = retries.incrementAndGet();
+            if (retry > maxRetries || !isRetryable(t)) {
+                return Observable.error(t);
+            }
+            long delay = initialDelayMillis << Math.min(retry - 1, 16);
+            LOG.info("Retrying S3 upload in {} ms, retry {} of {}", delay, retry, maxRetries, t);
+            if (onRetry != null) {
+                onRetry.call();
+            }
+            return Observable.timer(delay, TimeUnit.MILLISECONDS, scheduler);
+        });
+    }
+
+    static boolean isRetryable(Throwable t) {
+        if (t instanceof IOException) {
+            return true;
+        }
+        return t instanceof HttpException && ((HttpException) t).code() >= 500;
+    }
+}
@@ -0,0 +1,522 @@
+/*
+ *    Copyright 2018 Sage Bionetworks
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import android.content.Context;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+import org.joda.time.DateTime;
+import org.sagebionetworks.bridge.android.BridgeConfig;
+import org.sagebionetworks.bridge.android.di.BridgeStudyParticipantScope;
+import org.sagebionetworks.bridge.android.manager.AuthenticationManager;
+import org.sagebionetworks.bridge.android.manager.UploadManager;
+import org.sagebionetworks.bridge.android.manager.UploadManager.UploadFile;
+import org.sagebionetworks.bridge.data.Archive;
+import org.sagebionetworks.bridge.data.ArchiveFile;
+import org.sagebionetworks.bridge.data.ByteSourceArchiveFile;
+import org.sagebionetworks.bridge.data.JsonArchiveFile;
+import org.sagebionetworks.bridge.rest.RestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import rx.Completable;
+import rx.Scheduler;
+import rx.schedulers.Schedulers;
+
+/**
+ * Holds small results and uploads them together in one bundle archive, so each result does not
+ * need its own upload session, S3 upload and validation.
+ * <p>
+ * A result's files are written to disk when it is added, so held results survive the app being
+ * killed. The bundle is uploaded once results have been held for
+ * {@link BridgeConfig#getUploadBundleWindowMillis()}, or once they add up to
+ * {@link BridgeConfig#getUploadBundleMaxBytes()}. Results left over by an earlier process are
+ * uploaded with the next bundle, or by {@link UploadWorker}.
+ * <p>
+ * In the bundle archive, each result's files are in a sub-folder named after its result id, and
+ * {@value #BUNDLE_INFO_FILENAME} lists each result with its schema and files. The archive uses
+ * the schema in {@link BridgeConfig#getUploadBundleSchemaId()}, which the server needs to unpack
+ * into the results' own schemas.
+ * <p>
+ * Held results are deleted when the participant signs out, so they are not uploaded for the next
+ * participant.
+ */
+@AnyThread
+@BridgeStudyParticipantScope
+public class UploadBundler implements AuthenticationManager.AuthenticationEventListener {
+    private static final Logger LOG = LoggerFactory.getLogger(UploadBundler.class);
+
+    public static final String BUNDLE_INFO_FILENAME = "bundle.json";
+
+    static final String BUNDLE_DIRECTORY = "upload-bundle";
+    static final String MEMBER_INFO_FILENAME = "member.json";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File bundleDirectory;
+    private final UploadManager uploadManager;
+    private final ArchiveSplitter.ArchiveBuilderFactory builderFactory;
+    private final boolean enabled;
+    private final long windowMillis;
+    private final long maxBundleBytes;
+    private final long maxResultBytes;
+    private final Scheduler scheduler;
+    // held results are read, queued and deleted by one flush at a time
+    private final Object flushLock = new Object();
+    private boolean windowFlushScheduled;
+
+    @Inject
+    public UploadBundler(Context context, BridgeConfig bridgeConfig, UploadManager uploadManager,
+                         AuthenticationManager authenticationManager) {
+        this(new File(context.getFilesDir(), BUNDLE_DIRECTORY), uploadManager,
+                () -> newBundleBuilder(bridgeConfig), bridgeConfig.isUploadBundleEnabled(),
+                bridgeConfig.getUploadBundleWindowMillis(), bridgeConfig.getUploadBundleMaxBytes(),
+                bridgeConfig.getUploadBundleResultMaxBytes(), Schedulers.io());
+        authenticationManager.addEventListener(this);
+    }
+
+    @VisibleForTesting
+    UploadBundler(@NonNull File bundleDirectory, @NonNull UploadManager uploadManager,
+                  @NonNull ArchiveSplitter.ArchiveBuilderFactory builderFactory, boolean enabled,
+                  long windowMillis, long maxBundleBytes, long maxResultBytes,
+                  @NonNull Scheduler scheduler) {
+        this.bundleDirectory = checkNotNull(bundleDirectory);
+        this.uploadManager = checkNotNull(uploadManager);
+        this.builderFactory = checkNotNull(builderFactory);
+        this.enabled = enabled;
+        this.windowMillis = Math.max(0L, windowMillis);
+        this.maxBundleBytes = Math.max(0L, maxBundleBytes);
+        this.maxResultBytes = Math.max(0L, maxResultBytes);
+        this.scheduler = checkNotNull(scheduler);
+    }
+
+    /**
+     * @return whether results can be bundled
+     */
+    public boolean isEnabled() {
+        return enabled && maxResultBytes > 0;
+    }
+
+    /**
+     * @param dataFiles files of a result, including its metadata
+     * @return whether bundling is enabled and the files are small enough to bundle
+     */
+    @WorkerThread
+    public boolean canBundle(@NonNull List<? extends ArchiveFile> dataFiles) {
+        checkNotNull(dataFiles);
+        if (!isEnabled()) {
+            return false;
+        }
+        try {
+            long resultBytes = 0;
+            for (ArchiveFile dataFile : dataFiles) {
+                resultBytes += getSize(dataFile);
+            }
+            return resultBytes <= maxResultBytes;
+        } catch (IOException e) {
+            LOG.warn("Could not read size of result, not bundling it", e);
+            return false;
+        }
+    }
+
+    /**
+     * Writes the result to disk to be uploaded with the next bundle, runs on an IO thread. Uploads
+     * the bundle if held results reach the size limit, otherwise it is uploaded once the window
+     * ends.
+     *
+     * @param resultId   identifies the result, used as its sub-folder, e.g. the filename the
+     *                   result's own archive would have
+     * @param schemaKey  schema of the result
+     * @param dataFiles  files of the result, including its metadata
+     * @return completable that completes once the result is stored, and the bundle is uploaded if
+     * the result filled it
+     */
+    @NonNull
+    public Completable add(@NonNull String resultId, @NonNull SchemaKey schemaKey,
+                           @NonNull List<? extends ArchiveFile> dataFiles) {
+        checkNotNull(resultId);
+        checkNotNull(schemaKey);
+        checkNotNull(dataFiles);
+
+        return Completable.fromCallable(() -> {
+            writeMember(resultId, schemaKey, dataFiles);
+            return null;
+        })
+                .andThen(Completable.defer(() -> {
+                    if (getHeldBytes() >= maxBundleBytes) {
+                        return flush();
+                    }
+                    scheduleWindowFlush();
+                    return Completable.complete();
+                }))
+                .subscribeOn(scheduler);
+    }
+
+    /**
+     * Uploads held results if the oldest has waited for the window, or they reach the size limit.
+     *
+     * @return completable that completes once the bundle, if any, is uploaded
+     */
+    @NonNull
+    public Completable flushIfDue() {
+        return Completable.defer(() -> {
+            List<Member> members = listMembers();
+            if (members.isEmpty()) {
+                return Completable.complete();
+            }
+            long now = scheduler.now();
+            if (members.get(0).info.addedOn + windowMillis > now
+                    && getHeldBytes(members) < maxBundleBytes) {
+                return Completable.complete();
+            }
+            return flush();
+        }).subscribeOn(scheduler);
+    }
+
+    /**
+     * Queues all held results in one bundle archive and uploads it, runs on an IO thread.
+     *
+     * @return completable that completes once the bundle, if any, is uploaded
+     */
+    @NonNull
+    public Completable flush() {
+        return Completable.defer(() -> {
+            UploadFile uploadFile = queueBundle();
+            if (uploadFile == null) {
+                return Completable.complete();
+            }
+            return uploadManager.processUploadFile(uploadFile);
+        }).subscribeOn(scheduler);
+    }
+
+    /**
+     * Deletes all held results without uploading them, runs on an IO thread.
+     *
+     * @return completable that completes once held results are deleted
+     */
+    @NonNull
+    public Completable clear() {
+        return Completable.fromAction(() -> {
+            synchronized (flushLock) {
+                LOG.info("Deleting held results");
+                deleteRecursively(bundleDirectory);
+            }
+        }).subscribeOn(scheduler);
+    }
+
+    @Override
+    public void onSignedOut(String email) {
+        // noinspection RxLeakedSubscription,RxSubscribeOnError
+        clear().subscribe();
+    }
+
+    @Override
+    public void onSignedIn(String email) {
+
+    }
+
+    /**
+     * @return number of results waiting to be uploaded in a bundle
+     */
+    @WorkerThread
+    public int getHeldCount() {
+        return listMembers().size();
+    }
+
+    @WorkerThread
+    @Nullable
+    private UploadFile queueBundle() {
+        synchronized (flushLock) {
+            List<Member> members = listMembers();
+            if (members.isEmpty()) {
+                return null;
+            }
+
+            String bundleId = UUID.randomUUID().toString();
+            ArchiveContents contents = buildBundle(bundleId, members);
+            String filename = "bundle-" + bundleId;
+            LOG.info("Queueing bundle: {} with {} results", filename, members.size());
+            UploadFile uploadFile = uploadManager.queueUpload(filename, contents).toBlocking()
+                    .value();
+
+            // the bundle is persisted, held results can go
+            for (Member member : members) {
+                deleteRecursively(member.directory);
+            }
+            return uploadFile;
+        }
+    }
+
+    @VisibleForTesting
+    @NonNull
+    ArchiveContents buildBundle(@NonNull String bundleId, @NonNull List<Member> members) {
+        List<ArchiveFile> dataFiles = Lists.newArrayList();
+        List<BundleInfo.Result> results = Lists.newArrayList();
+        List<String> folders = Lists.newArrayList();
+        DateTime endDate = null;
+        for (Member member : members) {
+            String folder = getFolderName(member.info.resultId, folders);
+            folders.add(folder);
+
+            BundleInfo.Result result = new BundleInfo.Result();
+            result.resultId = member.info.resultId;
+            result.folder = folder;
+            result.schemaId = member.info.schemaId;
+            result.schemaRevision = member.info.schemaRevision;
+            result.files = Lists.newArrayList();
+            for (int i = 0; i < member.info.files.size(); i++) {
+                MemberInfo.MemberFile memberFile = member.info.files.get(i);
+                DateTime fileEndDate = DateTime.parse(memberFile.endDate);
+                dataFiles.add(new ByteSourceArchiveFile(folder + "/" + memberFile.filename,
+                        fileEndDate, Files.asByteSource(new File(member.directory,
+                        Integer.toString(i)))));
+                result.files.add(memberFile.filename);
+                if (endDate == null || fileEndDate.isAfter(endDate)) {
+                    endDate = fileEndDate;
+                }
+            }
+            results.add(result);
+        }
+
+        BundleInfo bundleInfo = new BundleInfo();
+        bundleInfo.bundleId = bundleId;
+        bundleInfo.results = results;
+        dataFiles.add(new JsonArchiveFile(BUNDLE_INFO_FILENAME,
+                endDate != null ? endDate : DateTime.now(), RestUtils.GSON.toJson(bundleInfo)));
+        return new ArchiveContents(builderFactory, dataFiles);
+    }
+
+    private void scheduleWindowFlush() {
+        synchronized (this) {
+            if (windowFlushScheduled) {
+                return;
+            }
+            windowFlushScheduled = true;
+        }
+        Completable.timer(windowMillis, TimeUnit.MILLISECONDS, scheduler)
+                .andThen(Completable.defer(() -> {
+                    synchronized (this) {
+                        windowFlushScheduled = false;
+                    }
+                    return flushIfDue();
+                }))
+                .subscribe(() -> LOG.debug("Bundle window ended"),
+                        t -> LOG.warn("Failed to upload bundle", t));
+    }
+
+    @WorkerThread
+    private void writeMember(@NonNull String resultId, @NonNull SchemaKey schemaKey,
+                             @NonNull List<? extends ArchiveFile> dataFiles) throws IOException {
+        String memberName = UUID.randomUUID().toString();
+        File tempDirectory = new File(bundleDirectory, memberName + TEMP_SUFFIX);
+        if (!tempDirectory.mkdirs()) {
+            throw new IOException("Could not create directory: " + tempDirectory);
+        }
+
+        try {
+            MemberInfo info = new MemberInfo();
+            info.resultId = resultId;
+            info.schemaId = schemaKey.getId();
+            info.schemaRevision = schemaKey.getRevision();
+            info.addedOn = scheduler.now();
+            info.files = Lists.newArrayList();
+            for (int i = 0; i < dataFiles.size(); i++) {
+                ArchiveFile dataFile = dataFiles.get(i);
+                dataFile.getByteSource().copyTo(
+                        Files.asByteSink(new File(tempDirectory, Integer.toString(i))));
+
+                MemberInfo.MemberFile memberFile = new MemberInfo.MemberFile();
+                memberFile.filename = dataFile.getFilename();
+                memberFile.endDate = dataFile.getEndDate().toString();
+                info.files.add(memberFile);
+            }
+            Files.asCharSink(new File(tempDirectory, MEMBER_INFO_FILENAME), Charsets.UTF_8)
+                    .write(RestUtils.GSON.toJson(info));
+
+            // a result is only held once all of its files are written
+            File memberDirectory = new File(bundleDirectory, memberName);
+            if (!tempDirectory.renameTo(memberDirectory)) {
+                throw new IOException("Could not rename directory: " + tempDirectory);
+            }
+        } catch (IOException | RuntimeException e) {
+            deleteRecursively(tempDirectory);
+            throw e;
+        }
+        LOG.debug("Holding result: {} for bundle", resultId);
+    }
+
+    /**
+     * @return held results, oldest first
+     */
+    @WorkerThread
+    @NonNull
+    List<Member> listMembers() {
+        File[] directories = bundleDirectory.listFiles();
+        if (directories == null) {
+            return ImmutableList.of();
+        }
+
+        List<Member> members = Lists.newArrayList();
+        for (File directory : directories) {
+            if (!directory.isDirectory() || directory.getName().endsWith(TEMP_SUFFIX)) {
+                continue;
+            }
+            try {
+                String json = Files.asCharSource(new File(directory, MEMBER_INFO_FILENAME),
+                        Charsets.UTF_8).read();
+                MemberInfo info = RestUtils.GSON.fromJson(json, MemberInfo.class);
+                if (info == null || info.resultId == null || info.files == null) {
+                    LOG.warn("Skipping incomplete held result: {}", directory.getName());
+                    continue;
+                }
+                members.add(new Member(directory, info));
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("Could not read held result: " + directory.getName(), e);
+            }
+        }
+        Collections.sort(members, (a, b) -> Long.compare(a.info.addedOn, b.info.addedOn));
+        return members;
+    }
+
+    @WorkerThread
+    private long getHeldBytes() {
+        return getHeldBytes(listMembers());
+    }
+
+    private static long getHeldBytes(@NonNull List<Member> members) {
+        long heldBytes = 0;
+        for (Member member : members) {
+            for (int i = 0; i < member.info.files.size(); i++) {
+                heldBytes += new File(member.directory, Integer.toString(i)).length();
+            }
+        }
+        return heldBytes;
+    }
+
+    /**
+     * @return result id with characters other than letters, digits, '.', '-' and '_' replaced,
+     * and a suffix if another result in the bundle already uses the name
+     */
+    @VisibleForTesting
+    @NonNull
+    static String getFolderName(@NonNull String resultId, @NonNull List<String> usedFolders) {
+        String folder = resultId.replaceAll("[^A-Za-z0-9._-]", "_");
+        if (folder.isEmpty() || folder.startsWith(".")) {
+            folder = "_" + folder;
+        }
+        String uniqueFolder = folder;
+        for (int i = 2; usedFolders.contains(uniqueFolder); i++) {
+            uniqueFolder = folder + "-" + i;
+        }
+        return uniqueFolder;
+    }
+
+    private static long getSize(@NonNull ArchiveFile archiveFile) throws IOException {
+        Optional<Long> size = archiveFile.getByteSource().sizeIfKnown();
+        return size.isPresent() ? size.get() : archiveFile.getByteSource().size();
+    }
+
+    private static void deleteRecursively(@NonNull File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            LOG.warn("Could not delete: {}", file);
+        }
+    }
+
+    @NonNull
+    private static Archive.Builder newBundleBuilder(@NonNull BridgeConfig bridgeConfig) {
+        String appVersionString = String.format(Locale.ENGLISH, "version %s, build %d",
+                bridgeConfig.getAppVersionName(), bridgeConfig.getAppVersion());
+        return Archive.Builder.forActivity(bridgeConfig.getUploadBundleSchemaId(),
+                bridgeConfig.getUploadBundleSchemaRevision())
+                .withAppVersionName(appVersionString)
+                .withPhoneInfo(bridgeConfig.getDeviceName());
+    }
+
+    /**
+     * A result held on disk, with its files named by index.
+     */
+    @VisibleForTesting
+    static class Member {
+        final File directory;
+        final MemberInfo info;
+
+        Member(File directory, MemberInfo info) {
+            this.directory = directory;
+            this.info = info;
+        }
+    }
+
+    static class MemberInfo {
+        String resultId;
+        String schemaId;
+        int schemaRevision;
+        long addedOn;
+        List<MemberFile> files;
+
+        static class MemberFile {
+            String filename;
+            // ISO 8601, keeps the time zone
+            String endDate;
+        }
+    }
+
+    /**
+     * Contents of {@value #BUNDLE_INFO_FILENAME}.
+     */
+    static class BundleInfo {
+        String bundleId;
+        List<Result> results;
+
+        static class Result {
+            String resultId;
+            String folder;
+            String schemaId;
+            int schemaRevision;
+            List<String> files;
+        }
+    }
+}
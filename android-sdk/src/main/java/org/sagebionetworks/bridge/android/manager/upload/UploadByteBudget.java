@@ -0,0 +1,83 @@
+/*
+ *    Copyright 2018 Sage Bionetworks
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.WorkerThread;
+
+/**
+ * Limits the combined size of archives being uploaded at the same time, so several large
+ * archives do not saturate the device's uplink.
+ * <p>
+ * An archive larger than the whole budget is admitted once nothing else is in flight, otherwise
+ * it could never be uploaded.
+ */
+@AnyThread
+public class UploadByteBudget {
+    private final long maxBytes;
+    private long inFlightBytes;
+
+    /**
+     * @param maxBytes maximum combined bytes in flight, 0 for no limit
+     */
+    public UploadByteBudget(long maxBytes) {
+        checkArgument(maxBytes >= 0, "maxBytes cannot be negative");
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Blocks until the requested bytes fit within the budget.
+     *
+     * @param bytes size of the archive about to be uploaded
+     * @return bytes reserved, pass to {@link #release(long)} when the upload terminates
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @WorkerThread
+    public synchronized long acquire(long bytes) throws InterruptedException {
+        if (maxBytes == 0) {
+            return 0;
+        }
+        long reserved = Math.min(Math.max(bytes, 0), maxBytes);
+        while (inFlightBytes + reserved > maxBytes) {
+            wait();
+        }
+        inFlightBytes += reserved;
+        return reserved;
+    }
+
+    /**
+     * @param reserved bytes returned by {@link #acquire(long)}
+     */
+    public synchronized void release(long reserved) {
+        if (reserved == 0) {
+            return;
+        }
+        inFlightBytes = Math.max(0, inFlightBytes - reserved);
+        notifyAll();
+    }
+
+    public synchronized long getInFlightBytes() {
+        return inFlightBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+}
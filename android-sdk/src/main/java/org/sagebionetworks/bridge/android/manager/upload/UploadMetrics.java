@@ -0,0 +1,401 @@
+/*
+ *    Copyright 2018 Sage Bionetworks
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import org.sagebionetworks.bridge.android.di.BridgeStudyParticipantScope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import javax.inject.Inject;
+
+/**
+ * Records how long each phase of the upload flow takes, along with throughput, retries and the
+ * state of the upload queue.
+ * <p>
+ * Apps can read cumulative totals with {@link #getSnapshot()}, or add an
+ * {@link UploadMetricsListener} to export each measurement to their own telemetry.
+ */
+@AnyThread
+@BridgeStudyParticipantScope
+public class UploadMetrics {
+    private static final Logger LOG = LoggerFactory.getLogger(UploadMetrics.class);
+
+    /**
+     * Phases of the upload flow, in the order an upload goes through them.
+     */
+    public enum UploadPhase {
+        /**
+         * Zipping, encrypting and writing the archive to disk.
+         */
+        PERSIST,
+        /**
+         * Requesting an UploadSession from Bridge.
+         */
+        SESSION_REQUEST,
+        /**
+         * Uploading the archive to the pre-signed S3 URL, including retries.
+         */
+        S3_PUT,
+        /**
+         * Notifying Bridge that the upload to S3 completed.
+         */
+        COMPLETE_UPLOAD_SESSION,
+        /**
+         * From completion of the S3 upload until Bridge is seen to have finished validation.
+         * Depends on how often the upload status is checked.
+         */
+        VALIDATION
+    }
+
+    /**
+     * Receives measurements as they are recorded. Called on the thread doing the work, so
+     * implementations should return quickly.
+     */
+    public interface UploadMetricsListener {
+        void onPhaseRecorded(@NonNull PhaseRecord phaseRecord);
+
+        void onQueueRecorded(int queueDepth, long oldestItemAgeMillis);
+
+        void onUploadEvicted(@NonNull String filename, long bytes,
+                             @NonNull UploadStorageQuota.EvictionType evictionType);
+    }
+
+    private final Set<UploadMetricsListener> listeners = new CopyOnWriteArraySet<>();
+    private final Map<UploadPhase, PhaseStats> phaseStats;
+    // time in milliseconds each upload finished uploading to S3, to measure validation
+    private final Map<String, Long> uploadedOnByFilename = new ConcurrentHashMap<>();
+
+    private int retryCount;
+    private int evictionCount;
+    private long evictedBytes;
+    private int queueDepth;
+    @Nullable
+    private Long oldestItemCreatedOn;
+
+    @Inject
+    public UploadMetrics() {
+        Map<UploadPhase, PhaseStats> stats = Maps.newEnumMap(UploadPhase.class);
+        for (UploadPhase phase : UploadPhase.values()) {
+            stats.put(phase, new PhaseStats());
+        }
+        phaseStats = stats;
+    }
+
+    public void addListener(@NonNull UploadMetricsListener listener) {
+        listeners.add(checkNotNull(listener));
+    }
+
+    public void removeListener(@NonNull UploadMetricsListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @param filename       file being uploaded
+     * @param phase          phase of the upload flow
+     * @param durationMillis time the phase took
+     * @param bytes          bytes written or transferred during the phase, 0 if not applicable
+     * @param success        whether the phase succeeded
+     */
+    public void recordPhase(@NonNull String filename, @NonNull UploadPhase phase,
+                            long durationMillis, long bytes, boolean success) {
+        PhaseRecord phaseRecord = new PhaseRecord(filename, phase, durationMillis, bytes, success);
+
+        PhaseStats stats = phaseStats.get(phase);
+        synchronized (this) {
+            if (success) {
+                stats.successCount++;
+            } else {
+                stats.failureCount++;
+            }
+            stats.totalDurationMillis += durationMillis;
+            stats.totalBytes += bytes;
+        }
+
+        LOG.debug("Recorded upload phase: {}", phaseRecord);
+        for (UploadMetricsListener listener : listeners) {
+            listener.onPhaseRecorded(phaseRecord);
+        }
+    }
+
+    /**
+     * Records a retry of a failed network call during an upload.
+     */
+    public synchronized void recordRetry() {
+        retryCount++;
+    }
+
+    /**
+     * Records an archive evicted to keep queued archives within the storage budget.
+     *
+     * @param filename     evicted file
+     * @param bytes        bytes freed
+     * @param evictionType whether the upload was dropped or compacted
+     */
+    public void recordEviction(@NonNull String filename, long bytes,
+                               @NonNull UploadStorageQuota.EvictionType evictionType) {
+        synchronized (this) {
+            evictionCount++;
+            evictedBytes += bytes;
+        }
+        for (UploadMetricsListener listener : listeners) {
+            listener.onUploadEvicted(filename, bytes, evictionType);
+        }
+    }
+
+    /**
+     * @param queueDepth           number of queued uploads
+     * @param oldestItemCreatedOn time in milliseconds the oldest queued upload was created, null
+     *                            if the queue is empty
+     */
+    public void recordQueue(int queueDepth, @Nullable Long oldestItemCreatedOn) {
+        synchronized (this) {
+            this.queueDepth = queueDepth;
+            this.oldestItemCreatedOn = oldestItemCreatedOn;
+        }
+
+        long oldestItemAgeMillis = getOldestItemAgeMillis(oldestItemCreatedOn);
+        for (UploadMetricsListener listener : listeners) {
+            listener.onQueueRecorded(queueDepth, oldestItemAgeMillis);
+        }
+    }
+
+    /**
+     * Marks the end of an upload's S3 PUT, which starts its validation phase.
+     */
+    public void markUploaded(@NonNull String filename) {
+        uploadedOnByFilename.put(filename, System.currentTimeMillis());
+    }
+
+    /**
+     * Records the validation phase of an upload whose S3 PUT was marked by this instance.
+     * Uploads completed in an earlier process are not recorded.
+     *
+     * @param filename file being uploaded
+     * @param success  whether Bridge validated the upload
+     */
+    public void recordValidationFinished(@NonNull String filename, boolean success) {
+        Long uploadedOn = uploadedOnByFilename.remove(filename);
+        if (uploadedOn == null) {
+            return;
+        }
+        recordPhase(filename, UploadPhase.VALIDATION, System.currentTimeMillis() - uploadedOn, 0,
+                success);
+    }
+
+    /**
+     * Forgets the S3 PUT of an upload leaving the queue without a validation result, e.g. retired,
+     * evicted or cleared, so its validation phase is not measured.
+     *
+     * @param filename file that was removed from the queue
+     */
+    public void forgetUpload(@NonNull String filename) {
+        uploadedOnByFilename.remove(filename);
+    }
+
+    /**
+     * @return cumulative metrics recorded since this instance was created
+     */
+    @NonNull
+    public synchronized Snapshot getSnapshot() {
+        ImmutableMap.Builder<UploadPhase, PhaseStats> stats = ImmutableMap.builder();
+        for (Map.Entry<UploadPhase, PhaseStats> entry : phaseStats.entrySet()) {
+            stats.put(entry.getKey(), entry.getValue().copy());
+        }
+        return new Snapshot(stats.build(), retryCount, queueDepth,
+                getOldestItemAgeMillis(oldestItemCreatedOn), evictionCount, evictedBytes);
+    }
+
+    private static long getOldestItemAgeMillis(@Nullable Long oldestItemCreatedOn) {
+        if (oldestItemCreatedOn == null) {
+            return 0;
+        }
+        return Math.max(0, System.currentTimeMillis() - oldestItemCreatedOn);
+    }
+
+    /**
+     * Measurement of one phase for one upload.
+     */
+    public static class PhaseRecord {
+        private final String filename;
+        private final UploadPhase phase;
+        private final long durationMillis;
+        private final long bytes;
+        private final boolean success;
+
+        PhaseRecord(String filename, UploadPhase phase, long durationMillis, long bytes,
+                    boolean success) {
+            this.filename = filename;
+            this.phase = phase;
+            this.durationMillis = durationMillis;
+            this.bytes = bytes;
+            this.success = success;
+        }
+
+        @NonNull
+        public String getFilename() {
+            return filename;
+        }
+
+        @NonNull
+        public UploadPhase getPhase() {
+            return phase;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        public double getBytesPerSecond() {
+            return durationMillis == 0 ? 0 : bytes * 1000.0 / durationMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "PhaseRecord{" +
+                    "filename='" + filename + '\'' +
+                    ", phase=" + phase +
+                    ", durationMillis=" + durationMillis +
+                    ", bytes=" + bytes +
+                    ", success=" + success +
+                    '}';
+        }
+    }
+
+    /**
+     * Cumulative measurements of one phase.
+     */
+    public static class PhaseStats {
+        int successCount;
+        int failureCount;
+        long totalDurationMillis;
+        long totalBytes;
+
+        public int getSuccessCount() {
+            return successCount;
+        }
+
+        public int getFailureCount() {
+            return failureCount;
+        }
+
+        public long getTotalDurationMillis() {
+            return totalDurationMillis;
+        }
+
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        public long getAverageDurationMillis() {
+            int count = successCount + failureCount;
+            return count == 0 ? 0 : totalDurationMillis / count;
+        }
+
+        public double getBytesPerSecond() {
+            return totalDurationMillis == 0 ? 0 : totalBytes * 1000.0 / totalDurationMillis;
+        }
+
+        PhaseStats copy() {
+            PhaseStats copy = new PhaseStats();
+            copy.successCount = successCount;
+            copy.failureCount = failureCount;
+            copy.totalDurationMillis = totalDurationMillis;
+            copy.totalBytes = totalBytes;
+            return copy;
+        }
+    }
+
+    /**
+     * Point in time copy of the cumulative metrics.
+     */
+    public static class Snapshot {
+        private final Map<UploadPhase, PhaseStats> phaseStats;
+        private final int retryCount;
+        private final int queueDepth;
+        private final long oldestItemAgeMillis;
+        private final int evictionCount;
+        private final long evictedBytes;
+
+        Snapshot(Map<UploadPhase, PhaseStats> phaseStats, int retryCount, int queueDepth,
+                 long oldestItemAgeMillis, int evictionCount, long evictedBytes) {
+            this.phaseStats = phaseStats;
+            this.retryCount = retryCount;
+            this.queueDepth = queueDepth;
+            this.oldestItemAgeMillis = oldestItemAgeMillis;
+            this.evictionCount = evictionCount;
+            this.evictedBytes = evictedBytes;
+        }
+
+        @NonNull
+        public PhaseStats getPhaseStats(@NonNull UploadPhase phase) {
+            return phaseStats.get(phase);
+        }
+
+        public int getRetryCount() {
+            return retryCount;
+        }
+
+        /**
+         * @return number of queued uploads, when the queue was last recorded
+         */
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        /**
+         * @return current age of the oldest upload queued when the queue was last recorded, 0 if
+         * the queue was empty
+         */
+        public long getOldestItemAgeMillis() {
+            return oldestItemAgeMillis;
+        }
+
+        /**
+         * @return number of archives evicted to stay within the storage budget
+         */
+        public int getEvictionCount() {
+            return evictionCount;
+        }
+
+        public long getEvictedBytes() {
+            return evictedBytes;
+        }
+    }
+}
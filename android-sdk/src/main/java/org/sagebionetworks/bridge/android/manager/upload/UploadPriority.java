@@ -0,0 +1,68 @@
+/*
+ *    Copyright 2018 Sage Bionetworks
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Order in which queued uploads are sent. Priorities are not strict: an upload's place in the
+ * queue is its creation time, delayed by {@link #getRank()} times the aging interval, so a lower
+ * priority upload is passed over only by uploads created up to that much later, and is never
+ * starved.
+ */
+public enum UploadPriority {
+    /**
+     * Small, time-sensitive uploads, e.g. consent, survey answers or metadata only.
+     */
+    HIGH(0),
+    /**
+     * Activity results.
+     */
+    NORMAL(1),
+    /**
+     * Large sensor recordings.
+     */
+    BULK(2);
+
+    private final int rank;
+
+    UploadPriority(int rank) {
+        this.rank = rank;
+    }
+
+    /**
+     * @return number of aging intervals an upload of this priority yields to higher priorities
+     */
+    public int getRank() {
+        return rank;
+    }
+
+    /**
+     * @param rank rank of a priority
+     * @return priority with the rank, NORMAL if there is none
+     */
+    @NonNull
+    public static UploadPriority fromRank(int rank) {
+        for (UploadPriority priority : values()) {
+            if (priority.rank == rank) {
+                return priority;
+            }
+        }
+        return NORMAL;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ *    Copyright 2018 Sage Bionetworks
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Bytes of a file sent to S3 so far, see UploadManager#getUploadProgress().
+ */
+public class UploadProgress {
+    private final String filename;
+    private final long bytesTransferred;
+    private final long contentLength;
+
+    public UploadProgress(@NonNull String filename, long bytesTransferred, long contentLength) {
+        this.filename = filename;
+        this.bytesTransferred = bytesTransferred;
+        this.contentLength = contentLength;
+    }
+
+    @NonNull
+    public String getFilename() {
+        return filename;
+    }
+
+    public long getBytesTransferred() {
+        return bytesTransferred;
+    }
+
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * @return fraction of the file sent, from 0 to 1
+     */
+    public double getFraction() {
+        return contentLength <= 0 ? 1 : Math.min(1, (double) bytesTransferred / contentLength);
+    }
+
+    @Override
+    public String toString() {
+        return "UploadProgress{" +
+                "filename='" + filename + '\'' +
+                ", bytesTransferred=" + bytesTransferred +
+                ", contentLength=" + contentLength +
+                '}';
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ *    Copyright 2018 Sage Bionetworks
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import android.content.Context;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+import androidx.work.BackoffPolicy;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkInfo;
+import androidx.work.WorkManager;
+
+import com.google.common.collect.Lists;
+
+import org.sagebionetworks.bridge.android.BridgeConfig;
+import org.sagebionetworks.bridge.android.di.BridgeStudyScope;
+import org.sagebionetworks.bridge.android.manager.UploadManager.UploadFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+/**
+ * Schedules {@link UploadWorker} runs that drain the upload queue under network and power
+ * constraints, if {@link BridgeConfig#isUploadBackgroundEnabled()}.
+ * <p>
+ * When an upload is queued, a run on any network is scheduled after a short delay. Runs are
+ * unique and kept if already scheduled, so uploads queued close together are sent in one batch.
+ * If a run is in progress and none is waiting, another is appended after it, as the running one
+ * may have listed the queue before the upload was queued.
+ * Archives larger than {@link BridgeConfig#getUploadMeteredMaxBytes()} are left to a separate run
+ * that requires an unmetered network, and optionally charging. A periodic run catches uploads
+ * whose validation status is still pending.
+ */
+@AnyThread
+@BridgeStudyScope
+public class UploadScheduler {
+    private static final Logger LOG = LoggerFactory.getLogger(UploadScheduler.class);
+
+    static final String WORK_NAME = "org.sagebionetworks.bridge.upload";
+    static final String LARGE_WORK_NAME = WORK_NAME + ".large";
+    static final String PERIODIC_WORK_NAME = WORK_NAME + ".periodic";
+
+    private final Context applicationContext;
+    private final boolean enabled;
+    private final long delayMillis;
+    private final long meteredMaxBytes;
+    private final boolean largeRequiresCharging;
+    private final long intervalMillis;
+
+    @Inject
+    public UploadScheduler(Context applicationContext, BridgeConfig bridgeConfig) {
+        this(applicationContext, bridgeConfig.isUploadBackgroundEnabled(),
+                bridgeConfig.getUploadBackgroundDelayMillis(),
+                bridgeConfig.getUploadMeteredMaxBytes(),
+                bridgeConfig.isUploadLargeRequiresCharging(),
+                bridgeConfig.getUploadBackgroundIntervalMillis());
+    }
+
+    @VisibleForTesting
+    UploadScheduler(@NonNull Context applicationContext, boolean enabled, long delayMillis,
+                    long meteredMaxBytes, boolean largeRequiresCharging, long intervalMillis) {
+        this.applicationContext = checkNotNull(applicationContext);
+        this.enabled = enabled;
+        this.delayMillis = Math.max(0L, delayMillis);
+        this.meteredMaxBytes = Math.max(0L, meteredMaxBytes);
+        this.largeRequiresCharging = largeRequiresCharging;
+        this.intervalMillis = Math.max(PeriodicWorkRequest.MIN_PERIODIC_INTERVAL_MILLIS,
+                intervalMillis);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Schedules runs to send a newly queued upload. Does nothing if background uploads are
+     * disabled.
+     *
+     * @param uploadFile upload that was queued
+     */
+    @WorkerThread
+    public void onUploadQueued(@NonNull UploadFile uploadFile) {
+        checkNotNull(uploadFile);
+        if (!enabled) {
+            return;
+        }
+
+        WorkManager workManager = WorkManager.getInstance(applicationContext);
+        workManager.enqueueUniqueWork(WORK_NAME, getExistingWorkPolicy(workManager, WORK_NAME),
+                createRequest(meteredMaxBytes, new Constraints.Builder()
+                        .setRequiredNetworkType(NetworkType.CONNECTED)
+                        .build()));
+
+        if (uploadFile.fileLength > meteredMaxBytes) {
+            LOG.debug("Scheduling upload on unmetered network for file: {}", uploadFile.filename);
+            workManager.enqueueUniqueWork(LARGE_WORK_NAME,
+                    getExistingWorkPolicy(workManager, LARGE_WORK_NAME),
+                    createRequest(Long.MAX_VALUE, new Constraints.Builder()
+                            .setRequiredNetworkType(NetworkType.UNMETERED)
+                            .setRequiresCharging(largeRequiresCharging)
+                            .build()));
+        }
+
+        schedulePeriodic();
+    }
+
+    /**
+     * Schedules the periodic run, if not already scheduled. Does nothing if background uploads
+     * are disabled.
+     */
+    public void schedulePeriodic() {
+        if (!enabled) {
+            return;
+        }
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(UploadWorker.class,
+                intervalMillis, TimeUnit.MILLISECONDS)
+                .setConstraints(new Constraints.Builder()
+                        .setRequiredNetworkType(NetworkType.UNMETERED)
+                        .build())
+                .build();
+        WorkManager.getInstance(applicationContext).enqueueUniquePeriodicWork(PERIODIC_WORK_NAME,
+                ExistingPeriodicWorkPolicy.KEEP, request);
+    }
+
+    /**
+     * Cancels all scheduled runs, e.g. on sign out.
+     */
+    public void cancel() {
+        if (!enabled) {
+            return;
+        }
+        WorkManager workManager = WorkManager.getInstance(applicationContext);
+        workManager.cancelUniqueWork(WORK_NAME);
+        workManager.cancelUniqueWork(LARGE_WORK_NAME);
+        workManager.cancelUniqueWork(PERIODIC_WORK_NAME);
+    }
+
+    @WorkerThread
+    @NonNull
+    private ExistingWorkPolicy getExistingWorkPolicy(@NonNull WorkManager workManager,
+                                                     @NonNull String uniqueWorkName) {
+        List<WorkInfo.State> states = Lists.newArrayList();
+        try {
+            for (WorkInfo workInfo : workManager.getWorkInfosForUniqueWork(uniqueWorkName).get()) {
+                states.add(workInfo.getState());
+            }
+        } catch (ExecutionException e) {
+            LOG.warn("Failed to get state of work: " + uniqueWorkName, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Interrupted getting state of work: " + uniqueWorkName, e);
+        }
+        return getExistingWorkPolicy(states);
+    }
+
+    /**
+     * @param states states of the work already scheduled under the unique name
+     * @return APPEND if the work is running and no run is waiting after it, otherwise KEEP
+     */
+    @VisibleForTesting
+    @NonNull
+    static ExistingWorkPolicy getExistingWorkPolicy(@NonNull List<WorkInfo.State> states) {
+        if (states.contains(WorkInfo.State.RUNNING)
+                && !states.contains(WorkInfo.State.ENQUEUED)
+                && !states.contains(WorkInfo.State.BLOCKED)) {
+            return ExistingWorkPolicy.APPEND;
+        }
+        return ExistingWorkPolicy.KEEP;
+    }
+
+    @NonNull
+    private OneTimeWorkRequest createRequest(long maxUploadLength, @NonNull Constraints constraints) {
+        return new OneTimeWorkRequest.Builder(UploadWorker.class)
+                .setInitialDelay(delayMillis, TimeUnit.MILLISECONDS)
+                .setConstraints(constraints)
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL,
+                        Math.max(OneTimeWorkRequest.MIN_BACKOFF_MILLIS, delayMillis),
+                        TimeUnit.MILLISECONDS)
+                .setInputData(new Data.Builder()
+                        .putLong(UploadWorker.KEY_MAX_UPLOAD_LENGTH, maxUploadLength)
+                        .build())
+                .build();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ *    Copyright 2018 Sage Bionetworks
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.joda.time.DateTime;
+import org.sagebionetworks.bridge.rest.model.UploadSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import rx.Single;
+
+/**
+ * Requests upload sessions for queued files ahead of their turn, so draining the queue does not
+ * wait on a session request before each S3 PUT.
+ * <p>
+ * Each prefetch is shared: a file whose turn comes while its session is still being requested
+ * waits for that request instead of making another. At most {@link #getMaxInFlight()} prefetches
+ * are in flight at once.
+ */
+@AnyThread
+public class UploadSessionPrefetcher {
+    private static final Logger LOG = LoggerFactory.getLogger(UploadSessionPrefetcher.class);
+
+    private final int maxInFlight;
+    private final Map<String, Single<UploadSession>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxInFlight maximum number of session requests in flight, 0 disables prefetching
+     */
+    public UploadSessionPrefetcher(int maxInFlight) {
+        checkArgument(maxInFlight >= 0, "maxInFlight cannot be negative");
+        this.maxInFlight = maxInFlight;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Starts a session request for a file, unless one is in flight already or the limit is
+     * reached. Errors are logged, the file's own turn requests a session again.
+     *
+     * @param filename queued filename
+     * @param request  session request, not yet subscribed
+     * @return true if the request was started
+     */
+    public boolean prefetch(@NonNull String filename, @NonNull Single<UploadSession> request) {
+        checkNotNull(filename);
+        checkNotNull(request);
+
+        Single<UploadSession> shared;
+        synchronized (this) {
+            if (inFlight.size() >= maxInFlight || inFlight.containsKey(filename)) {
+                return false;
+            }
+            AtomicReference<Single<UploadSession>> self = new AtomicReference<>();
+            shared = request
+                    .doAfterTerminate(() -> inFlight.remove(filename, self.get()))
+                    .cache();
+            self.set(shared);
+            inFlight.put(filename, shared);
+        }
+
+        LOG.debug("Prefetching upload session for file: {}", filename);
+        // noinspection RxLeakedSubscription
+        shared.subscribe(
+                session -> LOG.debug("Prefetched upload session for file: {}", filename),
+                t -> LOG.warn("Failed to prefetch upload session for file: {}", filename, t));
+        return true;
+    }
+
+    /**
+     * @param filename queued filename
+     * @return the in-flight session request for the file, null if there is none
+     */
+    @Nullable
+    public Single<UploadSession> getInFlight(@NonNull String filename) {
+        return inFlight.get(filename);
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * @param session            cached upload session
+     * @param minimumExpiration time the session has to be valid until
+     * @return true if the session expires before minimumExpiration
+     */
+    public static boolean isExpiring(@NonNull UploadSession session,
+                                     @NonNull DateTime minimumExpiration) {
+        return session.getExpires() == null || session.getExpires().isBefore(minimumExpiration);
+    }
+}
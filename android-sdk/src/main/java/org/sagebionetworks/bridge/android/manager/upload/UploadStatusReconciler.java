@@ -0,0 +1,99 @@
+/*
+ *    Copyright 2018 Sage Bionetworks
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import androidx.annotation.NonNull;
+
+import org.sagebionetworks.bridge.android.manager.dao.UploadEntity;
+import org.sagebionetworks.bridge.rest.model.UploadStatus;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when the status of a queued upload should next be checked, and when an upload that
+ * Bridge will not process should be removed from the queue.
+ * <p>
+ * Uploads that Bridge is still validating, or that failed validation, are checked with
+ * exponential backoff and jitter rather than on every run, so a large backlog does not cost a
+ * status call per upload each time uploads are processed.
+ */
+public class UploadStatusReconciler {
+    static final long INITIAL_CHECK_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    static final long MAX_CHECK_DELAY_MILLIS = TimeUnit.HOURS.toMillis(24);
+    // next check is randomly moved by up to this fraction of the delay
+    static final double JITTER = 0.2;
+
+    private final int failedMaxChecks;
+    private final long maxAgeMillis;
+    private final Random random;
+
+    /**
+     * @param failedMaxChecks number of times an upload is seen to have failed validation before it
+     *                        is removed from the queue, checks with any other status are not
+     *                        counted
+     * @param maxAgeMillis    age after which an upload that Bridge has not finished processing is
+     *                        removed from the queue, 0 to never remove
+     * @param random          source of jitter
+     */
+    public UploadStatusReconciler(int failedMaxChecks, long maxAgeMillis, @NonNull Random random) {
+        checkArgument(failedMaxChecks >= 1, "failedMaxChecks must be at least 1");
+        checkArgument(maxAgeMillis >= 0, "maxAgeMillis cannot be negative");
+        checkNotNull(random);
+
+        this.failedMaxChecks = failedMaxChecks;
+        this.maxAgeMillis = maxAgeMillis;
+        this.random = random;
+    }
+
+    /**
+     * @param uploadEntity queued upload, with the number of earlier status checks
+     * @param now          time in milliseconds
+     * @return time in milliseconds before which the upload's status should not be checked again
+     */
+    public long getNextStatusCheckOn(@NonNull UploadEntity uploadEntity, long now) {
+        checkNotNull(uploadEntity);
+
+        int shift = Math.min(uploadEntity.statusCheckCount, 16);
+        long delay = Math.min(MAX_CHECK_DELAY_MILLIS, INITIAL_CHECK_DELAY_MILLIS << shift);
+
+        double jitter = 1 - JITTER + 2 * JITTER * random.nextDouble();
+        return now + (long) (delay * jitter);
+    }
+
+    /**
+     * @param uploadEntity queued upload, with the number of earlier failed validations
+     * @param status       status just received from Bridge
+     * @param now          time in milliseconds
+     * @return true if Bridge will not process the upload and it should be removed from the queue
+     */
+    public boolean shouldRetire(@NonNull UploadEntity uploadEntity, @NonNull UploadStatus status,
+                                long now) {
+        checkNotNull(uploadEntity);
+        checkNotNull(status);
+
+        if (status == UploadStatus.VALIDATION_FAILED
+                && uploadEntity.failedValidationCount + 1 >= failedMaxChecks) {
+            return true;
+        }
+        return maxAgeMillis > 0 && now - uploadEntity.createdOn > maxAgeMillis;
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ *    Copyright 2018 Sage Bionetworks
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.sagebionetworks.bridge.android.manager.dao.UploadEntity;
+import org.sagebionetworks.bridge.android.manager.dao.UploadEntity.UploadState;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Disk budget for queued archives, and the policy for choosing archives to evict when a new
+ * archive does not fit.
+ * <p>
+ * Only archives Bridge already has are evicted, lowest {@link UploadPriority} first, then oldest
+ * first:
+ * <ol>
+ * <li>archives that failed validation are dropped, and removed from the queue</li>
+ * <li>archives uploaded to S3 and awaiting validation are compacted: the file is deleted, but the
+ * upload stays queued so its status is still tracked</li>
+ * </ol>
+ * Archives that have not been uploaded to S3 are never evicted. A compacted upload whose status
+ * is still REQUESTED is completed again without its file, see UploadManager.
+ */
+public class UploadStorageQuota {
+    /**
+     * How an archive is evicted.
+     */
+    public enum EvictionType {
+        /**
+         * Archive file is deleted and the upload removed from the queue.
+         */
+        DROP,
+        /**
+         * Archive file is deleted, the upload stays queued.
+         */
+        COMPACT
+    }
+
+    private final long maxBytes;
+
+    /**
+     * @param maxBytes maximum combined size of queued archive files, 0 for no limit
+     */
+    public UploadStorageQuota(long maxBytes) {
+        checkArgument(maxBytes >= 0, "maxBytes cannot be negative");
+        this.maxBytes = maxBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @param storedUploads queued uploads, with their current size on disk
+     * @param requiredBytes size of the archive to add
+     * @return evictions that make room for the archive, in the order they should be made
+     */
+    @NonNull
+    public Plan plan(@NonNull List<StoredUpload> storedUploads, long requiredBytes) {
+        return plan(storedUploads, 0, requiredBytes);
+    }
+
+    /**
+     * @param storedUploads queued uploads, with their current size on disk
+     * @param stagedBytes   size of files that count against the budget but cannot be evicted,
+     *                      e.g. staged files of other persists in progress
+     * @param requiredBytes size of the archive to add
+     * @return evictions that make room for the archive, in the order they should be made
+     */
+    @NonNull
+    public Plan plan(@NonNull List<StoredUpload> storedUploads, long stagedBytes,
+                     long requiredBytes) {
+        checkNotNull(storedUploads);
+        checkArgument(stagedBytes >= 0, "stagedBytes cannot be negative");
+
+        long usedBytes = stagedBytes;
+        for (StoredUpload storedUpload : storedUploads) {
+            usedBytes += storedUpload.sizeOnDisk;
+        }
+        if (maxBytes == 0) {
+            return new Plan(ImmutableList.of(), true, usedBytes, Long.MAX_VALUE);
+        }
+
+        List<Eviction> evictions = Lists.newArrayList();
+        long excessBytes = usedBytes + requiredBytes - maxBytes;
+
+        excessBytes = addEvictions(storedUploads, excessBytes, EvictionType.DROP, evictions);
+        excessBytes = addEvictions(storedUploads, excessBytes, EvictionType.COMPACT, evictions);
+
+        long freedBytes = 0;
+        for (Eviction eviction : evictions) {
+            freedBytes += eviction.bytes;
+        }
+        return new Plan(ImmutableList.copyOf(evictions), excessBytes <= 0, usedBytes,
+                Math.max(0, maxBytes - usedBytes + freedBytes));
+    }
+
+    private long addEvictions(List<StoredUpload> storedUploads, long excessBytes,
+                              EvictionType type, List<Eviction> evictions) {
+        List<StoredUpload> candidates = Lists.newArrayList();
+        for (StoredUpload storedUpload : storedUploads) {
+            if (storedUpload.sizeOnDisk > 0 && getEvictionType(storedUpload.uploadEntity) == type) {
+                candidates.add(storedUpload);
+            }
+        }
+        Collections.sort(candidates, (a, b) -> {
+            int byPriority = Integer.compare(b.uploadEntity.priority.getRank(),
+                    a.uploadEntity.priority.getRank());
+            return byPriority != 0 ? byPriority
+                    : Long.compare(a.uploadEntity.createdOn, b.uploadEntity.createdOn);
+        });
+
+        for (StoredUpload candidate : candidates) {
+            if (excessBytes <= 0) {
+                break;
+            }
+            evictions.add(new Eviction(candidate.uploadEntity.filename, type, candidate.sizeOnDisk));
+            excessBytes -= candidate.sizeOnDisk;
+        }
+        return excessBytes;
+    }
+
+    /**
+     * @return how the upload may be evicted, null if it may not be evicted
+     */
+    @Nullable
+    static EvictionType getEvictionType(@NonNull UploadEntity uploadEntity) {
+        UploadState state = uploadEntity.state;
+        if (state == UploadState.FAILED) {
+            return EvictionType.DROP;
+        }
+        if (state == UploadState.UPLOADED || state == UploadState.VALIDATING) {
+            return EvictionType.COMPACT;
+        }
+        return null;
+    }
+
+    /**
+     * A queued upload and the size of its archive file on disk.
+     */
+    public static class StoredUpload {
+        final UploadEntity uploadEntity;
+        final long sizeOnDisk;
+
+        public StoredUpload(@NonNull UploadEntity uploadEntity, long sizeOnDisk) {
+            this.uploadEntity = checkNotNull(uploadEntity);
+            this.sizeOnDisk = sizeOnDisk;
+        }
+    }
+
+    /**
+     * An archive chosen for eviction.
+     */
+    public static class Eviction {
+        private final String filename;
+        private final EvictionType type;
+        private final long bytes;
+
+        Eviction(String filename, EvictionType type, long bytes) {
+            this.filename = filename;
+            this.type = type;
+            this.bytes = bytes;
+        }
+
+        @NonNull
+        public String getFilename() {
+            return filename;
+        }
+
+        @NonNull
+        public EvictionType getType() {
+            return type;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+    }
+
+    /**
+     * Evictions needed to fit an archive within the budget.
+     */
+    public static class Plan {
+        private final List<Eviction> evictions;
+        private final boolean fits;
+        private final long usedBytes;
+        private final long availableBytes;
+
+        Plan(List<Eviction> evictions, boolean fits, long usedBytes, long availableBytes) {
+            this.evictions = evictions;
+            this.fits = fits;
+            this.usedBytes = usedBytes;
+            this.availableBytes = availableBytes;
+        }
+
+        @NonNull
+        public List<Eviction> getEvictions() {
+            return evictions;
+        }
+
+        /**
+         * @return true if the archive fits once the evictions are made
+         */
+        public boolean fits() {
+            return fits;
+        }
+
+        /**
+         * @return combined size of queued archive and staged files, before evictions
+         */
+        public long getUsedBytes() {
+            return usedBytes;
+        }
+
+        /**
+         * @return bytes available once the evictions are made
+         */
+        public long getAvailableBytes() {
+            return availableBytes;
+        }
+    }
+}
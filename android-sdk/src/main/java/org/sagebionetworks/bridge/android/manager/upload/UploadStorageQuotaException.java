@@ -0,0 +1,44 @@
+/*
+ *    Copyright 2018 Sage Bionetworks
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an archive cannot be queued for upload because queued archives already use the
+ * storage budget, and none of them can be evicted.
+ */
+public class UploadStorageQuotaException extends IOException {
+    private final long requiredBytes;
+    private final long availableBytes;
+
+    public UploadStorageQuotaException(String filename, long requiredBytes, long availableBytes) {
+        super("Not enough upload storage for file: " + filename + ", required bytes: "
+                + requiredBytes + ", available bytes: " + availableBytes);
+        this.requiredBytes = requiredBytes;
+        this.availableBytes = availableBytes;
+    }
+
+    public long getRequiredBytes() {
+        return requiredBytes;
+    }
+
+    public long getAvailableBytes() {
+        return availableBytes;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ *    Copyright 2018 Sage Bionetworks
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import org.sagebionetworks.bridge.android.manager.BridgeManagerProvider;
+import org.sagebionetworks.bridge.android.manager.UploadManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends queued uploads in the background, scheduled by {@link UploadScheduler}. Only archives up
+ * to the size in the input data are uploaded to S3, larger ones wait for a run allowed to send
+ * them. Retries, with WorkManager's backoff, while such uploads are still pending. Also uploads
+ * bundled results whose window has ended, e.g. if the app was killed while holding them.
+ */
+public class UploadWorker extends Worker {
+    private static final Logger LOG = LoggerFactory.getLogger(UploadWorker.class);
+
+    /**
+     * Input data key for the maximum size in bytes of an archive to upload.
+     */
+    public static final String KEY_MAX_UPLOAD_LENGTH = "maxUploadLength";
+
+    public UploadWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        BridgeManagerProvider bridgeManagerProvider = BridgeManagerProvider.getInstance();
+        if (bridgeManagerProvider == null) {
+            LOG.warn("BridgeManagerProvider not initialized, retrying upload later");
+            return Result.retry();
+        }
+        long maxUploadLength = getInputData().getLong(KEY_MAX_UPLOAD_LENGTH, Long.MAX_VALUE);
+
+        Throwable bundleError = bridgeManagerProvider.getUploadBundler().flushIfDue().get();
+        if (bundleError != null) {
+            // the bundle stays on disk, uploads queued on their own can still go
+            LOG.warn("Failed to upload held results", bundleError);
+        }
+
+        UploadManager uploadManager = bridgeManagerProvider.getUploadManager();
+        Throwable error = uploadManager.processUploadFiles(maxUploadLength).get();
+        if (error != null) {
+            LOG.warn("Background upload failed", error);
+            return Result.retry();
+        }
+
+        int pendingCount = uploadManager.getPendingUploadCount(maxUploadLength);
+        if (pendingCount > 0) {
+            LOG.info("{} uploads still pending after background upload, retrying later",
+                    pendingCount);
+            return Result.retry();
+        }
+        return Result.success();
+    }
+}
@@ -0,0 +1,194 @@
+package org.sagebionetworks.bridge.android.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.sagebionetworks.bridge.android.BridgeConfig;
+import org.sagebionetworks.bridge.android.manager.dao.AccountDAO;
+import org.sagebionetworks.bridge.android.manager.dao.ConsentDAO;
+import org.sagebionetworks.bridge.rest.ApiClientProvider;
+import org.sagebionetworks.bridge.rest.RestUtils;
+import org.sagebionetworks.bridge.rest.api.AuthenticationApi;
+import org.sagebionetworks.bridge.rest.api.ForConsentedUsersApi;
+import org.sagebionetworks.bridge.rest.model.Message;
+import org.sagebionetworks.bridge.rest.model.ReauthenticationRequest;
+import org.sagebionetworks.bridge.rest.model.SignIn;
+import org.sagebionetworks.bridge.rest.model.UserSessionInfo;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+import retrofit2.Response;
+
+public class AuthenticationManagerTest {
+    private static final String STUDY_ID = "study-id";
+    private static final String EMAIL = "email@example.com";
+
+    private AuthenticationApi authenticationApi;
+    private ForConsentedUsersApi forConsentedUsersApi;
+    private AccountDAO accountDAO;
+    private AuthenticationManager authenticationManager;
+
+    @Before
+    public void setup() {
+        BridgeConfig config = mock(BridgeConfig.class);
+        when(config.getStudyId()).thenReturn(STUDY_ID);
+        authenticationApi = mock(AuthenticationApi.class);
+        ApiClientProvider apiClientProvider = mock(ApiClientProvider.class);
+        when(apiClientProvider.getAuthenticationApi()).thenReturn(authenticationApi);
+        forConsentedUsersApi = mock(ForConsentedUsersApi.class);
+        accountDAO = mock(AccountDAO.class);
+        when(accountDAO.getEmail()).thenReturn(EMAIL);
+
+        authenticationManager = new AuthenticationManager(config, apiClientProvider, accountDAO,
+                mock(ConsentDAO.class)) {
+            @Override
+            AuthStateHolder createAuthStateFromStoredCredentials() {
+                // a new auth state each time, as for a new stored session
+                return new AuthStateHolder(forConsentedUsersApi, null);
+            }
+        };
+    }
+
+    @Test
+    public void refreshSession_Reauthenticates() throws Exception {
+        when(accountDAO.getUserSessionInfo()).thenReturn(session("sessionToken", "reauthToken"));
+        UserSessionInfo newSession = session("newSessionToken", "newReauthToken");
+        when(authenticationApi.reauthenticate(any())).thenReturn(call(Response.success(newSession)));
+        AuthenticationManager.AuthStateHolder authState =
+                authenticationManager.getAuthStateReference().get();
+
+        // a new session, not the current one
+        assertSame(newSession, authenticationManager.refreshSession());
+
+        ArgumentCaptor<ReauthenticationRequest> requestCaptor =
+                ArgumentCaptor.forClass(ReauthenticationRequest.class);
+        verify(authenticationApi).reauthenticate(requestCaptor.capture());
+        assertEquals(STUDY_ID, requestCaptor.getValue().getStudy());
+        assertEquals(EMAIL, requestCaptor.getValue().getEmail());
+        assertEquals("reauthToken", requestCaptor.getValue().getReauthToken());
+        verify(authenticationApi, never()).signIn(any());
+
+        verify(accountDAO).setUserSessionInfo(newSession);
+        assertNotSame(authState, authenticationManager.getAuthStateReference().get());
+    }
+
+    @Test
+    public void refreshSession_SignsInIfReauthenticationFails() throws Exception {
+        when(accountDAO.getUserSessionInfo()).thenReturn(session("sessionToken", "reauthToken"));
+        when(accountDAO.getPassword()).thenReturn("password");
+        when(authenticationApi.reauthenticate(any())).thenReturn(call(Response.error(401,
+                ResponseBody.create(MediaType.parse("application/json"), "{}"))));
+        UserSessionInfo newSession = session("newSessionToken", "newReauthToken");
+        when(authenticationApi.signIn(any())).thenReturn(call(Response.success(newSession)));
+
+        assertSame(newSession, authenticationManager.refreshSession());
+
+        ArgumentCaptor<SignIn> signInCaptor = ArgumentCaptor.forClass(SignIn.class);
+        verify(authenticationApi).signIn(signInCaptor.capture());
+        assertEquals(EMAIL, signInCaptor.getValue().getEmail());
+        assertEquals("password", signInCaptor.getValue().getPassword());
+        verify(accountDAO).setUserSessionInfo(newSession);
+    }
+
+    @Test(expected = IOException.class)
+    public void refreshSession_ReauthenticationFailsWithoutPassword() throws Exception {
+        when(accountDAO.getUserSessionInfo()).thenReturn(session("sessionToken", "reauthToken"));
+        when(authenticationApi.reauthenticate(any())).thenReturn(call(Response.error(401,
+                ResponseBody.create(MediaType.parse("application/json"), "{}"))));
+
+        authenticationManager.refreshSession();
+    }
+
+    @Test
+    public void refreshSession_SignedOut() throws Exception {
+        when(accountDAO.getEmail()).thenReturn(null);
+
+        assertNull(authenticationManager.refreshSession());
+
+        verify(authenticationApi, never()).reauthenticate(any());
+        verify(authenticationApi, never()).signIn(any());
+    }
+
+    @Test
+    public void refreshSession_AuthStateChanged() throws Exception {
+        when(accountDAO.getUserSessionInfo()).thenReturn(session("sessionToken", "reauthToken"));
+        AuthenticationManager.AuthStateHolder signedInState =
+                new AuthenticationManager.AuthStateHolder(forConsentedUsersApi, null);
+        @SuppressWarnings("unchecked")
+        Call<UserSessionInfo> call = mock(Call.class);
+        // the participant signs in again while the session is refreshed
+        when(call.execute()).then(invocation -> {
+            authenticationManager.getAuthStateReference().set(signedInState);
+            return Response.success(session("newSessionToken", null));
+        });
+        when(authenticationApi.reauthenticate(any())).thenReturn(call);
+
+        assertNull(authenticationManager.refreshSession());
+
+        verify(accountDAO, never()).setUserSessionInfo(any());
+        assertSame(signedInState, authenticationManager.getAuthStateReference().get());
+    }
+
+    @Test
+    public void refreshSession_SignOutWaitsForStoredSession() throws Exception {
+        when(accountDAO.getUserSessionInfo()).thenReturn(session("sessionToken", "reauthToken"));
+        UserSessionInfo newSession = session("newSessionToken", "newReauthToken");
+        when(authenticationApi.reauthenticate(any())).thenReturn(call(Response.success(newSession)));
+        @SuppressWarnings("unchecked")
+        Call<Message> signOutCall = mock(Call.class);
+        when(authenticationApi.signOut()).thenReturn(signOutCall);
+
+        Thread signOutThread = new Thread(() -> authenticationManager.signOut());
+        // the participant signs out while the refreshed session is stored
+        doAnswer(invocation -> {
+            signOutThread.start();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (signOutThread.getState() != Thread.State.BLOCKED
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertSame(Thread.State.BLOCKED, signOutThread.getState());
+            return null;
+        }).when(accountDAO).setUserSessionInfo(newSession);
+
+        assertSame(newSession, authenticationManager.refreshSession());
+        signOutThread.join(5000);
+        assertFalse(signOutThread.isAlive());
+
+        // sign out clears the refreshed session
+        InOrder inOrder = inOrder(accountDAO);
+        inOrder.verify(accountDAO).setUserSessionInfo(newSession);
+        inOrder.verify(accountDAO).clear();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Call<UserSessionInfo> call(Response<UserSessionInfo> response)
+            throws IOException {
+        Call<UserSessionInfo> call = mock(Call.class);
+        when(call.execute()).thenReturn(response);
+        return call;
+    }
+
+    private static UserSessionInfo session(String sessionToken, String reauthToken) {
+        String json = "{\"sessionToken\":\"" + sessionToken + "\""
+                + (reauthToken != null ? ",\"reauthToken\":\"" + reauthToken + "\"" : "") + "}";
+        return RestUtils.GSON.fromJson(json, UserSessionInfo.class);
+    }
+}
@@ -0,0 +1,140 @@
+package org.sagebionetworks.bridge.android.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sagebionetworks.bridge.android.manager.dao.AccountDAO;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import rx.schedulers.TestScheduler;
+
+public class SessionKeeperTest {
+    private static final long LIFETIME_MILLIS = TimeUnit.HOURS.toMillis(12);
+    private static final long REFRESH_AHEAD_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long JITTER_MILLIS = TimeUnit.MINUTES.toMillis(30);
+    private static final long NOW = TimeUnit.DAYS.toMillis(100);
+
+    private AuthenticationManager authenticationManager;
+    private AccountDAO accountDAO;
+    private TestScheduler scheduler;
+    private boolean networkConnected;
+
+    @Before
+    public void setup() {
+        authenticationManager = mock(AuthenticationManager.class);
+        when(authenticationManager.hasAuthenticationCredentials()).thenReturn(true);
+        accountDAO = mock(AccountDAO.class);
+        scheduler = new TestScheduler();
+        scheduler.advanceTimeTo(NOW, TimeUnit.MILLISECONDS);
+        networkConnected = true;
+    }
+
+    @Test
+    public void refreshDueOn() {
+        SessionKeeper sessionKeeper = createSessionKeeper(true);
+        assertNull(sessionKeeper.getRefreshDueOn());
+
+        when(accountDAO.getSessionUpdatedOn()).thenReturn(NOW);
+        long refreshDueOn = sessionKeeper.getRefreshDueOn();
+
+        long latest = NOW + LIFETIME_MILLIS - REFRESH_AHEAD_MILLIS;
+        assertTrue(refreshDueOn <= latest);
+        assertTrue(refreshDueOn >= latest - JITTER_MILLIS);
+        // the jitter is the same for a session
+        assertEquals(refreshDueOn, (long) sessionKeeper.getRefreshDueOn());
+    }
+
+    @Test
+    public void notDue() throws Exception {
+        when(accountDAO.getSessionUpdatedOn()).thenReturn(NOW - TimeUnit.HOURS.toMillis(1));
+
+        refreshIfDue(createSessionKeeper(true));
+
+        verify(authenticationManager, never()).refreshSession();
+    }
+
+    @Test
+    public void due() throws Exception {
+        when(accountDAO.getSessionUpdatedOn())
+                .thenReturn(NOW - LIFETIME_MILLIS + REFRESH_AHEAD_MILLIS);
+
+        assertNull(refreshIfDue(createSessionKeeper(true)));
+
+        verify(authenticationManager).refreshSession();
+    }
+
+    @Test
+    public void dueWithoutNetwork() throws Exception {
+        when(accountDAO.getSessionUpdatedOn()).thenReturn(NOW - LIFETIME_MILLIS);
+        networkConnected = false;
+
+        refreshIfDue(createSessionKeeper(true));
+
+        verify(authenticationManager, never()).refreshSession();
+    }
+
+    @Test
+    public void signedOut() throws Exception {
+        when(authenticationManager.hasAuthenticationCredentials()).thenReturn(false);
+        when(accountDAO.getSessionUpdatedOn()).thenReturn(NOW - LIFETIME_MILLIS);
+
+        refreshIfDue(createSessionKeeper(true));
+
+        verify(authenticationManager, never()).refreshSession();
+    }
+
+    @Test
+    public void disabled() throws Exception {
+        when(accountDAO.getSessionUpdatedOn()).thenReturn(NOW - LIFETIME_MILLIS);
+
+        refreshIfDue(createSessionKeeper(false));
+
+        verify(authenticationManager, never()).refreshSession();
+    }
+
+    @Test
+    public void failedRefreshCanBeRetried() throws Exception {
+        IOException exception = new IOException("network error");
+        when(authenticationManager.refreshSession()).thenThrow(exception);
+        SessionKeeper sessionKeeper = createSessionKeeper(true);
+
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        sessionKeeper.refresh().subscribe(() -> {
+        }, error::set);
+        scheduler.triggerActions();
+        assertEquals(exception, error.get());
+
+        sessionKeeper.refresh().subscribe(() -> {
+        }, t -> {
+        });
+        scheduler.triggerActions();
+        verify(authenticationManager, times(2)).refreshSession();
+    }
+
+    private Throwable refreshIfDue(SessionKeeper sessionKeeper) {
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        sessionKeeper.refreshIfDue().subscribe(() -> {
+        }, error::set);
+        scheduler.triggerActions();
+        return error.get();
+    }
+
+    private SessionKeeper createSessionKeeper(boolean enabled) {
+        return new SessionKeeper(mock(Context.class), authenticationManager, accountDAO, enabled,
+                LIFETIME_MILLIS, REFRESH_AHEAD_MILLIS, JITTER_MILLIS, TimeUnit.HOURS.toMillis(1),
+                scheduler, () -> networkConnected);
+    }
+}
@@ -1,12 +1,28 @@
 package org.sagebionetworks.bridge.android.manager;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+
 import org.joda.time.DateTime;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.sagebionetworks.bridge.android.BridgeConfig;
 import org.sagebionetworks.bridge.android.manager.dao.UploadDAO;
+import org.sagebionetworks.bridge.android.manager.dao.UploadEntity;
+import org.sagebionetworks.bridge.android.manager.dao.UploadEntity.UploadState;
+import org.sagebionetworks.bridge.android.manager.dao.UploadJournalEntity;
 import org.sagebionetworks.bridge.android.manager.upload.S3Service;
+import org.sagebionetworks.bridge.android.manager.upload.S3Transport;
+import org.sagebionetworks.bridge.android.manager.upload.UploadMetrics;
+import org.sagebionetworks.bridge.android.manager.upload.UploadMetrics.UploadPhase;
+import org.sagebionetworks.bridge.android.manager.upload.UploadPriority;
+import org.sagebionetworks.bridge.android.manager.upload.UploadScheduler;
 import org.sagebionetworks.bridge.data.AndroidStudyUploadEncryptor;
 import org.sagebionetworks.bridge.rest.api.ForConsentedUsersApi;
 import org.sagebionetworks.bridge.rest.model.UploadSession;
@@ -14,9 +30,9 @@ import org.sagebionetworks.bridge.rest.model.UploadValidationStatus;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.atomic.AtomicReference;
 
-import okhttp3.OkHttpClient;
 import retrofit2.Call;
 import retrofit2.Response;
 import rx.Completable;
@@ -24,17 +40,26 @@ import rx.Single;
 import rx.schedulers.TestScheduler;
 import rx.subjects.TestSubject;
 
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.longThat;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.sagebionetworks.bridge.rest.model.UploadStatus.DUPLICATE;
 import static org.sagebionetworks.bridge.rest.model.UploadStatus.REQUESTED;
 import static org.sagebionetworks.bridge.rest.model.UploadStatus.SUCCEEDED;
+import static org.sagebionetworks.bridge.rest.model.UploadStatus.VALIDATION_FAILED;
+import static org.sagebionetworks.bridge.rest.model.UploadStatus.VALIDATION_IN_PROGRESS;
 
 /**
  * Created by jyliu on 3/22/2017.
@@ -48,6 +73,9 @@ public class UploadManagerTest {
     private static final String UPLOAD_URL = "url";
     private static final String UPLOAD_MD5 = "hash";
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Mock
     private ForConsentedUsersApi api;
     @Mock
@@ -61,8 +89,13 @@ public class UploadManagerTest {
     @Mock
     private S3Service s3Service;
     @Mock
-    private OkHttpClient okHttpClient;
+    private S3Transport s3Transport;
+    @Mock
+    private BridgeConfig bridgeConfig;
+    @Mock
+    private UploadScheduler uploadScheduler;
 
+    private UploadMetrics uploadMetrics;
     private UploadManager spyUploadManager;
 
     private UploadManager.UploadFile uploadFile;
@@ -77,7 +110,16 @@ public class UploadManagerTest {
         when(authenticationManager.getAuthStateReference()).thenReturn(new AtomicReference<>(
                 new AuthenticationManager.AuthStateHolder(api,null)));
 
-        spyUploadManager = spy(new UploadManager(authenticationManager, studyUploadEncryptor, uploadDAO, okHttpClient));
+        when(bridgeConfig.getUploadMaxConcurrency()).thenReturn(2);
+        when(bridgeConfig.getUploadMaxInFlightBytes()).thenReturn(0L);
+        when(bridgeConfig.getUploadStatusMaxChecksPerRun()).thenReturn(20);
+        when(bridgeConfig.getUploadStatusFailedMaxChecks()).thenReturn(1);
+        when(bridgeConfig.getUploadStatusMaxAgeMillis()).thenReturn(0L);
+
+        uploadMetrics = new UploadMetrics();
+
+        spyUploadManager = spy(new UploadManager(authenticationManager, studyUploadEncryptor, uploadDAO, s3Transport,
+                bridgeConfig, uploadMetrics, uploadScheduler));
 
         uploadFile = new UploadManager.UploadFile();
         uploadFile.filename = FILENAME;
@@ -114,8 +156,149 @@ public class UploadManagerTest {
         scheduler.triggerActions();
     }
 
+    @Test
+    public void getPriorityForLength() {
+        when(bridgeConfig.getUploadPriorityHighMaxBytes()).thenReturn(64 * 1024L);
+        when(bridgeConfig.getUploadPriorityBulkMinBytes()).thenReturn(5 * 1024 * 1024L);
+        UploadManager uploadManager = new UploadManager(authenticationManager, studyUploadEncryptor,
+                uploadDAO, s3Transport, bridgeConfig, uploadMetrics, uploadScheduler);
+
+        assertEquals(UploadPriority.HIGH, uploadManager.getPriorityForLength(1024));
+        assertEquals(UploadPriority.NORMAL, uploadManager.getPriorityForLength(1024 * 1024));
+        assertEquals(UploadPriority.BULK, uploadManager.getPriorityForLength(10 * 1024 * 1024));
+    }
+
+    @Test
+    public void recoverUnfinishedPersists_ResumesWrittenFile() throws Exception {
+        File stagedFile = temporaryFolder.newFile(FILENAME + UploadManager.STAGED_FILE_SUFFIX);
+        Files.asCharSink(stagedFile, StandardCharsets.UTF_8).write("encrypted");
+        File file = new File(temporaryFolder.getRoot(), FILENAME);
+        doReturn(stagedFile).when(spyUploadManager).getFile(stagedFile.getName());
+        doReturn(file).when(spyUploadManager).getFile(FILENAME);
+
+        UploadJournalEntity entity = new UploadJournalEntity();
+        entity.filename = FILENAME;
+        entity.stagedFilename = stagedFile.getName();
+        entity.md5Hash = UPLOAD_MD5;
+        entity.fileLength = stagedFile.length();
+        when(uploadDAO.listUnfinishedPersists()).thenReturn(ImmutableList.of(entity));
+
+        spyUploadManager.recoverUnfinishedPersists();
+        spyUploadManager.recoverUnfinishedPersists();
+
+        assertTrue(file.exists());
+        assertFalse(stagedFile.exists());
+        verify(uploadDAO, times(1)).listUnfinishedPersists();
+        verify(uploadDAO).commitPersist(any());
+        verify(uploadDAO, never()).abortPersist(any());
+    }
+
+    @Test
+    public void recoverUnfinishedPersists_DeletesPartialFile() throws Exception {
+        File stagedFile = temporaryFolder.newFile(FILENAME + UploadManager.STAGED_FILE_SUFFIX);
+        Files.asCharSink(stagedFile, StandardCharsets.UTF_8).write("partial");
+        File file = new File(temporaryFolder.getRoot(), FILENAME);
+        doReturn(stagedFile).when(spyUploadManager).getFile(stagedFile.getName());
+        doReturn(file).when(spyUploadManager).getFile(FILENAME);
+
+        // the process died before the staged file was synced
+        UploadJournalEntity entity = new UploadJournalEntity();
+        entity.filename = FILENAME;
+        entity.stagedFilename = stagedFile.getName();
+        when(uploadDAO.listUnfinishedPersists()).thenReturn(ImmutableList.of(entity));
+
+        spyUploadManager.recoverUnfinishedPersists();
+
+        assertFalse(file.exists());
+        assertFalse(stagedFile.exists());
+        verify(uploadDAO).abortPersist(FILENAME);
+        verify(uploadDAO, never()).commitPersist(any());
+    }
+
+    @Test
+    public void prefetchUploadSessions() {
+        when(bridgeConfig.getUploadSessionPrefetchCount()).thenReturn(2);
+        UploadManager uploadManager = spy(new UploadManager(authenticationManager,
+                studyUploadEncryptor, uploadDAO, s3Transport, bridgeConfig, uploadMetrics,
+                uploadScheduler));
+        doReturn(Single.never()).when(uploadManager).getUploadSession(any());
+
+        when(uploadDAO.getUploadEntity("queued.zip")).thenReturn(
+                createUploadEntity("queued.zip", UploadState.QUEUED));
+        when(uploadDAO.getUploadEntity("expiring.zip")).thenReturn(
+                createUploadEntity("expiring.zip", UploadState.SESSION_ACQUIRED));
+        when(uploadSession.getExpires()).thenReturn(DateTime.now().plusMinutes(1));
+        when(uploadDAO.getUploadSession("expiring.zip")).thenReturn(uploadSession);
+        when(uploadDAO.getUploadEntity("uploaded.zip")).thenReturn(
+                createUploadEntity("uploaded.zip", UploadState.UPLOADED));
+
+        uploadManager.prefetchUploadSessions(
+                Lists.newArrayList("queued.zip", "uploaded.zip", "expiring.zip"));
+
+        verify(uploadManager, times(2)).getUploadSession(any());
+    }
+
+    @Test
+    public void prefetchUploadSessions_SkipsUsedSessions() {
+        when(bridgeConfig.getUploadSessionPrefetchCount()).thenReturn(2);
+        UploadManager uploadManager = spy(new UploadManager(authenticationManager,
+                studyUploadEncryptor, uploadDAO, s3Transport, bridgeConfig, uploadMetrics,
+                uploadScheduler));
+        doReturn(Single.never()).when(uploadManager).getUploadSession(any());
+
+        // e.g. a session migrated from SharedPreferences
+        UploadEntity uploadEntity = createUploadEntity("migrated.zip",
+                UploadState.SESSION_ACQUIRED);
+        uploadEntity.attemptCount = 1;
+        when(uploadDAO.getUploadEntity("migrated.zip")).thenReturn(uploadEntity);
+        when(uploadSession.getExpires()).thenReturn(DateTime.now().plusMinutes(1));
+        when(uploadDAO.getUploadSession("migrated.zip")).thenReturn(uploadSession);
+
+        uploadManager.prefetchUploadSessions(Lists.newArrayList("migrated.zip"));
+
+        verify(uploadManager, never()).getUploadSession(any());
+    }
+
+    @Test
+    public void testProcessUploadFiles_FailureIsIsolated() throws Exception {
+        when(uploadDAO.listUploadFilenamesDueForStatusCheck(anyLong(), anyInt(), anyLong(), anyLong())).thenReturn(Sets.newLinkedHashSet(
+                Lists.newArrayList("failing.zip", FILENAME)));
+        doReturn(Completable.error(new IOException("failed"))).when(spyUploadManager)
+                .processQueuedUploadFile("failing.zip");
+        doReturn(Completable.complete()).when(spyUploadManager).processQueuedUploadFile(FILENAME);
+
+        Completable completable = spyUploadManager.processUploadFiles();
+        completable.test().awaitTerminalEvent().assertCompleted();
+
+        verify(spyUploadManager).processQueuedUploadFile("failing.zip");
+        verify(spyUploadManager).processQueuedUploadFile(FILENAME);
+    }
+
+    @Test
+    public void testProcessQueuedUploadFile_NoLongerQueued() throws Exception {
+        when(uploadDAO.getUploadFile(FILENAME)).thenReturn(null);
+
+        Completable completable = spyUploadManager.processQueuedUploadFile(FILENAME);
+        completable.test().awaitTerminalEvent().assertCompleted();
+
+        verify(spyUploadManager, never()).processUploadForCachedSession(any(), any());
+    }
+
+    @Test
+    public void testProcessUploadFile_NoLongerQueued() throws Exception {
+        // e.g. a duplicate archive whose original was already uploaded
+        when(uploadDAO.getUploadFile(FILENAME)).thenReturn(null);
+
+        Completable completable = spyUploadManager.processUploadFile(uploadFile);
+        completable.test().awaitTerminalEvent().assertCompleted();
+
+        verify(uploadDAO, never()).getUploadSession(FILENAME);
+        verify(spyUploadManager, never()).processUploadForCachedSession(any(), any());
+    }
+
     @Test
     public void testProcessUploadFile_NoCachedSession() throws Exception {
+        when(uploadDAO.getUploadFile(FILENAME)).thenReturn(uploadFile);
         when(uploadDAO.getUploadSession(FILENAME)).thenReturn(null);
         doReturn(Completable.complete()).when(spyUploadManager).processUploadForCachedSession(uploadFile, null);
 
@@ -128,6 +311,7 @@ public class UploadManagerTest {
 
     @Test
     public void testProcessUploadFile_HasCachedSession() throws Exception {
+        when(uploadDAO.getUploadFile(FILENAME)).thenReturn(uploadFile);
         when(uploadDAO.getUploadSession(FILENAME)).thenReturn(uploadSession);
         doReturn(Completable.complete()).when(spyUploadManager).processUploadForCachedSession(uploadFile, uploadSession);
 
@@ -195,6 +379,8 @@ public class UploadManagerTest {
     @Test
     public void testProcessUploadForValidationStatus_Requested() {
         when(uploadValidationStatus.getStatus()).thenReturn(REQUESTED);
+        doReturn(archive).when(spyUploadManager).getFile(FILENAME);
+        when(archive.exists()).thenReturn(true);
 
         doReturn(Completable.complete()).when(spyUploadManager).uploadToS3(uploadFile, uploadSession);
 
@@ -205,6 +391,119 @@ public class UploadManagerTest {
         verify(spyUploadManager).uploadToS3(uploadFile, uploadSession);
     }
 
+    @Test
+    public void testProcessUploadForValidationStatus_RequestedCompactedCompletesSession()
+            throws IOException {
+        when(uploadValidationStatus.getStatus()).thenReturn(REQUESTED);
+        doReturn(archive).when(spyUploadManager).getFile(FILENAME);
+        when(archive.exists()).thenReturn(false);
+        UploadEntity uploadEntity = createUploadEntity(FILENAME, UploadState.UPLOADED);
+        uploadEntity.createdOn = System.currentTimeMillis();
+        when(uploadDAO.getUploadEntity(FILENAME)).thenReturn(uploadEntity);
+
+        Call completeCall = mock(Call.class);
+        when(completeCall.clone()).thenReturn(completeCall);
+        when(completeCall.execute()).thenReturn(Response.success(null));
+        doReturn(completeCall).when(api).completeUploadSession(eq(UPLOAD_ID), any(), any());
+
+        Completable completable = spyUploadManager
+                .processUploadForValidationStatus(uploadFile, uploadSession, uploadValidationStatus);
+        completable.test().awaitTerminalEvent().assertCompleted();
+
+        verify(api).completeUploadSession(UPLOAD_ID, false, false);
+        verify(spyUploadManager, never()).uploadToS3(any(), any());
+        verify(spyUploadManager, never()).dequeueUpload(FILENAME);
+        // backs off like any other upload staying queued
+        verify(uploadDAO).scheduleStatusCheck(eq(FILENAME), longThat(next -> next > uploadEntity.createdOn));
+    }
+
+    @Test
+    public void testProcessUploadForValidationStatus_RequestedMissingFileIsDequeued() {
+        when(uploadValidationStatus.getStatus()).thenReturn(REQUESTED);
+        doReturn(archive).when(spyUploadManager).getFile(FILENAME);
+        when(archive.exists()).thenReturn(false);
+        when(uploadDAO.getUploadEntity(FILENAME))
+                .thenReturn(createUploadEntity(FILENAME, UploadState.SESSION_ACQUIRED));
+        doReturn(Completable.complete()).when(spyUploadManager).dequeueUpload(FILENAME);
+
+        Completable completable = spyUploadManager
+                .processUploadForValidationStatus(uploadFile, uploadSession, uploadValidationStatus);
+        completable.test().awaitTerminalEvent().assertCompleted();
+
+        verify(spyUploadManager).dequeueUpload(FILENAME);
+        verify(spyUploadManager, never()).uploadToS3(any(), any());
+    }
+
+    @Test
+    public void testProcessUploadForValidationStatus_InProgressDefersStatusCheck() {
+        when(uploadValidationStatus.getStatus()).thenReturn(VALIDATION_IN_PROGRESS);
+        UploadEntity uploadEntity = new UploadEntity();
+        uploadEntity.filename = FILENAME;
+        uploadEntity.createdOn = System.currentTimeMillis();
+        when(uploadDAO.getUploadEntity(FILENAME)).thenReturn(uploadEntity);
+
+        Completable completable = spyUploadManager
+                .processUploadForValidationStatus(uploadFile, uploadSession, uploadValidationStatus);
+        completable.test().awaitTerminalEvent().assertCompleted();
+
+        verify(uploadDAO).updateUploadState(FILENAME, UploadState.VALIDATING);
+        verify(uploadDAO).scheduleStatusCheck(eq(FILENAME), longThat(next -> next > uploadEntity.createdOn));
+        verify(spyUploadManager, never()).dequeueUpload(FILENAME);
+    }
+
+    @Test
+    public void testProcessUploadForValidationStatus_FailedIsRetired() {
+        when(uploadValidationStatus.getStatus()).thenReturn(VALIDATION_FAILED);
+        UploadEntity uploadEntity = new UploadEntity();
+        uploadEntity.filename = FILENAME;
+        uploadEntity.createdOn = System.currentTimeMillis();
+        // config retires uploads after a single failed check
+        when(uploadDAO.getUploadEntity(FILENAME)).thenReturn(uploadEntity);
+        doReturn(Completable.complete()).when(spyUploadManager).dequeueUpload(FILENAME);
+
+        Completable completable = spyUploadManager
+                .processUploadForValidationStatus(uploadFile, uploadSession, uploadValidationStatus);
+        completable.test().awaitTerminalEvent().assertCompleted();
+
+        verify(spyUploadManager).dequeueUpload(FILENAME);
+        verify(uploadDAO, never()).scheduleStatusCheck(any(), anyLong());
+    }
+
+    @Test
+    public void testReconcileQueuedUpload_FailedBelowMaxIsCounted() {
+        when(bridgeConfig.getUploadStatusFailedMaxChecks()).thenReturn(2);
+        UploadManager uploadManager = spy(new UploadManager(authenticationManager,
+                studyUploadEncryptor, uploadDAO, s3Transport, bridgeConfig, uploadMetrics,
+                uploadScheduler));
+        UploadEntity uploadEntity = new UploadEntity();
+        uploadEntity.filename = FILENAME;
+        uploadEntity.createdOn = System.currentTimeMillis();
+        // earlier checks found validation in progress
+        uploadEntity.statusCheckCount = 5;
+        when(uploadDAO.getUploadEntity(FILENAME)).thenReturn(uploadEntity);
+
+        uploadManager.reconcileQueuedUpload(FILENAME, VALIDATION_FAILED).test()
+                .awaitTerminalEvent().assertCompleted();
+
+        verify(uploadDAO).recordFailedValidation(FILENAME);
+        verify(uploadDAO).scheduleStatusCheck(eq(FILENAME), anyLong());
+        verify(uploadManager, never()).dequeueUpload(FILENAME);
+    }
+
+    @Test
+    public void dequeueUpload_ForgetsUploadMetrics() throws Exception {
+        File file = temporaryFolder.newFile(FILENAME);
+        doReturn(file).when(spyUploadManager).getFile(FILENAME);
+        uploadMetrics.markUploaded(FILENAME);
+
+        spyUploadManager.dequeueUpload(FILENAME).test().awaitTerminalEvent().assertCompleted();
+
+        verify(uploadDAO).removeUploadAndSession(FILENAME);
+        uploadMetrics.recordValidationFinished(FILENAME, true);
+        assertEquals(0, uploadMetrics.getSnapshot().getPhaseStats(UploadPhase.VALIDATION)
+                .getSuccessCount());
+    }
+
     @Test
     public void testUploadToS3_ExpiredSession() throws IOException {
         when(uploadSession.getExpires()).thenReturn(DateTime.now());
@@ -231,5 +530,16 @@ public class UploadManagerTest {
         verify(spyUploadManager).getS3Service(freshSession);
         verify(s3Service).uploadToS3(eq(UPLOAD_URL), any(), eq(UPLOAD_MD5), any());
         verify(api).completeUploadSession(UPLOAD_ID, false,false);
+
+        UploadMetrics.Snapshot snapshot = uploadMetrics.getSnapshot();
+        assertEquals(1, snapshot.getPhaseStats(UploadPhase.S3_PUT).getSuccessCount());
+        assertEquals(0, snapshot.getPhaseStats(UploadPhase.S3_PUT).getFailureCount());
+    }
+
+    private static UploadEntity createUploadEntity(String filename, UploadState state) {
+        UploadEntity uploadEntity = new UploadEntity();
+        uploadEntity.filename = filename;
+        uploadEntity.state = state;
+        return uploadEntity;
     }
-}
\ No newline at end of file
+}
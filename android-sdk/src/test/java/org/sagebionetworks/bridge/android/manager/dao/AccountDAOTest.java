@@ -18,10 +18,14 @@
 package org.sagebionetworks.bridge.android.manager.dao;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import android.content.Context;
+
 import com.google.common.collect.Lists;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 
 import org.junit.Before;
@@ -31,6 +35,7 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 import org.sagebionetworks.bridge.rest.RestUtils;
+import org.sagebionetworks.bridge.rest.model.StudyParticipant;
 import org.sagebionetworks.bridge.rest.model.UserSessionInfo;
 
 @Config
@@ -94,6 +99,26 @@ public class AccountDAOTest {
         assertEquals(newReauthToken, retrievedUserSessionInfo.getReauthToken()); // check we wrote a new reauth token
     }
 
+    @Test
+    public void gettersReturnNewInstances() {
+        JsonObject session = (JsonObject) RestUtils.GSON.toJsonTree(
+                createUserSessionInfo("sessionToken", "reauthToken"));
+        JsonArray dataGroups = new JsonArray();
+        dataGroups.add("group");
+        session.add("dataGroups", dataGroups);
+        accountDAO.setUserSessionInfo(RestUtils.toType(session, UserSessionInfo.class));
+        accountDAO.setStudyParticipant(new StudyParticipant().firstName("first"));
+
+        // callers modifying what they read do not change what others read
+        accountDAO.getUserSessionInfo().getDataGroups().add("modified");
+        accountDAO.getStudyParticipant().setFirstName("modified");
+        accountDAO.getDataGroups().add("modified");
+
+        assertFalse(accountDAO.getUserSessionInfo().getDataGroups().contains("modified"));
+        assertEquals("first", accountDAO.getStudyParticipant().getFirstName());
+        assertFalse(accountDAO.getDataGroups().contains("modified"));
+    }
+
     private static UserSessionInfo createUserSessionInfo(String sessionToken, String reauthToken) {
         JsonObject o = (JsonObject) RestUtils.GSON.toJsonTree(new UserSessionInfo());
         if (sessionToken != null) {
@@ -129,4 +154,79 @@ public class AccountDAOTest {
         accountDAO.setPassword(null);
         assertNull(accountDAO.getPassword());
     }
+
+    @Test
+    public void testEditor() {
+        JsonObject session = (JsonObject) RestUtils.GSON.toJsonTree(
+                createUserSessionInfo("sessionToken", "reauthToken"));
+        JsonArray dataGroups = new JsonArray();
+        dataGroups.add("group");
+        session.add("dataGroups", dataGroups);
+        accountDAO.setUserSessionInfo(RestUtils.toType(session, UserSessionInfo.class));
+
+        accountDAO.edit()
+                .setEmail("email@example.com")
+                .setPassword("password")
+                .setExternalId("externalId")
+                .setPhoneRegion("US")
+                .setPhoneNumber("206-555-1234")
+                .setUserSessionInfo(createUserSessionInfo("newSessionToken", null))
+                .setStudyParticipant(new StudyParticipant().email("email@example.com"))
+                .apply();
+
+        assertEquals("email@example.com", accountDAO.getEmail());
+        assertEquals("password", accountDAO.getPassword());
+        assertEquals("externalId", accountDAO.getExternalId());
+        assertEquals("US", accountDAO.getPhoneRegion());
+        assertEquals("206-555-1234", accountDAO.getPhoneNumber());
+        assertEquals("email@example.com", accountDAO.getStudyParticipant().getEmail());
+        assertEquals("newSessionToken", accountDAO.getUserSessionInfo().getSessionToken());
+        // reauth token is kept, as with setUserSessionInfo
+        assertEquals("reauthToken", accountDAO.getUserSessionInfo().getReauthToken());
+    }
+
+    @Test
+    public void testSessionUpdatedOn() {
+        assertNull(accountDAO.getSessionUpdatedOn());
+
+        long before = System.currentTimeMillis();
+        JsonObject session = (JsonObject) RestUtils.GSON.toJsonTree(
+                createUserSessionInfo("sessionToken", "reauthToken"));
+        JsonArray dataGroups = new JsonArray();
+        dataGroups.add("group");
+        session.add("dataGroups", dataGroups);
+        accountDAO.setUserSessionInfo(RestUtils.toType(session, UserSessionInfo.class));
+        Long updatedOn = accountDAO.getSessionUpdatedOn();
+        assertTrue(updatedOn >= before && updatedOn <= System.currentTimeMillis());
+
+        accountDAO.edit()
+                .setUserSessionInfo(createUserSessionInfo("newSessionToken", null))
+                .apply();
+        assertTrue(accountDAO.getSessionUpdatedOn() >= updatedOn);
+
+        accountDAO.clear();
+        assertNull(accountDAO.getSessionUpdatedOn());
+    }
+
+    @Test
+    public void testSessionUpdatedOn_StampedOnFirstRead() {
+        accountDAO.setUserSessionInfo(createUserSessionInfo("sessionToken", "reauthToken"));
+        // as saved by an earlier version, which did not store the time
+        RuntimeEnvironment.application.getSharedPreferences("accounts", Context.MODE_PRIVATE)
+                .edit().remove("sessionUpdatedOn").commit();
+
+        long before = System.currentTimeMillis();
+        Long updatedOn = accountDAO.getSessionUpdatedOn();
+        assertTrue(updatedOn >= before && updatedOn <= System.currentTimeMillis());
+        assertEquals(updatedOn, accountDAO.getSessionUpdatedOn());
+        assertEquals(updatedOn, new AccountDAO(RuntimeEnvironment.application)
+                .getSessionUpdatedOn());
+    }
+
+    @Test
+    public void testEditorNotAppliedIsNotSaved() {
+        accountDAO.edit().setEmail("email@example.com");
+
+        assertNull(accountDAO.getEmail());
+    }
 }
@@ -0,0 +1,173 @@
+package org.sagebionetworks.bridge.android.manager.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.sagebionetworks.bridge.rest.RestUtils;
+import org.sagebionetworks.bridge.rest.model.ScheduledActivity;
+
+import java.util.List;
+import java.util.Map;
+
+@Config
+@RunWith(RobolectricTestRunner.class)
+public class ActivityListDAOTest {
+    private static final String PREFERENCES_FILE = "test-activity-list";
+
+    private ActivityListDAO activityListDAO;
+
+    @Before
+    public void setup() {
+        activityListDAO = new ActivityListDAO(RuntimeEnvironment.application, PREFERENCES_FILE);
+        activityListDAO.clear();
+    }
+
+    @Test
+    public void updateAndGet() {
+        assertFalse(activityListDAO.hasActivityList());
+        assertNull(activityListDAO.getActivityList());
+
+        activityListDAO.updateActivityList(ImmutableList.of(activity("b"), activity("a")));
+
+        assertTrue(activityListDAO.hasActivityList());
+        assertEquals("a", activityListDAO.getActivity("a").getGuid());
+        assertNull(activityListDAO.getActivity("c"));
+        assertEquals(Lists.newArrayList("a", "b"), guids(activityListDAO.getActivityList()));
+    }
+
+    @Test
+    public void updateReplacesOnlyGivenActivities() {
+        activityListDAO.updateActivityList(ImmutableList.of(activity("a"), activity("b")));
+
+        ScheduledActivity updated = activity("a");
+        DateTime finishedOn = DateTime.parse("2018-06-01T12:00:00.000Z");
+        updated.setFinishedOn(finishedOn);
+        activityListDAO.updateActivity(updated);
+
+        assertEquals(finishedOn.getMillis(),
+                activityListDAO.getActivity("a").getFinishedOn().getMillis());
+        assertEquals(Lists.newArrayList("a", "b"), guids(activityListDAO.getActivityList()));
+    }
+
+    @Test
+    public void getActivityReturnsNewInstance() {
+        activityListDAO.updateActivity(activity("a"));
+
+        assertNotSame(activityListDAO.getActivity("a"), activityListDAO.getActivity("a"));
+    }
+
+    @Test
+    public void getActivityListReturnsNewInstances() {
+        activityListDAO.updateActivity(activity("a"));
+
+        activityListDAO.getActivityList().get(0).setFinishedOn(DateTime.now());
+
+        assertNull(activityListDAO.getActivityList().get(0).getFinishedOn());
+        assertNull(activityListDAO.getActivity("a").getFinishedOn());
+    }
+
+    @Test
+    public void metricsAreCountedForAllActivities() {
+        activityListDAO.updateActivityList(ImmutableList.of(activity("a"), activity("b")));
+        DaoMetrics.reset();
+
+        activityListDAO.getActivity("a");
+        activityListDAO.getActivity("b");
+
+        Map<String, DaoMetrics.KeyStats> keyStats =
+                DaoMetrics.getSnapshot().getKeyStats("ActivityListDAO");
+        assertEquals(ImmutableSet.of("ACTIVITY_*"), keyStats.keySet());
+        assertEquals(2, keyStats.get("ACTIVITY_*").getReadCount());
+    }
+
+    @Test
+    public void removeActivity() {
+        activityListDAO.updateActivityList(ImmutableList.of(activity("a"), activity("b")));
+
+        activityListDAO.removeActivity(activity("a"));
+
+        assertNull(activityListDAO.getActivity("a"));
+        assertEquals(Lists.newArrayList("b"), guids(activityListDAO.getActivityList()));
+    }
+
+    @Test
+    public void cacheActivityListReplacesAll() {
+        activityListDAO.updateActivityList(ImmutableList.of(activity("a"), activity("b")));
+
+        activityListDAO.cacheActivityList(Lists.newArrayList(activity("c")));
+
+        assertEquals(Lists.newArrayList("c"), guids(activityListDAO.getActivityList()));
+    }
+
+    @Test
+    public void migratesActivityList() {
+        SharedPreferences sharedPreferences = RuntimeEnvironment.application
+                .getSharedPreferences(PREFERENCES_FILE, Context.MODE_PRIVATE);
+        sharedPreferences.edit().putString("ACTIVITIES",
+                RestUtils.GSON.toJson(ImmutableList.of(activity("a"), activity("b")))).commit();
+
+        ActivityListDAO migratedDAO =
+                new ActivityListDAO(RuntimeEnvironment.application, PREFERENCES_FILE);
+        assertTrue(migratedDAO.hasActivityList());
+        assertEquals("b", migratedDAO.getActivity("b").getGuid());
+
+        assertFalse(sharedPreferences.contains("ACTIVITIES"));
+        assertTrue(sharedPreferences.contains(ActivityListDAO.ACTIVITY_KEY_PREFIX + "a"));
+        assertEquals(Lists.newArrayList("a", "b"), guids(migratedDAO.getActivityList()));
+    }
+
+    @Test
+    public void migratesEmptyActivityList() {
+        assertMigratedEmpty("[]");
+    }
+
+    @Test
+    public void migratesNullActivityList() {
+        assertMigratedEmpty("null");
+    }
+
+    private static void assertMigratedEmpty(String legacyActivities) {
+        SharedPreferences sharedPreferences = RuntimeEnvironment.application
+                .getSharedPreferences(PREFERENCES_FILE, Context.MODE_PRIVATE);
+        sharedPreferences.edit().putString("ACTIVITIES", legacyActivities).commit();
+
+        ActivityListDAO migratedDAO =
+                new ActivityListDAO(RuntimeEnvironment.application, PREFERENCES_FILE);
+        assertTrue(migratedDAO.getActivityList().isEmpty());
+
+        // still cached once the legacy list is gone
+        assertFalse(sharedPreferences.contains("ACTIVITIES"));
+        assertTrue(migratedDAO.hasActivityList());
+    }
+
+    private static ScheduledActivity activity(String guid) {
+        ScheduledActivity activity = new ScheduledActivity();
+        activity.setGuid(guid);
+        return activity;
+    }
+
+    private static List<String> guids(List<ScheduledActivity> activities) {
+        List<String> guids = Lists.newArrayList();
+        for (ScheduledActivity activity : activities) {
+            guids.add(activity.getGuid());
+        }
+        return guids;
+    }
+}
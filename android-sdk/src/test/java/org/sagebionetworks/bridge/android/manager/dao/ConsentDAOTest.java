@@ -11,6 +11,8 @@ import org.sagebionetworks.bridge.android.BuildConfig;
 import org.sagebionetworks.bridge.rest.model.ConsentSignature;
 
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
@@ -71,4 +73,23 @@ public class ConsentDAOTest {
 
         assertEquals(1, consentDAO.listConsents().size());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void putAndRemoveConsents() {
+        ConsentSignature consent1 = new ConsentSignature().imageData("image1");
+        ConsentSignature consent2 = new ConsentSignature().imageData("image2");
+        Map<String, ConsentSignature> consents = new HashMap<>();
+        consents.put("subpop1", consent1);
+        consents.put("subpop2", consent2);
+
+        consentDAO.putConsents(consents);
+
+        assertEquals(consent1, consentDAO.getConsent("subpop1"));
+        assertEquals(consent2, consentDAO.getConsent("subpop2"));
+
+        consentDAO.removeConsents(Arrays.asList("subpop1", "subpop2"));
+
+        assertTrue(consentDAO.listConsents().isEmpty());
+        assertNull(consentDAO.getConsent("subpop1"));
+    }
+}
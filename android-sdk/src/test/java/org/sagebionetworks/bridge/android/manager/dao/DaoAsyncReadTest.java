@@ -0,0 +1,83 @@
+package org.sagebionetworks.bridge.android.manager.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.sagebionetworks.bridge.rest.model.ConsentSignature;
+import org.sagebionetworks.bridge.rest.model.ScheduledActivity;
+import org.sagebionetworks.bridge.rest.model.StudyParticipant;
+
+import java.util.List;
+
+@Config
+@RunWith(RobolectricTestRunner.class)
+public class DaoAsyncReadTest {
+    @Rule
+    public MainThreadDaoReadRule mainThreadDaoReadRule = new MainThreadDaoReadRule();
+
+    private AccountDAO accountDAO;
+    private ConsentDAO consentDAO;
+    private ActivityListDAO activityListDAO;
+
+    @Before
+    public void setup() {
+        accountDAO = new AccountDAO(RuntimeEnvironment.application);
+        consentDAO = new ConsentDAO(RuntimeEnvironment.application);
+        activityListDAO = new ActivityListDAO(RuntimeEnvironment.application, "test-async");
+        accountDAO.clear();
+        consentDAO.clear();
+        activityListDAO.clear();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void mainThreadReadFails() {
+        accountDAO.getEmail();
+    }
+
+    @Test
+    public void readsOnDiskThread() {
+        accountDAO.setStudyParticipant(new StudyParticipant().email("email@example.com"));
+        consentDAO.putConsent("subpop", new ConsentSignature().imageData("image"));
+        ScheduledActivity activity = new ScheduledActivity();
+        activity.setGuid("guid");
+        activityListDAO.updateActivity(activity);
+
+        assertEquals("email@example.com",
+                accountDAO.getStudyParticipantAsync().toBlocking().single().getEmail());
+        assertEquals("image",
+                consentDAO.getConsentAsync("subpop").toBlocking().single().getImageData());
+        assertEquals("guid", activityListDAO.getActivityAsync("guid").toBlocking().single()
+                .getGuid());
+        List<ScheduledActivity> activityList =
+                activityListDAO.getActivityListAsync().toBlocking().single();
+        assertEquals(1, activityList.size());
+    }
+
+    @Test
+    public void missingValueCompletesEmpty() {
+        assertNull(accountDAO.getUserSessionInfoAsync().toBlocking().singleOrDefault(null));
+        assertTrue(activityListDAO.getActivityListAsync().toList().toBlocking().single()
+                .isEmpty());
+    }
+
+    @Test
+    public void readsOffCallingThread() {
+        accountDAO.setStudyParticipant(new StudyParticipant().email("email@example.com"));
+
+        Thread readThread = accountDAO.getStudyParticipantAsync()
+                .map(participant -> Thread.currentThread())
+                .toBlocking().single();
+
+        assertNotEquals(Thread.currentThread(), readThread);
+        assertTrue(readThread.getName().startsWith("bridge-dao-disk"));
+    }
+}
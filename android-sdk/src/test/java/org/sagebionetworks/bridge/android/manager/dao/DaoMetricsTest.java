@@ -0,0 +1,92 @@
+package org.sagebionetworks.bridge.android.manager.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.sagebionetworks.bridge.android.manager.dao.DaoMetrics.DaoMetricsSink;
+import org.sagebionetworks.bridge.android.manager.dao.DaoMetrics.KeyStats;
+import org.sagebionetworks.bridge.android.manager.dao.DaoMetrics.Operation;
+import org.sagebionetworks.bridge.android.manager.dao.DaoMetrics.OperationRecord;
+
+public class DaoMetricsTest {
+    private DaoMetricsSink sink;
+
+    @Before
+    public void setup() {
+        DaoMetrics.reset();
+        sink = mock(DaoMetricsSink.class);
+    }
+
+    @After
+    public void teardown() {
+        DaoMetrics.removeSink(sink);
+        DaoMetrics.reset();
+    }
+
+    @Test
+    public void record() {
+        DaoMetrics.record("AccountDAO", "session", Operation.WRITE, 100, 2000, false);
+        DaoMetrics.record("AccountDAO", "session", Operation.READ, 100, 1000, false);
+        DaoMetrics.record("AccountDAO", "session", Operation.READ, 100, 10, true);
+        DaoMetrics.record("AccountDAO", "email", Operation.REMOVE, 0, 500, false);
+
+        DaoMetrics.Snapshot snapshot = DaoMetrics.getSnapshot();
+        KeyStats stats = snapshot.getKeyStats("AccountDAO", "session");
+        assertEquals(1, stats.getWriteCount());
+        assertEquals(100, stats.getWriteLength());
+        assertEquals(2000, stats.getWriteNanos());
+        assertEquals(2, stats.getReadCount());
+        assertEquals(200, stats.getReadLength());
+        assertEquals(1010, stats.getReadNanos());
+        assertEquals(0.5, stats.getCacheHitRate(), 0.001);
+
+        KeyStats daoStats = snapshot.getDaoStats("AccountDAO");
+        assertEquals(1, daoStats.getRemoveCount());
+        assertEquals(2500, daoStats.getWriteNanos());
+        assertEquals(2, snapshot.getKeyStats("AccountDAO").size());
+
+        assertNull(snapshot.getKeyStats("ConsentDAO", "session"));
+        assertTrue(snapshot.getKeyStats("ConsentDAO").isEmpty());
+    }
+
+    @Test
+    public void snapshotIsACopy() {
+        DaoMetrics.record("AccountDAO", "session", Operation.READ, 100, 1000, false);
+        DaoMetrics.Snapshot snapshot = DaoMetrics.getSnapshot();
+
+        DaoMetrics.record("AccountDAO", "session", Operation.READ, 100, 1000, false);
+
+        assertEquals(1, snapshot.getKeyStats("AccountDAO", "session").getReadCount());
+        assertEquals(2, DaoMetrics.getSnapshot().getKeyStats("AccountDAO", "session")
+                .getReadCount());
+    }
+
+    @Test
+    public void sink() {
+        DaoMetrics.addSink(sink);
+
+        DaoMetrics.record("AccountDAO", "session", Operation.READ, 100, 1000, true);
+
+        ArgumentCaptor<OperationRecord> captor = ArgumentCaptor.forClass(OperationRecord.class);
+        verify(sink).onOperationRecorded(captor.capture());
+        OperationRecord operationRecord = captor.getValue();
+        assertEquals("AccountDAO", operationRecord.getDaoName());
+        assertEquals("session", operationRecord.getKey());
+        assertEquals(Operation.READ, operationRecord.getOperation());
+        assertEquals(100, operationRecord.getLength());
+        assertEquals(1000, operationRecord.getNanos());
+        assertTrue(operationRecord.isCacheHit());
+
+        DaoMetrics.removeSink(sink);
+        DaoMetrics.record("AccountDAO", "session", Operation.READ, 100, 1000, true);
+        verifyNoMoreInteractions(sink);
+    }
+}
@@ -0,0 +1,193 @@
+package org.sagebionetworks.bridge.android.manager.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.Lists;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.reflect.TypeToken;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.sagebionetworks.bridge.rest.RestUtils;
+import org.sagebionetworks.bridge.rest.model.ScheduledActivity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+public class JsonStreamsTest {
+    private static final Logger LOG = LoggerFactory.getLogger(JsonStreamsTest.class);
+
+    private static final TypeToken<List<ScheduledActivity>> ACTIVITY_LIST_TYPE =
+            new TypeToken<List<ScheduledActivity>>(){};
+
+    @Test
+    public void roundTrip() throws Exception {
+        List<ScheduledActivity> activities = createActivities(20);
+
+        StringWriter writer = new StringWriter();
+        JsonStreams.writeArray(RestUtils.GSON, writer, activities.iterator(),
+                ScheduledActivity.class);
+
+        // same JSON as encoding the whole list
+        assertEquals(RestUtils.GSON.toJson(activities, ACTIVITY_LIST_TYPE.getType()),
+                writer.toString());
+
+        List<ScheduledActivity> decoded = Lists.newArrayList(JsonStreams.iterateArray(
+                RestUtils.GSON, new StringReader(writer.toString()), ScheduledActivity.class));
+        assertEquals(activities, decoded);
+    }
+
+    @Test
+    public void emptyAndNullDocuments() {
+        assertFalse(JsonStreams.iterateArray(RestUtils.GSON, new StringReader(""),
+                ScheduledActivity.class).hasNext());
+        assertFalse(JsonStreams.iterateArray(RestUtils.GSON, new StringReader("null"),
+                ScheduledActivity.class).hasNext());
+        assertFalse(JsonStreams.iterateArray(RestUtils.GSON, new StringReader("[]"),
+                ScheduledActivity.class).hasNext());
+    }
+
+    @Test
+    public void stopsEarly() {
+        // the array is cut off after the second element, which is only an error if it is read
+        String json = "[{\"guid\":\"guid-0\"},{\"guid\":\"guid-1\"},{\"guid\":";
+
+        JsonStreams.ArrayIterator<ScheduledActivity> iterator = JsonStreams.iterateArray(
+                RestUtils.GSON, new StringReader(json), ScheduledActivity.class);
+        assertEquals("guid-0", iterator.next().getGuid());
+        assertEquals("guid-1", iterator.next().getGuid());
+        iterator.close();
+
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void invalidJson() {
+        JsonStreams.ArrayIterator<ScheduledActivity> iterator = JsonStreams.iterateArray(
+                RestUtils.GSON, new StringReader("[{\"guid\":\"guid-0\"},{"),
+                ScheduledActivity.class);
+        assertEquals("guid-0", iterator.next().getGuid());
+        try {
+            iterator.next();
+            fail("expected JsonSyntaxException");
+        } catch (JsonSyntaxException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Compares allocations of decoding the whole list, as the DAOs did, with streaming, for
+     * finding an activity near the start and for going through every activity. Run manually,
+     * allocations are logged.
+     */
+    @Ignore("benchmark")
+    @Test
+    public void benchmark() throws Exception {
+        List<ScheduledActivity> activities = createActivities(5000);
+        String json = RestUtils.GSON.toJson(activities, ACTIVITY_LIST_TYPE.getType());
+        String guid = "guid-10";
+
+        // warm up Gson's type adapters
+        findInList(json, guid);
+        findStreaming(json, guid);
+
+        long listFindBytes = allocatedBytes();
+        assertEquals(guid, findInList(json, guid).getGuid());
+        listFindBytes = allocatedBytes() - listFindBytes;
+
+        long streamingFindBytes = allocatedBytes();
+        assertEquals(guid, findStreaming(json, guid).getGuid());
+        streamingFindBytes = allocatedBytes() - streamingFindBytes;
+
+        long listAllBytes = allocatedBytes();
+        assertEquals(activities.size(), countInList(json));
+        listAllBytes = allocatedBytes() - listAllBytes;
+
+        long streamingAllBytes = allocatedBytes();
+        assertEquals(activities.size(), countStreaming(json));
+        streamingAllBytes = allocatedBytes() - streamingAllBytes;
+
+        LOG.info("Find first: list {} bytes, streaming {} bytes. Iterate all: list {} bytes, "
+                        + "streaming {} bytes", listFindBytes, streamingFindBytes, listAllBytes,
+                streamingAllBytes);
+        if (listFindBytes > 0) {
+            // allocations are only measured on JVMs which support it
+            assertTrue(streamingFindBytes < listFindBytes);
+        }
+    }
+
+    private static ScheduledActivity findInList(String json, String guid) {
+        List<ScheduledActivity> activities =
+                RestUtils.GSON.fromJson(json, ACTIVITY_LIST_TYPE.getType());
+        for (ScheduledActivity activity : activities) {
+            if (guid.equals(activity.getGuid())) {
+                return activity;
+            }
+        }
+        return null;
+    }
+
+    private static ScheduledActivity findStreaming(String json, String guid) {
+        JsonStreams.ArrayIterator<ScheduledActivity> iterator = JsonStreams.iterateArray(
+                RestUtils.GSON, new StringReader(json), ScheduledActivity.class);
+        try {
+            while (iterator.hasNext()) {
+                ScheduledActivity activity = iterator.next();
+                if (guid.equals(activity.getGuid())) {
+                    return activity;
+                }
+            }
+            return null;
+        } finally {
+            iterator.close();
+        }
+    }
+
+    private static int countInList(String json) {
+        List<ScheduledActivity> activities =
+                RestUtils.GSON.fromJson(json, ACTIVITY_LIST_TYPE.getType());
+        return activities.size();
+    }
+
+    private static int countStreaming(String json) {
+        int count = 0;
+        JsonStreams.ArrayIterator<ScheduledActivity> iterator = JsonStreams.iterateArray(
+                RestUtils.GSON, new StringReader(json), ScheduledActivity.class);
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        return count;
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported()
+                    && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return 0;
+    }
+
+    private static List<ScheduledActivity> createActivities(int count) {
+        List<ScheduledActivity> activities = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ScheduledActivity activity = new ScheduledActivity();
+            activity.setGuid("guid-" + i);
+            activity.setClientData("client data " + i);
+            activities.add(activity);
+        }
+        return activities;
+    }
+}
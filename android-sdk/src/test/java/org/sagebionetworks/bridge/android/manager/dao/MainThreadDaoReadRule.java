@@ -0,0 +1,21 @@
+package org.sagebionetworks.bridge.android.manager.dao;
+
+import org.junit.rules.ExternalResource;
+
+/**
+ * Fails a test with an {@link IllegalStateException} when a DAO reads on the main looper, see
+ * {@link DaoThreadPolicy}. With Robolectric, the test itself runs on the main looper.
+ */
+public class MainThreadDaoReadRule extends ExternalResource {
+    @Override
+    protected void before() {
+        DaoThreadPolicy.setMainThreadReadListener((daoName, key) -> {
+            throw new IllegalStateException(daoName + " read key: " + key + " on main thread");
+        });
+    }
+
+    @Override
+    protected void after() {
+        DaoThreadPolicy.setMainThreadReadListener(null);
+    }
+}
@@ -0,0 +1,191 @@
+package org.sagebionetworks.bridge.android.manager.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Xml;
+
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmlpull.v1.XmlPullParser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+@Config
+@RunWith(RobolectricTestRunner.class)
+public class MappedPreferencesBackendTest {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedPreferencesBackendTest.class);
+
+    private static final String NAME = "test-prefs";
+    private static final int COMPACT_BYTES = 256 * 1024;
+
+    private Context context;
+
+    @Before
+    public void setup() {
+        context = RuntimeEnvironment.application;
+    }
+
+    @After
+    public void teardown() {
+        DaoStorage.resetBackend();
+    }
+
+    @Test
+    public void movesPlatformValues() {
+        SharedPreferences platformPreferences = PreferencesBackend.PLATFORM.open(context, NAME);
+        platformPreferences.edit()
+                .putString("string", "value")
+                .putInt("int", 1)
+                .putStringSet("set", ImmutableSet.of("a"))
+                .commit();
+
+        MappedPreferencesBackend backend = new MappedPreferencesBackend(COMPACT_BYTES);
+        SharedPreferences preferences = backend.open(context, NAME);
+        assertEquals("value", preferences.getString("string", null));
+        assertEquals(1, preferences.getInt("int", 0));
+        assertEquals(ImmutableSet.of("a"), preferences.getStringSet("set", null));
+        assertTrue(platformPreferences.getAll().isEmpty());
+        assertSame(preferences, backend.open(context, NAME));
+
+        // values are only moved once, e.g. not again after the app restarts
+        platformPreferences.edit().putString("string", "platform value").commit();
+        SharedPreferences reopened = new MappedPreferencesBackend(COMPACT_BYTES)
+                .open(context, NAME);
+        assertEquals("value", reopened.getString("string", null));
+    }
+
+    @Test
+    public void restoresPlatformValues() {
+        SharedPreferences platformPreferences = PreferencesBackend.PLATFORM.open(context, NAME);
+        platformPreferences.edit().putString("string", "value").commit();
+
+        SharedPreferences mappedPreferences =
+                new MappedPreferencesBackend(COMPACT_BYTES).open(context, NAME);
+        mappedPreferences.edit()
+                .putString("string", "mapped value")
+                .putLong("long", 2L)
+                .putStringSet("set", ImmutableSet.of("a"))
+                .commit();
+        assertTrue(platformPreferences.getAll().isEmpty());
+
+        // turning the mapped store off moves the values back
+        SharedPreferences preferences = new PlatformPreferencesBackend().open(context, NAME);
+        assertSame(platformPreferences, preferences);
+        assertEquals("mapped value", preferences.getString("string", null));
+        assertEquals(2L, preferences.getLong("long", 0L));
+        assertEquals(ImmutableSet.of("a"), preferences.getStringSet("set", null));
+        assertFalse(MappedPreferencesBackend.logFile(context, NAME).exists());
+
+        // and turning it on again moves them to a new log
+        assertEquals("mapped value", new MappedPreferencesBackend(COMPACT_BYTES)
+                .open(context, NAME).getString("string", null));
+    }
+
+    @Test
+    public void daoUsesBackend() {
+        DaoStorage.setBackend(new MappedPreferencesBackend(COMPACT_BYTES));
+
+        AccountDAO accountDAO = new AccountDAO(context);
+        accountDAO.setEmail("email@example.com");
+        assertEquals("email@example.com", accountDAO.getEmail());
+
+        // another DAO instance shares the preferences
+        assertEquals("email@example.com", new AccountDAO(context).getEmail());
+
+        accountDAO.clear();
+        assertEquals(null, accountDAO.getEmail());
+    }
+
+    /**
+     * Compares committing one value to prefs holding activity sized values, and reading the
+     * values when the prefs are first opened. The platform time to open is the time to parse its
+     * XML file, it does more work to build the values. Run manually, times are logged.
+     */
+    @Ignore("benchmark")
+    @Test
+    public void benchmark() throws Exception {
+        int valueCount = 200;
+        int writeCount = 50;
+        StringBuilder value = new StringBuilder();
+        while (value.length() < 1024) {
+            value.append("{\"guid\":\"activity-guid\",\"status\":\"scheduled\"},");
+        }
+
+        SharedPreferences platformPreferences = PreferencesBackend.PLATFORM.open(context, NAME);
+        File mappedFile = new File(context.getFilesDir(), "benchmark.kv");
+        MappedPreferences mappedPreferences = new MappedPreferences(mappedFile, COMPACT_BYTES);
+        SharedPreferences.Editor platformEditor = platformPreferences.edit();
+        SharedPreferences.Editor mappedEditor = mappedPreferences.edit();
+        for (int i = 0; i < valueCount; i++) {
+            platformEditor.putString("key" + i, value.toString());
+            mappedEditor.putString("key" + i, value.toString());
+        }
+        assertTrue(platformEditor.commit());
+        assertTrue(mappedEditor.commit());
+
+        long start = System.nanoTime();
+        for (int i = 0; i < writeCount; i++) {
+            platformPreferences.edit().putString("key0", value.toString() + i).commit();
+        }
+        long platformWriteNanos = (System.nanoTime() - start) / writeCount;
+
+        start = System.nanoTime();
+        for (int i = 0; i < writeCount; i++) {
+            mappedPreferences.edit().putString("key0", value.toString() + i).commit();
+        }
+        long mappedWriteNanos = (System.nanoTime() - start) / writeCount;
+
+        File platformFile = new File(context.getFilesDir().getParentFile(),
+                "shared_prefs/" + NAME + ".xml");
+        long platformOpenNanos = -1;
+        if (platformFile.exists()) {
+            start = System.nanoTime();
+            parseXml(platformFile);
+            platformOpenNanos = System.nanoTime() - start;
+        }
+
+        start = System.nanoTime();
+        MappedPreferences reopened = new MappedPreferences(mappedFile, COMPACT_BYTES);
+        assertEquals(value.toString() + (writeCount - 1), reopened.getString("key0", null));
+        long mappedOpenNanos = System.nanoTime() - start;
+        assertEquals(valueCount, reopened.getAll().size());
+
+        LOG.info("Commit one value: platform {} us, mapped {} us. Open: platform {} us, mapped "
+                        + "{} us", TimeUnit.NANOSECONDS.toMicros(platformWriteNanos),
+                TimeUnit.NANOSECONDS.toMicros(mappedWriteNanos),
+                TimeUnit.NANOSECONDS.toMicros(platformOpenNanos),
+                TimeUnit.NANOSECONDS.toMicros(mappedOpenNanos));
+        // the platform rewrites the whole file, the mapped store appends one record
+        assertTrue(mappedWriteNanos < platformWriteNanos);
+    }
+
+    private static void parseXml(File file) throws Exception {
+        try (InputStream inputStream = new FileInputStream(file)) {
+            XmlPullParser parser = Xml.newPullParser();
+            parser.setInput(inputStream, "UTF-8");
+            while (parser.next() != XmlPullParser.END_DOCUMENT) {
+                if (parser.getEventType() == XmlPullParser.TEXT) {
+                    parser.getText();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package org.sagebionetworks.bridge.android.manager.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.SharedPreferences;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+public class MappedPreferencesTest {
+    private static final int COMPACT_BYTES = 4096;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setup() {
+        file = new File(temporaryFolder.getRoot(), "prefs/test.kv");
+    }
+
+    @Test
+    public void valuesPersist() {
+        MappedPreferences preferences = new MappedPreferences(file, COMPACT_BYTES);
+        assertTrue(preferences.edit()
+                .putString("string", "value")
+                .putInt("int", 1)
+                .putLong("long", 2L)
+                .putFloat("float", 3f)
+                .putBoolean("boolean", true)
+                .putStringSet("set", ImmutableSet.of("a", "b"))
+                .commit());
+
+        MappedPreferences reopened = new MappedPreferences(file, COMPACT_BYTES);
+        assertEquals("value", reopened.getString("string", null));
+        assertEquals(1, reopened.getInt("int", 0));
+        assertEquals(2L, reopened.getLong("long", 0L));
+        assertEquals(3f, reopened.getFloat("float", 0f), 0f);
+        assertTrue(reopened.getBoolean("boolean", false));
+        assertEquals(ImmutableSet.of("a", "b"), reopened.getStringSet("set", null));
+        assertEquals(6, reopened.getAll().size());
+    }
+
+    @Test
+    public void removeAndClear() {
+        MappedPreferences preferences = new MappedPreferences(file, COMPACT_BYTES,
+                MoreExecutors.directExecutor());
+        preferences.edit().putString("a", "1").putString("b", "2").putString("c", "3").apply();
+        preferences.edit().remove("a").putString("b", null).apply();
+        assertFalse(preferences.contains("a"));
+        assertFalse(preferences.contains("b"));
+        assertEquals("3", preferences.getString("c", null));
+
+        // clear applies before the editor's other changes, whatever the call order
+        preferences.edit().putString("d", "4").clear().apply();
+        assertEquals(ImmutableMap.of("d", "4"), preferences.getAll());
+
+        MappedPreferences reopened = new MappedPreferences(file, COMPACT_BYTES);
+        assertEquals(ImmutableMap.of("d", "4"), reopened.getAll());
+    }
+
+    @Test
+    public void applyWritesInBackground() {
+        List<Runnable> writes = Lists.newArrayList();
+        MappedPreferences preferences = new MappedPreferences(file, COMPACT_BYTES, writes::add);
+        preferences.edit().putString("a", "1").apply();
+        preferences.edit().putString("b", "2").apply();
+
+        // visible right away, in the log once the write ran
+        assertEquals("1", preferences.getString("a", null));
+        assertTrue(new MappedPreferences(file, COMPACT_BYTES).getAll().isEmpty());
+        assertEquals(1, writes.size());
+
+        writes.get(0).run();
+        assertEquals(ImmutableMap.of("a", "1", "b", "2"),
+                new MappedPreferences(file, COMPACT_BYTES).getAll());
+    }
+
+    @Test
+    public void commitWritesEarlierApplies() {
+        List<Runnable> writes = Lists.newArrayList();
+        MappedPreferences preferences = new MappedPreferences(file, COMPACT_BYTES, writes::add);
+        preferences.edit().putString("a", "1").apply();
+        assertTrue(preferences.edit().putString("b", "2").commit());
+
+        assertEquals(ImmutableMap.of("a", "1", "b", "2"),
+                new MappedPreferences(file, COMPACT_BYTES).getAll());
+
+        // nothing left for the scheduled write
+        writes.get(0).run();
+        assertEquals(ImmutableMap.of("a", "1", "b", "2"),
+                new MappedPreferences(file, COMPACT_BYTES).getAll());
+    }
+
+    @Test
+    public void cutOffRecordIsDropped() throws Exception {
+        MappedPreferences preferences = new MappedPreferences(file, COMPACT_BYTES);
+        preferences.edit().putString("a", "1").commit();
+        int firstRecordEnd = preferences.getLogBytes();
+        preferences.edit().putString("a", "2").putString("b", "2").commit();
+
+        // a crash while writing the second record leaves part of it
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.seek(preferences.getLogBytes() - 1);
+            randomAccessFile.write(0xff);
+        }
+
+        MappedPreferences reopened = new MappedPreferences(file, COMPACT_BYTES);
+        assertEquals(ImmutableMap.of("a", "1"), reopened.getAll());
+        assertEquals(firstRecordEnd, reopened.getLogBytes());
+
+        // new records replace the dropped one
+        reopened.edit().putString("c", "3").commit();
+        assertEquals(ImmutableMap.of("a", "1", "c", "3"),
+                new MappedPreferences(file, COMPACT_BYTES).getAll());
+    }
+
+    @Test
+    public void notALog() throws Exception {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(
+                temporaryFolder.newFile("other.kv"), "rw")) {
+            randomAccessFile.writeBytes("<map></map>");
+        }
+
+        MappedPreferences preferences = new MappedPreferences(
+                new File(temporaryFolder.getRoot(), "other.kv"), COMPACT_BYTES);
+        assertTrue(preferences.getAll().isEmpty());
+        preferences.edit().putString("a", "1").commit();
+        assertEquals("1", preferences.getString("a", null));
+    }
+
+    @Test
+    public void compaction() {
+        MappedPreferences preferences = new MappedPreferences(file, COMPACT_BYTES);
+        preferences.edit().putString("kept", "value").commit();
+        for (int i = 0; i < 1000; i++) {
+            preferences.edit().putString("replaced", "value " + i).apply();
+        }
+
+        // the log was rewritten, rather than holding 1000 records
+        assertTrue(preferences.getLogBytes() <= 2 * COMPACT_BYTES);
+        assertTrue(file.length() < 8 * COMPACT_BYTES);
+
+        MappedPreferences reopened = new MappedPreferences(file, COMPACT_BYTES);
+        assertEquals(ImmutableMap.of("kept", "value", "replaced", "value 999"),
+                reopened.getAll());
+    }
+
+    @Test
+    public void growsForLargeValues() {
+        StringBuilder largeValue = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            largeValue.append("value ");
+        }
+
+        MappedPreferences preferences = new MappedPreferences(file, COMPACT_BYTES);
+        preferences.edit().putString("large", largeValue.toString()).commit();
+
+        assertEquals(largeValue.toString(),
+                new MappedPreferences(file, COMPACT_BYTES).getString("large", null));
+    }
+
+    @Test
+    public void writeFile() throws Exception {
+        MappedPreferences.writeFile(file, ImmutableMap.of("a", "1", "b", 2));
+
+        MappedPreferences preferences = new MappedPreferences(file, COMPACT_BYTES);
+        assertEquals(ImmutableMap.of("a", "1", "b", 2), preferences.getAll());
+    }
+
+    @Test
+    public void readFile() throws Exception {
+        MappedPreferences preferences = new MappedPreferences(file, COMPACT_BYTES);
+        preferences.edit().putString("a", "1").putInt("b", 2).commit();
+        preferences.edit().remove("a").commit();
+
+        assertEquals(ImmutableMap.of("b", 2), MappedPreferences.readFile(file));
+    }
+
+    @Test
+    public void listeners() {
+        MappedPreferences preferences = new MappedPreferences(file, COMPACT_BYTES);
+        List<String> changedKeys = Lists.newArrayList();
+        SharedPreferences.OnSharedPreferenceChangeListener listener =
+                (prefs, key) -> changedKeys.add(key);
+        preferences.registerOnSharedPreferenceChangeListener(listener);
+
+        preferences.edit().putString("a", "1").apply();
+        // unchanged
+        preferences.edit().putString("a", "1").apply();
+        preferences.edit().clear().apply();
+
+        assertEquals(Lists.newArrayList("a", null), changedKeys);
+
+        preferences.unregisterOnSharedPreferenceChangeListener(listener);
+        preferences.edit().putString("b", "2").apply();
+        assertEquals(2, changedKeys.size());
+        assertNull(changedKeys.get(1));
+    }
+}
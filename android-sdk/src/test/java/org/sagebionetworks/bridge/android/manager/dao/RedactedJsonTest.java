@@ -0,0 +1,50 @@
+package org.sagebionetworks.bridge.android.manager.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RedactedJsonTest {
+
+    @Test
+    public void redactsSensitiveFields() {
+        String json = "{\"guid\":\"activity-guid\",\"email\":\"user@example.com\","
+                + "\"items\":[{\"reauthToken\":\"abc\",\"status\":\"finished\"}]}";
+
+        String rendered = RedactedJson.of("ACTIVITY_guid", json).toString();
+
+        assertEquals("{\"guid\":\"activity-guid\",\"email\":\"[redacted]\","
+                + "\"items\":[{\"reauthToken\":\"[redacted]\",\"status\":\"finished\"}]}",
+                rendered);
+    }
+
+    @Test
+    public void redactsSensitiveKeys() {
+        String rendered = RedactedJson.of("password", "\"secret password\"").toString();
+
+        assertFalse(rendered.contains("secret"));
+        assertTrue(rendered.startsWith(RedactedJson.REDACTED));
+    }
+
+    @Test
+    public void cutsOffLongValues() {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 1000; i++) {
+            json.append(i > 0 ? "," : "").append(i);
+        }
+        json.append("]");
+
+        String rendered = RedactedJson.of("list", json.toString()).toString();
+
+        assertTrue(rendered.startsWith("[0,1,2"));
+        assertTrue(rendered.endsWith("... (" + json.length() + " chars)"));
+    }
+
+    @Test
+    public void nullAndInvalidJson() {
+        assertEquals("null", RedactedJson.of("key", null).toString());
+        assertEquals("[unparseable] (5 chars)", RedactedJson.of("key", "{\"a\":").toString());
+    }
+}
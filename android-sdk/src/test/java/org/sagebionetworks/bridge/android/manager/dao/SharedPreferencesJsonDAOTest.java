@@ -0,0 +1,170 @@
+package org.sagebionetworks.bridge.android.manager.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import android.content.Context;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+import com.google.gson.reflect.TypeToken;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.sagebionetworks.bridge.rest.model.ConsentSignature;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Config
+@RunWith(RobolectricTestRunner.class)
+public class SharedPreferencesJsonDAOTest {
+    private static final String PREFERENCES_FILE = "test-json-dao";
+    private static final String KEY = "key";
+    private static final TypeToken<List<String>> STRING_LIST = new TypeToken<List<String>>() {
+    };
+
+    private TestDAO dao;
+
+    @Before
+    public void setup() {
+        dao = new TestDAO(RuntimeEnvironment.application);
+        dao.clearValues();
+    }
+
+    @Test
+    public void repeatedReadsReturnNewInstances() {
+        dao.setValue(KEY, new ConsentSignature().imageData("image1"), ConsentSignature.class);
+
+        ConsentSignature first = dao.getValue(KEY, ConsentSignature.class);
+        first.setImageData("modified");
+        ConsentSignature second = dao.getValue(KEY, ConsentSignature.class);
+
+        assertNotSame(first, second);
+        assertEquals("image1", second.getImageData());
+    }
+
+    @Test
+    public void setValueInvalidatesCache() {
+        dao.setValue(KEY, Lists.newArrayList("a"), STRING_LIST);
+        List<String> first = dao.getValue(KEY, STRING_LIST);
+
+        dao.setValue(KEY, Lists.newArrayList("b"), STRING_LIST);
+
+        assertEquals(Lists.newArrayList("b"), dao.getValue(KEY, STRING_LIST));
+        assertEquals(Lists.newArrayList("a"), first);
+    }
+
+    @Test
+    public void removeValueInvalidatesCache() {
+        dao.setValue(KEY, "value", String.class);
+        assertEquals("value", dao.getValue(KEY, String.class));
+
+        dao.removeValue(KEY);
+
+        assertNull(dao.getValue(KEY, String.class));
+    }
+
+    @Test
+    public void clearValuesInvalidatesCache() {
+        dao.setValue(KEY, "value", String.class);
+        assertEquals("value", dao.getValue(KEY, String.class));
+
+        dao.clearValues();
+
+        assertNull(dao.getValue(KEY, String.class));
+    }
+
+    @Test
+    public void externalWriteIsSeen() {
+        dao.setValue(KEY, "value", String.class);
+        assertEquals("value", dao.getValue(KEY, String.class));
+
+        // e.g. another DAO instance for the same file
+        new TestDAO(RuntimeEnvironment.application).setValue(KEY, "other", String.class);
+        assertEquals("other", dao.getValue(KEY, String.class));
+
+        dao.sharedPreferences.edit().putString(KEY, "\"direct\"").commit();
+        assertEquals("direct", dao.getValue(KEY, String.class));
+    }
+
+    @Test
+    public void differentTypeIsDecodedAgain() {
+        dao.setValue(KEY, new ConsentSignature().imageData("image1"), ConsentSignature.class);
+        ConsentSignature consentSignature = dao.getValue(KEY, ConsentSignature.class);
+
+        Object object = dao.getValue(KEY, Object.class);
+
+        assertNotSame(consentSignature, object);
+    }
+
+    @Test
+    public void cachedReadSkipsTransform() {
+        AtomicInteger decodeCount = new AtomicInteger();
+        Function<String, String> encode = json -> new StringBuilder(json).reverse().toString();
+        Function<String, String> decode = stored -> {
+            decodeCount.incrementAndGet();
+            return stored == null ? null : new StringBuilder(stored).reverse().toString();
+        };
+
+        dao.setValue(KEY, "secret", String.class, encode);
+
+        assertEquals("secret", dao.getValue(KEY, String.class, decode));
+        assertEquals("secret", dao.getValue(KEY, String.class, decode));
+        assertEquals(1, decodeCount.get());
+    }
+
+    @Test
+    public void batchSavesAllValues() {
+        dao.setValue("removed", "value", String.class);
+        assertEquals("value", dao.getValue("removed", String.class));
+        dao.setValue(KEY, "old", String.class);
+        assertEquals("old", dao.getValue(KEY, String.class));
+
+        dao.batch()
+                .setValue(KEY, "new", String.class)
+                .setValue("list", Lists.newArrayList("a"), STRING_LIST)
+                .removeValue("removed")
+                .commit();
+
+        assertEquals("new", dao.getValue(KEY, String.class));
+        assertEquals(Lists.newArrayList("a"), dao.getValue("list", STRING_LIST));
+        assertNull(dao.getValue("removed", String.class));
+    }
+
+    @Test
+    public void batchNotAppliedIsNotSaved() {
+        dao.batch().setValue(KEY, "value", String.class);
+
+        assertNull(dao.getValue(KEY, String.class));
+    }
+
+    @Test
+    public void recordsMetrics() {
+        DaoMetrics.reset();
+
+        dao.setValue(KEY, "value", String.class);
+        dao.getValue(KEY, String.class);
+        dao.getValue(KEY, String.class);
+        dao.removeValue(KEY);
+
+        DaoMetrics.KeyStats stats = DaoMetrics.getSnapshot().getKeyStats("TestDAO", KEY);
+        assertEquals(1, stats.getWriteCount());
+        assertEquals("\"value\"".length(), stats.getWriteLength());
+        assertEquals(2, stats.getReadCount());
+        assertEquals(1, stats.getCacheHitCount());
+        assertEquals(0.5, stats.getCacheHitRate(), 0.001);
+        assertEquals(1, stats.getRemoveCount());
+    }
+
+    private static class TestDAO extends SharedPreferencesJsonDAO {
+        TestDAO(Context applicationContext) {
+            super(applicationContext, PREFERENCES_FILE);
+        }
+    }
+}
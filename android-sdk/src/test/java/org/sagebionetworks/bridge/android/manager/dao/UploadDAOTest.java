@@ -0,0 +1,262 @@
+package org.sagebionetworks.bridge.android.manager.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+
+import androidx.room.Room;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.sagebionetworks.bridge.android.manager.UploadManager;
+import org.sagebionetworks.bridge.android.manager.dao.UploadEntity.UploadState;
+import org.sagebionetworks.bridge.android.manager.upload.UploadPriority;
+import org.sagebionetworks.bridge.rest.RestUtils;
+import org.sagebionetworks.bridge.rest.model.UploadSession;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@Config
+@RunWith(RobolectricTestRunner.class)
+public class UploadDAOTest {
+    private UploadDatabase uploadDatabase;
+
+    @Before
+    public void setup() {
+        uploadDatabase = Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, UploadDatabase.class)
+                .allowMainThreadQueries()
+                .build();
+    }
+
+    @After
+    public void teardown() {
+        uploadDatabase.close();
+    }
+
+    @Test
+    public void sanityCheck() {
+        UploadDAO uploadDAO = new UploadDAO(RuntimeEnvironment.application, uploadDatabase);
+
+        assertTrue(uploadDAO.listUploadFilenames().isEmpty());
+        assertNull(uploadDAO.getUploadFile("non-existent"));
+        assertNull(uploadDAO.getUploadSession("non-existent"));
+
+        DateTime now = DateTime.now();
+        uploadDAO.putUploadFile("newer", createUploadFile("newer", now));
+        uploadDAO.putUploadFile("older", createUploadFile("older", now.minusHours(1)));
+
+        // oldest first
+        assertEquals(Lists.newArrayList("older", "newer"), Lists.newArrayList(uploadDAO.listUploadFilenames()));
+        assertEquals(2, uploadDAO.getUploadCount());
+
+        UploadManager.UploadFile retrieved = uploadDAO.getUploadFile("newer");
+        assertNotNull(retrieved);
+        assertEquals("newer", retrieved.filename);
+        assertEquals(now.getMillis(), retrieved.createdOn.getMillis());
+        assertEquals(UploadState.QUEUED, uploadDAO.getUploadEntity("newer").state);
+
+        UploadSession uploadSession = new UploadSession().id("sessionId").url("https://example.com/upload");
+        uploadDAO.putUploadSession("newer", uploadSession);
+        assertEquals(uploadSession, uploadDAO.getUploadSession("newer"));
+        assertEquals(UploadState.SESSION_ACQUIRED, uploadDAO.getUploadEntity("newer").state);
+
+        uploadDAO.removeUploadAndSession("newer");
+        assertNull(uploadDAO.getUploadFile("newer"));
+        assertNull(uploadDAO.getUploadSession("newer"));
+        assertEquals(1, uploadDAO.getUploadCount());
+    }
+
+    @Test
+    public void listNextEligibleUploads() {
+        UploadDAO uploadDAO = new UploadDAO(RuntimeEnvironment.application, uploadDatabase);
+
+        DateTime now = DateTime.now();
+        for (int i = 0; i < 5; i++) {
+            uploadDAO.putUploadFile("file" + i, createUploadFile("file" + i, now.plusMinutes(i)));
+        }
+        uploadDAO.updateUploadState("file0", UploadState.FAILED);
+        uploadDAO.recordUploadAttempt("file1");
+        uploadDAO.recordUploadAttempt("file1");
+
+        List<UploadEntity> eligible = uploadDAO.listNextEligibleUploads(
+                ImmutableList.of(UploadState.QUEUED, UploadState.SESSION_ACQUIRED), 2, 0);
+
+        assertEquals(2, eligible.size());
+        assertEquals("file1", eligible.get(0).filename);
+        assertEquals(2, eligible.get(0).attemptCount);
+        assertNotNull(eligible.get(0).lastAttemptOn);
+        assertEquals("file2", eligible.get(1).filename);
+    }
+
+    @Test
+    public void listUploadFilenamesDueForStatusCheck() {
+        UploadDAO uploadDAO = new UploadDAO(RuntimeEnvironment.application, uploadDatabase);
+
+        DateTime now = DateTime.now();
+        for (int i = 0; i < 4; i++) {
+            uploadDAO.putUploadFile("file" + i, createUploadFile("file" + i, now.plusMinutes(i)));
+        }
+        uploadDAO.scheduleStatusCheck("file1", now.plusHours(1).getMillis());
+
+        assertEquals(Lists.newArrayList("file0", "file2"), Lists.newArrayList(
+                uploadDAO.listUploadFilenamesDueForStatusCheck(now.getMillis(), 2, 0)));
+        assertEquals(1, uploadDAO.getUploadEntity("file1").statusCheckCount);
+        assertEquals(0, uploadDAO.getUploadEntity("file1").failedValidationCount);
+
+        uploadDAO.recordFailedValidation("file1");
+        assertEquals(1, uploadDAO.getUploadEntity("file1").failedValidationCount);
+
+        assertEquals(Lists.newArrayList("file0", "file1", "file2", "file3"), Lists.newArrayList(
+                uploadDAO.listUploadFilenamesDueForStatusCheck(now.plusHours(2).getMillis(), 10, 0)));
+    }
+
+    @Test
+    public void listUploadFilenamesDueForStatusCheck_PriorityWithAging() {
+        UploadDAO uploadDAO = new UploadDAO(RuntimeEnvironment.application, uploadDatabase);
+
+        DateTime now = DateTime.now();
+        UploadManager.UploadFile oldBulk = createUploadFile("oldBulk", now.minusHours(3));
+        oldBulk.priority = UploadPriority.BULK;
+        uploadDAO.putUploadFile("oldBulk", oldBulk);
+        UploadManager.UploadFile bulk = createUploadFile("bulk", now.minusMinutes(10));
+        bulk.priority = UploadPriority.BULK;
+        uploadDAO.putUploadFile("bulk", bulk);
+        UploadManager.UploadFile high = createUploadFile("high", now);
+        high.priority = UploadPriority.HIGH;
+        uploadDAO.putUploadFile("high", high);
+        // queued before priorities, NORMAL
+        uploadDAO.putUploadFile("normal", createUploadFile("normal", now.minusMinutes(20)));
+
+        // bulk waits behind newer uploads, but only for two aging intervals
+        assertEquals(Lists.newArrayList("oldBulk", "high", "normal", "bulk"), Lists.newArrayList(
+                uploadDAO.listUploadFilenamesDueForStatusCheck(now.getMillis(), 10,
+                        TimeUnit.MINUTES.toMillis(30))));
+        assertEquals(UploadPriority.HIGH, uploadDAO.getUploadFile("high").priority);
+    }
+
+    @Test
+    public void listUploadFilenamesDueForStatusCheck_MaxUploadLength() {
+        UploadDAO uploadDAO = new UploadDAO(RuntimeEnvironment.application, uploadDatabase);
+
+        DateTime now = DateTime.now();
+        uploadDAO.putUploadFile("small", createUploadFile("small", now.minusMinutes(3)));
+        UploadManager.UploadFile large = createUploadFile("large", now.minusMinutes(2));
+        large.fileLength = 5000;
+        uploadDAO.putUploadFile("large", large);
+        UploadManager.UploadFile largeUploaded = createUploadFile("largeUploaded", now.minusMinutes(1));
+        largeUploaded.fileLength = 5000;
+        uploadDAO.putUploadFile("largeUploaded", largeUploaded);
+        uploadDAO.updateUploadState("largeUploaded", UploadState.VALIDATING);
+
+        // large archives already sent to S3 still get status checks
+        assertEquals(Lists.newArrayList("small", "largeUploaded"), Lists.newArrayList(
+                uploadDAO.listUploadFilenamesDueForStatusCheck(now.getMillis(), 10, 0, 1000)));
+        assertEquals(1, uploadDAO.getPendingUploadCount(1000));
+        assertEquals(2, uploadDAO.getPendingUploadCount(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void persistJournal() {
+        UploadDAO uploadDAO = new UploadDAO(RuntimeEnvironment.application, uploadDatabase);
+
+        uploadDAO.beginPersist("file", "file.staged");
+        List<UploadJournalEntity> journal = uploadDAO.listUnfinishedPersists();
+        assertEquals(1, journal.size());
+        assertEquals("file.staged", journal.get(0).stagedFilename);
+        assertFalse(journal.get(0).isWritten());
+        assertNull(uploadDAO.getUploadFile("file"));
+
+        UploadManager.UploadFile uploadFile = createUploadFile("file", DateTime.now());
+        uploadFile.priority = UploadPriority.BULK;
+        uploadDAO.markPersistWritten("file.staged", uploadFile);
+        UploadJournalEntity written = uploadDAO.listUnfinishedPersists().get(0);
+        assertTrue(written.isWritten());
+
+        UploadManager.UploadFile resumed = UploadDAO.toUploadFile(written);
+        assertEquals(uploadFile.md5Hash, resumed.md5Hash);
+        assertEquals(uploadFile.fileLength, resumed.fileLength);
+        assertEquals(UploadPriority.BULK, resumed.priority);
+
+        uploadDAO.commitPersist(resumed);
+        assertTrue(uploadDAO.listUnfinishedPersists().isEmpty());
+        assertEquals(UploadState.QUEUED, uploadDAO.getUploadEntity("file").state);
+
+        uploadDAO.beginPersist("other", "other.staged");
+        uploadDAO.abortPersist("other");
+        assertTrue(uploadDAO.listUnfinishedPersists().isEmpty());
+    }
+
+    @Test
+    public void fingerprintHistoryIsBounded() {
+        UploadDAO uploadDAO = new UploadDAO(RuntimeEnvironment.application, uploadDatabase);
+
+        DateTime now = DateTime.now();
+        for (int i = 0; i < 3; i++) {
+            uploadDAO.putFingerprint("fingerprint" + i,
+                    createUploadFile("file" + i, now.plusMinutes(i)), 2);
+        }
+
+        assertEquals(2, uploadDAO.getFingerprintCount());
+        // oldest is forgotten
+        assertNull(uploadDAO.getUploadFileForFingerprint("fingerprint0"));
+        UploadManager.UploadFile retrieved = uploadDAO.getUploadFileForFingerprint("fingerprint2");
+        assertNotNull(retrieved);
+        assertEquals("file2", retrieved.filename);
+
+        uploadDAO.clearFingerprints();
+        assertEquals(0, uploadDAO.getFingerprintCount());
+    }
+
+    @Test
+    public void migrateSharedPreferences() {
+        DateTime createdOn = DateTime.now().minusDays(1);
+        UploadSession uploadSession = new UploadSession().id("sessionId").url("https://example.com/upload");
+
+        RuntimeEnvironment.application.getSharedPreferences("uploads", Context.MODE_PRIVATE).edit()
+                .putString("uploadFile-withSession", RestUtils.GSON.toJson(
+                        createUploadFile("withSession", createdOn), UploadManager.UploadFile.class))
+                .putString("uploadSession-withSession", RestUtils.GSON.toJson(uploadSession, UploadSession.class))
+                .putString("uploadFile-noSession", RestUtils.GSON.toJson(
+                        createUploadFile("noSession", createdOn.plusMinutes(1)), UploadManager.UploadFile.class))
+                .commit();
+
+        UploadDAO uploadDAO = new UploadDAO(RuntimeEnvironment.application, uploadDatabase);
+
+        assertEquals(Lists.newArrayList("withSession", "noSession"),
+                Lists.newArrayList(uploadDAO.listUploadFilenames()));
+        assertEquals(UploadState.SESSION_ACQUIRED, uploadDAO.getUploadEntity("withSession").state);
+        assertEquals(uploadSession, uploadDAO.getUploadSession("withSession"));
+        assertEquals(UploadState.QUEUED, uploadDAO.getUploadEntity("noSession").state);
+        // a migrated session may have been used for a PUT
+        assertEquals(1, uploadDAO.getUploadEntity("withSession").attemptCount);
+        assertEquals(0, uploadDAO.getUploadEntity("noSession").attemptCount);
+        assertEquals(createdOn.getMillis(), uploadDAO.getUploadFile("withSession").createdOn.getMillis());
+
+        assertTrue(RuntimeEnvironment.application.getSharedPreferences("uploads", Context.MODE_PRIVATE)
+                .getAll().isEmpty());
+    }
+
+    private static UploadManager.UploadFile createUploadFile(String filename, DateTime createdOn) {
+        UploadManager.UploadFile uploadFile = new UploadManager.UploadFile();
+        uploadFile.filename = filename;
+        uploadFile.contentType = "application/zip";
+        uploadFile.fileLength = 100;
+        uploadFile.md5Hash = "hash";
+        uploadFile.createdOn = createdOn;
+        return uploadFile;
+    }
+}
@@ -0,0 +1,136 @@
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteSource;
+import com.google.gson.JsonElement;
+
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sagebionetworks.bridge.data.Archive;
+import org.sagebionetworks.bridge.data.ByteSourceArchiveFile;
+import org.sagebionetworks.bridge.data.JsonArchiveFile;
+import org.sagebionetworks.bridge.rest.RestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class ArchiveFingerprinterTest {
+    private static final DateTime START_DATE = DateTime.parse("2018-06-01T11:50:00.000Z");
+    private static final DateTime END_DATE = DateTime.parse("2018-06-01T12:00:00.000Z");
+
+    private ExecutorService executor;
+    private ArchiveFingerprinter archiveFingerprinter;
+
+    @Before
+    public void setup() {
+        executor = Executors.newSingleThreadExecutor();
+        archiveFingerprinter = new ArchiveFingerprinter(executor);
+    }
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void sameSessionSameFingerprint() throws Exception {
+        // taskRunUUID and timestamps differ each time the archive is created
+        String fingerprint = archiveFingerprinter.fingerprint(
+                createArchive("activity-1", START_DATE, "{\"answer\":42}"));
+        Thread.sleep(5);
+        String retryFingerprint = archiveFingerprinter.fingerprint(
+                createArchive("activity-1", START_DATE, "{\"answer\":42}"));
+
+        assertEquals(fingerprint, retryFingerprint);
+        assertEquals(64, fingerprint.length());
+    }
+
+    @Test
+    public void differentDataDifferentFingerprint() throws Exception {
+        String fingerprint = archiveFingerprinter.fingerprint(
+                createArchive("activity-1", START_DATE, "{\"answer\":42}"));
+        String otherFingerprint = archiveFingerprinter.fingerprint(
+                createArchive("activity-1", START_DATE, "{\"answer\":43}"));
+
+        assertNotEquals(fingerprint, otherFingerprint);
+    }
+
+    @Test
+    public void differentSessionsSameDataDifferentFingerprint() throws Exception {
+        // e.g. a daily survey answered the same way on two days
+        String fingerprint = archiveFingerprinter.fingerprint(
+                createArchive("activity-1", START_DATE, "{\"answer\":42}"));
+        String nextDayFingerprint = archiveFingerprinter.fingerprint(
+                createArchive("activity-2", START_DATE.plusDays(1), "{\"answer\":42}"));
+        String sameActivityRestartedFingerprint = archiveFingerprinter.fingerprint(
+                createArchive("activity-1", START_DATE.plusHours(1), "{\"answer\":42}"));
+
+        assertNotEquals(fingerprint, nextDayFingerprint);
+        assertNotEquals(fingerprint, sameActivityRestartedFingerprint);
+    }
+
+    @Test
+    public void withoutFields() {
+        byte[] json = ("{\"b\":1,\"taskRunUUID\":\"uuid\",\"a\":{\"taskRunUUID\":\"x\","
+                + "\"c\":[{\"taskRunUUID\":\"y\",\"d\":2}]}}").getBytes(StandardCharsets.UTF_8);
+
+        byte[] stripped = ArchiveFingerprinter.withoutFields(json, ImmutableSet.of("taskRunUUID"));
+        assertEquals(RestUtils.GSON.fromJson("{\"a\":{\"c\":[{\"d\":2}]},\"b\":1}",
+                JsonElement.class), RestUtils.GSON.fromJson(
+                new String(stripped, StandardCharsets.UTF_8), JsonElement.class));
+
+        // same bytes whatever the order of the keys
+        byte[] reordered = ("{\"a\":{\"c\":[{\"d\":2}]},\"b\":1}").getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(stripped, ArchiveFingerprinter.withoutFields(reordered,
+                ImmutableSet.of("taskRunUUID")));
+
+        byte[] notJson = "not json {".getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(notJson, ArchiveFingerprinter.withoutFields(notJson,
+                ImmutableSet.of("taskRunUUID")));
+    }
+
+    @Test(expected = IOException.class)
+    public void zipFailureIsThrown() throws Exception {
+        Archive archive = mock(Archive.class);
+        doThrow(new IOException("zip failed")).when(archive).writeTo(any());
+
+        archiveFingerprinter.fingerprint(archive);
+    }
+
+    private static Archive createArchive(String scheduledActivityGuid, DateTime startDate,
+                                         String answers) {
+        byte[] sensorData = new byte[256 * 1024];
+        new Random(42).nextBytes(sensorData);
+
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put("scheduledActivityGuid", scheduledActivityGuid);
+        metadata.put("startDate", startDate.toString());
+        metadata.put("endDate", END_DATE.toString());
+        metadata.put("taskRunUUID", UUID.randomUUID().toString());
+
+        return Archive.Builder.forActivity("test-schema", 1)
+                .withAppVersionName("1.0")
+                .withPhoneInfo("Test Phone")
+                .addDataFile(new JsonArchiveFile("answers.json", END_DATE, answers))
+                .addDataFile(new JsonArchiveFile("metadata.json", DateTime.now(),
+                        RestUtils.GSON.toJson(metadata)))
+                .addDataFile(new ByteSourceArchiveFile("accelerometer.bin", END_DATE,
+                        ByteSource.wrap(sensorData)))
+                .build();
+    }
+}
@@ -0,0 +1,108 @@
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteSource;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+import org.sagebionetworks.bridge.data.Archive;
+import org.sagebionetworks.bridge.data.ArchiveFile;
+import org.sagebionetworks.bridge.data.ByteSourceArchiveFile;
+import org.sagebionetworks.bridge.data.JsonArchiveFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+public class ArchiveSplitterTest {
+    private static final DateTime END_DATE = DateTime.parse("2018-06-01T12:00:00.000Z");
+    private static final ArchiveSplitter.ArchiveBuilderFactory BUILDER_FACTORY =
+            () -> Archive.Builder.forActivity("test-schema", 1)
+                    .withAppVersionName("version 1.0, build 1")
+                    .withPhoneInfo("Test Phone");
+
+    @Test
+    public void partitionLargestFirst() throws Exception {
+        List<List<ArchiveFile>> partitions = new ArchiveSplitter(1000).partition(ImmutableList.of(
+                dataFile("small.bin", 200),
+                dataFile("large.bin", 800),
+                dataFile("medium.bin", 500),
+                // larger than a part, gets a part of its own
+                dataFile("huge.bin", 1500)));
+
+        assertEquals(3, partitions.size());
+        assertEquals(ImmutableList.of("huge.bin"), filenames(partitions.get(0)));
+        assertEquals(ImmutableList.of("large.bin", "small.bin"), filenames(partitions.get(1)));
+        assertEquals(ImmutableList.of("medium.bin"), filenames(partitions.get(2)));
+    }
+
+    @Test
+    public void splitAddsSharedAndPartInfoFiles() throws Exception {
+        JsonArchiveFile metadata = new JsonArchiveFile("metadata.json", END_DATE, "{}");
+
+        List<ArchiveSplitter.Part> parts = new ArchiveSplitter(1000).split("result.zip",
+                BUILDER_FACTORY,
+                ImmutableList.of(dataFile("a.bin", 800), dataFile("b.bin", 800)), metadata);
+
+        assertEquals(2, parts.size());
+        assertEquals("result.part1of2.zip", parts.get(0).getFilename());
+        assertEquals("result.part2of2.zip", parts.get(1).getFilename());
+        for (ArchiveSplitter.Part part : parts) {
+            Set<String> entries = getEntryNames(part.getArchive());
+            assertTrue(entries.contains("metadata.json"));
+            assertTrue(entries.contains(ArchiveSplitter.PART_INFO_FILENAME));
+        }
+    }
+
+    @Test
+    public void smallResultIsNotSplit() throws Exception {
+        List<ArchiveSplitter.Part> parts = new ArchiveSplitter(1000).split("result.zip",
+                BUILDER_FACTORY, ImmutableList.of(dataFile("a.bin", 100)), null);
+
+        assertEquals(1, parts.size());
+        assertEquals("result.zip", parts.get(0).getFilename());
+        assertFalse(getEntryNames(parts.get(0).getArchive())
+                .contains(ArchiveSplitter.PART_INFO_FILENAME));
+    }
+
+    @Test
+    public void getPartFilename() {
+        assertEquals("result.part2of3.zip", ArchiveSplitter.getPartFilename("result.zip", 1, 3));
+        assertEquals("result.part1of2", ArchiveSplitter.getPartFilename("result", 0, 2));
+    }
+
+    private static ArchiveFile dataFile(String filename, int size) {
+        return new ByteSourceArchiveFile(filename, END_DATE, ByteSource.wrap(new byte[size]));
+    }
+
+    private static List<String> filenames(List<ArchiveFile> archiveFiles) {
+        ImmutableList.Builder<String> filenames = ImmutableList.builder();
+        for (ArchiveFile archiveFile : archiveFiles) {
+            filenames.add(archiveFile.getFilename());
+        }
+        return filenames.build();
+    }
+
+    private static Set<String> getEntryNames(Archive archive) throws Exception {
+        ByteArrayOutputStream zipped = new ByteArrayOutputStream();
+        archive.writeTo(zipped);
+
+        Set<String> entryNames = Sets.newHashSet();
+        try (ZipInputStream zipInputStream = new ZipInputStream(
+                new ByteArrayInputStream(zipped.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zipInputStream.getNextEntry()) != null) {
+                entryNames.add(entry.getName());
+            }
+        }
+        return entryNames;
+    }
+}
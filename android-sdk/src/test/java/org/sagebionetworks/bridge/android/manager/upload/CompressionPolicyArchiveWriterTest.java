@@ -0,0 +1,213 @@
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.sagebionetworks.bridge.data.Archive;
+import org.sagebionetworks.bridge.data.ArchiveFile;
+import org.sagebionetworks.bridge.data.ByteSourceArchiveFile;
+import org.sagebionetworks.bridge.data.JsonArchiveFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+public class CompressionPolicyArchiveWriterTest {
+    private static final Logger LOG =
+            LoggerFactory.getLogger(CompressionPolicyArchiveWriterTest.class);
+
+    private static final DateTime END_DATE = DateTime.parse("2018-06-01T12:00:00.000Z");
+
+    private ExecutorService executor;
+
+    private CompressionPolicyArchiveWriter writer;
+
+    @Before
+    public void setup() {
+        executor = Executors.newSingleThreadExecutor();
+        writer = new CompressionPolicyArchiveWriter(new ContentTypeCompressionPolicy(9, 4096));
+    }
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void sameEntriesAsArchive() throws Exception {
+        ArchiveContents contents = createContents(256 * 1024, 20);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        contents.toArchive().writeTo(expected);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        writer.write(contents, actual);
+
+        assertSameEntries(expected.toByteArray(), actual.toByteArray());
+    }
+
+    @Test
+    public void dataFilesAreReadOnce() throws Exception {
+        AtomicInteger openCount = new AtomicInteger();
+        ByteSource byteSource = new ByteSource() {
+            @Override
+            public InputStream openStream() {
+                openCount.incrementAndGet();
+                return new ByteArrayInputStream(new byte[64 * 1024]);
+            }
+        };
+        ArchiveContents contents = new ArchiveContents(
+                () -> Archive.Builder.forActivity("test-schema", 1),
+                ImmutableList.of(new ByteSourceArchiveFile("sensor.bin", END_DATE, byteSource)));
+
+        writer.write(contents, new ByteArrayOutputStream());
+
+        assertEquals(1, openCount.get());
+    }
+
+    @Test(expected = IOException.class)
+    public void readFailureIsThrown() throws Exception {
+        ByteSource byteSource = new ByteSource() {
+            @Override
+            public InputStream openStream() throws IOException {
+                throw new IOException("read failed");
+            }
+        };
+        ArchiveContents contents = new ArchiveContents(
+                () -> Archive.Builder.forActivity("test-schema", 1),
+                ImmutableList.of(new ByteSourceArchiveFile("sensor.bin", END_DATE, byteSource)));
+
+        writer.write(contents, new ByteArrayOutputStream());
+    }
+
+    @Test
+    public void composesWithPipelinedWriter() throws Exception {
+        ArchiveContents contents = createContents(256 * 1024, 20);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        writer.write(contents, expected);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        new PipelinedArchiveWriter(executor, 1024, 2)
+                .write(outputStream -> writer.write(contents, outputStream), actual);
+
+        assertSameEntries(expected.toByteArray(), actual.toByteArray());
+    }
+
+    @Test
+    public void policyIsNoLargerThanDefault() throws Exception {
+        ArchiveContents contents = createContents(256 * 1024, 200);
+
+        ByteArrayOutputStream defaultZip = new ByteArrayOutputStream();
+        contents.toArchive().writeTo(defaultZip);
+        ByteArrayOutputStream policyZip = new ByteArrayOutputStream();
+        writer.write(contents, policyZip);
+
+        assertTrue(policyZip.size() <= defaultZip.size());
+    }
+
+    /**
+     * Compares size and CPU time of the default zip with the content type policy, for a task
+     * result with a video and a large answers file. Both run on the calling thread only. Run
+     * manually, sizes and times are logged.
+     */
+    @Ignore("benchmark")
+    @Test
+    public void benchmark() throws Exception {
+        ArchiveContents contents = createContents(2 * 1024 * 1024, 2000);
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+        // warm up both paths first
+        contents.toArchive().writeTo(new ByteArrayOutputStream());
+        writer.write(contents, new ByteArrayOutputStream());
+
+        ByteArrayOutputStream defaultZip = new ByteArrayOutputStream();
+        long start = threadMXBean.getCurrentThreadCpuTime();
+        contents.toArchive().writeTo(defaultZip);
+        long defaultNanos = threadMXBean.getCurrentThreadCpuTime() - start;
+
+        ByteArrayOutputStream policyZip = new ByteArrayOutputStream();
+        start = threadMXBean.getCurrentThreadCpuTime();
+        writer.write(contents, policyZip);
+        long policyNanos = threadMXBean.getCurrentThreadCpuTime() - start;
+
+        LOG.info("Default: {} bytes in {} ms CPU, policy: {} bytes in {} ms CPU",
+                defaultZip.size(), TimeUnit.NANOSECONDS.toMillis(defaultNanos), policyZip.size(),
+                TimeUnit.NANOSECONDS.toMillis(policyNanos));
+        assertTrue(policyZip.size() <= defaultZip.size());
+        // the video is stored instead of deflated
+        assertTrue(policyNanos < defaultNanos);
+    }
+
+    private static ArchiveContents createContents(int videoLength, int answerCount) {
+        // random bytes stand in for an encoded video
+        byte[] video = new byte[videoLength];
+        new Random(42).nextBytes(video);
+
+        StringBuilder answers = new StringBuilder("{");
+        for (int i = 0; i < answerCount; i++) {
+            answers.append(i == 0 ? "" : ",").append("\"question").append(i)
+                    .append("\":{\"answer\":").append(i % 7).append(",\"skipped\":false}");
+        }
+        answers.append('}');
+
+        List<ArchiveFile> dataFiles = Lists.newArrayList(
+                new JsonArchiveFile("answers.json", END_DATE, answers.toString()),
+                new ByteSourceArchiveFile("video.mp4", END_DATE, ByteSource.wrap(video)));
+        return new ArchiveContents(() -> Archive.Builder.forActivity("test-schema", 1)
+                .withAppVersionName("1.0")
+                .withPhoneInfo("Test Phone"), dataFiles);
+    }
+
+    private static void assertSameEntries(byte[] expectedZip, byte[] actualZip)
+            throws IOException {
+        Map<String, byte[]> expectedEntries = readEntries(expectedZip);
+        Map<String, byte[]> actualEntries = readEntries(actualZip);
+        assertEquals(Lists.newArrayList(expectedEntries.keySet()),
+                Lists.newArrayList(actualEntries.keySet()));
+        for (Map.Entry<String, byte[]> entry : expectedEntries.entrySet()) {
+            // each archive is stamped with the time it was built
+            assertArrayEquals(entry.getKey(),
+                    ArchiveFingerprinter.withoutFields(entry.getValue(),
+                            ImmutableSet.of("createdOn")),
+                    ArchiveFingerprinter.withoutFields(actualEntries.get(entry.getKey()),
+                            ImmutableSet.of("createdOn")));
+        }
+    }
+
+    private static Map<String, byte[]> readEntries(byte[] zip) throws IOException {
+        Map<String, byte[]> entries = Maps.newLinkedHashMap();
+        try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            ZipEntry entry;
+            while ((entry = zipInputStream.getNextEntry()) != null) {
+                entries.put(entry.getName(), ByteStreams.toByteArray(zipInputStream));
+            }
+        }
+        return entries;
+    }
+}
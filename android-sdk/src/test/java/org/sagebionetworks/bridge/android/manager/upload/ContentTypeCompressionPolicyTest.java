@@ -0,0 +1,57 @@
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+public class ContentTypeCompressionPolicyTest {
+    private static final byte[] NO_HEAD = new byte[0];
+
+    private final ContentTypeCompressionPolicy policy = new ContentTypeCompressionPolicy(9, 4096);
+
+    @Test
+    public void mediaIsNotCompressed() {
+        assertEquals(Deflater.NO_COMPRESSION, policy.getCompressionLevel("video.mp4", NO_HEAD, 0));
+        assertEquals(Deflater.NO_COMPRESSION, policy.getCompressionLevel("photo.JPG", NO_HEAD, 0));
+        assertEquals(Deflater.NO_COMPRESSION, policy.getCompressionLevel("data.gz", NO_HEAD, 0));
+    }
+
+    @Test
+    public void jsonUsesJsonLevel() {
+        assertEquals(9, policy.getCompressionLevel("answers.json", NO_HEAD, 0));
+        assertEquals(Deflater.BEST_SPEED, new ContentTypeCompressionPolicy(Deflater.BEST_SPEED, 0)
+                .getCompressionLevel("answers.json", NO_HEAD, 0));
+    }
+
+    @Test
+    public void probeDetectsCompressedData() {
+        byte[] random = new byte[4096];
+        new Random(42).nextBytes(random);
+        assertEquals(Deflater.NO_COMPRESSION,
+                policy.getCompressionLevel("accelerometer.bin", random, random.length));
+
+        byte[] text = "timestamp,x,y,z\n0.01,0.12,9.81,0.03\n".getBytes(StandardCharsets.UTF_8);
+        assertEquals(Deflater.DEFAULT_COMPRESSION,
+                policy.getCompressionLevel("accelerometer.bin", text, text.length));
+        assertEquals(Deflater.DEFAULT_COMPRESSION,
+                policy.getCompressionLevel("noExtension", NO_HEAD, 0));
+    }
+
+    @Test
+    public void entropy() {
+        assertEquals(0, ContentTypeCompressionPolicy.getEntropyBits(new byte[100], 100), 0.001);
+
+        byte[] allValues = new byte[256];
+        for (int i = 0; i < allValues.length; i++) {
+            allValues[i] = (byte) i;
+        }
+        assertEquals(8, ContentTypeCompressionPolicy.getEntropyBits(allValues, 256), 0.001);
+        assertTrue(ContentTypeCompressionPolicy.getEntropyBits(allValues, 16)
+                < ContentTypeCompressionPolicy.INCOMPRESSIBLE_ENTROPY_BITS);
+    }
+}
@@ -0,0 +1,178 @@
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.internal.Util;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * Uploads to a local stand-in for S3.
+ */
+public class FileUploadRequestBodyTest {
+    private static final Logger LOG = LoggerFactory.getLogger(FileUploadRequestBodyTest.class);
+
+    private static final String CONTENT_TYPE = "application/zip";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private OkHttpClient client;
+
+    @Before
+    public void setup() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        client = new OkHttpClient();
+    }
+
+    @After
+    public void teardown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void progressIsThrottledByBytes() throws Exception {
+        File file = createFile(1024 * 1024);
+        List<Long> progress = Lists.newArrayList();
+        FileUploadRequestBody requestBody = new FileUploadRequestBody(file, CONTENT_TYPE,
+                progress::add, 64 * 1024, 256 * 1024, 0);
+
+        put(requestBody);
+
+        assertEquals(Lists.newArrayList(256 * 1024L, 512 * 1024L, 768 * 1024L, 1024 * 1024L),
+                progress);
+
+        RecordedRequest request = server.takeRequest();
+        assertEquals(file.length(), request.getBodySize());
+        assertArrayEquals(Files.toByteArray(file), request.getBody().readByteArray());
+    }
+
+    @Test
+    public void lastProgressIsAlwaysReported() throws Exception {
+        File file = createFile(100 * 1024);
+        List<Long> progress = Lists.newArrayList();
+
+        put(new FileUploadRequestBody(file, CONTENT_TYPE, progress::add, 64 * 1024,
+                1024 * 1024, 0));
+
+        assertEquals(Lists.newArrayList(100 * 1024L), progress);
+    }
+
+    /**
+     * Compares the body with the body as it was, which flushed and reported progress after every
+     * 8 KB segment. Run manually, throughput is logged.
+     */
+    @Ignore("benchmark")
+    @Test
+    public void benchmark() throws Exception {
+        File file = createFile(16 * 1024 * 1024);
+        int[] callbacks = new int[2];
+
+        double legacyBytesPerSecond = measure(new LegacyFileUploadRequestBody(file,
+                l -> callbacks[0]++));
+        double tunedBytesPerSecond = measure(new FileUploadRequestBody(file, CONTENT_TYPE,
+                l -> callbacks[1]++));
+
+        LOG.info("Legacy: {} bytes/s, {} callbacks, tuned: {} bytes/s, {} callbacks",
+                (long) legacyBytesPerSecond, callbacks[0], (long) tunedBytesPerSecond,
+                callbacks[1]);
+        // one callback per 8 KB segment before, about one per 256 KB now
+        assertTrue(callbacks[1] < callbacks[0]);
+    }
+
+    private double measure(RequestBody requestBody) throws Exception {
+        long start = System.nanoTime();
+        put(requestBody);
+        long nanos = System.nanoTime() - start;
+        assertEquals(requestBody.contentLength(), server.takeRequest().getBodySize());
+        return requestBody.contentLength() * 1e9 / nanos;
+    }
+
+    private void put(RequestBody requestBody) throws IOException {
+        server.enqueue(new MockResponse().setResponseCode(200));
+        try (Response response = client.newCall(new Request.Builder()
+                .url(server.url("/bucket/archive.zip"))
+                .put(requestBody)
+                .build()).execute()) {
+            assertEquals(200, response.code());
+        }
+    }
+
+    private File createFile(int length) throws IOException {
+        byte[] data = new byte[length];
+        new Random(42).nextBytes(data);
+        File file = temporaryFolder.newFile();
+        Files.write(data, file);
+        return file;
+    }
+
+    /**
+     * FileUploadRequestBody before buffering and progress throttling.
+     */
+    private static class LegacyFileUploadRequestBody extends RequestBody {
+        private final File file;
+        private final FileUploadRequestBody.ProgressListener listener;
+
+        LegacyFileUploadRequestBody(File file, FileUploadRequestBody.ProgressListener listener) {
+            this.file = file;
+            this.listener = listener;
+        }
+
+        @Override
+        public long contentLength() {
+            return file.length();
+        }
+
+        @Override
+        public MediaType contentType() {
+            return MediaType.parse(CONTENT_TYPE);
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            Source source = null;
+            try {
+                source = Okio.source(file);
+                long total = 0;
+                long read;
+                while ((read = source.read(sink.buffer(), 8192)) != -1) {
+                    total += read;
+                    sink.flush();
+                    listener.transferred(total);
+                }
+            } finally {
+                Util.closeQuietly(source);
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+import com.google.common.io.ByteSource;
+
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sagebionetworks.bridge.data.Archive;
+import org.sagebionetworks.bridge.data.ByteSourceArchiveFile;
+import org.sagebionetworks.bridge.data.JsonArchiveFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class PipelinedArchiveWriterTest {
+    private static final DateTime END_DATE = DateTime.parse("2018-06-01T12:00:00.000Z");
+
+    private ExecutorService executor;
+
+    @Before
+    public void setup() {
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void outputMatchesSingleThreadedWrite() throws Exception {
+        Archive archive = createArchive();
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        archive.writeTo(expected);
+
+        // small chunks and queue to exercise buffer recycling
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        PipelinedArchiveWriter.Stats stats = new PipelinedArchiveWriter(executor, 1000, 2)
+                .write(archive, actual);
+
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+        assertEquals(expected.size(), stats.getBytes());
+        assertTrue(stats.getTotalNanos() > 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void zipFailureIsThrown() throws Exception {
+        Archive archive = mock(Archive.class);
+        doThrow(new IOException("zip failed")).when(archive).writeTo(any());
+
+        new PipelinedArchiveWriter(executor).write(archive, new ByteArrayOutputStream());
+    }
+
+    @Test
+    public void downstreamFailureStopsZipStage() throws Exception {
+        OutputStream failingStream = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("encrypt failed");
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                throw new IOException("encrypt failed");
+            }
+        };
+
+        try {
+            new PipelinedArchiveWriter(executor, 1000, 1).write(createArchive(), failingStream);
+        } catch (IOException e) {
+            assertEquals("encrypt failed", e.getMessage());
+        }
+
+        // the zip stage is cancelled, rather than left blocked on a full queue
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    private static Archive createArchive() {
+        byte[] sensorData = new byte[512 * 1024];
+        new Random(42).nextBytes(sensorData);
+
+        return Archive.Builder.forActivity("test-schema", 1)
+                .withAppVersionName("version 1.0, build 1")
+                .withPhoneInfo("Test Phone")
+                .addDataFile(new JsonArchiveFile("answers.json", END_DATE, "{\"answer\":42}"))
+                .addDataFile(new ByteSourceArchiveFile("accelerometer.bin", END_DATE,
+                        ByteSource.wrap(sensorData)))
+                .build();
+    }
+}
@@ -0,0 +1,89 @@
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+public class S3TransportTest {
+    private MockWebServer server;
+    private OkHttpClient client;
+
+    @Before
+    public void setup() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        client = new OkHttpClient();
+    }
+
+    @After
+    public void teardown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void getS3ServiceIsCachedPerHost() {
+        S3Transport s3Transport = new S3Transport(client, false, 0);
+
+        S3Service s3Service = s3Transport.getS3Service("https://bucket.s3.amazonaws.com/a?sig=1");
+        assertSame(s3Service, s3Transport.getS3Service("https://bucket.s3.amazonaws.com/b?sig=2"));
+        assertNotSame(s3Service, s3Transport.getS3Service("https://other.s3.amazonaws.com/a"));
+    }
+
+    @Test
+    public void getBaseUrl() {
+        assertEquals("https://bucket.s3.amazonaws.com/",
+                S3Transport.getBaseUrl("https://bucket.s3.amazonaws.com/path/archive?sig=1"));
+        assertEquals("http://localhost:8080/",
+                S3Transport.getBaseUrl("http://localhost:8080/archive"));
+    }
+
+    @Test
+    public void preconnectToLastHost() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(403));
+        S3Transport s3Transport = new S3Transport(client, true, 0);
+
+        // no host known yet
+        s3Transport.preconnect();
+
+        s3Transport.getS3Service(server.url("/archive.zip").toString());
+        s3Transport.preconnect();
+
+        RecordedRequest request = server.takeRequest(5, TimeUnit.SECONDS);
+        assertEquals("HEAD", request.getMethod());
+        assertEquals("/", request.getPath());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void preconnectSkippedWhenRecentlyConnected() throws Exception {
+        S3Transport s3Transport = new S3Transport(client, true, TimeUnit.MINUTES.toMillis(1));
+
+        s3Transport.getS3Service(server.url("/archive.zip").toString());
+        s3Transport.preconnect();
+
+        assertNull(server.takeRequest(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void preconnectDisabled() throws Exception {
+        S3Transport s3Transport = new S3Transport(client, false, 0);
+
+        s3Transport.getS3Service(server.url("/archive.zip").toString());
+        s3Transport.preconnect();
+
+        assertNull(server.takeRequest(500, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,120 @@
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.io.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sagebionetworks.bridge.android.util.retrofit.RxUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import retrofit2.Retrofit;
+import retrofit2.adapter.rxjava.HttpException;
+import rx.schedulers.Schedulers;
+
+/**
+ * Uploads to a local stand-in for S3.
+ */
+public class S3UploadRetryTest {
+    private static final String MD5 = "hash";
+    private static final String CONTENT_TYPE = "application/zip";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private S3Service s3Service;
+    private File file;
+
+    @Before
+    public void setup() throws IOException {
+        server = new MockWebServer();
+        server.start();
+
+        // disable OkHttp's own retry, so only S3UploadRetry resends the file
+        OkHttpClient client = new OkHttpClient.Builder()
+                .retryOnConnectionFailure(false)
+                .readTimeout(5, TimeUnit.SECONDS)
+                .build();
+        s3Service = new Retrofit.Builder()
+                .baseUrl(server.url("/"))
+                .client(client)
+                .build()
+                .create(S3Service.class);
+
+        file = temporaryFolder.newFile("archive.zip");
+        Files.write(new byte[64 * 1024], file);
+    }
+
+    @After
+    public void teardown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void retriesDroppedConnection() throws Exception {
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST));
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setResponseCode(200));
+
+        upload(3).test().awaitTerminalEvent(10, TimeUnit.SECONDS).assertCompleted();
+
+        assertEquals(3, server.getRequestCount());
+        for (int i = 0; i < 3; i++) {
+            RecordedRequest request = server.takeRequest();
+            assertEquals("PUT", request.getMethod());
+            assertEquals(file.length(), request.getBodySize());
+            assertEquals(MD5, request.getHeader("Content-MD5"));
+        }
+    }
+
+    @Test
+    public void givesUpAfterMaxRetries() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(500));
+        server.enqueue(new MockResponse().setResponseCode(500));
+
+        upload(1).test().awaitTerminalEvent(10, TimeUnit.SECONDS)
+                .assertError(HttpException.class);
+
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void clientErrorIsNotRetried() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(403));
+
+        upload(3).test().awaitTerminalEvent(10, TimeUnit.SECONDS)
+                .assertError(HttpException.class);
+
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void isRetryable() {
+        assertTrue(S3UploadRetry.isRetryable(new IOException()));
+        assertFalse(S3UploadRetry.isRetryable(new IllegalStateException()));
+    }
+
+    private rx.Completable upload(int maxRetries) {
+        FileUploadRequestBody requestBody = new FileUploadRequestBody(file, CONTENT_TYPE, l -> {
+        });
+        return RxUtils.toBodySingle(s3Service.uploadToS3(server.url("/bucket/archive.zip").toString(),
+                requestBody, MD5, CONTENT_TYPE))
+                .retryWhen(new S3UploadRetry(maxRetries, 10, Schedulers.computation()))
+                .toCompletable();
+    }
+}
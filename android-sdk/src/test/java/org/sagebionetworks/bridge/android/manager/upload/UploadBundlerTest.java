@@ -0,0 +1,263 @@
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.sagebionetworks.bridge.android.manager.UploadManager;
+import org.sagebionetworks.bridge.android.manager.UploadManager.UploadFile;
+import org.sagebionetworks.bridge.data.Archive;
+import org.sagebionetworks.bridge.data.ArchiveFile;
+import org.sagebionetworks.bridge.data.ByteSourceArchiveFile;
+import org.sagebionetworks.bridge.data.JsonArchiveFile;
+import org.sagebionetworks.bridge.rest.RestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import rx.Completable;
+import rx.Single;
+import rx.schedulers.TestScheduler;
+
+public class UploadBundlerTest {
+    private static final DateTime END_DATE = DateTime.parse("2018-06-01T12:00:00.000-07:00");
+    private static final long WINDOW_MILLIS = 60000;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Mock
+    private UploadManager uploadManager;
+
+    @Mock
+    private UploadFile uploadFile;
+
+    private TestScheduler scheduler;
+
+    private File bundleDirectory;
+
+    @Before
+    public void setup() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        scheduler = new TestScheduler();
+        bundleDirectory = temporaryFolder.newFolder("bundle");
+
+        when(uploadManager.queueUpload(anyString(), any(ArchiveContents.class)))
+                .thenReturn(Single.just(uploadFile));
+        when(uploadManager.processUploadFile(uploadFile)).thenReturn(Completable.complete());
+    }
+
+    @Test
+    public void canBundleSmallResults() {
+        UploadBundler uploadBundler = createBundler(true, 1024);
+
+        assertTrue(uploadBundler.canBundle(ImmutableList.of(dataFile("small.json", 100))));
+        assertFalse(uploadBundler.canBundle(ImmutableList.of(dataFile("large.json", 2048))));
+    }
+
+    @Test
+    public void disabled() {
+        UploadBundler uploadBundler = createBundler(false, 1024);
+
+        assertFalse(uploadBundler.isEnabled());
+        assertFalse(uploadBundler.canBundle(ImmutableList.of(dataFile("small.json", 100))));
+    }
+
+    @Test
+    public void holdsResultsUntilWindowEnds() {
+        UploadBundler uploadBundler = createBundler(true, 1024 * 1024);
+
+        add(uploadBundler, "result1");
+        add(uploadBundler, "result2");
+        assertEquals(2, uploadBundler.getHeldCount());
+        verify(uploadManager, never()).queueUpload(anyString(), any(ArchiveContents.class));
+
+        scheduler.advanceTimeBy(WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+
+        verify(uploadManager).queueUpload(anyString(), any(ArchiveContents.class));
+        verify(uploadManager).processUploadFile(uploadFile);
+        assertEquals(0, uploadBundler.getHeldCount());
+    }
+
+    @Test
+    public void uploadsWhenSizeLimitReached() {
+        UploadBundler uploadBundler = createBundler(true, 150);
+
+        add(uploadBundler, "result1");
+        verify(uploadManager, never()).queueUpload(anyString(), any(ArchiveContents.class));
+
+        add(uploadBundler, "result2");
+        verify(uploadManager).queueUpload(anyString(), any(ArchiveContents.class));
+        assertEquals(0, uploadBundler.getHeldCount());
+    }
+
+    @Test
+    public void signOutDeletesHeldResults() {
+        UploadBundler uploadBundler = createBundler(true, 1024 * 1024);
+        add(uploadBundler, "result1");
+        add(uploadBundler, "result2");
+
+        uploadBundler.onSignedOut("email");
+        scheduler.triggerActions();
+
+        assertEquals(0, uploadBundler.getHeldCount());
+        assertFalse(bundleDirectory.exists());
+
+        // nothing is left for the window to upload
+        scheduler.advanceTimeBy(WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+        verify(uploadManager, never()).queueUpload(anyString(), any(ArchiveContents.class));
+    }
+
+    @Test
+    public void flushIfDueWaitsForWindow() {
+        UploadBundler uploadBundler = createBundler(true, 1024 * 1024);
+        add(uploadBundler, "result1");
+
+        uploadBundler.flushIfDue().subscribe();
+        scheduler.triggerActions();
+
+        verify(uploadManager, never()).queueUpload(anyString(), any(ArchiveContents.class));
+        assertEquals(1, uploadBundler.getHeldCount());
+    }
+
+    @Test
+    public void failedQueueKeepsResults() {
+        when(uploadManager.queueUpload(anyString(), any(ArchiveContents.class)))
+                .thenReturn(Single.error(new RuntimeException("queue failed")));
+        UploadBundler uploadBundler = createBundler(true, 1024 * 1024);
+        add(uploadBundler, "result1");
+
+        uploadBundler.flush().subscribe(() -> {
+        }, t -> {
+        });
+        scheduler.triggerActions();
+
+        assertEquals(1, uploadBundler.getHeldCount());
+    }
+
+    @Test
+    public void bundleHasSubFolderPerResult() throws Exception {
+        UploadBundler uploadBundler = createBundler(true, 1024 * 1024);
+        add(uploadBundler, "schema1/result");
+        add(uploadBundler, "result2");
+
+        uploadBundler.flush().subscribe();
+        scheduler.triggerActions();
+
+        ArgumentCaptor<ArchiveContents> contentsCaptor =
+                ArgumentCaptor.forClass(ArchiveContents.class);
+        verify(uploadManager).queueUpload(anyString(), contentsCaptor.capture());
+        Map<String, byte[]> entries = readEntries(contentsCaptor.getValue().toArchive());
+
+        assertArrayEquals(dataBytes(100), entries.get("schema1_result/data.json"));
+        assertArrayEquals(dataBytes(100), entries.get("result2/data.json"));
+        assertTrue(entries.containsKey("result2/metadata.json"));
+
+        JsonObject bundleInfo = RestUtils.GSON.fromJson(new String(
+                entries.get(UploadBundler.BUNDLE_INFO_FILENAME), Charsets.UTF_8), JsonObject.class);
+        assertEquals(2, bundleInfo.getAsJsonArray("results").size());
+        JsonObject result = null;
+        for (JsonElement element : bundleInfo.getAsJsonArray("results")) {
+            if ("schema1/result".equals(element.getAsJsonObject().get("resultId").getAsString())) {
+                result = element.getAsJsonObject();
+            }
+        }
+        assertNotNull(result);
+        assertEquals("schema1_result", result.get("folder").getAsString());
+        assertEquals("test-schema", result.get("schemaId").getAsString());
+        assertEquals(3, result.get("schemaRevision").getAsInt());
+    }
+
+    @Test
+    public void resultsFromEarlierProcessAreBundled() {
+        add(createBundler(true, 1024 * 1024), "result1");
+
+        // e.g. the app was killed before the window ended
+        UploadBundler uploadBundler = createBundler(true, 1024 * 1024);
+        assertEquals(1, uploadBundler.getHeldCount());
+
+        uploadBundler.flush().subscribe();
+        scheduler.triggerActions();
+
+        verify(uploadManager).queueUpload(anyString(), any(ArchiveContents.class));
+        assertEquals(0, uploadBundler.getHeldCount());
+    }
+
+    @Test
+    public void getFolderName() {
+        assertEquals("result", UploadBundler.getFolderName("result", ImmutableList.of()));
+        assertEquals("a_b", UploadBundler.getFolderName("a/b", ImmutableList.of()));
+        assertEquals("_..", UploadBundler.getFolderName("..", ImmutableList.of()));
+        assertEquals("result-2", UploadBundler.getFolderName("result",
+                ImmutableList.of("result")));
+    }
+
+    private UploadBundler createBundler(boolean enabled, long maxBundleBytes) {
+        return new UploadBundler(bundleDirectory, uploadManager,
+                () -> Archive.Builder.forActivity("bundle-schema", 1), enabled, WINDOW_MILLIS,
+                maxBundleBytes, 1024, scheduler);
+    }
+
+    private void add(UploadBundler uploadBundler, String resultId) {
+        List<ArchiveFile> dataFiles = ImmutableList.of(dataFile("data.json", 100),
+                new JsonArchiveFile("metadata.json", END_DATE, "{}"));
+        uploadBundler.add(resultId, new SchemaKey("test-schema", 3), dataFiles).subscribe();
+        scheduler.triggerActions();
+    }
+
+    private static ArchiveFile dataFile(String filename, int length) {
+        return new ByteSourceArchiveFile(filename, END_DATE, ByteSource.wrap(dataBytes(length)));
+    }
+
+    private static byte[] dataBytes(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) ('a' + i % 26);
+        }
+        return bytes;
+    }
+
+    private static Map<String, byte[]> readEntries(Archive archive) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        archive.writeTo(out);
+
+        Map<String, byte[]> entries = Maps.newHashMap();
+        try (ZipInputStream zipIn = new ZipInputStream(
+                new ByteArrayInputStream(out.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zipIn.getNextEntry()) != null) {
+                entries.put(entry.getName(), ByteStreams.toByteArray(zipIn));
+            }
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,56 @@
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class UploadByteBudgetTest {
+
+    @Test
+    public void unlimited() throws Exception {
+        UploadByteBudget budget = new UploadByteBudget(0);
+
+        assertEquals(0, budget.acquire(Long.MAX_VALUE));
+        assertEquals(0, budget.getInFlightBytes());
+    }
+
+    @Test
+    public void oversizedArchiveIsAdmittedAlone() throws Exception {
+        UploadByteBudget budget = new UploadByteBudget(100);
+
+        long reserved = budget.acquire(500);
+        assertEquals(100, reserved);
+        assertEquals(100, budget.getInFlightBytes());
+
+        budget.release(reserved);
+        assertEquals(0, budget.getInFlightBytes());
+    }
+
+    @Test
+    public void blocksUntilReleased() throws Exception {
+        UploadByteBudget budget = new UploadByteBudget(100);
+        long first = budget.acquire(60);
+
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = new Thread(() -> {
+            try {
+                budget.acquire(60);
+                acquired.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiter.start();
+
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+
+        budget.release(first);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        assertEquals(60, budget.getInFlightBytes());
+    }
+}
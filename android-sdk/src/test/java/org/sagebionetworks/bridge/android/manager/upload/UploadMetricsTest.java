@@ -0,0 +1,91 @@
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.sagebionetworks.bridge.android.manager.upload.UploadMetrics.PhaseRecord;
+import org.sagebionetworks.bridge.android.manager.upload.UploadMetrics.UploadMetricsListener;
+import org.sagebionetworks.bridge.android.manager.upload.UploadMetrics.UploadPhase;
+
+public class UploadMetricsTest {
+
+    @Test
+    public void recordPhase() {
+        UploadMetrics uploadMetrics = new UploadMetrics();
+        UploadMetricsListener listener = mock(UploadMetricsListener.class);
+        uploadMetrics.addListener(listener);
+
+        uploadMetrics.recordPhase("archive.zip", UploadPhase.S3_PUT, 2000, 1000, true);
+        uploadMetrics.recordPhase("archive.zip", UploadPhase.S3_PUT, 2000, 1000, false);
+        uploadMetrics.recordRetry();
+
+        ArgumentCaptor<PhaseRecord> captor = ArgumentCaptor.forClass(PhaseRecord.class);
+        verify(listener, times(2)).onPhaseRecorded(captor.capture());
+        assertEquals(500, captor.getValue().getBytesPerSecond(), 0.001);
+
+        UploadMetrics.Snapshot snapshot = uploadMetrics.getSnapshot();
+        UploadMetrics.PhaseStats stats = snapshot.getPhaseStats(UploadPhase.S3_PUT);
+        assertEquals(1, stats.getSuccessCount());
+        assertEquals(1, stats.getFailureCount());
+        assertEquals(2000, stats.getAverageDurationMillis());
+        assertEquals(500, stats.getBytesPerSecond(), 0.001);
+        assertEquals(1, snapshot.getRetryCount());
+        assertEquals(0, snapshot.getPhaseStats(UploadPhase.PERSIST).getSuccessCount());
+    }
+
+    @Test
+    public void recordQueue() {
+        UploadMetrics uploadMetrics = new UploadMetrics();
+        UploadMetricsListener listener = mock(UploadMetricsListener.class);
+        uploadMetrics.addListener(listener);
+
+        uploadMetrics.recordQueue(3, System.currentTimeMillis() - 60_000);
+
+        verify(listener).onQueueRecorded(eq(3), anyLong());
+        UploadMetrics.Snapshot snapshot = uploadMetrics.getSnapshot();
+        assertEquals(3, snapshot.getQueueDepth());
+        assertTrue(snapshot.getOldestItemAgeMillis() >= 60_000);
+
+        uploadMetrics.recordQueue(0, null);
+        assertEquals(0, uploadMetrics.getSnapshot().getOldestItemAgeMillis());
+    }
+
+    @Test
+    public void recordValidationFinished() {
+        UploadMetrics uploadMetrics = new UploadMetrics();
+        UploadMetricsListener listener = mock(UploadMetricsListener.class);
+        uploadMetrics.addListener(listener);
+
+        // not uploaded by this instance, nothing to measure from
+        uploadMetrics.recordValidationFinished("earlier.zip", true);
+        verify(listener, never()).onPhaseRecorded(any());
+
+        uploadMetrics.markUploaded("archive.zip");
+        uploadMetrics.recordValidationFinished("archive.zip", true);
+
+        assertEquals(1, uploadMetrics.getSnapshot().getPhaseStats(UploadPhase.VALIDATION)
+                .getSuccessCount());
+    }
+
+    @Test
+    public void forgetUpload() {
+        UploadMetrics uploadMetrics = new UploadMetrics();
+        UploadMetricsListener listener = mock(UploadMetricsListener.class);
+        uploadMetrics.addListener(listener);
+
+        uploadMetrics.markUploaded("archive.zip");
+        uploadMetrics.forgetUpload("archive.zip");
+        uploadMetrics.recordValidationFinished("archive.zip", true);
+
+        verify(listener, never()).onPhaseRecorded(any());
+    }
+}
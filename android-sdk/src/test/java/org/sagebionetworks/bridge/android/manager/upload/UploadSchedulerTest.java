@@ -0,0 +1,118 @@
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+
+import androidx.work.Configuration;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.WorkInfo;
+import androidx.work.WorkManager;
+import androidx.work.testing.SynchronousExecutor;
+import androidx.work.testing.WorkManagerTestInitHelper;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.sagebionetworks.bridge.android.manager.UploadManager.UploadFile;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@Config
+@RunWith(RobolectricTestRunner.class)
+public class UploadSchedulerTest {
+    private static final long METERED_MAX_BYTES = 1024;
+
+    private Context context;
+    private WorkManager workManager;
+
+    @Before
+    public void setup() {
+        context = RuntimeEnvironment.application;
+        WorkManagerTestInitHelper.initializeTestWorkManager(context, new Configuration.Builder()
+                .setExecutor(new SynchronousExecutor())
+                .build());
+        workManager = WorkManager.getInstance(context);
+    }
+
+    @Test
+    public void disabled() throws Exception {
+        createScheduler(false).onUploadQueued(uploadFile(100));
+
+        assertTrue(getWorkInfos(UploadScheduler.WORK_NAME).isEmpty());
+        assertTrue(getWorkInfos(UploadScheduler.PERIODIC_WORK_NAME).isEmpty());
+    }
+
+    @Test
+    public void coalescesQueuedUploads() throws Exception {
+        UploadScheduler uploadScheduler = createScheduler(true);
+        uploadScheduler.onUploadQueued(uploadFile(100));
+        uploadScheduler.onUploadQueued(uploadFile(200));
+
+        List<WorkInfo> workInfos = getWorkInfos(UploadScheduler.WORK_NAME);
+        assertEquals(1, workInfos.size());
+        assertEquals(WorkInfo.State.ENQUEUED, workInfos.get(0).getState());
+        assertTrue(getWorkInfos(UploadScheduler.LARGE_WORK_NAME).isEmpty());
+        assertEquals(1, getWorkInfos(UploadScheduler.PERIODIC_WORK_NAME).size());
+    }
+
+    @Test
+    public void appendsRunAfterRunningWork() {
+        assertEquals(ExistingWorkPolicy.KEEP,
+                UploadScheduler.getExistingWorkPolicy(ImmutableList.of()));
+        assertEquals(ExistingWorkPolicy.KEEP,
+                UploadScheduler.getExistingWorkPolicy(ImmutableList.of(WorkInfo.State.ENQUEUED)));
+        assertEquals(ExistingWorkPolicy.KEEP,
+                UploadScheduler.getExistingWorkPolicy(ImmutableList.of(WorkInfo.State.SUCCEEDED)));
+
+        // the running worker may have listed the queue already
+        assertEquals(ExistingWorkPolicy.APPEND,
+                UploadScheduler.getExistingWorkPolicy(ImmutableList.of(WorkInfo.State.RUNNING)));
+        // a run is already waiting after it
+        assertEquals(ExistingWorkPolicy.KEEP, UploadScheduler.getExistingWorkPolicy(
+                ImmutableList.of(WorkInfo.State.RUNNING, WorkInfo.State.BLOCKED)));
+    }
+
+    @Test
+    public void largeUploadWaitsForUnmeteredNetwork() throws Exception {
+        createScheduler(true).onUploadQueued(uploadFile(METERED_MAX_BYTES + 1));
+
+        assertEquals(1, getWorkInfos(UploadScheduler.WORK_NAME).size());
+        assertEquals(1, getWorkInfos(UploadScheduler.LARGE_WORK_NAME).size());
+    }
+
+    @Test
+    public void cancel() throws Exception {
+        UploadScheduler uploadScheduler = createScheduler(true);
+        uploadScheduler.onUploadQueued(uploadFile(METERED_MAX_BYTES + 1));
+        uploadScheduler.cancel();
+
+        assertEquals(WorkInfo.State.CANCELLED,
+                getWorkInfos(UploadScheduler.WORK_NAME).get(0).getState());
+        assertEquals(WorkInfo.State.CANCELLED,
+                getWorkInfos(UploadScheduler.LARGE_WORK_NAME).get(0).getState());
+    }
+
+    private UploadScheduler createScheduler(boolean enabled) {
+        return new UploadScheduler(context, enabled, TimeUnit.MINUTES.toMillis(1),
+                METERED_MAX_BYTES, true, TimeUnit.HOURS.toMillis(6));
+    }
+
+    private List<WorkInfo> getWorkInfos(String uniqueWorkName) throws Exception {
+        return workManager.getWorkInfosForUniqueWork(uniqueWorkName).get();
+    }
+
+    private static UploadFile uploadFile(long fileLength) {
+        UploadFile uploadFile = new UploadFile();
+        uploadFile.filename = "archive-" + fileLength + ".zip";
+        uploadFile.fileLength = fileLength;
+        return uploadFile;
+    }
+}
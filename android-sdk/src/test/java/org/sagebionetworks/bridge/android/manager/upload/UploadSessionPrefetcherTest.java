@@ -0,0 +1,73 @@
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+import org.sagebionetworks.bridge.rest.model.UploadSession;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rx.Single;
+import rx.subjects.PublishSubject;
+
+public class UploadSessionPrefetcherTest {
+
+    @Test
+    public void sharesInFlightRequest() {
+        UploadSessionPrefetcher prefetcher = new UploadSessionPrefetcher(2);
+        PublishSubject<UploadSession> response = PublishSubject.create();
+        AtomicInteger subscriptions = new AtomicInteger();
+        Single<UploadSession> request = response.toSingle()
+                .doOnSubscribe(subscriptions::incrementAndGet);
+
+        assertTrue(prefetcher.prefetch("file", request));
+        assertFalse(prefetcher.prefetch("file", request));
+
+        UploadSession session = mock(UploadSession.class);
+        Single<UploadSession> inFlight = prefetcher.getInFlight("file");
+        response.onNext(session);
+        response.onCompleted();
+
+        assertSame(session, inFlight.toBlocking().value());
+        assertEquals(1, subscriptions.get());
+        assertNull(prefetcher.getInFlight("file"));
+    }
+
+    @Test
+    public void limitsInFlightRequests() {
+        UploadSessionPrefetcher prefetcher = new UploadSessionPrefetcher(1);
+
+        assertTrue(prefetcher.prefetch("file1", Single.never()));
+        assertFalse(prefetcher.prefetch("file2", Single.never()));
+        assertEquals(1, prefetcher.getInFlightCount());
+
+        assertFalse(new UploadSessionPrefetcher(0).prefetch("file1", Single.never()));
+    }
+
+    @Test
+    public void failedRequestIsRemoved() {
+        UploadSessionPrefetcher prefetcher = new UploadSessionPrefetcher(1);
+
+        assertTrue(prefetcher.prefetch("file", Single.error(new RuntimeException("offline"))));
+
+        assertNull(prefetcher.getInFlight("file"));
+        assertTrue(prefetcher.prefetch("file", Single.never()));
+    }
+
+    @Test
+    public void isExpiring() {
+        DateTime now = DateTime.now();
+        UploadSession session = mock(UploadSession.class);
+        when(session.getExpires()).thenReturn(now.plusMinutes(10));
+
+        assertTrue(UploadSessionPrefetcher.isExpiring(session, now.plusMinutes(30)));
+        assertFalse(UploadSessionPrefetcher.isExpiring(session, now));
+    }
+}
@@ -0,0 +1,88 @@
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.sagebionetworks.bridge.android.manager.dao.UploadEntity;
+import org.sagebionetworks.bridge.rest.model.UploadStatus;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+public class UploadStatusReconcilerTest {
+    private static final long NOW = 1_500_000_000_000L;
+    private static final long MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(14);
+
+    @Test
+    public void nextStatusCheckBacksOffWithJitter() {
+        UploadStatusReconciler reconciler = new UploadStatusReconciler(3, MAX_AGE_MILLIS, new Random(1));
+        UploadEntity uploadEntity = createUploadEntity(0, NOW);
+
+        long previousDelay = 0;
+        for (int checks = 0; checks < 5; checks++) {
+            uploadEntity.statusCheckCount = checks;
+            long delay = reconciler.getNextStatusCheckOn(uploadEntity, NOW) - NOW;
+
+            long expected = UploadStatusReconciler.INITIAL_CHECK_DELAY_MILLIS << checks;
+            assertTrue(delay >= expected * (1 - UploadStatusReconciler.JITTER));
+            assertTrue(delay <= expected * (1 + UploadStatusReconciler.JITTER));
+            assertTrue(delay > previousDelay);
+            previousDelay = delay;
+        }
+    }
+
+    @Test
+    public void nextStatusCheckIsCapped() {
+        UploadStatusReconciler reconciler = new UploadStatusReconciler(3, MAX_AGE_MILLIS, new Random(1));
+        UploadEntity uploadEntity = createUploadEntity(0, NOW);
+        uploadEntity.statusCheckCount = 1000;
+
+        long delay = reconciler.getNextStatusCheckOn(uploadEntity, NOW) - NOW;
+        assertTrue(delay <= UploadStatusReconciler.MAX_CHECK_DELAY_MILLIS
+                * (1 + UploadStatusReconciler.JITTER));
+    }
+
+    @Test
+    public void failedUploadIsRetiredAfterMaxChecks() {
+        UploadStatusReconciler reconciler = new UploadStatusReconciler(3, MAX_AGE_MILLIS, new Random(1));
+
+        assertFalse(reconciler.shouldRetire(createUploadEntity(0, NOW), UploadStatus.VALIDATION_FAILED, NOW));
+        assertFalse(reconciler.shouldRetire(createUploadEntity(1, NOW), UploadStatus.VALIDATION_FAILED, NOW));
+        assertTrue(reconciler.shouldRetire(createUploadEntity(2, NOW), UploadStatus.VALIDATION_FAILED, NOW));
+
+        assertFalse(reconciler.shouldRetire(createUploadEntity(10, NOW),
+                UploadStatus.VALIDATION_IN_PROGRESS, NOW));
+    }
+
+    @Test
+    public void otherStatusChecksDoNotCountAsFailures() {
+        UploadStatusReconciler reconciler = new UploadStatusReconciler(3, MAX_AGE_MILLIS, new Random(1));
+        // e.g. checks that found validation still in progress
+        UploadEntity uploadEntity = createUploadEntity(0, NOW);
+        uploadEntity.statusCheckCount = 10;
+
+        assertFalse(reconciler.shouldRetire(uploadEntity, UploadStatus.VALIDATION_FAILED, NOW));
+    }
+
+    @Test
+    public void oldUploadIsRetired() {
+        UploadStatusReconciler reconciler = new UploadStatusReconciler(3, MAX_AGE_MILLIS, new Random(1));
+        long createdOn = NOW - MAX_AGE_MILLIS - 1;
+
+        assertTrue(reconciler.shouldRetire(createUploadEntity(0, createdOn),
+                UploadStatus.VALIDATION_IN_PROGRESS, NOW));
+
+        UploadStatusReconciler neverByAge = new UploadStatusReconciler(3, 0, new Random(1));
+        assertFalse(neverByAge.shouldRetire(createUploadEntity(0, createdOn),
+                UploadStatus.VALIDATION_IN_PROGRESS, NOW));
+    }
+
+    private static UploadEntity createUploadEntity(int failedValidationCount, long createdOn) {
+        UploadEntity uploadEntity = new UploadEntity();
+        uploadEntity.filename = "archive.zip";
+        uploadEntity.createdOn = createdOn;
+        uploadEntity.failedValidationCount = failedValidationCount;
+        return uploadEntity;
+    }
+}
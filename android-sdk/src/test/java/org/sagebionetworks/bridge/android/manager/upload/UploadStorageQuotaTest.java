@@ -0,0 +1,118 @@
+package org.sagebionetworks.bridge.android.manager.upload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+import org.sagebionetworks.bridge.android.manager.dao.UploadEntity;
+import org.sagebionetworks.bridge.android.manager.dao.UploadEntity.UploadState;
+import org.sagebionetworks.bridge.android.manager.upload.UploadStorageQuota.EvictionType;
+import org.sagebionetworks.bridge.android.manager.upload.UploadStorageQuota.Plan;
+import org.sagebionetworks.bridge.android.manager.upload.UploadStorageQuota.StoredUpload;
+
+import java.util.List;
+
+public class UploadStorageQuotaTest {
+
+    @Test
+    public void noLimit() {
+        Plan plan = new UploadStorageQuota(0).plan(ImmutableList.of(
+                storedUpload("queued", UploadState.QUEUED, 1, 1000)), Long.MAX_VALUE / 2);
+
+        assertTrue(plan.fits());
+        assertTrue(plan.getEvictions().isEmpty());
+    }
+
+    @Test
+    public void fitsWithoutEviction() {
+        Plan plan = new UploadStorageQuota(1000).plan(ImmutableList.of(
+                storedUpload("failed", UploadState.FAILED, 1, 400)), 600);
+
+        assertTrue(plan.fits());
+        assertTrue(plan.getEvictions().isEmpty());
+        assertEquals(400, plan.getUsedBytes());
+    }
+
+    @Test
+    public void stagedFilesCountAgainstBudget() {
+        List<StoredUpload> storedUploads = ImmutableList.of(
+                storedUpload("failed", UploadState.FAILED, 1, 400));
+
+        // fits once the failed upload is dropped, unless another persist is staging 500 bytes
+        assertTrue(new UploadStorageQuota(1000).plan(storedUploads, 0, 900).fits());
+        Plan plan = new UploadStorageQuota(1000).plan(storedUploads, 500, 900);
+
+        assertFalse(plan.fits());
+        assertEquals(900, plan.getUsedBytes());
+    }
+
+    @Test
+    public void dropsOldestFailedBeforeCompacting() {
+        List<StoredUpload> storedUploads = ImmutableList.of(
+                storedUpload("validating", UploadState.VALIDATING, 1, 300),
+                storedUpload("newerFailed", UploadState.FAILED, 3, 300),
+                storedUpload("olderFailed", UploadState.FAILED, 2, 300),
+                storedUpload("queued", UploadState.QUEUED, 0, 100));
+
+        Plan plan = new UploadStorageQuota(1000).plan(storedUploads, 500);
+
+        assertTrue(plan.fits());
+        assertEquals(2, plan.getEvictions().size());
+        assertEquals("olderFailed", plan.getEvictions().get(0).getFilename());
+        assertEquals(EvictionType.DROP, plan.getEvictions().get(0).getType());
+        assertEquals("newerFailed", plan.getEvictions().get(1).getFilename());
+    }
+
+    @Test
+    public void compactsUploadedWhenNoFailed() {
+        List<StoredUpload> storedUploads = ImmutableList.of(
+                storedUpload("uploaded", UploadState.UPLOADED, 1, 600),
+                // already compacted, nothing to free
+                storedUpload("compacted", UploadState.VALIDATING, 0, 0));
+
+        Plan plan = new UploadStorageQuota(1000).plan(storedUploads, 500);
+
+        assertTrue(plan.fits());
+        assertEquals(1, plan.getEvictions().size());
+        assertEquals("uploaded", plan.getEvictions().get(0).getFilename());
+        assertEquals(EvictionType.COMPACT, plan.getEvictions().get(0).getType());
+    }
+
+    @Test
+    public void evictsLowerPriorityFirst() {
+        StoredUpload oldHigh = storedUpload("oldHigh", UploadState.UPLOADED, 1, 400);
+        oldHigh.uploadEntity.priority = UploadPriority.HIGH;
+        StoredUpload newBulk = storedUpload("newBulk", UploadState.UPLOADED, 2, 400);
+        newBulk.uploadEntity.priority = UploadPriority.BULK;
+
+        Plan plan = new UploadStorageQuota(1000).plan(ImmutableList.of(oldHigh, newBulk), 500);
+
+        assertTrue(plan.fits());
+        assertEquals(1, plan.getEvictions().size());
+        assertEquals("newBulk", plan.getEvictions().get(0).getFilename());
+    }
+
+    @Test
+    public void neverEvictsArchivesNotYetUploaded() {
+        List<StoredUpload> storedUploads = ImmutableList.of(
+                storedUpload("queued", UploadState.QUEUED, 1, 600),
+                storedUpload("session", UploadState.SESSION_ACQUIRED, 2, 300));
+
+        Plan plan = new UploadStorageQuota(1000).plan(storedUploads, 500);
+
+        assertFalse(plan.fits());
+        assertEquals(100, plan.getAvailableBytes());
+    }
+
+    private static StoredUpload storedUpload(String filename, UploadState state, long createdOn,
+                                             long sizeOnDisk) {
+        UploadEntity uploadEntity = new UploadEntity();
+        uploadEntity.filename = filename;
+        uploadEntity.state = state;
+        uploadEntity.createdOn = createdOn;
+        return new StoredUpload(uploadEntity, sizeOnDisk);
+    }
+}
@@ -29,6 +29,9 @@ import org.sagebionetworks.researchstack.backbone.storage.database.TaskNotificat
 import org.sagebionetworks.researchstack.backbone.task.Task;
 import org.sagebionetworks.bridge.android.BridgeConfig;
 import org.sagebionetworks.bridge.android.manager.BridgeManagerProvider;
+import org.sagebionetworks.bridge.android.manager.UploadManager;
+import org.sagebionetworks.bridge.android.manager.upload.ArchiveSplitter;
+import org.sagebionetworks.bridge.android.manager.upload.UploadPriority;
 import org.sagebionetworks.bridge.data.Archive;
 import org.sagebionetworks.bridge.data.ArchiveFile;
 import org.sagebionetworks.bridge.data.JsonArchiveFile;
@@ -48,6 +51,8 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
 
+import rx.Completable;
+import rx.Observable;
 import rx.Single;
 import rx.android.schedulers.AndroidSchedulers;
 import rx.schedulers.Schedulers;
@@ -220,7 +225,8 @@ public class TaskHelper {
                                      @Nullable JsonArchiveFile metadataFile,
                                      @NonNull TaskResult taskResult) {
 
-        uploadTaskResult(metadataFile, taskResult, archiveFactory.forActivity(schemaId));
+        uploadTaskResultFromFactory(metadataFile, taskResult,
+                () -> archiveFactory.forActivity(schemaId), null);
     }
 
     /**
@@ -235,8 +241,8 @@ public class TaskHelper {
                                      @Nullable JsonArchiveFile metadataFile,
                                      @NonNull TaskResult taskResult) {
 
-        uploadTaskResult(metadataFile, taskResult,
-                archiveFactory.forActivity(schemaId, schemaRevisionId));
+        uploadTaskResultFromFactory(metadataFile, taskResult,
+                () -> archiveFactory.forActivity(schemaId, schemaRevisionId), null);
     }
 
     /**
@@ -257,8 +263,10 @@ public class TaskHelper {
 
         // Upload only if we have a surveyGuid/CreatedOn. Otherwise, the Archive library crashes.
         if (!Strings.isNullOrEmpty(surveyGuid) && surveyCreatedOn != null) {
-            uploadTaskResult(metadataFile, taskResult,
-                    archiveFactory.forSurvey(surveyGuid, surveyCreatedOn));
+            // survey answers are small and time-sensitive
+            uploadTaskResultFromFactory(metadataFile, taskResult,
+                    () -> archiveFactory.forSurvey(surveyGuid, surveyCreatedOn),
+                    UploadPriority.HIGH);
         } else {
             logger.error("No surveyGuid/CreatedOn for task " + taskId +
                     ", falling back to task ID as schema ID");
@@ -266,33 +274,41 @@ public class TaskHelper {
         }
     }
 
+    /**
+     * Uploads the task result in one archive, or split across archives if
+     * {@link BridgeConfig#getUploadArchiveSplitBytes()} is set and
+     * {@link #supportsArchiveSplitting()}.
+     *
+     * @param priority priority of the upload, or null to choose it from the archive size
+     */
+    private void uploadTaskResultFromFactory(@Nullable JsonArchiveFile metadataFile,
+                                             TaskResult taskResult,
+                                             ArchiveSplitter.ArchiveBuilderFactory builderFactory,
+                                             @Nullable UploadPriority priority) {
+        long maxPartBytes = bridgeManagerProvider.getBridgeConfig().getUploadArchiveSplitBytes();
+        if (maxPartBytes > 0 && supportsArchiveSplitting()) {
+            uploadTaskResultInParts(metadataFile, taskResult, builderFactory, maxPartBytes,
+                    priority);
+        } else {
+            if (maxPartBytes > 0) {
+                logger.warn("{} does not support archive splitting, uploading task result "
+                        + "without splitting", getClass().getName());
+            }
+            uploadTaskResult(metadataFile, taskResult, builderFactory.newBuilder(), priority);
+        }
+    }
+
     //package private for test access
     @SuppressLint("RxLeakedSubscription") // upload should run as long as it needs to, no early unsubscribe
     void uploadTaskResult(@Nullable JsonArchiveFile metadataFile,
-                          TaskResult taskResult, Archive.Builder builder) {
+                          TaskResult taskResult, Archive.Builder builder,
+                          @Nullable UploadPriority priority) {
     
-        BridgeConfig config = bridgeManagerProvider.getBridgeConfig();
-        String appVersionString = String.format(Locale.ENGLISH, "version %s, build %d",
-                config.getAppVersionName(),
-                config.getAppVersion());
-        
-        builder.withAppVersionName(appVersionString)
-                .withPhoneInfo(config.getDeviceName());
+        withAppInfo(builder);
 
         final String taskId = taskResult.getIdentifier();
 
-        // Update/Create TaskNotificationService
-        if (appPrefs.isTaskReminderEnabled()) {
-            logger.info("SampleDataProvider", "uploadTaskResult() _ isTaskReminderEnabled() = true");
-
-            String chronTime = findChronTime(taskId);
-
-            // If chronTime is null then either the task is not repeating OR its not found within
-            // the task_and_schedules.xml
-            if (chronTime != null) {
-                scheduleReminderNotification(taskResult.getEndDate(), chronTime);
-            }
-        }
+        updateTaskReminder(taskResult);
 
         // Add metadata file if it exists
         if (metadataFile != null) {
@@ -306,7 +322,7 @@ public class TaskHelper {
         String archiveFilename = taskId + "_" + UUID.randomUUID().toString() + ".zip";
 
         bridgeManagerProvider.getUploadManager()
-                .queueUpload(archiveFilename, builder.build())
+                .queueUpload(archiveFilename, builder.build(), priority)
                 .doOnSuccess(uploadFile -> {
                     logger.debug("Attempting upload in io() thread");
                     bridgeManagerProvider.getUploadManager()
@@ -328,6 +344,94 @@ public class TaskHelper {
                 }, t -> logger.warn("Failed to queue upload", t));
     }
 
+    /**
+     * Uploads the task result split across archives of at most maxPartBytes of data files. Each
+     * part is queued and uploaded on its own, onUploadSuccess is called once all parts succeed.
+     */
+    @SuppressLint("RxLeakedSubscription") // upload should run as long as it needs to, no early unsubscribe
+    void uploadTaskResultInParts(@Nullable JsonArchiveFile metadataFile, TaskResult taskResult,
+                                 ArchiveSplitter.ArchiveBuilderFactory builderFactory,
+                                 long maxPartBytes, @Nullable UploadPriority priority) {
+        final String taskId = taskResult.getIdentifier();
+
+        updateTaskReminder(taskResult);
+
+        List<Result> results = flattenResults(taskResult);
+        List<ArchiveFile> archiveFiles = createArchiveFiles(results, taskId);
+
+        String archiveFilename = taskId + "_" + UUID.randomUUID().toString() + ".zip";
+        UploadManager uploadManager = bridgeManagerProvider.getUploadManager();
+
+        Single.fromCallable(() -> new ArchiveSplitter(maxPartBytes).split(archiveFilename,
+                () -> withAppInfo(builderFactory.newBuilder()), archiveFiles, metadataFile))
+                .subscribeOn(Schedulers.io())
+                .flatMapObservable(parts -> Observable.from(parts))
+                .concatMap(part -> uploadManager.queueUpload(part.getFilename(), part.getContents(),
+                        priority).toObservable())
+                .toList()
+                .toSingle()
+                .doOnSuccess(uploadFiles -> {
+                    logger.debug("Attempting upload of {} parts in io() thread", uploadFiles.size());
+                    // a failed part does not stop the others
+                    Completable.mergeDelayError(Observable.from(uploadFiles)
+                            .map(uploadManager::processUploadFile))
+                            .subscribeOn(Schedulers.io())
+                            .observeOn(AndroidSchedulers.mainThread())
+                            .subscribe(() -> {
+                                logger.debug("processUploadFile success for all parts");
+                                onUploadSuccess(taskId);
+                            }, throwable -> {
+                                logger.warn("processUploadFile failed", throwable);
+                            });
+                })
+                .toCompletable()
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(() -> {
+                    logger.debug("Successfully queued upload parts");
+                    removeDataLoggerFiles(results, taskId);
+                }, t -> logger.warn("Failed to queue upload parts", t));
+    }
+
+    /**
+     * Splitting builds parts from createArchiveFiles, bypassing addFiles. A sub-class that
+     * overrides addFiles would lose its files, so sub-classes opt in by overriding this, once
+     * createArchiveFiles returns the files addFiles adds.
+     * @return true if task results can be split across archives, true for TaskHelper itself and
+     * false for sub-classes unless overridden
+     */
+    protected boolean supportsArchiveSplitting() {
+        return getClass() == TaskHelper.class;
+    }
+
+    @NonNull
+    private Archive.Builder withAppInfo(@NonNull Archive.Builder builder) {
+        BridgeConfig config = bridgeManagerProvider.getBridgeConfig();
+        String appVersionString = String.format(Locale.ENGLISH, "version %s, build %d",
+                config.getAppVersionName(),
+                config.getAppVersion());
+
+        builder.withAppVersionName(appVersionString)
+                .withPhoneInfo(config.getDeviceName());
+        return builder;
+    }
+
+    private void updateTaskReminder(TaskResult taskResult) {
+        final String taskId = taskResult.getIdentifier();
+
+        // Update/Create TaskNotificationService
+        if (appPrefs.isTaskReminderEnabled()) {
+            logger.info("SampleDataProvider", "uploadTaskResult() _ isTaskReminderEnabled() = true");
+
+            String chronTime = findChronTime(taskId);
+
+            // If chronTime is null then either the task is not repeating OR its not found within
+            // the task_and_schedules.xml
+            if (chronTime != null) {
+                scheduleReminderNotification(taskResult.getEndDate(), chronTime);
+            }
+        }
+    }
+
     /**
      * Remove any data logger files that needed to stick around until the archive is created
      * @param resultList List of results that could contain data logger FileResults
@@ -357,14 +461,29 @@ public class TaskHelper {
      * @param taskResultId the identifier of the task result
      */
     protected void addFiles(Archive.Builder archiveBuilder, List<Result> flattenedResultList, String taskResultId) {
+        for (ArchiveFile archiveFile : createArchiveFiles(flattenedResultList, taskResultId)) {
+            archiveBuilder.addDataFile(archiveFile);
+        }
+    }
+
+    /**
+     * Can be overridden by sub-class for custom data archiving. Used by addFiles, and directly when
+     * a task result is split across archives, see {@link #supportsArchiveSplitting()}.
+     * @param flattenedResultList convert these to archive files
+     * @param taskResultId the identifier of the task result
+     * @return archive files for the results
+     */
+    protected List<ArchiveFile> createArchiveFiles(List<Result> flattenedResultList, String taskResultId) {
+        List<ArchiveFile> archiveFiles = new ArrayList<>();
         for (Result result : flattenedResultList) {
             ArchiveFile archiveFile = archiveFileFactory.fromResult(result);
             if (archiveFile != null) {
-                archiveBuilder.addDataFile(archiveFile);
+                archiveFiles.add(archiveFile);
             } else {
                 logger.error("Failed to convert Result to BridgeDataInput " + result.toString());
             }
         }
+        return archiveFiles;
     }
 
     private void scheduleReminderNotification(Date endDate, String chronTime) {
@@ -4,6 +4,7 @@ import android.content.Context;
 import android.content.Intent;
 
 import com.google.common.collect.Maps;
+import com.google.common.io.ByteSource;
 
 import org.joda.time.DateTime;
 import org.junit.Before;
@@ -46,8 +47,11 @@ import org.sagebionetworks.bridge.android.BridgeConfig;
 import org.sagebionetworks.bridge.android.manager.BridgeManagerProvider;
 import org.sagebionetworks.bridge.android.manager.SurveyManager;
 import org.sagebionetworks.bridge.android.manager.UploadManager;
+import org.sagebionetworks.bridge.android.manager.upload.ArchiveContents;
+import org.sagebionetworks.bridge.android.manager.upload.UploadPriority;
 import org.sagebionetworks.bridge.data.Archive;
 import org.sagebionetworks.bridge.data.ArchiveFile;
+import org.sagebionetworks.bridge.data.ByteSourceArchiveFile;
 import org.sagebionetworks.bridge.researchstack.factory.ArchiveFactory;
 import org.sagebionetworks.bridge.researchstack.factory.ArchiveFileFactory;
 import org.sagebionetworks.bridge.researchstack.survey.SurveyTaskScheduleModel;
@@ -73,15 +77,18 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
 import static org.mockito.Matchers.same;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
@@ -263,7 +270,7 @@ public class TaskHelperTest {
 
         // Spy taskHelper.uploadTaskResult(). This is tested in the next test, so we don't need to
         // test it here.
-        doNothing().when(taskHelper).uploadTaskResult(any(), any(), any());
+        doNothing().when(taskHelper).uploadTaskResult(any(), any(), any(), any());
 
         // Execute
         TaskResult helperInput = new TaskResult(TASK_ID);
@@ -271,7 +278,8 @@ public class TaskHelperTest {
 
         // Verify backends
         verify(archiveFactory).forActivity(SCHEMA_ID);
-        verify(taskHelper).uploadTaskResult(any(), same(helperInput), same(factoryOutput));
+        verify(taskHelper).uploadTaskResult(any(), same(helperInput), same(factoryOutput),
+                isNull());
     }
 
     @Test
@@ -282,7 +290,7 @@ public class TaskHelperTest {
 
         // Spy taskHelper.uploadTaskResult(). This is tested in the next test, so we don't need to
         // test it here.
-        doNothing().when(taskHelper).uploadTaskResult(any(), any(), any());
+        doNothing().when(taskHelper).uploadTaskResult(any(), any(), any(), any());
 
         // Execute
         TaskResult helperInput = new TaskResult(TASK_ID);
@@ -290,7 +298,8 @@ public class TaskHelperTest {
 
         // Verify backends
         verify(archiveFactory).forActivity(SCHEMA_ID, SCHEMA_REV);
-        verify(taskHelper).uploadTaskResult(any(), same(helperInput), same(factoryOutput));
+        verify(taskHelper).uploadTaskResult(any(), same(helperInput), same(factoryOutput),
+                isNull());
     }
 
     @Test
@@ -305,7 +314,7 @@ public class TaskHelperTest {
 
         // Spy taskHelper.uploadTaskResult(). This is tested in the next test, so we don't need to
         // test it here.
-        doNothing().when(taskHelper).uploadTaskResult(any(), any(), any());
+        doNothing().when(taskHelper).uploadTaskResult(any(), any(), any(), any());
 
         // Execute
         TaskResult helperInput = new TaskResult(SURVEY_IDENTIFIER);
@@ -313,7 +322,8 @@ public class TaskHelperTest {
 
         // Verify backends
         verify(archiveFactory).forSurvey(SURVEY_GUID, SURVEY_CREATED_ON);
-        verify(taskHelper).uploadTaskResult(any(), same(helperInput), same(factoryOutput));
+        verify(taskHelper).uploadTaskResult(any(), same(helperInput), same(factoryOutput),
+                eq(UploadPriority.HIGH));
     }
 
     @Test
@@ -328,7 +338,7 @@ public class TaskHelperTest {
 
         // Spy taskHelper.uploadTaskResult(). This is tested in the next test, so we don't need to
         // test it here.
-        doNothing().when(taskHelper).uploadTaskResult(any(), any(), any());
+        doNothing().when(taskHelper).uploadTaskResult(any(), any(), any(), any());
 
         // Execute
         TaskResult helperInput = new TaskResult(SURVEY_IDENTIFIER);
@@ -336,7 +346,8 @@ public class TaskHelperTest {
 
         // Verify backends
         verify(archiveFactory).forActivity(SURVEY_IDENTIFIER);
-        verify(taskHelper).uploadTaskResult(any(), same(helperInput), same(factoryOutput));
+        verify(taskHelper).uploadTaskResult(any(), same(helperInput), same(factoryOutput),
+                isNull());
     }
 
     @Test
@@ -351,7 +362,7 @@ public class TaskHelperTest {
 
         // Spy taskHelper.uploadTaskResult(). This is tested in the next test, so we don't need to
         // test it here.
-        doNothing().when(taskHelper).uploadTaskResult(any(), any(), any());
+        doNothing().when(taskHelper).uploadTaskResult(any(), any(), any(), any());
 
         // Execute
         TaskResult helperInput = new TaskResult(SURVEY_IDENTIFIER);
@@ -359,7 +370,8 @@ public class TaskHelperTest {
 
         // Verify backends
         verify(archiveFactory).forActivity(SURVEY_IDENTIFIER);
-        verify(taskHelper).uploadTaskResult(any(), same(helperInput), same(factoryOutput));
+        verify(taskHelper).uploadTaskResult(any(), same(helperInput), same(factoryOutput),
+                isNull());
     }
 
     @Test
@@ -410,7 +422,7 @@ public class TaskHelperTest {
         ArgumentCaptor<TaskNotification> taskNotificationCaptor = ArgumentCaptor
                 .forClass(TaskNotification.class);
 
-        when(uploadManager.queueUpload(any(), eq(archive)))
+        when(uploadManager.queueUpload(any(), eq(archive), isNull()))
                 .thenReturn(Single.just(new UploadManager.UploadFile()));
         when(uploadManager.processUploadFile(any())).thenReturn(Completable.complete());
 
@@ -418,7 +430,7 @@ public class TaskHelperTest {
         mockStatic(TaskAlertReceiver.class);
         when(TaskAlertReceiver.createCreateIntent(any())).thenReturn(notificationCreateIntent);
 
-        taskHelper.uploadTaskResult(null, taskResult, archiveBuilder);
+        taskHelper.uploadTaskResult(null, taskResult, archiveBuilder, null);
 
         verify(archiveFileFactory).fromResult(result1);
         verify(archiveFileFactory).fromResult(result2);
@@ -426,7 +438,7 @@ public class TaskHelperTest {
         verify(archiveBuilder).withPhoneInfo(phoneInfo);
         verify(archiveBuilder).withAppVersionName(archiveAppVersion);
 
-        verify(uploadManager).queueUpload(any(), eq(archive));
+        verify(uploadManager).queueUpload(any(), eq(archive), isNull());
         verify(uploadManager).processUploadFile(any());
 
         verify(notificationHelper).saveTaskNotification(taskNotificationCaptor.capture());
@@ -438,6 +450,121 @@ public class TaskHelperTest {
         assertEquals(taskChron, taskNotification.chronTime);
     }
 
+    @Test
+    public void testUploadTaskResult_SplitAcrossArchives() {
+        String taskId = "taskId";
+
+        Map<String, StepResult> stepResults = Maps.newHashMap();
+
+        StepResult result1 = mock(StepResult.class);
+        stepResults.put("step1", result1);
+        when(archiveFileFactory.fromResult(result1)).thenReturn(new ByteSourceArchiveFile(
+                "file1.bin", DateTime.now(), ByteSource.wrap(new byte[8])));
+
+        StepResult result2 = mock(StepResult.class);
+        stepResults.put("step2", result2);
+        when(archiveFileFactory.fromResult(result2)).thenReturn(new ByteSourceArchiveFile(
+                "file2.bin", DateTime.now(), ByteSource.wrap(new byte[8])));
+
+        TaskResult taskResult = mock(TaskResult.class);
+        when(taskResult.getIdentifier()).thenReturn(taskId);
+        when(taskResult.getResults()).thenReturn(stepResults);
+
+        when(bridgeConfig.getUploadArchiveSplitBytes()).thenReturn(10L);
+        // the spy is a sub-class
+        doReturn(true).when(taskHelper).supportsArchiveSplitting();
+        when(bridgeConfig.getAppVersionName()).thenReturn("1.0.5");
+        when(bridgeConfig.getAppVersion()).thenReturn(2);
+        when(bridgeConfig.getDeviceName()).thenReturn("Android");
+
+        // each part gets its own builder
+        when(archiveFactory.forActivity(SCHEMA_ID))
+                .thenAnswer(invocation -> Archive.Builder.forActivity(SCHEMA_ID));
+
+        mockStatic(AndroidSchedulers.class);
+        when(AndroidSchedulers.mainThread()).thenReturn(Schedulers.immediate());
+
+        when(uploadManager.queueUpload(any(), any(ArchiveContents.class), isNull()))
+                .thenReturn(Single.just(new UploadManager.UploadFile()));
+        when(uploadManager.processUploadFile(any())).thenReturn(Completable.complete());
+
+        taskHelper.uploadActivityResult(SCHEMA_ID, null, taskResult);
+
+        // parts are built on the io thread
+        ArgumentCaptor<String> filenameCaptor = ArgumentCaptor.forClass(String.class);
+        verify(uploadManager, timeout(5000).times(2)).queueUpload(filenameCaptor.capture(),
+                any(ArchiveContents.class), isNull());
+        verify(uploadManager, timeout(5000).times(2)).processUploadFile(any());
+        verify(taskHelper, timeout(5000)).onUploadSuccess(taskId);
+
+        List<String> filenames = filenameCaptor.getAllValues();
+        assertTrue(filenames.get(0).startsWith(taskId + "_"));
+        assertTrue(filenames.get(0).endsWith(".part1of2.zip"));
+        assertTrue(filenames.get(1).endsWith(".part2of2.zip"));
+        verify(taskHelper, never()).uploadTaskResult(any(), any(), any(), any());
+    }
+
+    @Test
+    public void testUploadTaskResult_SubClassIsNotSplitUnlessSupported() {
+        ArchiveFile customFile = mock(ArchiveFile.class);
+        TaskHelper addFilesHelper = new TaskHelper(storageAccess, resourceManager, appPrefs,
+                notificationHelper, bridgeManagerProvider) {
+            @Override
+            protected void addFiles(Archive.Builder archiveBuilder, List<Result> flattenedResultList,
+                                    String taskResultId) {
+                archiveBuilder.addDataFile(customFile);
+            }
+        };
+        addFilesHelper.setArchiveFactory(archiveFactory);
+        addFilesHelper.setArchiveFileFactory(archiveFileFactory);
+
+        TaskResult taskResult = mock(TaskResult.class);
+        when(taskResult.getIdentifier()).thenReturn(TASK_ID);
+        when(taskResult.getResults()).thenReturn(Maps.newHashMap());
+
+        when(bridgeConfig.getUploadArchiveSplitBytes()).thenReturn(10L);
+
+        Archive archive = mock(Archive.class);
+        Archive.Builder archiveBuilder = mock(Archive.Builder.class);
+        when(archiveBuilder.withAppVersionName(any())).thenReturn(archiveBuilder);
+        when(archiveBuilder.withPhoneInfo(any())).thenReturn(archiveBuilder);
+        when(archiveBuilder.build()).thenReturn(archive);
+        when(archiveFactory.forActivity(SCHEMA_ID)).thenReturn(archiveBuilder);
+
+        mockStatic(AndroidSchedulers.class);
+        when(AndroidSchedulers.mainThread()).thenReturn(Schedulers.immediate());
+
+        when(uploadManager.queueUpload(any(), eq(archive), isNull()))
+                .thenReturn(Single.just(new UploadManager.UploadFile()));
+        when(uploadManager.processUploadFile(any())).thenReturn(Completable.complete());
+
+        addFilesHelper.uploadActivityResult(SCHEMA_ID, null, taskResult);
+
+        // uploaded as one archive, with the files of the override
+        verify(archiveFactory).forActivity(SCHEMA_ID);
+        verify(archiveBuilder).addDataFile(customFile);
+        verify(uploadManager).queueUpload(any(), eq(archive), isNull());
+    }
+
+    @Test
+    public void supportsArchiveSplitting() {
+        assertTrue(new TaskHelper(storageAccess, resourceManager, appPrefs, notificationHelper,
+                bridgeManagerProvider).supportsArchiveSplitting());
+
+        // sub-classes may override addFiles
+        assertFalse(new TaskHelper(storageAccess, resourceManager, appPrefs, notificationHelper,
+                bridgeManagerProvider) {
+        }.supportsArchiveSplitting());
+
+        assertTrue(new TaskHelper(storageAccess, resourceManager, appPrefs, notificationHelper,
+                bridgeManagerProvider) {
+            @Override
+            protected boolean supportsArchiveSplitting() {
+                return true;
+            }
+        }.supportsArchiveSplitting());
+    }
+
     @Test
     public void testFlattenMapForAudioTaskResult() {
         TaskResult taskResult = TaskHelperTest.audioTaskResult();
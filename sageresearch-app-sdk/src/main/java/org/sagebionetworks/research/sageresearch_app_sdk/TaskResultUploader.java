@@ -46,8 +46,10 @@ import com.google.common.collect.ImmutableList;
 import org.sagebionetworks.bridge.android.BridgeConfig;
 import org.sagebionetworks.bridge.android.manager.AuthenticationManager;
 import org.sagebionetworks.bridge.android.manager.UploadManager;
+import org.sagebionetworks.bridge.android.manager.upload.ArchiveSplitter;
 import org.sagebionetworks.bridge.android.manager.upload.ArchiveUtil;
 import org.sagebionetworks.bridge.android.manager.upload.SchemaKey;
+import org.sagebionetworks.bridge.android.manager.upload.UploadBundler;
 import org.sagebionetworks.bridge.data.Archive;
 import org.sagebionetworks.bridge.data.Archive.Builder;
 import org.sagebionetworks.bridge.data.ArchiveFile;
@@ -65,6 +67,7 @@ import org.sagebionetworks.research.sageresearch_app_sdk.archive.AbstractResultA
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
 import java.util.Locale;
 
 import javax.inject.Inject;
@@ -81,6 +84,8 @@ public class TaskResultUploader implements TaskResultProcessor {
 
     private final UploadManager uploadManager;
 
+    private final UploadBundler uploadBundler;
+
     private final AuthenticationManager authManager;
 
     private final ScheduleRepository scheduleRepo;
@@ -90,10 +95,12 @@ public class TaskResultUploader implements TaskResultProcessor {
             @NonNull final AbstractResultArchiveFactory abstractResultArchiveFactory,
             @NonNull final UploadManager uploadManager,
             @NonNull final AuthenticationManager authManager,
-            @NonNull final ScheduleRepository scheduleRepo) {
+            @NonNull final ScheduleRepository scheduleRepo,
+            @NonNull final UploadBundler uploadBundler) {
         this.bridgeConfig = checkNotNull(bridgeConfig);
         this.abstractResultArchiveFactory = checkNotNull(abstractResultArchiveFactory);
         this.uploadManager = checkNotNull(uploadManager);
+        this.uploadBundler = checkNotNull(uploadBundler);
         this.scheduleRepo = checkNotNull(scheduleRepo);
         this.authManager = checkNotNull(authManager);
     }
@@ -111,6 +118,32 @@ public class TaskResultUploader implements TaskResultProcessor {
 
         String archiveFilename = schemaKey.getId() + schemaKey.getRevision() + taskResult.getTaskUUID();
 
+        if (uploadBundler.isEnabled()) {
+            final SchemaKey bundleSchemaKey = schemaKey;
+            // small results wait to be uploaded together, others are uploaded on their own
+            return bundleFilesSingle(taskResult)
+                    .flatMapCompletable(dataFiles -> uploadBundler.canBundle(dataFiles)
+                            ? toV2Completable(uploadBundler.add(archiveFilename, bundleSchemaKey, dataFiles))
+                            : uploadTaskResult(bundleSchemaKey, taskResult, archiveFilename));
+        }
+
+        return uploadTaskResult(schemaKey, taskResult, archiveFilename);
+    }
+
+    @NonNull
+    private Completable uploadTaskResult(@NonNull SchemaKey schemaKey, @NonNull TaskResult taskResult,
+            @NonNull String archiveFilename) {
+        long maxPartBytes = bridgeConfig.getUploadArchiveSplitBytes();
+        if (maxPartBytes > 0) {
+            return archivePartsSingle(schemaKey, taskResult, archiveFilename, maxPartBytes)
+                    .flattenAsObservable(parts -> parts)
+                    .concatMap(part -> toV2Single(uploadManager.queueUpload(part.getFilename(), part.getContents()))
+                            .toObservable())
+                    // parts upload independently, a failed part does not stop the others
+                    .flatMapCompletable(uploadFile -> toV2Completable(uploadManager.processUploadFile(uploadFile)),
+                            true);
+        }
+
         return archiveSingle(schemaKey, taskResult)
                 .flatMap(archive -> toV2Single(uploadManager.queueUpload(archiveFilename, archive)))
                 .flatMapCompletable(uploadFile -> toV2Completable(uploadManager.processUploadFile(uploadFile)));
@@ -132,13 +165,7 @@ public class TaskResultUploader implements TaskResultProcessor {
         Single<JsonArchiveFile> metadataSingle = metadataSingle(taskResult);
 
         Single<Archive.Builder> builderSingle = Single.fromCallable(() -> {
-            Archive.Builder builder = Archive.Builder.forActivity(schemaKey.getId(), schemaKey.getRevision());
-            String appVersionString = String.format(Locale.ENGLISH, "version %s, build %d",
-                    bridgeConfig.getAppVersionName(),
-                    bridgeConfig.getAppVersion());
-
-            builder.withAppVersionName(appVersionString)
-                    .withPhoneInfo(bridgeConfig.getDeviceName());
+            Archive.Builder builder = newArchiveBuilder(schemaKey);
             for (ArchiveFile resultArchiveFile : abstractResultArchiveFactory.toArchiveFiles(taskResult)) {
                 builder.addDataFile(resultArchiveFile);
             }
@@ -153,6 +180,61 @@ public class TaskResultUploader implements TaskResultProcessor {
                 .map(Builder::build);
     }
 
+    /**
+     * Collects the files of a TaskResult, with its metadata file, to be held in a bundle.
+     *
+     * @param taskResult
+     *         for the task, used to find the associated schedule.
+     * @return a single that, when invoked, will return the files for a task result
+     */
+    @NonNull
+    @VisibleForTesting
+    Single<List<ArchiveFile>> bundleFilesSingle(@NonNull TaskResult taskResult) {
+        return metadataSingle(taskResult)
+                .map(metadataFile -> {
+                    ImmutableList.Builder<ArchiveFile> dataFiles = ImmutableList.builder();
+                    dataFiles.addAll(abstractResultArchiveFactory.toArchiveFiles(taskResult));
+                    dataFiles.add(metadataFile);
+                    return dataFiles.build();
+                });
+    }
+
+    /**
+     * Builds archives from the TaskResult and schema, splitting the result's files across archives
+     * of a bounded size. Each archive includes the metadata file.
+     *
+     * @param schemaKey
+     *         schema for the task associated with the TaskResult
+     * @param taskResult
+     *         for the task, used to find the associated schedule.
+     * @param archiveFilename
+     *         filename of the archive if the result is not split
+     * @param maxPartBytes
+     *         maximum uncompressed size of the result files in one archive
+     * @return a single that, when invoked, will return the archives for a task result
+     */
+    @NonNull
+    @VisibleForTesting
+    Single<List<ArchiveSplitter.Part>> archivePartsSingle(@NonNull SchemaKey schemaKey,
+            @NonNull TaskResult taskResult, @NonNull String archiveFilename, long maxPartBytes) {
+        return metadataSingle(taskResult)
+                .map(metadataFile -> new ArchiveSplitter(maxPartBytes).split(archiveFilename,
+                        () -> newArchiveBuilder(schemaKey),
+                        ImmutableList.copyOf(abstractResultArchiveFactory.toArchiveFiles(taskResult)),
+                        metadataFile));
+    }
+
+    @NonNull
+    private Archive.Builder newArchiveBuilder(@NonNull SchemaKey schemaKey) {
+        Archive.Builder builder = Archive.Builder.forActivity(schemaKey.getId(), schemaKey.getRevision());
+        String appVersionString = String.format(Locale.ENGLISH, "version %s, build %d",
+                bridgeConfig.getAppVersionName(),
+                bridgeConfig.getAppVersion());
+
+        return builder.withAppVersionName(appVersionString)
+                .withPhoneInfo(bridgeConfig.getDeviceName());
+    }
+
     /**
      * Builds a JSON metadata file for a TaskResult
      *
@@ -38,10 +38,13 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.google.common.collect.ImmutableList;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
@@ -50,16 +53,22 @@ import org.sagebionetworks.bridge.android.BridgeConfig;
 import org.sagebionetworks.bridge.android.manager.AuthenticationManager;
 import org.sagebionetworks.bridge.android.manager.UploadManager;
 import org.sagebionetworks.bridge.android.manager.UploadManager.UploadFile;
+import org.sagebionetworks.bridge.android.manager.upload.ArchiveContents;
+import org.sagebionetworks.bridge.android.manager.upload.ArchiveSplitter;
 import org.sagebionetworks.bridge.android.manager.upload.SchemaKey;
+import org.sagebionetworks.bridge.android.manager.upload.UploadBundler;
 import org.sagebionetworks.bridge.data.Archive;
+import org.sagebionetworks.bridge.data.ArchiveFile;
 import org.sagebionetworks.bridge.rest.model.ScheduledActivity;
 import org.sagebionetworks.research.domain.result.interfaces.TaskResult;
 import org.sagebionetworks.research.sageresearch.dao.room.ScheduleRepository;
 import org.sagebionetworks.research.sageresearch_app_sdk.archive.AbstractResultArchiveFactory;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import io.reactivex.Single;
 
@@ -80,6 +89,9 @@ public class TaskResultUploaderTest {
     @Mock
     ScheduleRepository scheduleRepo;
 
+    @Mock
+    UploadBundler uploadBundler;
+
     TaskResultUploader taskResultUploader;
 
     @Before
@@ -87,7 +99,7 @@ public class TaskResultUploaderTest {
         MockitoAnnotations.initMocks(this);
 
         taskResultUploader = new TaskResultUploader(bridgeConfig, abstractResultArchiveFactory, uploadManager,
-                authManager, scheduleRepo);
+                authManager, scheduleRepo, uploadBundler);
     }
 
     @Test
@@ -125,6 +137,117 @@ public class TaskResultUploaderTest {
         verify(uploadManager).processUploadFile(uploadFile);
     }
 
+    @Test
+    public void processTaskResult_Bundled() {
+        TaskResultUploader spyTaskResultUploader = spy(taskResultUploader);
+
+        String taskIdentifier = "taskId";
+        UUID taskUUID = UUID.randomUUID();
+
+        TaskResult taskResult = mock(TaskResult.class);
+        when(taskResult.getIdentifier()).thenReturn(taskIdentifier);
+        when(taskResult.getTaskUUID()).thenReturn(taskUUID);
+
+        SchemaKey schemaKey = new SchemaKey(taskIdentifier, 4);
+        Map<String, SchemaKey> taskToSchema = new HashMap<>();
+        taskToSchema.put(taskIdentifier, schemaKey);
+        when(bridgeConfig.getTaskToSchemaMap()).thenReturn(taskToSchema);
+
+        List<ArchiveFile> dataFiles = ImmutableList.of(mock(ArchiveFile.class));
+        doReturn(Single.just(dataFiles)).when(spyTaskResultUploader).bundleFilesSingle(taskResult);
+
+        when(uploadBundler.isEnabled()).thenReturn(true);
+        when(uploadBundler.canBundle(dataFiles)).thenReturn(true);
+        when(uploadBundler.add(any(), eq(schemaKey), eq(dataFiles))).thenReturn(rx.Completable.complete());
+
+        spyTaskResultUploader.processTaskResult(taskResult).blockingAwait();
+
+        verify(uploadBundler).add(taskIdentifier + 4 + taskUUID, schemaKey, dataFiles);
+        verify(uploadManager, never()).queueUpload(any(), any(Archive.class));
+    }
+
+    @Test
+    public void processTaskResult_TooLargeToBundle() {
+        TaskResultUploader spyTaskResultUploader = spy(taskResultUploader);
+
+        String taskIdentifier = "taskId";
+        UUID taskUUID = UUID.randomUUID();
+
+        TaskResult taskResult = mock(TaskResult.class);
+        when(taskResult.getIdentifier()).thenReturn(taskIdentifier);
+        when(taskResult.getTaskUUID()).thenReturn(taskUUID);
+
+        SchemaKey schemaKey = new SchemaKey(taskIdentifier, 4);
+        Map<String, SchemaKey> taskToSchema = new HashMap<>();
+        taskToSchema.put(taskIdentifier, schemaKey);
+        when(bridgeConfig.getTaskToSchemaMap()).thenReturn(taskToSchema);
+
+        List<ArchiveFile> dataFiles = ImmutableList.of(mock(ArchiveFile.class));
+        doReturn(Single.just(dataFiles)).when(spyTaskResultUploader).bundleFilesSingle(taskResult);
+        when(uploadBundler.isEnabled()).thenReturn(true);
+        when(uploadBundler.canBundle(dataFiles)).thenReturn(false);
+
+        Archive archive = mock(Archive.class);
+        UploadFile uploadFile = mock(UploadFile.class);
+        when(uploadManager.queueUpload(any(), eq(archive))).thenReturn(rx.Single.just(uploadFile));
+        when(uploadManager.processUploadFile(uploadFile)).thenReturn(rx.Completable.complete());
+        doReturn(Single.just(archive)).when(spyTaskResultUploader).archiveSingle(schemaKey, taskResult);
+
+        spyTaskResultUploader.processTaskResult(taskResult).blockingAwait();
+
+        verify(uploadBundler, never()).add(any(), any(), any());
+        verify(uploadManager).processUploadFile(uploadFile);
+    }
+
+    @Test
+    public void processTaskResult_SplitAcrossArchives() {
+        TaskResultUploader spyTaskResultUploader = spy(taskResultUploader);
+
+        String taskIdentifier = "taskId";
+        UUID taskUUID = UUID.randomUUID();
+
+        TaskResult taskResult = mock(TaskResult.class);
+        when(taskResult.getIdentifier()).thenReturn(taskIdentifier);
+        when(taskResult.getTaskUUID()).thenReturn(taskUUID);
+
+        SchemaKey schemaKey = new SchemaKey(taskIdentifier, 4);
+        Map<String, SchemaKey> taskToSchema = new HashMap<>();
+        taskToSchema.put(taskIdentifier, schemaKey);
+        when(bridgeConfig.getTaskToSchemaMap()).thenReturn(taskToSchema);
+        when(bridgeConfig.getUploadArchiveSplitBytes()).thenReturn(10L);
+
+        String archiveFilename = taskIdentifier + 4 + taskUUID;
+        ArchiveContents contents1 = mock(ArchiveContents.class);
+        ArchiveSplitter.Part part1 = mock(ArchiveSplitter.Part.class);
+        when(part1.getFilename()).thenReturn(archiveFilename + ".part1of2");
+        when(part1.getContents()).thenReturn(contents1);
+        ArchiveContents contents2 = mock(ArchiveContents.class);
+        ArchiveSplitter.Part part2 = mock(ArchiveSplitter.Part.class);
+        when(part2.getFilename()).thenReturn(archiveFilename + ".part2of2");
+        when(part2.getContents()).thenReturn(contents2);
+        doReturn(Single.just(ImmutableList.of(part1, part2))).when(spyTaskResultUploader)
+                .archivePartsSingle(schemaKey, taskResult, archiveFilename, 10L);
+
+        UploadFile uploadFile1 = mock(UploadFile.class);
+        when(uploadManager.queueUpload(archiveFilename + ".part1of2", contents1))
+                .thenReturn(rx.Single.just(uploadFile1));
+        when(uploadManager.processUploadFile(uploadFile1))
+                .thenReturn(rx.Completable.error(new RuntimeException("part 1 failed")));
+        UploadFile uploadFile2 = mock(UploadFile.class);
+        when(uploadManager.queueUpload(archiveFilename + ".part2of2", contents2))
+                .thenReturn(rx.Single.just(uploadFile2));
+        when(uploadManager.processUploadFile(uploadFile2)).thenReturn(rx.Completable.complete());
+
+        spyTaskResultUploader.processTaskResult(taskResult).test()
+                .awaitDone(5, TimeUnit.SECONDS)
+                .assertError(RuntimeException.class);
+
+        // a failed part does not stop the others
+        verify(uploadManager).processUploadFile(uploadFile1);
+        verify(uploadManager).processUploadFile(uploadFile2);
+        verify(spyTaskResultUploader, never()).archiveSingle(any(), any());
+    }
+
     @Test
     public void testCreateScheduledActivityForMetadata_NullScheduledActivityEntity() {
         String taskIdentifier = "taskIdentifier";